@@ -0,0 +1,270 @@
+package tides;
+
+import java.io.*;
+import java.lang.foreign.*;
+import java.lang.management.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class floods a tiled terrain with several worker processes on the
+ * local machine, for terrains too large for a single heap.
+ *
+ * The terrain is cut into horizontal strips, one per worker (see
+ * StripWorker). All workers map the same tile file and the same flood mask
+ * file, one byte per cell, so nothing but short commands ever goes through
+ * the pipes. Flooding runs in rounds: every worker floods its strip from the
+ * water it can see, including the rows just outside its strip, and reports
+ * whether its own edge rows changed. Once a round passes with no edge row
+ * changing, no strip can gain any more water and the mask is exactly what
+ * floodedRegionsIn would give.
+ *
+ * Each worker then labels the islands of its own strip. The coordinator
+ * joins islands that touch across strip edges (8-connected, as usual) with a
+ * union-find over the labels of the edge rows, and adds up the land.
+ *
+ * Usage: java --enable-preview tides.PartitionedFlood file.terrain height workers
+ */
+public class PartitionedFlood {
+
+    /* The result of a partitioned flood. */
+    public static final class Result {
+        public final int rows;
+        public final int cols;
+        public final long land;
+        public final int islands;
+        public final int rounds;
+
+        /* One byte per cell, row-major: 1 for flooded, 0 for dry. */
+        public final File maskFile;
+
+        Result(int rows, int cols, long land, int islands, int rounds, File maskFile) {
+            this.rows = rows;
+            this.cols = cols;
+            this.land = land;
+            this.islands = islands;
+            this.rounds = rounds;
+            this.maskFile = maskFile;
+        }
+
+        /**
+         * Maps the flood mask for reading.
+         *
+         * @param arena that owns the mapping
+         * @return SegmentFloodMask, the flooded cells
+         */
+        public SegmentFloodMask mask(Arena arena) throws IOException {
+            try (var channel = FileChannel.open(maskFile.toPath(), StandardOpenOption.READ)) {
+                MemorySegment cells = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+                return new SegmentFloodMask(rows, cols, cells);
+            }
+        }
+    }
+
+    /* One running worker process and its pipes. */
+    private static final class Worker {
+        final Process process;
+        final PrintWriter in;
+        final BufferedReader out;
+
+        Worker(Process process) {
+            this.process = process;
+            this.in = new PrintWriter(new BufferedWriter(new OutputStreamWriter(process.getOutputStream())));
+            this.out = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        }
+
+        void send(String command) {
+            in.println(command);
+            in.flush();
+        }
+
+        String receive() throws IOException {
+            String line = out.readLine();
+            if (line == null) {
+                throw new IOException("Worker process " + process.pid() + " exited unexpectedly.");
+            }
+            return line;
+        }
+    }
+
+    private PartitionedFlood() {
+    }
+
+    /**
+     * Floods a tiled terrain with worker processes.
+     *
+     * @param tiles the tiled terrain file (see TiledHeightGrid)
+     * @param height of the water
+     * @param numWorkers number of worker processes (and strips)
+     * @param maskFile where the flood mask is written
+     * @return Result, the land, the island count and the flood mask
+     */
+    public static Result flood(File tiles, double height, int numWorkers, File maskFile) throws IOException {
+        int rows, cols;
+        try (TiledHeightGrid grid = TiledHeightGrid.open(tiles)) {
+            if (grid == null) {
+                throw new IOException("Not a complete tiled terrain: " + tiles);
+            }
+            rows = grid.rows();
+            cols = grid.cols();
+        }
+        numWorkers = Math.max(1, Math.min(numWorkers, rows));
+
+        try (var mask = new RandomAccessFile(maskFile, "rw")) {
+            mask.setLength(0);
+            mask.setLength((long) rows * cols);
+        }
+
+        /* Strips of (nearly) equal height. */
+        int[] firstRows = new int[numWorkers + 1];
+        for (int i = 0; i <= numWorkers; i++) {
+            firstRows[i] = (int) ((long) rows * i / numWorkers);
+        }
+
+        var workers = new Worker[numWorkers];
+        try {
+            for (int i = 0; i < numWorkers; i++) {
+                workers[i] = start(tiles, maskFile, height, firstRows[i], firstRows[i + 1]);
+            }
+
+            /* Flood in rounds until no edge row changes. */
+            int rounds = 0;
+            boolean changed = true;
+            while (changed) {
+                rounds++;
+                for (Worker worker : workers) {
+                    worker.send("flood");
+                }
+                changed = false;
+                for (Worker worker : workers) {
+                    if (worker.receive().equals("changed 1")) changed = true;
+                }
+            }
+
+            /* Islands per strip, then joined across the strip edges. */
+            for (Worker worker : workers) {
+                worker.send("islands");
+            }
+            long land = 0;
+            int total = 0;
+            int[] base = new int[numWorkers];
+            int[][] topLabels = new int[numWorkers][];
+            int[][] bottomLabels = new int[numWorkers][];
+            for (int i = 0; i < numWorkers; i++) {
+                String[] summary = workers[i].receive().split(" ");
+                land += Long.parseLong(summary[1]);
+                base[i] = total;
+                total += Integer.parseInt(summary[2]);
+                topLabels[i] = parseLabels(workers[i].receive(), cols);
+                bottomLabels[i] = parseLabels(workers[i].receive(), cols);
+            }
+
+            int[] parent = new int[total + 1];
+            for (int l = 0; l <= total; l++) {
+                parent[l] = l;
+            }
+            int islands = total;
+            for (int i = 0; i + 1 < numWorkers; i++) {
+                int[] above = bottomLabels[i];
+                int[] below = topLabels[i + 1];
+                for (int c = 0; c < cols; c++) {
+                    if (above[c] == 0) continue;
+                    for (int nc = Math.max(0, c - 1); nc <= Math.min(cols - 1, c + 1); nc++) {
+                        if (below[nc] == 0) continue;
+                        if (union(parent, base[i] + above[c], base[i + 1] + below[nc])) islands--;
+                    }
+                }
+            }
+
+            for (Worker worker : workers) {
+                worker.send("quit");
+            }
+            return new Result(rows, cols, land, islands, rounds, maskFile);
+        } finally {
+            for (Worker worker : workers) {
+                if (worker == null) continue;
+                worker.in.close(); // end of input stops a worker that was not told to quit
+                try {
+                    if (!worker.process.waitFor(5, TimeUnit.SECONDS)) {
+                        worker.process.destroyForcibly();
+                    }
+                } catch (InterruptedException e) {
+                    worker.process.destroyForcibly();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /* Starts a worker JVM with the same class path and JVM options as this one. */
+    private static Worker start(File tiles, File maskFile, double height, int firstRow, int endRow)
+            throws IOException {
+        var command = new ArrayList<String>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(StripWorker.class.getName());
+        command.add(tiles.getAbsolutePath());
+        command.add(maskFile.getAbsolutePath());
+        command.add(Double.toString(height));
+        command.add(Integer.toString(firstRow));
+        command.add(Integer.toString(endRow));
+
+        var builder = new ProcessBuilder(command);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        return new Worker(builder.start());
+    }
+
+    private static int[] parseLabels(String line, int cols) {
+        int[] labels = new int[cols];
+        var tokens = new StringTokenizer(line);
+        for (int c = 0; c < cols; c++) {
+            labels[c] = Integer.parseInt(tokens.nextToken());
+        }
+        return labels;
+    }
+
+    /* Union-find over labels with path halving; returns true if two sets merged. */
+    private static boolean union(int[] parent, int label1, int label2) {
+        int root1 = find(parent, label1);
+        int root2 = find(parent, label2);
+        if (root1 == root2) return false;
+        parent[root1] = root2;
+        return true;
+    }
+
+    private static int find(int[] parent, int label) {
+        while (parent[label] != label) {
+            parent[label] = parent[parent[label]];
+            label = parent[label];
+        }
+        return label;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: java tides.PartitionedFlood file.terrain height workers");
+            System.exit(1);
+        }
+
+        /* Make sure the terrain is converted to (or reopened as) a tile file. */
+        System.setProperty("tides.outOfCore", "true");
+        File terrainFile = new File(args[0]);
+        Terrain terrain = TerrainLoader.loadTerrain(terrainFile, null);
+
+        /* Remote terrains are tiled in the download cache, not next to the .terrain file. */
+        var grid = (TiledHeightGrid) terrain.grid;
+        File tiles = grid.file();
+        grid.close();
+        File maskFile = new File(tiles.getPath().replaceFirst("\\.tiles$", ".mask"));
+
+        long start = System.nanoTime();
+        Result result = flood(tiles, Double.parseDouble(args[1]), Integer.parseInt(args[2]), maskFile);
+        System.out.printf("%d cells of land, %d islands, %d rounds, %.1f ms%n", result.land, result.islands,
+                result.rounds, (System.nanoTime() - start) / 1e6);
+        System.out.println("Flood mask written to " + maskFile);
+    }
+}
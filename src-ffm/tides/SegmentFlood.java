@@ -0,0 +1,119 @@
+package tides;
+
+import java.lang.foreign.*;
+
+/**
+ * This class floods a SegmentHeightGrid into a SegmentFloodMask without any
+ * heap arrays. The BFS queue is itself a ring buffer in native memory that
+ * is freed as soon as the flood finishes.
+ *
+ * Only the frontier of the flood is ever in the queue, and it is usually a
+ * small fraction of the grid, so the ring starts at a few rows' worth of
+ * cells and doubles only when the frontier outgrows it. A queue sized for
+ * every cell would take 8 bytes per cell, more than the heights themselves.
+ */
+public class SegmentFlood {
+    private SegmentFlood() {
+    }
+
+    // Offsets to the top, bottom, left and right neighbors
+    private static final int[] ROW_STEPS = { -1, 1, 0, 0 };
+    private static final int[] COL_STEPS = { 0, 0, -1, 1 };
+
+    /**
+     * Floods an off-heap terrain. Gives the same cells as floodedRegionsIn.
+     *
+     * @param grid heights of the terrain
+     * @param sources of water
+     * @param height of the water
+     * @param mask cleared, then filled in with the flooded cells
+     */
+    public static void flood(SegmentHeightGrid grid, GridLocation[] sources, double height, SegmentFloodMask mask) {
+        int rows = grid.rows();
+        int cols = grid.cols();
+        mask.clear();
+
+        long cells = (long) rows * cols;
+        try (var queue = new CellRing(Math.min(cells, Math.max(1024, 4L * (rows + cols))))) {
+            for (GridLocation source : sources) {
+                if (!mask.isFlooded(source.row, source.col)) {
+                    mask.flood(source.row, source.col);
+                    queue.add((long) source.row * cols + source.col);
+                }
+            }
+
+            while (!queue.isEmpty()) {
+                long cell = queue.remove();
+                int r = (int) (cell / cols);
+                int c = (int) (cell - (long) r * cols);
+
+                for (int k = 0; k < 4; k++) {
+                    int nr = r + ROW_STEPS[k];
+                    int nc = c + COL_STEPS[k];
+                    if (nr < 0 || nr >= rows || nc < 0 || nc >= cols) continue;
+                    if (mask.isFlooded(nr, nc) || grid.get(nr, nc) > height) continue;
+                    mask.flood(nr, nc);
+                    queue.add((long) nr * cols + nc);
+                }
+            }
+        }
+    }
+
+    /*
+     * A first-in first-out queue of cells in native memory. Cells are longs:
+     * an off-heap grid may have more than 2^31 of them. When the ring is full
+     * it moves to one twice the size in a new arena and frees the old one.
+     */
+    private static final class CellRing implements AutoCloseable {
+        private Arena arena;
+        private MemorySegment cells;
+        private long capacity, head, size;
+
+        CellRing(long capacity) {
+            allocate(Math.max(1, capacity));
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void add(long cell) {
+            if (size == capacity) {
+                grow();
+            }
+            cells.setAtIndex(ValueLayout.JAVA_LONG, (head + size++) % capacity, cell);
+        }
+
+        long remove() {
+            long cell = cells.getAtIndex(ValueLayout.JAVA_LONG, head);
+            head = (head + 1) % capacity;
+            size--;
+            return cell;
+        }
+
+        /* Copies the cells in queue order, from the head to the end and then from the start, into a larger ring. */
+        private void grow() {
+            Arena oldArena = arena;
+            MemorySegment old = cells;
+            long oldCapacity = capacity;
+            allocate(2 * oldCapacity);
+            long bytes = ValueLayout.JAVA_LONG.byteSize();
+            MemorySegment.copy(old, head * bytes, cells, 0, (oldCapacity - head) * bytes);
+            MemorySegment.copy(old, 0, cells, (oldCapacity - head) * bytes, head * bytes);
+            head = 0;
+            oldArena.close();
+        }
+
+        private void allocate(long capacity) {
+            this.arena = Arena.ofConfined();
+            this.cells = arena.allocate(ValueLayout.JAVA_LONG.byteSize() * capacity,
+                    ValueLayout.JAVA_LONG.byteAlignment());
+            this.capacity = capacity;
+        }
+
+        @Override
+        public void close() {
+            arena.close();
+        }
+    }
+}
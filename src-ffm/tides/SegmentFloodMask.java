@@ -0,0 +1,103 @@
+package tides;
+
+import java.lang.foreign.*;
+
+/**
+ * This class is a flood mask kept off the heap: one byte per cell in a
+ * MemorySegment, 1 for flooded and 0 for dry. Its memory belongs to whichever
+ * Arena the segment was allocated from, or to the mask itself if it was
+ * made with allocate().
+ */
+public class SegmentFloodMask implements MaskGrid {
+    public final int rows;
+    public final int cols;
+    private final MemorySegment cells;
+    private final Arena owned; // closed by close(), or null
+
+    public SegmentFloodMask(int rows, int cols, MemorySegment cells) {
+        this(rows, cols, cells, null);
+    }
+
+    private SegmentFloodMask(int rows, int cols, MemorySegment cells, Arena owned) {
+        this.rows = rows;
+        this.cols = cols;
+        this.cells = cells;
+        this.owned = owned;
+    }
+
+    /**
+     * Makes an empty mask with native memory of its own, freed by close().
+     *
+     * @param rows of the terrain
+     * @param cols of the terrain
+     * @return SegmentFloodMask, with no cells flooded
+     */
+    public static SegmentFloodMask allocate(int rows, int cols) {
+        Arena arena = Arena.ofShared();
+        try {
+            return new SegmentFloodMask(rows, cols, arena.allocate((long) rows * cols), arena);
+        } catch (RuntimeException | OutOfMemoryError e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public int cols() {
+        return cols;
+    }
+
+    /**
+     * @param row of the cell
+     * @param col of the cell
+     * @return boolean, true if the cell is flooded
+     */
+    @Override
+    public boolean isFlooded(int row, int col) {
+        return cells.get(ValueLayout.JAVA_BYTE, (long) row * cols + col) != 0;
+    }
+
+    /**
+     * Marks a cell as flooded.
+     *
+     * @param row of the cell
+     * @param col of the cell
+     */
+    @Override
+    public void flood(int row, int col) {
+        cells.set(ValueLayout.JAVA_BYTE, (long) row * cols + col, (byte) 1);
+    }
+
+    /* Marks every cell as dry. */
+    @Override
+    public void clear() {
+        cells.fill((byte) 0);
+    }
+
+    /**
+     * @return long, the number of flooded cells
+     */
+    @Override
+    public long count() {
+        long count = 0;
+        long n = (long) rows * cols;
+        for (long i = 0; i < n; i++) {
+            count += cells.get(ValueLayout.JAVA_BYTE, i);
+        }
+        return count;
+    }
+
+    /**
+     * Frees the mask's memory if it owns it (see allocate()); a mask over
+     * someone else's segment is left alone.
+     */
+    @Override
+    public void close() {
+        if (owned != null) owned.close();
+    }
+}
@@ -0,0 +1,112 @@
+package tides;
+
+import java.lang.foreign.*;
+
+/**
+ * This class is a HeightGrid kept off the heap in a MemorySegment.
+ *
+ * Large terrains stored as double[][] make the garbage collector copy and
+ * scan hundreds of megabytes every time a terrain is replaced. Here the
+ * heights live in native memory owned by an Arena, and are freed the moment
+ * close() is called, which the Driver does when it unloads the terrain.
+ * Flood masks made with newMask() come out of the same arena and share its
+ * lifetime.
+ *
+ * The arena is shared, so the grid can be read from any thread while it is
+ * open. Reading a closed grid throws IllegalStateException instead of
+ * touching freed memory.
+ */
+public class SegmentHeightGrid implements HeightGrid, AutoCloseable {
+    private final int rows, cols;
+    private final Arena arena;
+    private final MemorySegment heights;
+
+    public SegmentHeightGrid(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+        this.arena = Arena.ofShared();
+        this.heights = arena.allocate(ValueLayout.JAVA_DOUBLE.byteSize() * rows * cols,
+                ValueLayout.JAVA_DOUBLE.byteAlignment());
+    }
+
+    /**
+     * Copies any HeightGrid off the heap.
+     *
+     * @param grid to copy
+     * @return SegmentHeightGrid, an off-heap copy of the grid
+     */
+    public static SegmentHeightGrid copyOf(HeightGrid grid) {
+        var copy = new SegmentHeightGrid(grid.rows(), grid.cols());
+        for (int r = 0; r < grid.rows(); r++) {
+            for (int c = 0; c < grid.cols(); c++) {
+                copy.set(r, c, grid.get(r, c));
+            }
+        }
+        return copy;
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public int cols() {
+        return cols;
+    }
+
+    @Override
+    public double get(int row, int col) {
+        return heights.getAtIndex(ValueLayout.JAVA_DOUBLE, (long) row * cols + col);
+    }
+
+    /**
+     * Stores the height of a cell.
+     *
+     * @param row of the cell
+     * @param col of the cell
+     * @param height of the cell
+     */
+    @Override
+    public void set(int row, int col, double height) {
+        heights.setAtIndex(ValueLayout.JAVA_DOUBLE, (long) row * cols + col, height);
+    }
+
+    /**
+     * Makes an empty flood mask that lives as long as this grid.
+     *
+     * @return SegmentFloodMask, with no cells flooded
+     */
+    public SegmentFloodMask newMask() {
+        return new SegmentFloodMask(rows, cols, arena.allocate((long) rows * cols));
+    }
+
+    /**
+     * Floods the grid into a mask in native memory of its own (see
+     * SegmentFlood), so neither the heights nor the flood pass through heap
+     * arrays.
+     *
+     * @param sources of water
+     * @param height of the water
+     * @return SegmentFloodMask, the flooded cells; closing it frees them
+     */
+    @Override
+    public MaskGrid floodMask(GridLocation[] sources, double height) {
+        var mask = SegmentFloodMask.allocate(rows, cols);
+        try {
+            SegmentFlood.flood(this, sources, height, mask);
+            return mask;
+        } catch (RuntimeException e) {
+            mask.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Frees the heights and every mask made by newMask().
+     */
+    @Override
+    public void close() {
+        arena.close();
+    }
+}
@@ -0,0 +1,188 @@
+package tides;
+
+import java.io.*;
+import java.lang.foreign.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * This class is one worker process of a PartitionedFlood. It owns a
+ * horizontal strip of rows [firstRow, endRow) of a tiled terrain.
+ *
+ * The terrain and the flood mask are both files that every worker maps. A
+ * worker only ever writes mask cells inside its own strip, and reads the row
+ * just above and just below its strip (its halo) to see where the water from
+ * its neighbors has got to. The coordinator drives the workers in rounds
+ * over their standard input and output, which also makes sure every write to
+ * the mask from one round is visible before the next round starts.
+ *
+ * Commands (one per line on standard input), and replies:
+ *  - flood    floods from the sources and the halo rows, without leaving the
+ *             strip; replies "changed 1" if either edge row got new water,
+ *             otherwise "changed 0"
+ *  - islands  replies "islands land count", then the island labels of the
+ *             top row and of the bottom row, one line each
+ *  - quit     exits
+ *
+ * Usage: java --enable-preview tides.StripWorker tiles mask height firstRow endRow
+ */
+public class StripWorker {
+
+    // Offsets to the top, bottom, left and right neighbors
+    private static final int[] ROW_STEPS = { -1, 1, 0, 0 };
+    private static final int[] COL_STEPS = { 0, 0, -1, 1 };
+
+    private final TiledHeightGrid grid;
+    private final SegmentFloodMask mask;
+    private final double height;
+    private final int firstRow, endRow, rows, cols;
+
+    // Strip cells still to visit, as offsets from the start of the strip
+    private final int[] queue;
+    private boolean seeded;
+    private boolean edgeChanged;
+
+    public StripWorker(TiledHeightGrid grid, SegmentFloodMask mask, double height, int firstRow, int endRow) {
+        this.grid = grid;
+        this.mask = mask;
+        this.height = height;
+        this.firstRow = firstRow;
+        this.endRow = endRow;
+        this.rows = grid.rows();
+        this.cols = grid.cols();
+        this.queue = new int[(endRow - firstRow) * cols];
+    }
+
+    /**
+     * Runs one round of flooding inside the strip.
+     *
+     * @return boolean, true if either edge row of the strip got new water
+     */
+    public boolean flood() {
+        edgeChanged = false;
+        int tail = 0;
+
+        if (!seeded) {
+            for (GridLocation source : grid.sources()) {
+                if (source.row >= firstRow && source.row < endRow && !mask.isFlooded(source.row, source.col)) {
+                    tail = enqueue(source.row, source.col, tail);
+                }
+            }
+            seeded = true;
+        }
+
+        /* Water from the neighbors, across the strip edges. */
+        if (firstRow > 0) tail = seedFromHalo(firstRow - 1, firstRow, tail);
+        if (endRow < rows) tail = seedFromHalo(endRow, endRow - 1, tail);
+
+        int head = 0;
+        while (head < tail) {
+            int offset = queue[head++];
+            int r = firstRow + offset / cols;
+            int c = offset % cols;
+            for (int k = 0; k < 4; k++) {
+                int nr = r + ROW_STEPS[k];
+                int nc = c + COL_STEPS[k];
+                if (nr < firstRow || nr >= endRow || nc < 0 || nc >= cols) continue;
+                if (mask.isFlooded(nr, nc) || grid.get(nr, nc) > height) continue;
+                tail = enqueue(nr, nc, tail);
+            }
+        }
+        return edgeChanged;
+    }
+
+    /* Floods the dry cells of an edge row that sit under water in the halo. */
+    private int seedFromHalo(int haloRow, int edgeRow, int tail) {
+        for (int c = 0; c < cols; c++) {
+            if (mask.isFlooded(haloRow, c) && !mask.isFlooded(edgeRow, c) && grid.get(edgeRow, c) <= height) {
+                tail = enqueue(edgeRow, c, tail);
+            }
+        }
+        return tail;
+    }
+
+    private int enqueue(int row, int col, int tail) {
+        mask.flood(row, col);
+        if (row == firstRow || row == endRow - 1) edgeChanged = true;
+        queue[tail] = (row - firstRow) * cols + col;
+        return tail + 1;
+    }
+
+    /**
+     * Labels the islands inside the strip.
+     *
+     * @return Islands, the islands of the strip alone (row 0 is firstRow)
+     */
+    public Islands islands() {
+        int stripRows = endRow - firstRow;
+        boolean[][] flooded = new boolean[stripRows][cols];
+        for (int r = 0; r < stripRows; r++) {
+            for (int c = 0; c < cols; c++) {
+                flooded[r][c] = mask.isFlooded(firstRow + r, c);
+            }
+        }
+
+        HeightGrid strip = new HeightGrid() {
+            public int rows() {
+                return stripRows;
+            }
+
+            public int cols() {
+                return cols;
+            }
+
+            public double get(int row, int col) {
+                return grid.get(firstRow + row, col);
+            }
+        };
+        return new IslandLabeler().label(strip, flooded);
+    }
+
+    public static void main(String[] args) throws IOException {
+        File tiles = new File(args[0]);
+        Path maskFile = Paths.get(args[1]);
+        double height = Double.parseDouble(args[2]);
+        int firstRow = Integer.parseInt(args[3]);
+        int endRow = Integer.parseInt(args[4]);
+
+        TiledHeightGrid grid = TiledHeightGrid.open(tiles);
+        if (grid == null) {
+            throw new IOException("Not a complete tiled terrain: " + tiles);
+        }
+        try (grid; Arena arena = Arena.ofConfined();
+                var channel = FileChannel.open(maskFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MemorySegment cells = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size(), arena);
+            var worker = new StripWorker(grid, new SegmentFloodMask(grid.rows(), grid.cols(), cells), height,
+                    firstRow, endRow);
+
+            var in = new BufferedReader(new InputStreamReader(System.in));
+            var out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+            for (String command = in.readLine(); command != null; command = in.readLine()) {
+                if (command.equals("flood")) {
+                    out.println("changed " + (worker.flood() ? 1 : 0));
+                } else if (command.equals("islands")) {
+                    Islands islands = worker.islands();
+                    int land = 0;
+                    for (int i = 1; i <= islands.count; i++) {
+                        land += islands.area[i];
+                    }
+                    out.println("islands " + land + " " + islands.count);
+                    out.println(labelRow(islands, 0));
+                    out.println(labelRow(islands, endRow - firstRow - 1));
+                } else if (command.equals("quit")) {
+                    break;
+                }
+                out.flush();
+            }
+        }
+    }
+
+    private static String labelRow(Islands islands, int row) {
+        var line = new StringBuilder();
+        for (int c = 0; c < islands.cols; c++) {
+            if (c > 0) line.append(' ');
+            line.append(islands.labelAt(row, c));
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,32 @@
+package tides;
+
+/**
+ * This class is a HeightGrid backed by an ordinary double[][] on the heap.
+ */
+public class ArrayHeightGrid implements HeightGrid {
+    public final double[][] heights;
+
+    public ArrayHeightGrid(double[][] heights) {
+        this.heights = heights;
+    }
+
+    @Override
+    public int rows() {
+        return heights.length;
+    }
+
+    @Override
+    public int cols() {
+        return heights[0].length;
+    }
+
+    @Override
+    public double get(int row, int col) {
+        return heights[row][col];
+    }
+
+    @Override
+    public void set(int row, int col, double height) {
+        heights[row][col] = height;
+    }
+}
@@ -0,0 +1,42 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * This class is a MaskGrid over a boolean[][] on the heap, as returned by
+ * floodedRegionsIn.
+ */
+public class ArrayMaskGrid implements MaskGrid {
+    public final boolean[][] flooded;
+
+    public ArrayMaskGrid(boolean[][] flooded) {
+        this.flooded = flooded;
+    }
+
+    @Override
+    public int rows() {
+        return flooded.length;
+    }
+
+    @Override
+    public int cols() {
+        return flooded[0].length;
+    }
+
+    @Override
+    public boolean isFlooded(int row, int col) {
+        return flooded[row][col];
+    }
+
+    @Override
+    public void flood(int row, int col) {
+        flooded[row][col] = true;
+    }
+
+    @Override
+    public void clear() {
+        for (boolean[] row : flooded) {
+            Arrays.fill(row, false);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * This class is a binary min-heap of grid cells keyed by a double priority.
+ *
+ * Cells are stored as row-major indices (row * cols + col) in parallel
+ * primitive arrays, so pushing and popping never allocates objects. The
+ * arrays grow as needed and are kept by clear(), so one heap can be reused
+ * across many searches.
+ */
+public class CellHeap {
+
+    private int[] cells;
+    private double[] priorities;
+    private int size;
+
+    public CellHeap() {
+        this(64);
+    }
+
+    public CellHeap(int capacity) {
+        cells = new int[Math.max(capacity, 1)];
+        priorities = new double[cells.length];
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /* Removes every cell but keeps the storage. */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Adds a cell to the heap.
+     *
+     * @param cell row-major index of the cell
+     * @param priority of the cell; smaller priorities come out first
+     */
+    public void push(int cell, double priority) {
+        if (size == cells.length) {
+            cells = Arrays.copyOf(cells, size * 2);
+            priorities = Arrays.copyOf(priorities, size * 2);
+        }
+
+        /* Sift up. */
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (priorities[parent] <= priority) break;
+            cells[i] = cells[parent];
+            priorities[i] = priorities[parent];
+            i = parent;
+        }
+        cells[i] = cell;
+        priorities[i] = priority;
+    }
+
+    /**
+     * @return double, the smallest priority in the heap
+     */
+    public double peekPriority() {
+        return priorities[0];
+    }
+
+    /**
+     * @return int, the cell with the smallest priority in the heap
+     */
+    public int peek() {
+        return cells[0];
+    }
+
+    /**
+     * Removes the cell with the smallest priority.
+     *
+     * @return int, the row-major index of that cell
+     */
+    public int pop() {
+        int top = cells[0];
+        int last = cells[--size];
+        double lastPriority = priorities[size];
+
+        /* Sift down. */
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && priorities[child + 1] < priorities[child]) child++;
+            if (lastPriority <= priorities[child]) break;
+            cells[i] = cells[child];
+            priorities[i] = priorities[child];
+            i = child;
+        }
+        cells[i] = last;
+        priorities[i] = lastPriority;
+        return top;
+    }
+}
@@ -0,0 +1,51 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * This class numbers the cells of a grid row-major (row * cols + col), for
+ * the structures that keep one int-indexed entry per cell.
+ *
+ * Java arrays and buffers hold fewer than 2^31 entries, so count() rejects
+ * larger grids up front instead of letting rows * cols overflow. index()
+ * checks the row and column separately: in a flat array an out-of-range
+ * column would otherwise read a cell of the next row.
+ */
+final class Cells {
+
+    // Largest array the JVM reliably allocates
+    static final int MAX_CELLS = Integer.MAX_VALUE - 8;
+
+    private Cells() {
+    }
+
+    /**
+     * @param rows of the grid
+     * @param cols of the grid
+     * @return int, the number of cells
+     * @throws IllegalArgumentException if the grid has too many cells for
+     * one array
+     */
+    static int count(int rows, int cols) {
+        long n = (long) rows * cols;
+        if (rows < 0 || cols < 0 || n > MAX_CELLS) {
+            throw new IllegalArgumentException("A " + rows + " x " + cols + " grid has more cells than fit in "
+                    + "an array (" + MAX_CELLS + ").");
+        }
+        return (int) n;
+    }
+
+    /**
+     * @param row of the cell
+     * @param col of the cell
+     * @param rows of the grid
+     * @param cols of the grid
+     * @return int, the row-major index of the cell
+     * @throws IndexOutOfBoundsException if the cell is not on the grid
+     */
+    static int index(int row, int col, int rows, int cols) {
+        Objects.checkIndex(row, rows);
+        Objects.checkIndex(col, cols);
+        return row * cols + col;
+    }
+}
@@ -0,0 +1,370 @@
+package tides;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+import java.util.zip.*;
+
+/**
+ * This class stores a terrain in a compact binary form, for the download
+ * cache. A decimal .terrain file spends about eight bytes of text per height
+ * and has to be parsed number by number; this file is usually several times
+ * smaller and is decoded in parallel.
+ *
+ * Heights are almost always written with a few decimal places, so they are
+ * stored as whole numbers of 10^-scale meters, for the smallest scale (up to
+ * MAX_SCALE) that gives every height back exactly. Each height is then
+ * stored as its difference from the height before it in the block (row-major),
+ * zigzag-encoded into a varint, and each block is deflated on its own. If no
+ * scale works, the raw bits of every height are stored the same way instead.
+ *
+ * Blocks are BLOCK_ROWS rows each, and the header lists where every block
+ * starts, so blocks can be inflated and decoded on any number of threads.
+ * Blocks are read from the file one at a time at long offsets, so the file
+ * can be larger than 2 GB.
+ *
+ * File layout (big-endian):
+ *  - magic, format version, rows, cols, number of sources, then the sources
+ *    as (row, col) pairs
+ *  - scale (-1 for raw bits), rows per block, number of blocks
+ *  - for each block: offset in the file, compressed length, encoded length
+ *  - the deflated blocks
+ */
+public class CompressedTerrainFile implements Closeable {
+
+    private static final int MAGIC = 0x54435A31; // "TCZ1"
+    private static final int VERSION = 1;
+    private static final int BLOCK_ROWS = 64;
+    private static final int MAX_SCALE = 6;
+    private static final int RAW = -1;
+
+    public final int rows, cols;
+    public final GridLocation[] sources;
+
+    private final int scale;
+    private final int blockRows;
+    private final long[] offsets;
+    private final int[] compressedLengths, encodedLengths;
+    private final FileChannel channel;
+
+    private CompressedTerrainFile(FileChannel channel) throws IOException {
+        this.channel = channel;
+        /* Not closed: closing it would close the channel. */
+        var header = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0))));
+        try {
+            if (header.readInt() != MAGIC || header.readInt() != VERSION) {
+                throw new IOException("Not a compressed terrain file.");
+            }
+            rows = header.readInt();
+            cols = header.readInt();
+            sources = new GridLocation[header.readInt()];
+            for (int i = 0; i < sources.length; i++) {
+                int row = header.readInt();
+                sources[i] = new GridLocation(row, header.readInt());
+            }
+            scale = header.readInt();
+            blockRows = header.readInt();
+            int numBlocks = header.readInt();
+            offsets = new long[numBlocks];
+            compressedLengths = new int[numBlocks];
+            encodedLengths = new int[numBlocks];
+            for (int b = 0; b < numBlocks; b++) {
+                offsets[b] = header.readLong();
+                compressedLengths[b] = header.readInt();
+                encodedLengths[b] = header.readInt();
+                if (offsets[b] < 0 || compressedLengths[b] < 0 || encodedLengths[b] < 0
+                        || offsets[b] + compressedLengths[b] > channel.size()) {
+                    throw new IOException("Corrupt block table in compressed terrain file.");
+                }
+            }
+        } catch (EOFException | NegativeArraySizeException e) {
+            throw new IOException("Truncated compressed terrain file.", e);
+        }
+    }
+
+    /**
+     * Opens a compressed terrain for decoding.
+     *
+     * @param file written by write()
+     * @return CompressedTerrainFile, the open file
+     */
+    public static CompressedTerrainFile open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new CompressedTerrainFile(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Decodes every height straight into an array. Blocks are decoded in
+     * parallel, each copying its own rows into place.
+     *
+     * @param heights with rows x cols room
+     */
+    public void decodeInto(double[][] heights) throws IOException {
+        try {
+            IntStream.range(0, offsets.length).parallel().forEach(b -> {
+                try {
+                    double[] values = decodeBlock(b);
+                    int firstRow = b * blockRows;
+                    for (int r = 0; r < values.length / cols; r++) {
+                        System.arraycopy(values, r * cols, heights[firstRow + r], 0, cols);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Decodes every height into a grid. Blocks are decoded in parallel on
+     * the common pool, but set() is only ever called from this thread, in
+     * row order, so the grid does not have to be thread-safe. Only a few
+     * blocks per thread are in memory at once.
+     *
+     * @param grid with rows x cols cells
+     */
+    public void decodeInto(HeightGrid grid) throws IOException {
+        decodeInOrder(grid::set);
+    }
+
+    /**
+     * Decodes every height into a grid that is being built, in the same
+     * order as decodeInto(HeightGrid).
+     *
+     * @param builder for a rows x cols grid
+     */
+    public void decodeInto(HeightEncoding.Builder builder) throws IOException {
+        decodeInOrder(builder::set);
+    }
+
+    /* Interface for receiving one decoded height. */
+    private interface CellSink {
+        public void set(int row, int col, double height);
+    }
+
+    private void decodeInOrder(CellSink sink) throws IOException {
+        int window = 2 * ForkJoinPool.getCommonPoolParallelism() + 1;
+        var pending = new ArrayDeque<Future<double[]>>();
+        int next = 0;
+        try {
+            for (int b = 0; b < offsets.length; b++) {
+                while (next < offsets.length && pending.size() < window) {
+                    int block = next++;
+                    pending.add(ForkJoinPool.commonPool().submit(() -> decodeBlock(block)));
+                }
+                double[] values = pending.remove().get();
+                int firstRow = b * blockRows;
+                for (int i = 0; i < values.length; i++) {
+                    sink.set(firstRow + i / cols, i % cols, values[i]);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Decoding interrupted.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("Error decoding compressed terrain file.", e.getCause());
+        } finally {
+            for (Future<double[]> block : pending) {
+                block.cancel(true);
+            }
+        }
+    }
+
+    /* Reads, inflates and decodes one block; returns its heights row-major. */
+    private double[] decodeBlock(int block) throws IOException {
+        int firstRow = block * blockRows;
+        int numRows = Math.min(blockRows, rows - firstRow);
+        byte[] encoded = new byte[encodedLengths[block]];
+
+        ByteBuffer compressed = ByteBuffer.allocate(compressedLengths[block]);
+        while (compressed.hasRemaining()) {
+            if (channel.read(compressed, offsets[block] + compressed.position()) < 0) {
+                throw new IOException("Truncated block " + block + " in compressed terrain file.");
+            }
+        }
+        compressed.flip();
+
+        var inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < encoded.length) {
+                int n = inflater.inflate(encoded, length, encoded.length - length);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) break;
+                length += n;
+            }
+            if (length != encoded.length) {
+                throw new IOException("Corrupt block " + block + " in compressed terrain file.");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block " + block + " in compressed terrain file.", e);
+        } finally {
+            inflater.end();
+        }
+
+        double[] values = new double[numRows * cols];
+        double divisor = scale == RAW ? 1 : Math.pow(10, scale);
+        long previous = 0;
+        int pos = 0;
+        for (int i = 0; i < values.length; i++) {
+            /* Varint, then undo the zigzag and the delta. */
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (pos == encoded.length) {
+                    throw new IOException("Corrupt block " + block + " in compressed terrain file.");
+                }
+                b = encoded[pos++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += (zigzag >>> 1) ^ -(zigzag & 1);
+            values[i] = scale == RAW ? Double.longBitsToDouble(previous) : previous / divisor;
+        }
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Writes a terrain in compressed form. The blocks are encoded in
+     * parallel.
+     *
+     * @param terrain to write
+     * @param file to write it to
+     */
+    public static void write(Terrain terrain, File file) throws IOException {
+        HeightGrid grid = terrain.grid;
+        int rows = grid.rows();
+        int cols = grid.cols();
+        int scale = scaleFor(grid);
+        int numBlocks = (rows + BLOCK_ROWS - 1) / BLOCK_ROWS;
+
+        byte[][] compressed = new byte[numBlocks][];
+        int[] encodedLengths = new int[numBlocks];
+        IntStream.range(0, numBlocks).parallel().forEach(b -> {
+            byte[] encoded = encodeBlock(grid, scale, b);
+            encodedLengths[b] = encoded.length;
+            compressed[b] = deflate(encoded);
+        });
+
+        long headerBytes = 4L * (5 + 2 * terrain.sources.length + 3) + 16L * numBlocks;
+        File tmp = new File(file.getPath() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(rows);
+            out.writeInt(cols);
+            out.writeInt(terrain.sources.length);
+            for (GridLocation source : terrain.sources) {
+                out.writeInt(source.row);
+                out.writeInt(source.col);
+            }
+            out.writeInt(scale);
+            out.writeInt(BLOCK_ROWS);
+            out.writeInt(numBlocks);
+            long offset = headerBytes;
+            for (int b = 0; b < numBlocks; b++) {
+                out.writeLong(offset);
+                out.writeInt(compressed[b].length);
+                out.writeInt(encodedLengths[b]);
+                offset += compressed[b].length;
+            }
+            for (byte[] block : compressed) {
+                out.write(block);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /* The smallest decimal scale that keeps every height exact, or RAW. */
+    private static int scaleFor(HeightGrid grid) {
+        int scale = 0;
+        for (int r = 0; r < grid.rows(); r++) {
+            for (int c = 0; c < grid.cols(); c++) {
+                double height = grid.get(r, c);
+                while (scale <= MAX_SCALE && !exact(height, scale)) {
+                    scale++;
+                }
+                if (scale > MAX_SCALE) return RAW;
+            }
+        }
+
+        /* A coarser height might not survive a finer scale; check them all again. */
+        for (int r = 0; r < grid.rows(); r++) {
+            for (int c = 0; c < grid.cols(); c++) {
+                if (!exact(grid.get(r, c), scale)) return RAW;
+            }
+        }
+        return scale;
+    }
+
+    private static boolean exact(double height, int scale) {
+        double divisor = Math.pow(10, scale);
+        double scaled = Math.rint(height * divisor);
+        return Math.abs(scaled) < 0x1p53 && scaled / divisor == height;
+    }
+
+    /* Delta, zigzag and varint encoding of one block of rows. */
+    private static byte[] encodeBlock(HeightGrid grid, int scale, int block) {
+        int cols = grid.cols();
+        int firstRow = block * BLOCK_ROWS;
+        int endRow = Math.min(grid.rows(), firstRow + BLOCK_ROWS);
+        double multiplier = scale == RAW ? 1 : Math.pow(10, scale);
+
+        byte[] encoded = new byte[(endRow - firstRow) * cols * 3 + 16];
+        int pos = 0;
+        long previous = 0;
+        for (int r = firstRow; r < endRow; r++) {
+            for (int c = 0; c < cols; c++) {
+                double height = grid.get(r, c);
+                long value = scale == RAW ? Double.doubleToRawLongBits(height) : (long) Math.rint(height * multiplier);
+                long delta = value - previous;
+                previous = value;
+
+                long zigzag = (delta << 1) ^ (delta >> 63);
+                if (encoded.length - pos < 10) {
+                    encoded = Arrays.copyOf(encoded, encoded.length * 2);
+                }
+                while ((zigzag & ~0x7FL) != 0) {
+                    encoded[pos++] = (byte) ((zigzag & 0x7F) | 0x80);
+                    zigzag >>>= 7;
+                }
+                encoded[pos++] = (byte) zigzag;
+            }
+        }
+        return Arrays.copyOf(encoded, pos);
+    }
+
+    private static byte[] deflate(byte[] encoded) {
+        var deflater = new Deflater();
+        try {
+            deflater.setInput(encoded);
+            deflater.finish();
+            var out = new ByteArrayOutputStream(encoded.length / 2 + 64);
+            byte[] buffer = new byte[1 << 16];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * This class finds where rain pools on a terrain with the priority-flood
+ * algorithm (Barnes, Lehman and Mulla, 2014).
+ *
+ * Water can leave the map over its edges and into the ocean at the water
+ * sources, so those cells are the outlets. Starting from them, the terrain is
+ * grown inward lowest cell first, using a CellHeap. A cell reached from a
+ * higher filled cell is in a depression: it fills up to its neighbor's
+ * level, and is handled from a plain queue instead of the heap, since every
+ * cell of that pond has the same level. Every cell is pushed once, so the
+ * whole pass takes O(n log n) time and allocates nothing per cell.
+ *
+ * Neighboring pond cells always fill to the same level, so a second, linear
+ * pass labels each pond as a 4-connected group of flooded cells and adds up
+ * its area and volume. The level of a pond is its spill height: the height
+ * at which water runs out of it.
+ *
+ * Water moves between the 4 direct neighbors of a cell, as in
+ * floodedRegionsIn.
+ */
+public class DepressionFiller {
+
+    // Offsets to the top, bottom, left and right neighbors
+    private static final int[] ROW_STEPS = { -1, 1, 0, 0 };
+    private static final int[] COL_STEPS = { 0, 0, -1, 1 };
+
+    private DepressionFiller() {
+    }
+
+    /**
+     * Fills every depression of a terrain.
+     *
+     * @param terrain heights of each cell
+     * @param sources water sources, which drain into the ocean
+     * @return Ponding, the filled surface and the ponds
+     */
+    public static Ponding fill(HeightGrid terrain, GridLocation[] sources) {
+        int rows = terrain.rows();
+        int cols = terrain.cols();
+        int n = Cells.count(rows, cols);
+
+        double[] filled = new double[n];
+        boolean[] done = new boolean[n];
+        int[] pit = new int[n]; // FIFO of pond cells waiting to be expanded
+        int pitHead = 0, pitTail = 0;
+        var heap = new CellHeap(2 * (rows + cols));
+
+        /* The outlets: the edges of the map and the sources. */
+        for (int c = 0; c < cols; c++) {
+            seed(terrain, 0, c, cols, filled, done, heap);
+            seed(terrain, rows - 1, c, cols, filled, done, heap);
+        }
+        for (int r = 0; r < rows; r++) {
+            seed(terrain, r, 0, cols, filled, done, heap);
+            seed(terrain, r, cols - 1, cols, filled, done, heap);
+        }
+        for (GridLocation source : sources) {
+            seed(terrain, source.row, source.col, cols, filled, done, heap);
+        }
+
+        while (pitHead < pitTail || !heap.isEmpty()) {
+            int cell;
+            if (pitHead < pitTail) {
+                cell = pit[pitHead++];
+            } else {
+                cell = heap.pop();
+            }
+            double level = filled[cell];
+            int r = cell / cols;
+            int c = cell - r * cols;
+            for (int k = 0; k < 4; k++) {
+                int nr = r + ROW_STEPS[k];
+                int nc = c + COL_STEPS[k];
+                if (nr < 0 || nr >= rows || nc < 0 || nc >= cols) continue;
+                int next = nr * cols + nc;
+                if (done[next]) continue;
+                done[next] = true;
+
+                double height = terrain.get(nr, nc);
+                if (height <= level) {
+                    filled[next] = level;
+                    pit[pitTail++] = next;
+                } else {
+                    filled[next] = height;
+                    heap.push(next, height);
+                }
+            }
+        }
+
+        return label(terrain, rows, cols, filled, pit);
+    }
+
+    /* Adds an outlet cell, once. */
+    private static void seed(HeightGrid terrain, int r, int c, int cols, double[] filled, boolean[] done,
+            CellHeap heap) {
+        int cell = r * cols + c;
+        if (done[cell]) return;
+        done[cell] = true;
+        filled[cell] = terrain.get(r, c);
+        heap.push(cell, filled[cell]);
+    }
+
+    /* Labels the ponds: 4-connected groups of cells under water. */
+    private static Ponding label(HeightGrid terrain, int rows, int cols, double[] filled, int[] queue) {
+        int n = filled.length;
+        int[] labels = new int[n];
+        int count = 0;
+        double[] spill = new double[16];
+        int[] area = new int[16];
+        double[] volume = new double[16];
+
+        for (int start = 0; start < n; start++) {
+            if (labels[start] != 0 || !(filled[start] > terrain.get(start / cols, start % cols))) continue;
+
+            count++;
+            if (count == spill.length) {
+                spill = Arrays.copyOf(spill, 2 * count);
+                area = Arrays.copyOf(area, 2 * count);
+                volume = Arrays.copyOf(volume, 2 * count);
+            }
+            spill[count] = filled[start];
+
+            int head = 0, tail = 0;
+            labels[start] = count;
+            queue[tail++] = start;
+            while (head < tail) {
+                int cell = queue[head++];
+                int r = cell / cols;
+                int c = cell - r * cols;
+                area[count]++;
+                volume[count] += filled[cell] - terrain.get(r, c);
+                for (int k = 0; k < 4; k++) {
+                    int nr = r + ROW_STEPS[k];
+                    int nc = c + COL_STEPS[k];
+                    if (nr < 0 || nr >= rows || nc < 0 || nc >= cols) continue;
+                    int next = nr * cols + nc;
+                    if (labels[next] != 0 || !(filled[next] > terrain.get(nr, nc))) continue;
+                    labels[next] = count;
+                    queue[tail++] = next;
+                }
+            }
+        }
+
+        return new Ponding(rows, cols, filled, count, labels, Arrays.copyOf(spill, count + 1),
+                Arrays.copyOf(area, count + 1), Arrays.copyOf(volume, count + 1));
+    }
+}
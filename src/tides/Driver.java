@@ -52,6 +52,8 @@ public class Driver implements MouseMotionListener {
 
     private JLabel numOfIslandsLine;
 
+    private JLabel hoverLine;
+
     private JLabel statusLine;
 
     private JPanel controlPanel;
@@ -60,6 +62,23 @@ public class Driver implements MouseMotionListener {
 
     private Terrain terrain = null;
 
+    private FloodIndex floodIndex = null;
+
+    private TerrainPyramid pyramid = null;
+
+    /* The flood shown, stored the same way as the terrain; closed once replaced. */
+    private MaskGrid flooded = null;
+
+    /* What is under the cursor, for the last run; replaced by every run. */
+    private volatile HoverInspector inspector = null;
+
+    /* Latest mouse position, and the timer that handles it once per frame. */
+    private Point hoverPoint = null;
+
+    private javax.swing.Timer hoverTimer;
+
+    private static final int FRAME_MILLIS = 16;
+
     /* Returns a sorted list of all the terrain files we know. */
     private File[] terrainFilesIn(File directory) {
         var results = directory.listFiles((File dir, String name) -> name.endsWith(".terrain"));
@@ -101,7 +120,7 @@ public class Driver implements MouseMotionListener {
     /* Builds the control panel. */
     private JPanel makeControlPanel() {
         JPanel container = new JPanel();
-        container.setLayout(new GridLayout(9, 3));
+        container.setLayout(new GridLayout(10, 3));
 
         /* The main control panel. */
         JPanel panel = new JPanel();
@@ -195,6 +214,13 @@ public class Driver implements MouseMotionListener {
         numOfIslands.add(numOfIslandsLine, BorderLayout.WEST);
         container.add(numOfIslands);
 
+        /* What is under the cursor. */
+        JPanel hover = new JPanel();
+        hoverLine = new JLabel("");
+        hover.setLayout(new BorderLayout());
+        hover.add(hoverLine, BorderLayout.WEST);
+        container.add(hover);
+
         /* The status line. */
         JPanel statusBox = new JPanel();
         statusLine = new JLabel("");
@@ -214,6 +240,8 @@ public class Driver implements MouseMotionListener {
         /* Main display. */
         display = new RisingTidesVisualizer();
         display.addMouseMotionListener(this);
+        hoverTimer = new javax.swing.Timer(FRAME_MILLIS, (ActionEvent e) -> updateHover());
+        hoverTimer.setRepeats(false);
         display.setCursor(Cursor.getPredefinedCursor(Cursor.CROSSHAIR_CURSOR));
         window.add(display, BorderLayout.CENTER);
 
@@ -225,40 +253,53 @@ public class Driver implements MouseMotionListener {
         window.setVisible(true);
     }
 
-    /* Finds coordinates for each cell. Converts pixel locations to cell 
-     * locations using aspect ratios. 
-     */
     @Override
     public void mouseDragged(MouseEvent e) {}
 
+    /* 
+     * Mouse events only record where the mouse is. The timer then updates the 
+     * labels at most once per frame, with the latest position. Both run on 
+     * the event thread.
+     */
     @Override
     public void mouseMoved(MouseEvent e) {
-        try {
-            PointerInfo a = MouseInfo.getPointerInfo();
-            Point point = a.getLocation();
-            SwingUtilities.convertPointFromScreen(point, display);
-            int xScreenLocation = (int) (point.getX()/display.getWidthAspect());
-            int yScreenLocation = (int) (point.getY()/display.getHeightAspect());
-
-            String coords = "(" + xScreenLocation + ", " + yScreenLocation +")";
-
-            double error = Math.abs((display.getDisplayAspectRatio() - display.getTerrainAspectRatio())/display.getTerrainAspectRatio());
-            if (error > 0.01)
-                setStatusLine(String.format("Please resize the window till there are no purple borders for better accuracy (coordinates %.2f%% inaccurate).", error*100));
-            else 
-                setStatusLine("");
-
-            setCoordinates(coords);
-        } catch (NullPointerException n) {}     
+        hoverPoint = e.getPoint();
+        if (!hoverTimer.isRunning()) {
+            hoverTimer.start();
+        }
     }
 
-    /* Methods to update text in main control panel if changes are made. */
-    private void setCoordinates(final String text) {
-        SwingUtilities.invokeLater(() -> {
-            coordinates.setText(text);
-        });
+    /* Shows the cell under the mouse, looked up in the last run's inspector. */
+    private void updateHover() {
+        GridLocation cell = hoverPoint == null ? null : display.cellAt(hoverPoint);
+        if (cell == null) {
+            hoverLine.setText("");
+            return;
+        }
+        coordinates.setText("(" + cell.col + ", " + cell.row + ")");
+
+        HoverInspector snapshot = inspector;
+        if (snapshot == null || !snapshot.contains(cell.row, cell.col)) {
+            hoverLine.setText("");
+            return;
+        }
+
+        int row = cell.row, col = cell.col;
+        double threshold = snapshot.threshold(row, col);
+        String floods = Double.isNaN(threshold) ? "unknown"
+                : threshold == Double.NEGATIVE_INFINITY ? "always (water source)"
+                : threshold == Double.POSITIVE_INFINITY ? "never"
+                : String.format("%.2f meters", threshold);
+        String state = snapshot.isFlooded(row, col) ? "flooded"
+                : snapshot.island(row, col) < 0 ? "dry"
+                : "island " + snapshot.island(row, col) + " (" + snapshot.islandArea(row, col) + " cells)";
+        hoverLine.setText(String.format("<html><b> &nbsp Under Cursor (%d, %d):</b> &emsp elevation "
+                + "<font color = 'red'>%.2f</font> meters, floods at <font color = 'red'>%s</font>, "
+                + "<font color = 'red'>%s</font> at %s meters</html>", col, row, snapshot.elevation(row, col),
+                floods, state, snapshot.height));
     }
 
+    /* Methods to update text in main control panel if changes are made. */
     private void setElevationExtrema(final String text) {
         SwingUtilities.invokeLater(() -> {
             elevationExtremaLine.setText(text);
@@ -316,6 +357,35 @@ public class Driver implements MouseMotionListener {
         }
     }
 
+    /*
+     * Releases the storage of a terrain that is no longer shown. This runs on 
+     * the event thread, after any paint of the old terrain has finished.
+     */
+    private void unload(Terrain old) {
+        if (old == null || !(old.grid instanceof AutoCloseable)) return;
+        SwingUtilities.invokeLater(() -> {
+            try {
+                ((AutoCloseable) old.grid).close();
+            } catch (Exception e) {
+                System.err.println("Cannot release terrain: " + e.getMessage());
+            }
+        });
+    }
+
+    /* How compact heights are stored, for the elevation line; empty for exact doubles. */
+    private static String storage(HeightGrid grid) {
+        if (!(grid instanceof QuantizedHeightGrid)) return "";
+        var quantized = (QuantizedHeightGrid) grid;
+        return String.format(" &nbsp (stored in %d bytes per cell, off by at most %.2g meters)",
+                quantized.bytesPerCell(), quantized.maxError());
+    }
+
+    /* Closes a flood mask that is no longer shown, the same way as unload. */
+    private void release(MaskGrid old) {
+        if (old == null) return;
+        SwingUtilities.invokeLater(() -> old.close());
+    }
+
     /* Fires off the simulation based on the configuration. */
     private void runSimulation(File terrainFile) {
         // Ensure there are values for the water heights
@@ -358,25 +428,64 @@ public class Driver implements MouseMotionListener {
             public void run() {
                 try {
                     /* Did the terrain change? */
-                    if (!terrainFile.equals(lastFile)) {
+                    boolean newTerrain = !terrainFile.equals(lastFile);
+                    if (newTerrain) {
                         setStatusLine("Loading the Terrain...");
+                        Terrain oldTerrain = terrain;
+                        inspector = null;
                         terrain = TerrainLoader.loadTerrain(terrainFile, (int bytes, int total) -> {
                             int percent = (int) (100.0 * bytes / total);
                             int totalMB = total / (1 << 20);
                             setStatusLine("Downloading Terrain " + " (" + percent + "% of " + totalMB + " MB)");
                         });
-                        display.setTerrain(terrain.heights);
+                        display.setTerrain(terrain.grid);
+                        release(flooded);
+                        flooded = null;
+                        unload(oldTerrain);
+
+                        /*
+                         * Only the coarsest level is ever shown, so only it is built; 
+                         * out-of-core terrains skip the preview rather than read the 
+                         * whole file again.
+                         */
+                        pyramid = null;
+                        if (!(terrain.grid instanceof TiledHeightGrid)) {
+                            pyramid = TerrainPyramid.coarsest(terrain.grid, terrain.sources);
+                        }
+                    }
+
+                    /* A rough answer from the coarsest level, while the index and the full run go. */
+                    if (pyramid != null && pyramid.levels() > 0) {
+                        FloodPreview preview = pyramid.preview(pyramid.levels() - 1, waterHeight);
+                        display.setFlooding(preview);
+                        SwingUtilities.invokeLater(() -> display.repaint());
+                        setTotalLand("<html><b> &nbsp Total Land:</b> &emsp &emsp &emsp &emsp &emsp about <font color = 'red'>"
+                            + preview.estimatedLand() + "</font> cells (between " + preview.minLand + " and "
+                            + preview.maxLand + ", preview at 1/" + preview.scale + " resolution)</html>");
+                    }
+
+                    /* Out-of-core terrains are too large for an in-heap index. */
+                    if (newTerrain) {
+                        floodIndex = null;
+                        if (!(terrain.grid instanceof TiledHeightGrid)) {
+                            setStatusLine("Indexing the Terrain...");
+                            floodIndex = FloodIndexFile.loadOrBuild(terrain, TerrainLoader.dataFileFor(terrainFile),
+                                    TerrainLoader.indexFileFor(terrainFile));
+                        }
                         lastFile = terrainFile;
                     }
 
-                    
                     // Results
                     setStatusLine("Watering the World... (running your code)");
-                    RisingTides rt = new RisingTides(terrain);
+                    RisingTides rt = new RisingTides(terrain, floodIndex);
                     try {
-                        var flooded = rt.floodedRegionsIn(waterHeight);
+                        /* Kept where the terrain is, so a tiled flood is painted from its mask file. */
+                        MaskGrid oldFlooded = flooded;
+                        flooded = rt.floodedMask(waterHeight);
 
                         display.setFlooding(flooded);
+                        inspector = new HoverInspector(terrain.grid, floodIndex, flooded, waterHeight);
+                        release(oldFlooded);
 
                         try {
                             SwingUtilities.invokeAndWait(() -> display.repaint());
@@ -396,15 +505,15 @@ public class Driver implements MouseMotionListener {
                         setElevationExtrema("<html><b> &nbsp Elevation Extrema:</b>" + spacing 
                             + "Lowest Point: <font color = 'red'>" + elevationExtrema[0] 
                             + "</font> meters &nbsp / &nbsp Highest Point: <font color = 'red'>" 
-                            + elevationExtrema[1] + "</font> meters</html>");
+                            + elevationExtrema[1] + "</font> meters" + storage(terrain.grid) + "</html>");
                     } catch (Throwable e) {
                         setElevationExtrema("<html><b> &nbsp Elevation Extrema:</b> Error! "  
                             + e.getMessage() + "</html>");
                     }
 
                     try {
-                        if (isFloodedRow < 0 || isFloodedRow >= terrain.heights.length 
-                            || isFloodedCol < 0 || isFloodedCol >= terrain.heights[0].length)
+                        if (isFloodedRow < 0 || isFloodedRow >= terrain.grid.rows() 
+                            || isFloodedCol < 0 || isFloodedCol >= terrain.grid.cols())
                             throw new NumberFormatException();
 
                         boolean isFlooded = rt.isFlooded(waterHeight, new GridLocation(isFloodedRow, isFloodedCol));
@@ -415,8 +524,8 @@ public class Driver implements MouseMotionListener {
                     } catch (NumberFormatException e) {
                         JOptionPane.showMessageDialog(window, 
                             "Please enter a valid integer for the column/row number (column between 0 and " 
-                            + (terrain.heights[0].length - 1) + ", row between 0 and " 
-                            + (terrain.heights.length - 1) +").", "Is Flooded",
+                            + (terrain.grid.cols() - 1) + ", row between 0 and " 
+                            + (terrain.grid.rows() - 1) +").", "Is Flooded",
                             JOptionPane.ERROR_MESSAGE);
                         return;
                     } catch (Throwable e) {
@@ -0,0 +1,72 @@
+package tides;
+
+/**
+ * This class is a HeightGrid that stores each height as a float, in one flat
+ * row-major array. It uses half the memory of a double[][].
+ */
+public class FloatHeightGrid implements QuantizedHeightGrid {
+    private final int rows, cols;
+    private final float[] heights;
+    private double maxError;
+
+    public FloatHeightGrid(double[][] heights) {
+        this(heights.length, heights[0].length);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                store(r, c, heights[r][c]);
+            }
+        }
+    }
+
+    /**
+     * Creates a grid of zero heights, to be filled in with set().
+     *
+     * @param rows of the grid
+     * @param cols of the grid
+     */
+    public FloatHeightGrid(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+        this.heights = new float[Cells.count(rows, cols)];
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public int cols() {
+        return cols;
+    }
+
+    @Override
+    public double get(int row, int col) {
+        return heights[Cells.index(row, col, rows, cols)];
+    }
+
+    /**
+     * Stores the nearest float to a height. maxError() grows if this height
+     * rounds further than any before it.
+     */
+    @Override
+    public void set(int row, int col, double height) {
+        store(row, col, height);
+    }
+
+    private void store(int row, int col, double height) {
+        float stored = (float) height;
+        heights[Cells.index(row, col, rows, cols)] = stored;
+        maxError = Math.max(maxError, Math.abs(stored - height));
+    }
+
+    @Override
+    public double maxError() {
+        return maxError;
+    }
+
+    @Override
+    public int bytesPerCell() {
+        return 4;
+    }
+}
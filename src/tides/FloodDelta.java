@@ -0,0 +1,77 @@
+package tides;
+
+import java.nio.*;
+import java.util.*;
+
+/**
+ * This class lists the cells whose flood state changed between two water
+ * heights.
+ *
+ * When the water rises every listed cell went under; when it falls every
+ * listed cell came back up. The cells are a view of a FloodIndex, so making a
+ * delta copies nothing no matter how many cells it covers.
+ */
+public class FloodDelta {
+
+    public final double fromHeight;
+    public final double toHeight;
+
+    // True if the listed cells were flooded, false if they dried out
+    public final boolean rising;
+
+    // Number of listed cells
+    public final int count;
+
+    // Row-major cell indices, lowest flood threshold first
+    private final IntBuffer cells;
+
+    public FloodDelta(double fromHeight, double toHeight, boolean rising, IntBuffer cells) {
+        this.fromHeight = fromHeight;
+        this.toHeight = toHeight;
+        this.rising = rising;
+        this.cells = cells;
+        this.count = cells.limit();
+    }
+
+    /**
+     * @param i position in the list, from 0 to count - 1
+     * @return int, the row-major index of the cell
+     */
+    public int cell(int i) {
+        return cells.get(i);
+    }
+
+    /**
+     * @return IntBuffer, a read-only view of every listed cell
+     */
+    public IntBuffer cells() {
+        return cells.asReadOnlyBuffer();
+    }
+
+    /**
+     * Run-length form of the listed cells: the cells are sorted row-major and
+     * every stretch of consecutive indices becomes one (start, length) pair.
+     * Coastal bands are mostly horizontal stretches, so this is usually much
+     * shorter than the list itself.
+     *
+     * @return int[], start and length of each run, one pair after another
+     */
+    public int[] runs() {
+        int[] sortedCells = new int[count];
+        cells.get(0, sortedCells);
+        Arrays.sort(sortedCells);
+
+        int[] runs = new int[2 * count];
+        int numRuns = 0;
+        for (int i = 0; i < count; i++) {
+            if (numRuns > 0 && runs[2 * numRuns - 2] + runs[2 * numRuns - 1] == sortedCells[i]) {
+                runs[2 * numRuns - 1]++;
+            } else {
+                runs[2 * numRuns] = sortedCells[i];
+                runs[2 * numRuns + 1] = 1;
+                numRuns++;
+            }
+        }
+        return Arrays.copyOf(runs, 2 * numRuns);
+    }
+}
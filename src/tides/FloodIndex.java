@@ -0,0 +1,308 @@
+package tides;
+
+import java.nio.*;
+import java.util.*;
+
+/**
+ * This class holds precomputed answers for every water height at once.
+ *
+ * The key observation is that each cell has a flood threshold: the lowest
+ * water height at which the water can reach it. A cell is flooded at height h
+ * exactly when its threshold is at most h, which is what floodedRegionsIn
+ * would find. Thresholds are computed once with a priority flood from the
+ * sources (sources themselves have a threshold of negative infinity).
+ *
+ * From the thresholds the index also keeps:
+ *  - the thresholds in sorted order, so the land area at any height is a
+ *    binary search away
+ *  - the cells in that same order, so the cells that flood (or dry out)
+ *    between any two heights form one contiguous run
+ *  - the island count curve, i.e. how many islands there are at every
+ *    height, found by adding land cells in falling threshold order to a
+ *    union-find
+ *
+ * The arrays are held as buffers so that an index can either live on the heap
+ * or be mapped straight from a sidecar file (see FloodIndexFile).
+ */
+public class FloodIndex {
+
+    // Offsets to the top, bottom, left and right neighbors
+    private static final int[] ROW_STEPS = { -1, 1, 0, 0 };
+    private static final int[] COL_STEPS = { 0, 0, -1, 1 };
+
+    public final int rows;
+    public final int cols;
+
+    // Flood threshold of each cell, row-major
+    private final DoubleBuffer thresholds;
+
+    // All thresholds in ascending order
+    private final DoubleBuffer sorted;
+
+    // Row-major cell indices, sorted by threshold
+    private final IntBuffer order;
+
+    // Distinct thresholds ascending; islandCounts[k] islands exist while
+    // islandLevels[k - 1] <= height < islandLevels[k]
+    private final DoubleBuffer islandLevels;
+    private final IntBuffer islandCounts;
+
+    public FloodIndex(int rows, int cols, DoubleBuffer thresholds, DoubleBuffer sorted, IntBuffer order,
+            DoubleBuffer islandLevels, IntBuffer islandCounts) {
+        Cells.count(rows, cols);
+        this.rows = rows;
+        this.cols = cols;
+        this.thresholds = thresholds;
+        this.sorted = sorted;
+        this.order = order;
+        this.islandLevels = islandLevels;
+        this.islandCounts = islandCounts;
+    }
+
+    /**
+     * Builds the index for a terrain.
+     *
+     * @param terrain heights of each cell
+     * @param sources of water
+     * @return FloodIndex, the index for that terrain
+     */
+    public static FloodIndex build(HeightGrid terrain, GridLocation[] sources) {
+        int rows = terrain.rows();
+        int cols = terrain.cols();
+        int n = Cells.count(rows, cols);
+
+        double[] thresholds = new double[n];
+        int[] order = floodOrder(terrain, sources, thresholds);
+
+        double[] sorted = new double[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = thresholds[order[i]];
+        }
+
+        /* Island count curve. */
+        int[] parent = new int[n];
+        Arrays.fill(parent, -1); // -1 means still under water
+        double[] levels = new double[n];
+        int[] counts = new int[n];
+        int m = 0;
+        int islands = 0;
+
+        int i = n - 1;
+        while (i >= 0 && sorted[i] > Double.NEGATIVE_INFINITY) {
+            double level = sorted[i];
+
+            /* Raise every cell with this threshold out of the water. */
+            for (; i >= 0 && sorted[i] == level; i--) {
+                int cell = order[i];
+                int r = cell / cols;
+                int c = cell - r * cols;
+                parent[cell] = cell;
+                islands++;
+
+                for (int dr = -1; dr <= 1; dr++) {
+                    for (int dc = -1; dc <= 1; dc++) {
+                        int nr = r + dr;
+                        int nc = c + dc;
+                        if ((dr == 0 && dc == 0) || nr < 0 || nr >= rows || nc < 0 || nc >= cols) continue;
+                        int neighbor = nr * cols + nc;
+                        if (parent[neighbor] != -1 && union(parent, cell, neighbor)) {
+                            islands--;
+                        }
+                    }
+                }
+            }
+
+            levels[m] = level;
+            counts[m] = islands;
+            m++;
+        }
+
+        /* The curve was found from the top down; store it ascending. */
+        double[] ascendingLevels = new double[m];
+        int[] ascendingCounts = new int[m];
+        for (int k = 0; k < m; k++) {
+            ascendingLevels[k] = levels[m - 1 - k];
+            ascendingCounts[k] = counts[m - 1 - k];
+        }
+
+        return new FloodIndex(rows, cols, DoubleBuffer.wrap(thresholds), DoubleBuffer.wrap(sorted),
+                IntBuffer.wrap(order), DoubleBuffer.wrap(ascendingLevels), IntBuffer.wrap(ascendingCounts));
+    }
+
+    /**
+     * Priority flood from the sources. Fills in the threshold of every cell
+     * and returns the cells in the order they were reached, which is also
+     * ascending threshold order.
+     *
+     * Cells that are no higher than the water that reaches them go straight
+     * onto a plain queue, so only cells that raise the threshold ever touch
+     * the heap.
+     */
+    static int[] floodOrder(HeightGrid terrain, GridLocation[] sources, double[] thresholds) {
+        int rows = terrain.rows();
+        int cols = terrain.cols();
+        int n = Cells.count(rows, cols);
+
+        Arrays.fill(thresholds, Double.POSITIVE_INFINITY);
+        boolean[] reached = new boolean[n];
+        int[] order = new int[n];
+        int processed = 0;
+
+        // Each cell is queued at most once, so a flat array never overflows
+        int[] queue = new int[n];
+        int head = 0, tail = 0;
+        CellHeap heap = new CellHeap();
+
+        for (GridLocation source : sources) {
+            int cell = Cells.index(source.row, source.col, rows, cols);
+            if (!reached[cell]) {
+                reached[cell] = true;
+                thresholds[cell] = Double.NEGATIVE_INFINITY;
+                queue[tail++] = cell;
+            }
+        }
+
+        while (head < tail || !heap.isEmpty()) {
+            int cell = head < tail ? queue[head++] : heap.pop();
+            double level = thresholds[cell];
+            order[processed++] = cell;
+
+            int r = cell / cols;
+            int c = cell - r * cols;
+            for (int k = 0; k < 4; k++) {
+                int nr = r + ROW_STEPS[k];
+                int nc = c + COL_STEPS[k];
+                if (nr < 0 || nr >= rows || nc < 0 || nc >= cols) continue;
+                int neighbor = nr * cols + nc;
+                if (reached[neighbor]) continue;
+                reached[neighbor] = true;
+
+                double height = terrain.get(nr, nc);
+                if (height <= level) {
+                    thresholds[neighbor] = level;
+                    queue[tail++] = neighbor;
+                } else {
+                    thresholds[neighbor] = height;
+                    heap.push(neighbor, height);
+                }
+            }
+        }
+
+        /* Cells the water can never reach go last. */
+        for (int cell = 0; cell < n; cell++) {
+            if (!reached[cell]) order[processed++] = cell;
+        }
+        return order;
+    }
+
+    /* Union-find over cells with path halving; returns true if two sets merged. */
+    private static boolean union(int[] parent, int cell1, int cell2) {
+        int root1 = find(parent, cell1);
+        int root2 = find(parent, cell2);
+        if (root1 == root2) return false;
+        parent[root1] = root2;
+        return true;
+    }
+
+    private static int find(int[] parent, int cell) {
+        while (parent[cell] != cell) {
+            parent[cell] = parent[parent[cell]];
+            cell = parent[cell];
+        }
+        return cell;
+    }
+
+    /**
+     * @param row of the cell
+     * @param col of the cell
+     * @return double, the lowest water height at which the cell is flooded
+     * @throws IndexOutOfBoundsException if the cell is not on the terrain
+     */
+    public double threshold(int row, int col) {
+        return thresholds.get(Cells.index(row, col, rows, cols));
+    }
+
+    /**
+     * @param height of the water
+     * @param row of the cell
+     * @param col of the cell
+     * @return boolean, true if the cell is flooded at that height
+     * @throws IndexOutOfBoundsException if the cell is not on the terrain
+     */
+    public boolean isFlooded(double height, int row, int col) {
+        return thresholds.get(Cells.index(row, col, rows, cols)) <= height;
+    }
+
+    /**
+     * @param height of the water
+     * @return int, the number of flooded cells at that height
+     */
+    public int floodedCount(double height) {
+        /* First index whose threshold is above the water. */
+        int lo = 0, hi = sorted.limit();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted.get(mid) <= height) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * The cells that are flooded at one height but not at a lower one.
+     * Nothing is copied: the result is a view of the index.
+     *
+     * @param lower water height
+     * @param higher water height
+     * @return IntBuffer, the row-major indices of those cells, lowest
+     * threshold first
+     */
+    public IntBuffer floodedBetween(double lower, double higher) {
+        int from = floodedCount(lower);
+        int to = Math.max(from, floodedCount(higher));
+        return order.slice(from, to - from);
+    }
+
+    /**
+     * @param height of the water
+     * @return int, the number of cells above water at that height
+     */
+    public int visibleLand(double height) {
+        return rows * cols - floodedCount(height);
+    }
+
+    /**
+     * @param height of the water
+     * @return int, the number of islands at that height
+     */
+    public int islandCount(double height) {
+        int lo = 0, hi = islandLevels.limit();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (islandLevels.get(mid) <= height) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo == islandLevels.limit() ? 0 : islandCounts.get(lo);
+    }
+
+    /* Raw views of the index, used when writing it to disk. */
+    DoubleBuffer thresholds() {
+        return thresholds.duplicate();
+    }
+
+    DoubleBuffer sorted() {
+        return sorted.duplicate();
+    }
+
+    IntBuffer order() {
+        return order.duplicate();
+    }
+
+    DoubleBuffer islandLevels() {
+        return islandLevels.duplicate();
+    }
+
+    IntBuffer islandCounts() {
+        return islandCounts.duplicate();
+    }
+}
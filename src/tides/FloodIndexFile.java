@@ -0,0 +1,287 @@
+package tides;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.zip.*;
+
+/**
+ * This class saves a FloodIndex to a sidecar file and maps it back in on
+ * later runs, so the index only has to be built once per terrain.
+ *
+ * File layout (little-endian):
+ *  - header: magic, format version, rows, cols, source key, terrain content
+ *    hash, island curve length
+ *  - payload: thresholds, sorted thresholds, cells in threshold order,
+ *    island levels, island counts
+ *  - trailer: CRC32C of the payload
+ *
+ * A sidecar is only used if the magic, version and dimensions match, the
+ * source key matches the file the terrain was read from, and the payload
+ * checksum is correct. Anything else is treated as a missing file and the
+ * index is rebuilt.
+ *
+ * The source key (see sourceKey) only reads the file's length, modification
+ * time and first bytes, so checking a sidecar costs the same for any size of
+ * terrain. An edit that keeps all three would slip past it; setting the
+ * tides.verifyIndex system property also checks the content hash, which
+ * reads every height.
+ *
+ * Each payload section is mapped on its own, so a sidecar works as long as
+ * no single section passes 2 GB (about 268 million cells). A larger index is
+ * still built, but only kept in memory.
+ */
+public class FloodIndexFile {
+    private FloodIndexFile() {
+    }
+
+    private static final int MAGIC = 0x58444954; // "TIDX"
+    private static final int VERSION = 3;
+    private static final int HEADER_BYTES = 40;
+    private static final int TRAILER_BYTES = 8;
+
+    // How much of the start of the source file goes into its key
+    private static final int KEY_HEAD_BYTES = 64 * 1024;
+
+    private static final boolean VERIFY = Boolean.getBoolean("tides.verifyIndex");
+
+    /**
+     * Loads the index for a terrain from its sidecar file, or builds it and
+     * writes the sidecar if there is no usable one.
+     *
+     * @param terrain the loaded terrain
+     * @param source the file the terrain was read from (see
+     * TerrainLoader.dataFileFor)
+     * @param sidecar where the index is (or will be) stored
+     * @return FloodIndex, the index for the terrain
+     */
+    public static FloodIndex loadOrBuild(Terrain terrain, File source, File sidecar) {
+        long key;
+        try {
+            key = sourceKey(source, terrain);
+        } catch (IOException e) {
+            /* Nothing to key a sidecar on; the index is only kept in memory. */
+            System.err.println("Cannot read " + source + " to key its flood index: " + e.getMessage());
+            return FloodIndex.build(terrain.grid, terrain.sources);
+        }
+        try {
+            FloodIndex index = load(sidecar, terrain.grid.rows(), terrain.grid.cols(), key, VERIFY ? terrain : null);
+            if (index != null) return index;
+        } catch (IOException e) {
+            /* Unreadable sidecar; fall through and rebuild it. */
+        }
+
+        FloodIndex index = FloodIndex.build(terrain.grid, terrain.sources);
+        try {
+            save(index, sidecar, key, contentHash(terrain));
+        } catch (IOException e) {
+            /* The index still works, it just won't be cached. */
+            System.err.println("Cannot write flood index " + sidecar + ": " + e.getMessage());
+        }
+        return index;
+    }
+
+    /**
+     * Maps a sidecar file into memory.
+     *
+     * @param sidecar file to read
+     * @param rows expected number of rows
+     * @param cols expected number of columns
+     * @param key expected source key
+     * @return FloodIndex, or null if the file is missing, stale, corrupt or
+     * too large to map
+     */
+    public static FloodIndex load(File sidecar, int rows, int cols, long key) throws IOException {
+        return load(sidecar, rows, cols, key, null);
+    }
+
+    /**
+     * Maps a sidecar file into memory, also checking its content hash
+     * against a terrain.
+     *
+     * @param sidecar file to read
+     * @param rows expected number of rows
+     * @param cols expected number of columns
+     * @param key expected source key
+     * @param verify terrain whose content hash must match, or null to trust
+     * the key
+     * @return FloodIndex, or null if the file is missing, stale, corrupt or
+     * too large to map
+     */
+    public static FloodIndex load(File sidecar, int rows, int cols, long key, Terrain verify) throws IOException {
+        if (!sidecar.isFile()) return null;
+
+        try (var channel = FileChannel.open(sidecar.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + TRAILER_BYTES) return null;
+
+            /* Mappings stay valid after the channel is closed. */
+            ByteBuffer header = map(channel, FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) return null;
+            if (header.getInt(8) != rows || header.getInt(12) != cols || header.getLong(16) != key) return null;
+            if (verify != null && header.getLong(24) != contentHash(verify)) return null;
+
+            long n = (long) rows * cols;
+            int m = header.getInt(32);
+            if (m < 0 || n > Cells.MAX_CELLS) return null;
+            long[] lengths = sectionLengths(n, m);
+            if (lengths == null || size != HEADER_BYTES + sum(lengths) + TRAILER_BYTES) return null;
+
+            /* Each section gets its own mapping, so only a section has to fit in 2 GB. */
+            var crc = new CRC32C();
+            var sections = new ByteBuffer[lengths.length];
+            long offset = HEADER_BYTES;
+            for (int i = 0; i < sections.length; i++) {
+                sections[i] = map(channel, FileChannel.MapMode.READ_ONLY, offset, lengths[i]);
+                crc.update(sections[i].duplicate());
+                offset += lengths[i];
+            }
+            if (crc.getValue() != map(channel, FileChannel.MapMode.READ_ONLY, offset, TRAILER_BYTES).getLong(0)) {
+                return null;
+            }
+
+            return new FloodIndex(rows, cols, sections[0].asDoubleBuffer(), sections[1].asDoubleBuffer(),
+                    sections[2].asIntBuffer(), sections[3].asDoubleBuffer(), sections[4].asIntBuffer());
+        }
+    }
+
+    /**
+     * Writes an index to a sidecar file. The file is written next to its
+     * final location and then moved into place, so readers never see a
+     * half-written sidecar.
+     *
+     * @param index to save
+     * @param sidecar file to write
+     * @param key source key of the file the terrain was read from
+     * @param hash content hash of the terrain the index was built from
+     * @throws IOException also if a section of the index is too large to map
+     */
+    public static void save(FloodIndex index, File sidecar, long key, long hash) throws IOException {
+        long n = (long) index.rows * index.cols;
+        int m = index.islandLevels().limit();
+        long[] lengths = sectionLengths(n, m);
+        if (lengths == null) {
+            throw new IOException("Flood index is too large for a sidecar file (" + n + " cells).");
+        }
+
+        Path target = sidecar.toPath();
+        Path temp = target.resolveSibling(sidecar.getName() + ".tmp");
+        try (var channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = map(channel, FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putInt(index.rows).putInt(index.cols).putLong(key).putLong(hash)
+                    .putInt(m).putInt(0);
+
+            var sections = new ByteBuffer[lengths.length];
+            long offset = HEADER_BYTES;
+            for (int i = 0; i < sections.length; i++) {
+                sections[i] = map(channel, FileChannel.MapMode.READ_WRITE, offset, lengths[i]);
+                offset += lengths[i];
+            }
+            sections[0].asDoubleBuffer().put(index.thresholds());
+            sections[1].asDoubleBuffer().put(index.sorted());
+            sections[2].asIntBuffer().put(index.order());
+            sections[3].asDoubleBuffer().put(index.islandLevels());
+            sections[4].asIntBuffer().put(index.islandCounts());
+
+            var crc = new CRC32C();
+            for (ByteBuffer section : sections) {
+                crc.update(section.duplicate());
+            }
+            map(channel, FileChannel.MapMode.READ_WRITE, offset, TRAILER_BYTES).putLong(0, crc.getValue());
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+     * Byte lengths of the payload sections (thresholds, sorted thresholds,
+     * cells in threshold order, island levels, island counts), or null if
+     * one of them is larger than a single mapping can be.
+     */
+    private static long[] sectionLengths(long n, int m) {
+        long[] lengths = { 8 * n, 8 * n, 4 * n, 8L * m, 4L * m };
+        for (long length : lengths) {
+            if (length > Integer.MAX_VALUE) return null;
+        }
+        return lengths;
+    }
+
+    private static long sum(long[] lengths) {
+        long total = 0;
+        for (long length : lengths) {
+            total += length;
+        }
+        return total;
+    }
+
+    /**
+     * Keys the file a terrain was read from without reading all of it: its
+     * length, modification time and first 64 KB, along with the terrain's
+     * dimensions and sources.
+     *
+     * @param source the file the terrain was read from
+     * @param terrain read from it
+     * @return long, the CRC32C of all that
+     * @throws IOException if the file cannot be read
+     */
+    public static long sourceKey(File source, Terrain terrain) throws IOException {
+        var crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+        try (var channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            buffer.putLong(channel.size()).putLong(source.lastModified()).flip();
+            crc.update(buffer);
+            ByteBuffer head = ByteBuffer.allocate((int) Math.min(KEY_HEAD_BYTES, channel.size()));
+            while (head.hasRemaining()) {
+                if (channel.read(head) < 0) break;
+            }
+            crc.update(head.flip());
+        }
+        buffer.clear();
+        buffer.putInt(terrain.grid.rows()).putInt(terrain.grid.cols()).flip();
+        crc.update(buffer);
+        for (GridLocation s : terrain.sources) {
+            buffer.clear();
+            buffer.putInt(s.row).putInt(s.col).flip();
+            crc.update(buffer);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Hashes everything the index depends on: the dimensions, every height
+     * and every source. This reads the whole terrain.
+     *
+     * @param terrain to hash
+     * @return long, the CRC32C of the terrain contents
+     */
+    public static long contentHash(Terrain terrain) {
+        int rows = terrain.grid.rows();
+        int cols = terrain.grid.cols();
+        var crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(8 * cols, 16)).order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(rows).putInt(cols).flip();
+        crc.update(buffer);
+        for (int r = 0; r < rows; r++) {
+            buffer.clear();
+            for (int c = 0; c < cols; c++) {
+                buffer.putDouble(terrain.grid.get(r, c));
+            }
+            buffer.flip();
+            crc.update(buffer);
+        }
+        for (GridLocation source : terrain.sources) {
+            buffer.clear();
+            buffer.putInt(source.row).putInt(source.col).flip();
+            crc.update(buffer);
+        }
+        return crc.getValue();
+    }
+
+    /* A little-endian mapping of length bytes of the file starting at offset. */
+    private static ByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long offset, long length)
+            throws IOException {
+        return channel.map(mode, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,244 @@
+package tides;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ * This class writes flood maps to PNG files without a display, one pixel per
+ * cell, in the same colors as RisingTidesVisualizer.
+ *
+ * The image is cut into bands of BAND_ROWS rows. Bands are colored, filtered
+ * and compressed in parallel on the common fork-join pool, each into its own
+ * run of deflate blocks ended with a sync flush, so the compressed bands can
+ * simply be written one after the other as a single zlib stream. Only a few
+ * bands per thread are ever in memory, so even a tiled terrain much larger
+ * than the heap can be exported.
+ *
+ * To make many maps of one terrain, keep one exporter (the height range is
+ * found once) and pass a FloodIndex-backed mask, so no map needs a flood:
+ *
+ *     exporter.write((row, col) -> index.isFlooded(height, row, col), file);
+ *
+ * Usage: java tides.FloodMapExporter file.terrain outputDir height [height ...]
+ */
+public class FloodMapExporter {
+
+    // Rows per band; a band of a 10,000-column map is about 2 MB of pixels
+    private static final int BAND_ROWS = 64;
+
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+    private static final byte FILTER_UP = 2;
+
+    /* Interface for the flooded cells to draw. */
+    public interface FloodMask {
+        public boolean isFlooded(int row, int col);
+    }
+
+    private final HeightGrid terrain;
+    private final int rows, cols;
+    private final double minHeight, maxHeight;
+    private final int level;
+
+    /**
+     * @param terrain to draw
+     * @param level of compression, from Deflater.BEST_SPEED to BEST_COMPRESSION
+     */
+    public FloodMapExporter(HeightGrid terrain, int level) {
+        this.terrain = terrain;
+        this.rows = terrain.rows();
+        this.cols = terrain.cols();
+        this.level = level;
+
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                double height = terrain.get(row, col);
+                min = Math.min(min, height);
+                max = Math.max(max, height);
+            }
+        }
+        this.minHeight = min;
+        this.maxHeight = max;
+    }
+
+    /**
+     * An exporter that favors speed over file size.
+     *
+     * @param terrain to draw
+     */
+    public FloodMapExporter(HeightGrid terrain) {
+        this(terrain, Deflater.BEST_SPEED);
+    }
+
+    /**
+     * Writes a flood map to a file.
+     *
+     * @param mask the flooded cells
+     * @param file to write
+     */
+    public void write(FloodMask mask, File file) throws IOException {
+        try (var out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            write(mask, out);
+        }
+    }
+
+    /**
+     * Writes a flood map as a PNG stream. The stream is not closed.
+     *
+     * @param mask the flooded cells
+     * @param out to write to
+     */
+    public void write(FloodMask mask, OutputStream out) throws IOException {
+        var data = new DataOutputStream(out);
+        data.write(SIGNATURE);
+
+        var header = new ByteArrayOutputStream();
+        var fields = new DataOutputStream(header);
+        fields.writeInt(cols);
+        fields.writeInt(rows);
+        fields.writeByte(8); // bits per channel
+        fields.writeByte(2); // RGB
+        fields.writeByte(0); // deflate
+        fields.writeByte(0); // adaptive filtering
+        fields.writeByte(0); // no interlace
+        writeChunk(data, "IHDR", header.toByteArray(), header.size());
+
+        /* The zlib header, then the bands in order, keeping a few bands per thread in flight. */
+        writeChunk(data, "IDAT", new byte[] { 0x78, 0x01 }, 2);
+        var checksum = new Adler32();
+        int numBands = (rows + BAND_ROWS - 1) / BAND_ROWS;
+        int window = 2 * ForkJoinPool.getCommonPoolParallelism() + 1;
+        var pending = new ArrayDeque<Future<Band>>();
+        int next = 0;
+        try {
+            for (int b = 0; b < numBands; b++) {
+                while (next < numBands && pending.size() < window) {
+                    int firstRow = next++ * BAND_ROWS;
+                    pending.add(ForkJoinPool.commonPool().submit(() -> band(mask, firstRow)));
+                }
+                Band band = pending.remove().get();
+                checksum.update(band.raw);
+                writeChunk(data, "IDAT", band.compressed, band.compressedLength);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export interrupted.");
+        } catch (ExecutionException e) {
+            throw new IOException("Error rendering flood map.", e.getCause());
+        } finally {
+            for (Future<Band> band : pending) {
+                band.cancel(true);
+            }
+        }
+
+        /* An empty final block and the checksum end the zlib stream. */
+        long adler = checksum.getValue();
+        byte[] end = { 0x03, 0x00, (byte) (adler >>> 24), (byte) (adler >>> 16), (byte) (adler >>> 8), (byte) adler };
+        writeChunk(data, "IDAT", end, end.length);
+        writeChunk(data, "IEND", new byte[0], 0);
+        data.flush();
+    }
+
+    /* One band of filtered scanlines and their compressed form. */
+    private static final class Band {
+        final byte[] raw;
+        final byte[] compressed;
+        final int compressedLength;
+
+        Band(byte[] raw, byte[] compressed, int compressedLength) {
+            this.raw = raw;
+            this.compressed = compressed;
+            this.compressedLength = compressedLength;
+        }
+    }
+
+    /* Colors, filters and compresses rows [firstRow, firstRow + BAND_ROWS). */
+    private Band band(FloodMask mask, int firstRow) {
+        int endRow = Math.min(rows, firstRow + BAND_ROWS);
+        int stride = 3 * cols + 1;
+
+        /* Up filtering needs the row above, even when it belongs to the band before. */
+        byte[] above = new byte[3 * cols];
+        byte[] pixels = new byte[3 * cols];
+        if (firstRow > 0) color(mask, firstRow - 1, above);
+
+        byte[] raw = new byte[(endRow - firstRow) * stride];
+        for (int row = firstRow; row < endRow; row++) {
+            color(mask, row, pixels);
+            int base = (row - firstRow) * stride;
+            raw[base] = FILTER_UP;
+            for (int i = 0; i < pixels.length; i++) {
+                raw[base + 1 + i] = (byte) (pixels[i] - above[i]);
+            }
+            byte[] swap = above;
+            above = pixels;
+            pixels = swap;
+        }
+
+        /* Raw deflate, ended on a byte boundary so the next band can follow. */
+        var deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(raw);
+            byte[] compressed = new byte[raw.length / 4 + 64];
+            int length = 0;
+            while (true) {
+                length += deflater.deflate(compressed, length, compressed.length - length, Deflater.SYNC_FLUSH);
+                if (length < compressed.length) break;
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            return new Band(raw, compressed, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /* Fills in the RGB bytes of one row. */
+    private void color(FloodMask mask, int row, byte[] pixels) {
+        for (int col = 0, i = 0; col < cols; col++, i += 3) {
+            int rgb = mask.isFlooded(row, col) ? RisingTidesVisualizer.UNDERWATER_RGB
+                    : RisingTidesVisualizer.rgbFor(terrain.get(row, col), minHeight, maxHeight);
+            pixels[i] = (byte) (rgb >>> 16);
+            pixels[i + 1] = (byte) (rgb >>> 8);
+            pixels[i + 2] = (byte) rgb;
+        }
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] name = type.getBytes("US-ASCII");
+        var crc = new CRC32();
+        crc.update(name);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(name);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: java tides.FloodMapExporter file.terrain outputDir height [height ...]");
+            System.exit(1);
+        }
+
+        File terrainFile = new File(args[0]);
+        Terrain terrain = TerrainLoader.loadTerrain(terrainFile, null);
+        FloodIndex index = FloodIndexFile.loadOrBuild(terrain, TerrainLoader.dataFileFor(terrainFile),
+                TerrainLoader.indexFileFor(terrainFile));
+        var exporter = new FloodMapExporter(terrain.grid);
+
+        File dir = new File(args[1]);
+        dir.mkdirs();
+        String name = terrainFile.getName().replaceFirst("\\.terrain$", "");
+        long start = System.nanoTime();
+        for (int i = 2; i < args.length; i++) {
+            double height = Double.parseDouble(args[i]);
+            File file = new File(dir, name + "-" + args[i] + ".png");
+            exporter.write((row, col) -> index.isFlooded(height, row, col), file);
+            System.out.println("Wrote " + file);
+        }
+        System.out.printf("%d map(s) in %.1f ms%n", args.length - 2, (System.nanoTime() - start) / 1e6);
+    }
+}
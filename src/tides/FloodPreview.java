@@ -0,0 +1,63 @@
+package tides;
+
+/**
+ * This class is one rough answer from a TerrainPyramid: a flood on a coarse
+ * level of the pyramid, with bounds on the true amount of land.
+ *
+ * Each coarse cell stands for a square block of scale x scale terrain cells
+ * (smaller along the bottom and right edges). The true number of land cells
+ * at full resolution is always between minLand and maxLand.
+ */
+public class FloodPreview {
+
+    // Full-resolution size of the terrain
+    public final int rows;
+    public final int cols;
+
+    /* Terrain cells per side of one coarse cell. */
+    public final int scale;
+
+    /* Coarse cells that may be flooded (the min-pooled flood). */
+    public final boolean[][] flooded;
+
+    /* Bounds on the number of land cells at full resolution. */
+    public final long minLand;
+    public final long maxLand;
+
+    /* Number of islands on the coarse grid; an estimate, not a bound. */
+    public final int islands;
+
+    public FloodPreview(int rows, int cols, int scale, boolean[][] flooded, long minLand, long maxLand, int islands) {
+        this.rows = rows;
+        this.cols = cols;
+        this.scale = scale;
+        this.flooded = flooded;
+        this.minLand = minLand;
+        this.maxLand = maxLand;
+        this.islands = islands;
+    }
+
+    /**
+     * @return long, the midpoint of the land bounds
+     */
+    public long estimatedLand() {
+        return (minLand + maxLand) / 2;
+    }
+
+    /**
+     * Blows the coarse flood up to the size of the terrain, for display.
+     *
+     * @return boolean[][], where cells that may be flooded are true
+     */
+    public boolean[][] expand() {
+        boolean[][] result = new boolean[rows][cols];
+        for (int r = 0; r < rows; r++) {
+            boolean[] coarse = flooded[r / scale];
+            boolean[] row = result[r];
+            for (int c = 0; c < cols; c++) {
+                row[c] = coarse[c / scale];
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,108 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * This class answers "is this one cell flooded?" without flooding the whole
+ * terrain.
+ *
+ * It runs a best-first search from the water sources, always expanding the
+ * reachable cell closest (in Manhattan distance) to the target. The search
+ * stops as soon as the target is reached, or when there is nothing left to
+ * expand, in which case the target is dry. Only cells at or below the water
+ * height are ever queued, exactly like floodedRegionsIn.
+ *
+ * The heap and the visited marks are kept between calls. Visited cells are
+ * marked with a per-search stamp, so nothing has to be cleared between
+ * searches.
+ */
+public class FloodProbe {
+
+    private final HeightGrid terrain;
+    private final GridLocation[] sources;
+    private final int rows, cols;
+
+    // visited[i] == stamp means cell i has been queued in the current search
+    private int[] visited;
+    private int stamp;
+
+    private final CellHeap frontier = new CellHeap();
+
+    // Cells taken off the frontier, and its largest size, in the last search
+    int lastVisited, lastQueuePeak;
+
+    public FloodProbe(HeightGrid terrain, GridLocation[] sources) {
+        this.terrain = terrain;
+        this.sources = sources;
+        this.rows = terrain.rows();
+        this.cols = terrain.cols();
+    }
+
+    /**
+     * Checks if a given cell is flooded at a certain water height.
+     *
+     * @param height of the water
+     * @param row of the cell
+     * @param col of the cell
+     * @return boolean, true if the cell is flooded, otherwise false
+     */
+    public boolean isFlooded(double height, int row, int col) {
+        int target = Cells.index(row, col, rows, cols);
+        lastVisited = 0;
+        lastQueuePeak = 0;
+
+        /* Sources are always flooded; any other cell above the water never is. */
+        for (GridLocation source : sources) {
+            if (source.row == row && source.col == col) return true;
+        }
+        if (terrain.get(row, col) > height) return false;
+
+        nextStamp();
+        frontier.clear();
+        for (GridLocation source : sources) {
+            int cell = Cells.index(source.row, source.col, rows, cols);
+            if (visited[cell] != stamp) {
+                visited[cell] = stamp;
+                frontier.push(cell, distance(source.row, source.col, row, col));
+            }
+        }
+
+        while (!frontier.isEmpty()) {
+            lastQueuePeak = Math.max(lastQueuePeak, frontier.size());
+            int cell = frontier.pop();
+            lastVisited++;
+            if (cell == target) return true;
+
+            int r = cell / cols;
+            int c = cell - r * cols;
+            if (r > 0) visit(r - 1, c, height, row, col);
+            if (r < rows - 1) visit(r + 1, c, height, row, col);
+            if (c > 0) visit(r, c - 1, height, row, col);
+            if (c < cols - 1) visit(r, c + 1, height, row, col);
+        }
+        return false;
+    }
+
+    /* Queues a neighboring cell if it is under water and not yet queued. */
+    private void visit(int r, int c, double height, int targetRow, int targetCol) {
+        int cell = r * cols + c;
+        if (visited[cell] == stamp || terrain.get(r, c) > height) return;
+        visited[cell] = stamp;
+        frontier.push(cell, distance(r, c, targetRow, targetCol));
+    }
+
+    /* Starts a new search, allocating or wiping the marks only when needed. */
+    private void nextStamp() {
+        if (visited == null) {
+            visited = new int[Cells.count(rows, cols)];
+        }
+        if (++stamp == Integer.MAX_VALUE) {
+            Arrays.fill(visited, 0);
+            stamp = 1;
+        }
+    }
+
+    private static int distance(int r1, int c1, int r2, int c2) {
+        return Math.abs(r1 - r2) + Math.abs(c1 - c2);
+    }
+}
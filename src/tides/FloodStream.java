@@ -0,0 +1,175 @@
+package tides;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class turns a stream of water levels, e.g. from a tide gauge, into a
+ * stream of flood updates (see FloodUpdate).
+ *
+ * Subscribe it to a publisher of heights and subscribe one consumer to it.
+ * Each update is worked out from a FloodIndex: two binary searches plus a
+ * view of the cells that changed, so no reading floods the terrain again.
+ *
+ * The consumer is never sent more updates than it has requested. Readings
+ * are always accepted from upstream, one at a time, but only the latest one
+ * is kept while the consumer is busy. When the consumer asks for more, it
+ * gets a single update from the last height it saw straight to the latest
+ * reading, and the update says how many readings were skipped. A slow
+ * consumer therefore falls behind in time, never in memory.
+ *
+ * Updates are sent on the given executor, one at a time, in order.
+ */
+public class FloodStream implements Flow.Processor<Double, FloodUpdate> {
+
+    /* The latest reading not yet sent, and how many readings it stands for. */
+    private static final class Reading {
+        final double height;
+        final long count;
+
+        Reading(double height, long count) {
+            this.height = height;
+            this.count = count;
+        }
+    }
+
+    private final FloodIndex index;
+    private final Executor executor;
+
+    // Height of the last update sent (only touched by the drain loop)
+    private double height;
+
+    private final AtomicReference<Reading> pending = new AtomicReference<Reading>();
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger work = new AtomicInteger();
+    private final AtomicReference<Flow.Subscriber<? super FloodUpdate>> subscriber =
+            new AtomicReference<Flow.Subscriber<? super FloodUpdate>>();
+
+    private volatile Flow.Subscription upstream;
+    private volatile boolean done, cancelled, terminated;
+    private volatile Throwable error;
+
+    /**
+     * @param index for the terrain
+     * @param height of the water before the first reading
+     * @param executor to send updates on
+     */
+    public FloodStream(FloodIndex index, double height, Executor executor) {
+        this.index = index;
+        this.height = height;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super FloodUpdate> consumer) {
+        if (!subscriber.compareAndSet(null, consumer)) {
+            consumer.onSubscribe(new Flow.Subscription() {
+                public void request(long n) {
+                }
+
+                public void cancel() {
+                }
+            });
+            consumer.onError(new IllegalStateException("A FloodStream only has one subscriber."));
+            return;
+        }
+
+        consumer.onSubscribe(new Flow.Subscription() {
+            public void request(long n) {
+                if (n <= 0) {
+                    Flow.Subscription source = upstream;
+                    if (source != null) source.cancel();
+                    error = new IllegalArgumentException("Requests must be positive, not " + n + ".");
+                    done = true;
+                } else {
+                    demand.getAndAccumulate(n, (current, more) -> current + more < 0 ? Long.MAX_VALUE : current + more);
+                }
+                drain();
+            }
+
+            public void cancel() {
+                cancelled = true;
+                Flow.Subscription source = upstream;
+                if (source != null) source.cancel();
+            }
+        });
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        if (cancelled) {
+            subscription.cancel();
+        } else {
+            subscription.request(1);
+        }
+    }
+
+    @Override
+    public void onNext(Double reading) {
+        pending.getAndUpdate(last -> new Reading(reading, last == null ? 1 : last.count + 1));
+        drain();
+        if (!cancelled) upstream.request(1);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        error = throwable;
+        done = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        done = true;
+        drain();
+    }
+
+    /* Schedules the drain loop unless it is already running; it then runs again. */
+    private void drain() {
+        if (work.getAndIncrement() == 0) {
+            executor.execute(this::drainLoop);
+        }
+    }
+
+    private void drainLoop() {
+        int missed = 1;
+        do {
+            Flow.Subscriber<? super FloodUpdate> consumer = subscriber.get();
+            if (consumer != null && !terminated) {
+                while (!cancelled && demand.get() > 0) {
+                    Reading reading = pending.getAndSet(null);
+                    if (reading == null) break;
+                    FloodUpdate update = update(reading);
+                    if (demand.get() != Long.MAX_VALUE) demand.decrementAndGet();
+                    consumer.onNext(update);
+                }
+
+                /* Finish once the last reading is out (errors skip the rest). */
+                if (done && !cancelled && (error != null || pending.get() == null)) {
+                    terminated = true;
+                    if (error != null) {
+                        consumer.onError(error);
+                    } else {
+                        consumer.onComplete();
+                    }
+                }
+            }
+            missed = work.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private FloodUpdate update(Reading reading) {
+        double newHeight = reading.height;
+        boolean rising = newHeight >= height;
+        var cells = rising ? index.floodedBetween(height, newHeight) : index.floodedBetween(newHeight, height);
+        var delta = new FloodDelta(height, newHeight, rising, cells);
+        height = newHeight;
+        return new FloodUpdate(delta, index.visibleLand(newHeight), index.islandCount(newHeight), reading.count - 1);
+    }
+}
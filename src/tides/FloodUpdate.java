@@ -0,0 +1,52 @@
+package tides;
+
+import java.nio.*;
+
+/**
+ * This class is one update from a FloodStream: how the flood changed since
+ * the last update, and the land and island counts at the new water height.
+ *
+ * If readings came in faster than the subscriber asked for updates, the
+ * readings in between were skipped and the change covers all of them at once.
+ * Since the net change between two heights only ever goes one way, either
+ * newlyFlooded or newlyExposed is empty.
+ */
+public class FloodUpdate {
+
+    private static final IntBuffer NONE = IntBuffer.allocate(0).asReadOnlyBuffer();
+
+    public final double height;
+    public final double previousHeight;
+
+    // The cells that changed, flooded if delta.rising, otherwise dried out
+    public final FloodDelta delta;
+
+    public final int land;
+    public final int islands;
+
+    // Readings that were folded into this update without one of their own
+    public final long skipped;
+
+    public FloodUpdate(FloodDelta delta, int land, int islands, long skipped) {
+        this.height = delta.toHeight;
+        this.previousHeight = delta.fromHeight;
+        this.delta = delta;
+        this.land = land;
+        this.islands = islands;
+        this.skipped = skipped;
+    }
+
+    /**
+     * @return IntBuffer, row-major indices of the cells that went under
+     */
+    public IntBuffer newlyFlooded() {
+        return delta.rising ? delta.cells() : NONE;
+    }
+
+    /**
+     * @return IntBuffer, row-major indices of the cells that came back up
+     */
+    public IntBuffer newlyExposed() {
+        return delta.rising ? NONE : delta.cells();
+    }
+}
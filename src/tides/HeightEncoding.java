@@ -0,0 +1,113 @@
+package tides;
+
+/**
+ * This enum lists the ways TerrainLoader can store the heights of a terrain
+ * that fits in memory.
+ *
+ *  - DOUBLE: a double[][], exactly as read from the file
+ *  - FLOAT32: 4 bytes per cell (FloatHeightGrid)
+ *  - INT16: 2 bytes per cell with a per-terrain scale and offset
+ *    (ShortHeightGrid)
+ *
+ * Terrain data is rarely more precise than a centimeter, so the compact
+ * encodings usually lose nothing that matters while halving or quartering
+ * the memory every flood and paint has to read. The loader's choice can be
+ * set with the tides.heightEncoding system property (double, float32 or
+ * int16).
+ */
+public enum HeightEncoding {
+    DOUBLE, FLOAT32, INT16;
+
+    /**
+     * Stores heights in this encoding.
+     *
+     * @param heights as read from the terrain file
+     * @return HeightGrid, the heights in this encoding
+     */
+    public HeightGrid encode(double[][] heights) {
+        switch (this) {
+            case FLOAT32:
+                return new FloatHeightGrid(heights);
+            case INT16:
+                return new ShortHeightGrid(heights);
+            default:
+                return new ArrayHeightGrid(heights);
+        }
+    }
+
+    /* Interface for filling in a grid one height at a time. */
+    public interface Builder {
+        public void set(int row, int col, double height);
+
+        /**
+         * @return HeightGrid, the heights set so far, in this encoding
+         */
+        public HeightGrid build();
+    }
+
+    /**
+     * Starts a grid in this encoding that is filled in height by height, so
+     * a loader never needs a double[][] for a compact encoding. INT16 needs
+     * the range before it can store anything, so it stages the heights as
+     * floats and quantizes them in build(); that peaks at 6 bytes per cell.
+     *
+     * @param rows of the grid
+     * @param cols of the grid
+     * @return Builder, for setting every height and then building the grid
+     */
+    public Builder builder(int rows, int cols) {
+        switch (this) {
+            case FLOAT32: {
+                var grid = new FloatHeightGrid(rows, cols);
+                return new Builder() {
+                    public void set(int row, int col, double height) {
+                        grid.set(row, col, height);
+                    }
+
+                    public HeightGrid build() {
+                        return grid;
+                    }
+                };
+            }
+            case INT16: {
+                var staged = new FloatHeightGrid(rows, cols);
+                return new Builder() {
+                    double min = Double.POSITIVE_INFINITY;
+                    double max = Double.NEGATIVE_INFINITY;
+
+                    public void set(int row, int col, double height) {
+                        staged.set(row, col, height);
+                        double stored = staged.get(row, col);
+                        min = Math.min(min, stored);
+                        max = Math.max(max, stored);
+                    }
+
+                    public HeightGrid build() {
+                        return new ShortHeightGrid(staged, min, max);
+                    }
+                };
+            }
+            default: {
+                var heights = new double[rows][cols];
+                return new Builder() {
+                    public void set(int row, int col, double height) {
+                        heights[row][col] = height;
+                    }
+
+                    public HeightGrid build() {
+                        return new ArrayHeightGrid(heights);
+                    }
+                };
+            }
+        }
+    }
+
+    /**
+     * @return HeightEncoding, the one named by the tides.heightEncoding
+     * system property, or DOUBLE if it is not set
+     */
+    public static HeightEncoding fromProperty() {
+        String name = System.getProperty("tides.heightEncoding");
+        return name == null ? DOUBLE : valueOf(name.toUpperCase());
+    }
+}
@@ -0,0 +1,56 @@
+package tides;
+
+/**
+ * This interface gives read access to the heights of a terrain, whatever
+ * storage they are kept in.
+ *
+ * RisingTides, its helpers and the visualizer read heights only through this
+ * interface, so a terrain can be a plain double[][] on the heap or a tiled
+ * file that never fully enters memory.
+ */
+public interface HeightGrid {
+
+    /**
+     * @return int, the number of rows in the terrain
+     */
+    int rows();
+
+    /**
+     * @return int, the number of columns in the terrain
+     */
+    int cols();
+
+    /**
+     * @param row of the cell
+     * @param col of the cell
+     * @return double, the height of the cell
+     */
+    double get(int row, int col);
+
+    /**
+     * Changes the height of a cell. Grids that cannot be changed throw
+     * UnsupportedOperationException.
+     *
+     * @param row of the cell
+     * @param col of the cell
+     * @param height of the cell
+     */
+    default void set(int row, int col, double height) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is read-only.");
+    }
+
+    /**
+     * Floods the grid into a mask stored the same way as the heights, for
+     * grids too large to flood into a boolean[][] (on disk for a tiled grid,
+     * in native memory for an off-heap one). Gives the same cells as
+     * floodedRegionsIn.
+     *
+     * @param sources of water
+     * @param height of the water
+     * @return MaskGrid, the flooded cells, to be closed when done; or null
+     * for grids kept on the heap, which are flooded into a boolean[][]
+     */
+    default MaskGrid floodMask(GridLocation[] sources, double height) {
+        return null;
+    }
+}
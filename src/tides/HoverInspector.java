@@ -0,0 +1,99 @@
+package tides;
+
+/**
+ * This class answers "what is under the cursor?" for the Driver.
+ *
+ * It is a snapshot of one run at one water height. Everything it reports is
+ * read out of grids computed once for that run (the heights, the flood
+ * thresholds, the flood mask and the island labels), so each question takes
+ * constant time and moving the mouse never floods anything. A new run makes
+ * a new snapshot.
+ *
+ * The mask is read where it is stored (see RisingTides.floodedMask), so a
+ * tiled terrain is never copied onto the heap. Island labels take an int
+ * per cell on the heap, though, so they are only made when the mask is on
+ * the heap too; for a mask kept on disk or in native memory the island
+ * questions answer "unknown".
+ */
+public class HoverInspector {
+
+    private final HeightGrid terrain;
+    private final FloodIndex index; // may be null
+    private final MaskGrid flooded;
+    private final Islands islands; // null if the mask is not on the heap
+
+    public final double height;
+
+    /**
+     * @param terrain heights of each cell
+     * @param index for the terrain, or null if there is none
+     * @param flooded the flooded cells at the height; read, not closed
+     * @param height of the water
+     */
+    public HoverInspector(HeightGrid terrain, FloodIndex index, MaskGrid flooded, double height) {
+        this.terrain = terrain;
+        this.index = index;
+        this.flooded = flooded;
+        this.height = height;
+        this.islands = flooded instanceof ArrayMaskGrid
+                ? new IslandLabeler().label(terrain, ((ArrayMaskGrid) flooded).flooded) : null;
+    }
+
+    /**
+     * @param row of the cell
+     * @param col of the cell
+     * @return boolean, true if the cell is on the terrain
+     */
+    public boolean contains(int row, int col) {
+        return row >= 0 && row < terrain.rows() && col >= 0 && col < terrain.cols();
+    }
+
+    /**
+     * @param row of the cell
+     * @param col of the cell
+     * @return double, the height of the cell
+     */
+    public double elevation(int row, int col) {
+        return terrain.get(row, col);
+    }
+
+    /**
+     * @param row of the cell
+     * @param col of the cell
+     * @return double, the lowest water height that floods the cell (-infinity
+     * for sources, +infinity if it never floods), or NaN if there is no index
+     */
+    public double threshold(int row, int col) {
+        return index != null ? index.threshold(row, col) : Double.NaN;
+    }
+
+    /**
+     * @param row of the cell
+     * @param col of the cell
+     * @return boolean, true if the cell is flooded at the height
+     */
+    public boolean isFlooded(int row, int col) {
+        return flooded.isFlooded(row, col);
+    }
+
+    /**
+     * @param row of the cell
+     * @param col of the cell
+     * @return int, the island the cell is on (1 and up), 0 if it is flooded,
+     * or -1 if islands are not labeled
+     */
+    public int island(int row, int col) {
+        return islands != null ? islands.labelAt(row, col) : -1;
+    }
+
+    /**
+     * @param row of the cell
+     * @param col of the cell
+     * @return int, the number of cells on the island, 0 if it is flooded, or
+     * -1 if islands are not labeled
+     */
+    public int islandArea(int row, int col) {
+        int island = island(row, col);
+        return island <= 0 ? island : islands.area[island];
+    }
+}
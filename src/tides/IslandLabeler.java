@@ -0,0 +1,266 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * This class finds the islands of a flooded terrain using two-pass scanline
+ * connected-component labeling.
+ *
+ * The first pass walks the grid row by row and gives every land cell a
+ * provisional label taken from its already-visited 8-neighbors (west,
+ * northwest, north and northeast). When those neighbors carry different
+ * labels, the labels are merged in an int-array equivalence table. The second
+ * pass replaces each provisional label with its final island number and
+ * gathers the per-island statistics.
+ *
+ * Both passes are linear in the number of cells and nothing is allocated per
+ * cell. The scratch buffers are kept between calls, so one labeler can be
+ * reused to take inventories at many water heights.
+ */
+public class IslandLabeler {
+
+    // Provisional label for every cell, row-major; 0 means water
+    private int[] provisional = new int[0];
+
+    // Equivalence table: parent[l] is a smaller-or-equal label in the same set
+    private int[] parent = new int[16];
+
+    // Final island number for each provisional label
+    private int[] finalLabel = new int[16];
+
+    // Number of joins of two different sets in the current count()
+    private long joins;
+
+    /**
+     * Labels every island in the terrain.
+     *
+     * @param terrain heights of each cell, used for the peak elevations
+     * @param flooded flooded cells are true, land cells are false
+     * @return Islands, the label grid and per-island statistics
+     */
+    public Islands label(HeightGrid terrain, boolean[][] flooded) {
+        return label(terrain, flooded, null, flooded.length, flooded[0].length);
+    }
+
+    /**
+     * Labels every island of a terrain flooded into a mask, e.g. on disk.
+     * The mask is read one row at a time, but the result still holds a
+     * label for every cell; to only count the islands, use count().
+     *
+     * @param terrain heights of each cell, used for the peak elevations
+     * @param flooded the flooded cells
+     * @return Islands, the label grid and per-island statistics
+     */
+    public Islands label(HeightGrid terrain, MaskGrid flooded) {
+        return label(terrain, null, flooded, flooded.rows(), flooded.cols());
+    }
+
+    /* Labels from whichever of floodedRows or mask is given. */
+    private Islands label(HeightGrid terrain, boolean[][] floodedRows, MaskGrid mask, int rows, int cols) {
+        int n = Cells.count(rows, cols);
+
+        if (provisional.length < n) {
+            provisional = new int[n];
+        }
+        boolean[] buffer = floodedRows == null ? new boolean[cols] : null;
+
+        /* First pass: provisional labels and equivalences. */
+        int next = 1;
+        for (int r = 0; r < rows; r++) {
+            boolean[] row = floodedRows != null ? floodedRows[r] : readRow(mask, r, buffer);
+            int base = r * cols;
+            for (int c = 0; c < cols; c++) {
+                if (row[c]) {
+                    provisional[base + c] = 0;
+                    continue;
+                }
+
+                int west = c > 0 ? provisional[base + c - 1] : 0;
+                int northWest = r > 0 && c > 0 ? provisional[base - cols + c - 1] : 0;
+                int north = r > 0 ? provisional[base - cols + c] : 0;
+                int northEast = r > 0 && c < cols - 1 ? provisional[base - cols + c + 1] : 0;
+
+                int label = west;
+                if (label == 0) label = northWest;
+                if (label == 0) label = north;
+                if (label == 0) label = northEast;
+
+                if (label == 0) {
+                    if (next == parent.length) {
+                        parent = Arrays.copyOf(parent, next * 2);
+                    }
+                    parent[next] = next;
+                    label = next++;
+                } else {
+                    if (west != 0) label = union(label, west);
+                    if (northWest != 0) label = union(label, northWest);
+                    if (north != 0) label = union(label, north);
+                    if (northEast != 0) label = union(label, northEast);
+                }
+                provisional[base + c] = label;
+            }
+        }
+
+        /*
+         * Resolve equivalences. Unions always keep the smaller label as the
+         * root, so every root has been numbered before any label pointing to it.
+         */
+        if (finalLabel.length < next) {
+            finalLabel = new int[parent.length];
+        }
+        int count = 0;
+        for (int l = 1; l < next; l++) {
+            int root = find(l);
+            finalLabel[l] = root == l ? ++count : finalLabel[root];
+        }
+
+        int[] labels = new int[n];
+        int[] area = new int[count + 1];
+        int[] minRow = new int[count + 1];
+        int[] minCol = new int[count + 1];
+        int[] maxRow = new int[count + 1];
+        int[] maxCol = new int[count + 1];
+        double[] peak = new double[count + 1];
+        Arrays.fill(minRow, Integer.MAX_VALUE);
+        Arrays.fill(minCol, Integer.MAX_VALUE);
+        Arrays.fill(maxRow, -1);
+        Arrays.fill(maxCol, -1);
+        Arrays.fill(peak, Double.NEGATIVE_INFINITY);
+
+        /* Second pass: final labels and per-island statistics. */
+        for (int r = 0; r < rows; r++) {
+            int base = r * cols;
+            for (int c = 0; c < cols; c++) {
+                int p = provisional[base + c];
+                if (p == 0) continue;
+
+                int island = finalLabel[p];
+                labels[base + c] = island;
+                area[island]++;
+                if (r < minRow[island]) minRow[island] = r;
+                if (r > maxRow[island]) maxRow[island] = r;
+                if (c < minCol[island]) minCol[island] = c;
+                if (c > maxCol[island]) maxCol[island] = c;
+                double height = terrain.get(r, c);
+                if (height > peak[island]) peak[island] = height;
+            }
+        }
+
+        return new Islands(rows, cols, count, labels, area, minRow, minCol, maxRow, maxCol, peak);
+    }
+
+    /**
+     * Counts the islands of a flooded terrain without labeling it.
+     *
+     * Same scanline labeling, but only the labels of the current and the
+     * previous row are kept. At the end of each row the labels still in use
+     * are renumbered from 1, so the equivalence table never holds more than
+     * about one row's worth of labels. Every label made is a new island and
+     * every union of two different sets joins two, so the count is the
+     * difference. Memory is proportional to the width of the terrain, which
+     * suits masks too large for the heap.
+     *
+     * @param flooded the flooded cells
+     * @return int, the number of islands
+     */
+    public int count(MaskGrid flooded) {
+        int rows = flooded.rows();
+        int cols = flooded.cols();
+        boolean[] row = new boolean[cols];
+        int[] above = new int[cols];
+        int[] current = new int[cols];
+
+        long created = 0;
+        joins = 0;
+        int next = 1;
+        Arrays.fill(finalLabel, 0); // label() leaves it filled in
+        for (int r = 0; r < rows; r++) {
+            readRow(flooded, r, row);
+            for (int c = 0; c < cols; c++) {
+                if (row[c]) {
+                    current[c] = 0;
+                    continue;
+                }
+
+                int west = c > 0 ? current[c - 1] : 0;
+                int northWest = c > 0 ? above[c - 1] : 0;
+                int north = above[c];
+                int northEast = c < cols - 1 ? above[c + 1] : 0;
+
+                int label = join(join(join(join(0, west), northWest), north), northEast);
+                if (label == 0) {
+                    if (next == parent.length) {
+                        parent = Arrays.copyOf(parent, next * 2);
+                    }
+                    parent[next] = next;
+                    label = next++;
+                    created++;
+                }
+                current[c] = label;
+            }
+
+            /* Renumber the sets still in this row 1, 2, ... and forget the rest. */
+            if (finalLabel.length < next) {
+                finalLabel = new int[parent.length];
+            }
+            int kept = 0;
+            for (int c = 0; c < cols; c++) {
+                if (current[c] == 0) continue;
+                int root = find(current[c]);
+                if (finalLabel[root] == 0) finalLabel[root] = ++kept;
+                current[c] = finalLabel[root];
+            }
+            Arrays.fill(finalLabel, 0, next, 0);
+            for (int l = 1; l <= kept; l++) {
+                parent[l] = l;
+            }
+            next = kept + 1;
+
+            int[] swap = above;
+            above = current;
+            current = swap;
+        }
+        return (int) (created - joins);
+    }
+
+    /* Adds a neighbor's set to the set of label (0 for none yet), counting real joins. */
+    private int join(int label, int neighbor) {
+        if (neighbor == 0) return label;
+        if (label == 0) return find(neighbor);
+        int root = find(neighbor);
+        if (root == label) return label;
+        joins++;
+        return union(label, root);
+    }
+
+    /* Copies one row of a mask into buffer. */
+    private static boolean[] readRow(MaskGrid mask, int row, boolean[] buffer) {
+        for (int c = 0; c < buffer.length; c++) {
+            buffer[c] = mask.isFlooded(row, c);
+        }
+        return buffer;
+    }
+
+    /* Finds the root label of the given label, halving the path as it goes. */
+    private int find(int label) {
+        while (parent[label] != label) {
+            parent[label] = parent[parent[label]];
+            label = parent[label];
+        }
+        return label;
+    }
+
+    /* Merges the sets of both labels and returns the (smaller) root. */
+    private int union(int label1, int label2) {
+        int root1 = find(label1);
+        int root2 = find(label2);
+        if (root1 == root2) return root1;
+
+        if (root1 < root2) {
+            parent[root2] = root1;
+            return root1;
+        }
+        parent[root1] = root2;
+        return root2;
+    }
+}
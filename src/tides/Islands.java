@@ -0,0 +1,59 @@
+package tides;
+
+/**
+ * This class holds an island inventory: which island each cell of the terrain
+ * belongs to, and per-island statistics.
+ *
+ * Islands are numbered 1 through count. Flooded cells have label 0. The
+ * per-island arrays are indexed by label, so index 0 is unused.
+ */
+public class Islands {
+    public final int rows;
+    public final int cols;
+
+    /* Number of islands. */
+    public final int count;
+
+    /* Island label for every cell, stored row-major (row * cols + col). */
+    public final int[] labels;
+
+    /* Number of cells in each island. */
+    public final int[] area;
+
+    /* Bounding box of each island, inclusive. */
+    public final int[] minRow, minCol, maxRow, maxCol;
+
+    /* Highest elevation on each island. */
+    public final double[] peak;
+
+    public Islands(int rows, int cols, int count, int[] labels, int[] area, int[] minRow, int[] minCol,
+            int[] maxRow, int[] maxCol, double[] peak) {
+        this.rows = rows;
+        this.cols = cols;
+        this.count = count;
+        this.labels = labels;
+        this.area = area;
+        this.minRow = minRow;
+        this.minCol = minCol;
+        this.maxRow = maxRow;
+        this.maxCol = maxCol;
+        this.peak = peak;
+    }
+
+    /**
+     * @param row of the cell
+     * @param col of the cell
+     * @return int, the island label of the cell, or 0 if the cell is flooded
+     */
+    public int labelAt(int row, int col) {
+        return labels[Cells.index(row, col, rows, cols)];
+    }
+
+    /**
+     * @param cell location
+     * @return int, the island label of the cell, or 0 if the cell is flooded
+     */
+    public int labelAt(GridLocation cell) {
+        return labelAt(cell.row, cell.col);
+    }
+}
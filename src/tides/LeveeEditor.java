@@ -0,0 +1,449 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * This class lets planners raise cells (seawalls, levees) or lower them
+ * (breaches) at a fixed water height, and keeps the flood, the land count and
+ * the island count up to date without flooding the terrain again.
+ *
+ * Every flooded cell carries a level: sources are at level 0, and every other
+ * flooded cell has a flooded 4-neighbor exactly one level below it. Following
+ * lower levels from any flooded cell therefore always leads back to a source.
+ *
+ *  - When cells are raised above the water, only cells that lose every
+ *    supporting neighbor one level down need a second look. Those orphans are
+ *    found by walking upward from the raised cells, then re-flooded from the
+ *    water still around them. Orphans that cannot be reached go dry.
+ *  - When cells are lowered below the water next to flooded cells, the water
+ *    spreads from them into the newly reachable cells.
+ *
+ * Islands are kept as a label grid. Only the islands that touch a cell whose
+ * flood state changed are relabeled, but each of those is relabeled in full.
+ * So the cost of an edit is the size of the region whose reachability
+ * changed plus the whole of every island next to it: cheap for a levee
+ * around a small island, but as large as the mainland for an edit on its
+ * coast. The labels of islands that merge, split or go under are given to
+ * new islands in later edits, so the labels in use (and the per-label
+ * arrays) never outgrow the most islands there have been at once, plus the
+ * islands made by one edit.
+ *
+ * Heights are written into the terrain itself, so the grid must support
+ * set(). Heap, float and native grids do; an INT16 grid only takes heights
+ * inside its range, and tiled grids (the loader's shared cache) take none.
+ * A height the grid refuses fails the whole apply() and leaves the terrain
+ * as it was.
+ */
+public class LeveeEditor {
+
+    // Offsets to the top, bottom, left and right neighbors
+    private static final int[] ROW_STEPS = { -1, 1, 0, 0 };
+    private static final int[] COL_STEPS = { 0, 0, -1, 1 };
+
+    private final HeightGrid terrain;
+    private final double height;
+    private final Runnable onEdit;
+    private final int rows, cols;
+
+    private final boolean[] source;
+    private final boolean[] flooded;
+    private final int[] level;
+
+    private int visibleLand;
+
+    // Island label of every dry cell (0 for water), and the area of each label
+    private final int[] islandOf;
+    private int[] islandArea;
+    private int nextIsland;
+    private int islandCount;
+    // Labels no island has, free for new islands
+    private int[] freeLabels;
+    private int numFree;
+
+    // Per-edit scratch: stamps avoid clearing arrays between edits
+    private final int[] mark;
+    private int stamp;
+    private int[] labelMark;
+    private final int[] queue;
+
+    /**
+     * Floods the terrain once and prepares for edits.
+     *
+     * @param terrain heights of each cell; edits are written into it
+     * @param sources of water
+     * @param height of the water, fixed for the life of the editor
+     */
+    public LeveeEditor(HeightGrid terrain, GridLocation[] sources, double height) {
+        this(terrain, sources, height, () -> {
+        });
+    }
+
+    /*
+     * As above, calling onEdit every time apply() has changed the heights,
+     * so whoever owns the terrain can drop what it derived from them.
+     */
+    LeveeEditor(HeightGrid terrain, GridLocation[] sources, double height, Runnable onEdit) {
+        this.terrain = terrain;
+        this.height = height;
+        this.onEdit = onEdit;
+        this.rows = terrain.rows();
+        this.cols = terrain.cols();
+        int n = Cells.count(rows, cols);
+
+        source = new boolean[n];
+        flooded = new boolean[n];
+        level = new int[n];
+        mark = new int[n];
+        queue = new int[n];
+
+        /* Plain BFS from the sources, recording levels. */
+        int head = 0, tail = 0;
+        for (GridLocation s : sources) {
+            int cell = Cells.index(s.row, s.col, rows, cols);
+            source[cell] = true;
+            if (!flooded[cell]) {
+                flooded[cell] = true;
+                queue[tail++] = cell;
+            }
+        }
+        while (head < tail) {
+            int cell = queue[head++];
+            for (int k = 0; k < 4; k++) {
+                int neighbor = neighbor(cell, k);
+                if (neighbor < 0 || flooded[neighbor] || !underWater(neighbor)) continue;
+                flooded[neighbor] = true;
+                level[neighbor] = level[cell] + 1;
+                queue[tail++] = neighbor;
+            }
+        }
+        visibleLand = n - tail;
+
+        /* Initial islands. */
+        boolean[][] mask = new boolean[rows][cols];
+        for (int cell = 0; cell < n; cell++) {
+            mask[cell / cols][cell % cols] = flooded[cell];
+        }
+        Islands islands = new IslandLabeler().label(terrain, mask);
+        islandOf = islands.labels;
+        islandArea = Arrays.copyOf(islands.area, Math.max(16, 2 * (islands.count + 1)));
+        nextIsland = islands.count + 1;
+        islandCount = islands.count;
+        labelMark = new int[islandArea.length];
+        freeLabels = new int[islandArea.length];
+        retiredLabels = new int[islandArea.length];
+    }
+
+    /**
+     * Changes the heights of a set of cells and updates the flood.
+     *
+     * @param rows of the edited cells
+     * @param cols of the edited cells
+     * @param newHeights for the edited cells
+     * @return int[], the row-major indices of every cell whose flood state changed
+     * @throws IndexOutOfBoundsException if a cell is not on the terrain
+     * @throws UnsupportedOperationException if the terrain cannot be edited
+     * @throws IllegalArgumentException if the terrain cannot hold a height
+     */
+    public int[] apply(int[] rows, int[] cols, double[] newHeights) {
+        if (rows.length != cols.length || rows.length != newHeights.length) {
+            throw new IllegalArgumentException("rows, cols and newHeights must have the same length.");
+        }
+        int[] cells = new int[rows.length];
+        double[] oldHeights = new double[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            cells[i] = Cells.index(rows[i], cols[i], this.rows, this.cols);
+            oldHeights[i] = terrain.get(rows[i], cols[i]);
+        }
+        int written = 0;
+        try {
+            for (; written < rows.length; written++) {
+                terrain.set(rows[written], cols[written], newHeights[written]);
+            }
+        } catch (RuntimeException e) {
+            /* Undo in reverse, so a cell listed twice gets its first height back. */
+            while (written-- > 0) {
+                terrain.set(rows[written], cols[written], oldHeights[written]);
+            }
+            throw e;
+        }
+        onEdit.run();
+
+        /* Raised cells: collect orphans by walking up the levels. */
+        nextStamp();
+        int head = 0, tail = 0;
+        for (int cell : cells) {
+            if (flooded[cell] && !source[cell] && !underWater(cell) && mark[cell] != stamp) {
+                mark[cell] = stamp;
+                flooded[cell] = false;
+                queue[tail++] = cell;
+            }
+        }
+        while (head < tail) {
+            int cell = queue[head++];
+            for (int k = 0; k < 4; k++) {
+                int above = neighbor(cell, k);
+                if (above < 0 || !flooded[above] || source[above] || level[above] != level[cell] + 1) continue;
+                if (!supported(above)) {
+                    mark[above] = stamp;
+                    flooded[above] = false;
+                    queue[tail++] = above;
+                }
+            }
+        }
+        int[] orphans = Arrays.copyOf(queue, tail);
+
+        /* Re-flood orphans from the water that is still next to them. */
+        head = 0;
+        tail = 0;
+        for (int cell : orphans) {
+            if (!underWater(cell)) continue;
+            int best = -1;
+            for (int k = 0; k < 4; k++) {
+                int below = neighbor(cell, k);
+                if (below >= 0 && flooded[below] && (best < 0 || level[below] < level[best])) best = below;
+            }
+            if (best >= 0) {
+                flooded[cell] = true;
+                level[cell] = level[best] + 1;
+                queue[tail++] = cell;
+            }
+        }
+        while (head < tail) {
+            int cell = queue[head++];
+            for (int k = 0; k < 4; k++) {
+                int next = neighbor(cell, k);
+                if (next < 0 || flooded[next] || mark[next] != stamp || !underWater(next)) continue;
+                flooded[next] = true;
+                level[next] = level[cell] + 1;
+                queue[tail++] = next;
+            }
+        }
+
+        /* Lowered cells: spread the water from any flooded neighbor. */
+        head = 0;
+        tail = 0;
+        for (int cell : cells) {
+            if (flooded[cell] || !underWater(cell)) continue;
+            for (int k = 0; k < 4; k++) {
+                int below = neighbor(cell, k);
+                if (below >= 0 && flooded[below]) {
+                    flooded[cell] = true;
+                    level[cell] = level[below] + 1;
+                    queue[tail++] = cell;
+                    break;
+                }
+            }
+        }
+        while (head < tail) {
+            int cell = queue[head++];
+            for (int k = 0; k < 4; k++) {
+                int next = neighbor(cell, k);
+                if (next < 0 || flooded[next] || !underWater(next)) continue;
+                flooded[next] = true;
+                level[next] = level[cell] + 1;
+                queue[tail++] = next;
+            }
+        }
+
+        /*
+         * Orphans started out flooded and cells reached from lowered cells
+         * started out dry, unless they were orphans themselves (marked).
+         */
+        int[] changed = new int[orphans.length + tail];
+        int numChanged = 0;
+        int gained = 0;
+        for (int cell : orphans) {
+            if (!flooded[cell]) {
+                changed[numChanged++] = cell;
+                gained++;
+            }
+        }
+        for (int i = 0; i < tail; i++) {
+            if (mark[queue[i]] != stamp) {
+                changed[numChanged++] = queue[i];
+            }
+        }
+
+        visibleLand += gained - (numChanged - gained);
+        changed = Arrays.copyOf(changed, numChanged);
+        relabelIslands(changed);
+        return changed;
+    }
+
+    /* Does a flooded cell still have a flooded neighbor one level down? */
+    private boolean supported(int cell) {
+        for (int k = 0; k < 4; k++) {
+            int below = neighbor(cell, k);
+            if (below >= 0 && flooded[below] && level[below] == level[cell] - 1) return true;
+        }
+        return false;
+    }
+
+    /*
+     * Relabels every island touching a cell that changed. Each BFS covers one
+     * whole new island; every old label it runs into is retired. Retired
+     * labels are only freed at the end, since cells of other old islands may
+     * still carry them until their own BFS.
+     */
+    private void relabelIslands(int[] changed) {
+        nextStamp();
+        retired = 0;
+        int created = 0;
+
+        /* Land that went under water: its island may have split or vanished. */
+        for (int cell : changed) {
+            if (flooded[cell]) {
+                retire(islandOf[cell]);
+                islandOf[cell] = 0;
+            }
+        }
+
+        /* Every island next to (or made of) a changed cell gets a new label. */
+        for (int cell : changed) {
+            int r = cell / cols;
+            int c = cell % cols;
+            for (int dr = -1; dr <= 1; dr++) {
+                for (int dc = -1; dc <= 1; dc++) {
+                    int nr = r + dr;
+                    int nc = c + dc;
+                    if (nr < 0 || nr >= rows || nc < 0 || nc >= cols) continue;
+                    int seed = nr * cols + nc;
+                    if (flooded[seed] || mark[seed] == stamp) continue;
+                    floodIsland(seed);
+                    created++;
+                }
+            }
+        }
+
+        islandCount += created - retired;
+        System.arraycopy(retiredLabels, 0, freeLabels, numFree, retired);
+        numFree += retired;
+    }
+
+    // Old labels retired by the current relabeling
+    private int[] retiredLabels;
+    private int retired;
+
+    private void retire(int label) {
+        if (label != 0 && labelMark[label] != stamp) {
+            labelMark[label] = stamp;
+            islandArea[label] = 0;
+            retiredLabels[retired++] = label;
+        }
+    }
+
+    /* Gives one whole island a free label, retiring any old labels on it. */
+    private void floodIsland(int seed) {
+        int label;
+        if (numFree > 0) {
+            label = freeLabels[--numFree];
+        } else {
+            if (nextIsland == islandArea.length) {
+                islandArea = Arrays.copyOf(islandArea, nextIsland * 2);
+                labelMark = Arrays.copyOf(labelMark, nextIsland * 2);
+                freeLabels = Arrays.copyOf(freeLabels, nextIsland * 2);
+                retiredLabels = Arrays.copyOf(retiredLabels, nextIsland * 2);
+            }
+            label = nextIsland++;
+        }
+
+        int head = 0, tail = 0;
+        mark[seed] = stamp;
+        queue[tail++] = seed;
+        while (head < tail) {
+            int cell = queue[head++];
+            retire(islandOf[cell]);
+            islandOf[cell] = label;
+
+            int r = cell / cols;
+            int c = cell % cols;
+            for (int dr = -1; dr <= 1; dr++) {
+                for (int dc = -1; dc <= 1; dc++) {
+                    int nr = r + dr;
+                    int nc = c + dc;
+                    if (nr < 0 || nr >= rows || nc < 0 || nc >= cols) continue;
+                    int next = nr * cols + nc;
+                    if (flooded[next] || mark[next] == stamp) continue;
+                    mark[next] = stamp;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        islandArea[label] = tail;
+    }
+
+    private boolean underWater(int cell) {
+        return source[cell] || terrain.get(cell / cols, cell % cols) <= height;
+    }
+
+    /* Row-major index of neighbor k of a cell, or -1 past the edge. */
+    private int neighbor(int cell, int k) {
+        int r = cell / cols + ROW_STEPS[k];
+        int c = cell % cols + COL_STEPS[k];
+        if (r < 0 || r >= rows || c < 0 || c >= cols) return -1;
+        return r * cols + c;
+    }
+
+    private void nextStamp() {
+        if (++stamp == Integer.MAX_VALUE) {
+            Arrays.fill(mark, 0);
+            Arrays.fill(labelMark, 0);
+            stamp = 1;
+        }
+    }
+
+    /**
+     * @return double, the water height this editor works at
+     */
+    public double height() {
+        return height;
+    }
+
+    /**
+     * @param row of the cell
+     * @param col of the cell
+     * @return boolean, true if the cell is flooded
+     */
+    public boolean isFlooded(int row, int col) {
+        return flooded[Cells.index(row, col, rows, cols)];
+    }
+
+    /**
+     * @return int, the number of cells above water
+     */
+    public int visibleLand() {
+        return visibleLand;
+    }
+
+    /**
+     * @return int, the number of islands
+     */
+    public int islandCount() {
+        return islandCount;
+    }
+
+    /**
+     * Island labels are not stable across edits: any island next to a
+     * change gets a new label, which may be one a gone island had.
+     *
+     * @param row of the cell
+     * @param col of the cell
+     * @return int, the island label of the cell, or 0 if the cell is flooded
+     */
+    public int islandAt(int row, int col) {
+        return islandOf[Cells.index(row, col, rows, cols)];
+    }
+
+    /**
+     * @param label of an island, from islandAt
+     * @return int, the number of cells on that island
+     */
+    public int islandArea(int label) {
+        return islandArea[label];
+    }
+
+    /* One past the highest island label given out so far. */
+    int labelLimit() {
+        return nextIsland;
+    }
+}
@@ -0,0 +1,64 @@
+package tides;
+
+/**
+ * This interface is a flood mask: one flag per cell, flooded or dry.
+ *
+ * It is to flood results what HeightGrid is to heights. A terrain too large
+ * for the heap floods into a mask stored the same way as its heights (see
+ * HeightGrid.floodMask), so a flood never needs a boolean[rows][cols].
+ *
+ * Masks that hold a file or native memory release it in close().
+ */
+public interface MaskGrid extends AutoCloseable {
+
+    /**
+     * @return int, the number of rows in the mask
+     */
+    int rows();
+
+    /**
+     * @return int, the number of columns in the mask
+     */
+    int cols();
+
+    /**
+     * @param row of the cell
+     * @param col of the cell
+     * @return boolean, true if the cell is flooded
+     */
+    boolean isFlooded(int row, int col);
+
+    /**
+     * Marks a cell as flooded.
+     *
+     * @param row of the cell
+     * @param col of the cell
+     */
+    void flood(int row, int col);
+
+    /**
+     * Marks every cell as dry.
+     */
+    void clear();
+
+    /**
+     * @return long, the number of flooded cells
+     */
+    default long count() {
+        long count = 0;
+        for (int r = 0; r < rows(); r++) {
+            for (int c = 0; c < cols(); c++) {
+                if (isFlooded(r, c)) count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Releases whatever the mask is stored in. The mask cannot be used
+     * afterwards.
+     */
+    @Override
+    default void close() {
+    }
+}
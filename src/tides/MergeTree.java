@@ -0,0 +1,291 @@
+package tides;
+
+import java.nio.*;
+import java.util.*;
+
+/**
+ * This class answers "which island is this cell on at height h, and how big
+ * is it?" for any cell and any height, without flooding the terrain.
+ *
+ * As the water falls, land cells come out of the water in falling threshold
+ * order (see FloodIndex). Islands appear, grow and merge, but never split.
+ * The merge tree records that history once:
+ *  - a node is created when a cell comes up with no dry neighbor (a new
+ *    island) or joins two or more islands together (a merge)
+ *  - a cell that comes up next to exactly one island is attached to that
+ *    island's current node
+ *  - the level of a node is the threshold of the cell that created it, so
+ *    the node exists while the water is below that level
+ *  - cells with the same threshold come up at the same water height, so
+ *    only islands that existed above that threshold count toward a merge,
+ *    and an island that just grows by tied cells keeps its node
+ *
+ * Levels never rise going up the tree. The island of a dry cell at height h
+ * is therefore the highest ancestor of its node whose level is still above
+ * h. Each node has one extra jump pointer (Myers' skew-binary scheme), which
+ * finds that ancestor in a logarithmic number of steps.
+ *
+ * The area of that island is the size of every child subtree (all of those
+ * cells are above h) plus the cells attached directly to it that are above h.
+ * The attached cells of each node are stored together in falling threshold
+ * order, so the second part is a binary search.
+ */
+public class MergeTree {
+
+    public final int rows;
+    public final int cols;
+
+    private final FloodIndex index;
+
+    // Node each cell was attached to when it came up, or -1 for sources
+    private final int[] nodeOf;
+
+    // Per node: level, parent (-1 for roots) and jump pointer
+    private final double[] level;
+    private final int[] parent;
+    private final int[] jump;
+
+    // Per node: total size of the child subtrees
+    private final int[] childArea;
+
+    // Thresholds of the cells attached to node v, highest first, are
+    // attached[attachedStart[v]] to attached[attachedStart[v + 1] - 1]
+    private final int[] attachedStart;
+    private final double[] attached;
+
+    private MergeTree(FloodIndex index, int[] nodeOf, double[] level, int[] parent, int[] jump, int[] childArea,
+            int[] attachedStart, double[] attached) {
+        this.rows = index.rows;
+        this.cols = index.cols;
+        this.index = index;
+        this.nodeOf = nodeOf;
+        this.level = level;
+        this.parent = parent;
+        this.jump = jump;
+        this.childArea = childArea;
+        this.attachedStart = attachedStart;
+        this.attached = attached;
+    }
+
+    /**
+     * Builds the merge tree from the thresholds of an index.
+     *
+     * @param index for the terrain
+     * @return MergeTree, the island history of the terrain
+     */
+    public static MergeTree build(FloodIndex index) {
+        int rows = index.rows;
+        int cols = index.cols;
+        IntBuffer order = index.order();
+        int n = order.limit();
+
+        int[] nodeOf = new int[n];
+        Arrays.fill(nodeOf, -1);
+        int[] root = new int[n];
+        Arrays.fill(root, -1); // -1 means still under water
+        int[] nodeOfRoot = new int[n];
+
+        // Nodes are numbered in creation order, so parents come after children
+        double[] level = new double[16];
+        int[] parent = new int[16];
+        int[] childArea = new int[16];
+        int[] size = new int[16];
+        int[] alias = new int[16];   // node a folded node now belongs to, or itself
+        int[] visible = new int[16]; // islands from above its level a node joins: 0, or 2 for several
+        int numNodes = 0;
+
+        int[] found = new int[8];
+        for (int i = n - 1; i >= 0; i--) {
+            int cell = order.get(i);
+            double threshold = index.threshold(cell / cols, cell % cols);
+            if (threshold == Double.NEGATIVE_INFINITY) break;
+
+            /* The distinct islands next to the cell. */
+            int r = cell / cols;
+            int c = cell - r * cols;
+            int numFound = 0;
+            for (int dr = -1; dr <= 1; dr++) {
+                for (int dc = -1; dc <= 1; dc++) {
+                    int nr = r + dr;
+                    int nc = c + dc;
+                    if ((dr == 0 && dc == 0) || nr < 0 || nr >= rows || nc < 0 || nc >= cols) continue;
+                    int neighbor = nr * cols + nc;
+                    if (root[neighbor] == -1) continue;
+                    int island = find(root, neighbor);
+                    boolean seen = false;
+                    for (int k = 0; k < numFound; k++) {
+                        if (found[k] == island) seen = true;
+                    }
+                    if (!seen) found[numFound++] = island;
+                }
+            }
+
+            /*
+             * Cells with the same threshold come up together, but one at a
+             * time here. A node made at this threshold never stands alone at
+             * any water height, so it is folded into whatever the cell joins,
+             * and only islands that exist above this threshold count toward a
+             * merge. Otherwise an island that merely grows by a few tied
+             * cells would get a new id.
+             */
+            int seenAbove = 0;
+            int above = -1, tied = -1;
+            for (int k = 0; k < numFound; k++) {
+                int v = nodeOfRoot[found[k]];
+                if (level[v] > threshold) {
+                    seenAbove++;
+                    above = v;
+                } else {
+                    seenAbove += visible[v];
+                    tied = v;
+                }
+            }
+
+            /* Children are always nodes from above this threshold, so they are numbered before any tied node. */
+            int node;
+            if (seenAbove == 1) {
+                node = above;
+            } else if (tied != -1) {
+                node = tied;
+            } else {
+                if (numNodes == level.length) {
+                    level = Arrays.copyOf(level, 2 * numNodes);
+                    parent = Arrays.copyOf(parent, 2 * numNodes);
+                    childArea = Arrays.copyOf(childArea, 2 * numNodes);
+                    size = Arrays.copyOf(size, 2 * numNodes);
+                    alias = Arrays.copyOf(alias, 2 * numNodes);
+                    visible = Arrays.copyOf(visible, 2 * numNodes);
+                }
+                node = numNodes++;
+                level[node] = threshold;
+                parent[node] = -1;
+                alias[node] = node;
+            }
+            if (level[node] == threshold) visible[node] = Math.min(2, seenAbove);
+
+            root[cell] = cell;
+            for (int k = 0; k < numFound; k++) {
+                int v = nodeOfRoot[found[k]];
+                root[found[k]] = cell;
+                if (v == node) continue;
+                if (level[v] > threshold) {
+                    parent[v] = node;
+                    childArea[node] += size[v];
+                } else {
+                    alias[v] = node;
+                    childArea[node] += childArea[v];
+                }
+                size[node] += size[v];
+            }
+            nodeOf[cell] = node;
+            nodeOfRoot[cell] = node;
+            size[node]++;
+        }
+
+        /* Send the cells and children of folded nodes to the nodes they were folded into. */
+        for (int v = 0; v < numNodes; v++) {
+            if (alias[v] != v) {
+                parent[v] = -1;
+            } else if (parent[v] != -1) {
+                parent[v] = resolve(alias, parent[v]);
+            }
+        }
+        for (int cell = 0; cell < n; cell++) {
+            if (nodeOf[cell] >= 0) nodeOf[cell] = resolve(alias, nodeOf[cell]);
+        }
+
+        /* Attached cells of each node, grouped by node in falling threshold order. */
+        int[] attachedStart = new int[numNodes + 1];
+        for (int cell = 0; cell < n; cell++) {
+            if (nodeOf[cell] >= 0) attachedStart[nodeOf[cell] + 1]++;
+        }
+        for (int v = 0; v < numNodes; v++) {
+            attachedStart[v + 1] += attachedStart[v];
+        }
+        double[] attached = new double[attachedStart[numNodes]];
+        int[] fill = Arrays.copyOf(attachedStart, numNodes);
+        for (int i = n - 1; i >= 0; i--) {
+            int cell = order.get(i);
+            if (nodeOf[cell] < 0) continue;
+            attached[fill[nodeOf[cell]]++] = index.threshold(cell / cols, cell % cols);
+        }
+
+        /* Jump pointers, from the roots down. */
+        int[] depth = new int[numNodes];
+        int[] jump = new int[numNodes];
+        for (int v = numNodes - 1; v >= 0; v--) {
+            int p = parent[v];
+            if (p == -1) {
+                jump[v] = v;
+                continue;
+            }
+            depth[v] = depth[p] + 1;
+            int pj = jump[p];
+            jump[v] = depth[p] - depth[pj] == depth[pj] - depth[jump[pj]] ? jump[pj] : p;
+        }
+
+        return new MergeTree(index, nodeOf, Arrays.copyOf(level, numNodes), Arrays.copyOf(parent, numNodes), jump,
+                Arrays.copyOf(childArea, numNodes), attachedStart, attached);
+    }
+
+    /* The node a node was folded into, following folds of folds. */
+    private static int resolve(int[] alias, int v) {
+        while (alias[v] != v) {
+            v = alias[v];
+        }
+        return v;
+    }
+
+    /* Union-find root of a dry cell, halving the path as it goes. */
+    private static int find(int[] root, int cell) {
+        while (root[cell] != cell) {
+            root[cell] = root[root[cell]];
+            cell = root[cell];
+        }
+        return cell;
+    }
+
+    /**
+     * Finds the island a cell is on. The id stays the same over every height
+     * at which the island neither merges with another nor disappears.
+     *
+     * @param height of the water
+     * @param row of the cell
+     * @param col of the cell
+     * @return int, the island id, or -1 if the cell is flooded
+     * @throws IndexOutOfBoundsException if the cell is not on the terrain
+     */
+    public int islandAt(double height, int row, int col) {
+        if (index.isFlooded(height, row, col)) return -1;
+
+        int v = nodeOf[Cells.index(row, col, rows, cols)];
+        while (parent[v] != -1 && level[parent[v]] > height) {
+            v = level[jump[v]] > height ? jump[v] : parent[v];
+        }
+        return v;
+    }
+
+    /**
+     * @param height of the water
+     * @param island id from islandAt at the same height
+     * @return int, the number of cells on the island at that height
+     */
+    public int islandArea(double height, int island) {
+        /* Attached cells are stored highest first: count those above the water. */
+        int lo = attachedStart[island], hi = attachedStart[island + 1];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (attached[mid] > height) lo = mid + 1;
+            else hi = mid;
+        }
+        return childArea[island] + lo - attachedStart[island];
+    }
+
+    /**
+     * @param height of the water
+     * @return int, the number of islands at that height
+     */
+    public int islandCount(double height) {
+        return index.islandCount(height);
+    }
+}
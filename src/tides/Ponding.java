@@ -0,0 +1,73 @@
+package tides;
+
+/**
+ * This class holds where rain pools on a terrain: the surface the water
+ * fills up to, how deep the water is over every cell, and the ponds
+ * (depressions) themselves.
+ *
+ * Ponds are numbered 1 through count. Cells that stay dry have label 0. The
+ * per-pond arrays are indexed by label, so index 0 is unused.
+ */
+public class Ponding {
+    public final int rows;
+    public final int cols;
+
+    /* Height of the filled surface for every cell, row-major (row * cols + col). */
+    public final double[] filled;
+
+    /* Number of ponds. */
+    public final int count;
+
+    /* Pond label for every cell, row-major. */
+    public final int[] labels;
+
+    /* Height at which each pond spills over (the level of its surface). */
+    public final double[] spill;
+
+    /* Number of cells in each pond. */
+    public final int[] area;
+
+    /* Water in each pond: the sum of the depths of its cells. */
+    public final double[] volume;
+
+    public Ponding(int rows, int cols, double[] filled, int count, int[] labels, double[] spill, int[] area,
+            double[] volume) {
+        this.rows = rows;
+        this.cols = cols;
+        this.filled = filled;
+        this.count = count;
+        this.labels = labels;
+        this.spill = spill;
+        this.area = area;
+        this.volume = volume;
+    }
+
+    /**
+     * @param row of the cell
+     * @param col of the cell
+     * @return double, the height of the filled surface over the cell
+     */
+    public double filledAt(int row, int col) {
+        return filled[Cells.index(row, col, rows, cols)];
+    }
+
+    /**
+     * @param terrain the ponding was computed for
+     * @param row of the cell
+     * @param col of the cell
+     * @return double, the depth of the pond over the cell, or 0 if it is dry
+     */
+    public double depth(HeightGrid terrain, int row, int col) {
+        int cell = Cells.index(row, col, rows, cols);
+        return labels[cell] == 0 ? 0 : filled[cell] - terrain.get(row, col);
+    }
+
+    /**
+     * @param row of the cell
+     * @param col of the cell
+     * @return int, the pond the cell is in, or 0 if it is dry
+     */
+    public int labelAt(int row, int col) {
+        return labels[Cells.index(row, col, rows, cols)];
+    }
+}
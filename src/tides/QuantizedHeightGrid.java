@@ -0,0 +1,20 @@
+package tides;
+
+/**
+ * This interface is a HeightGrid that stores its heights in fewer bits than a
+ * double. get() always returns the stored (rounded) height, so every flood
+ * compares against exactly the same value each time.
+ */
+public interface QuantizedHeightGrid extends HeightGrid {
+
+    /**
+     * @return double, the largest difference between an original height and
+     * the height that was stored for it
+     */
+    double maxError();
+
+    /**
+     * @return int, the number of bytes used to store each height
+     */
+    int bytesPerCell();
+}
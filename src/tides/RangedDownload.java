@@ -0,0 +1,400 @@
+package tides;
+
+import java.io.*;
+import java.net.*;
+import java.net.http.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class downloads a file over several HTTP connections at once while
+ * the file is being read, so a terrain can be parsed as it arrives instead
+ * of after the whole download.
+ *
+ * The file is cut into chunks of CHUNK_BYTES. Up to CONNECTIONS virtual
+ * threads each take the next missing chunk, fetch it with an HTTP Range
+ * request and write it into a .part file next to the destination. The
+ * stream from openStream() reads the .part file from the start and waits
+ * whenever it catches up with the bytes that have arrived, so parsing runs
+ * right behind the download and the whole load takes about as long as the
+ * slower of the two.
+ *
+ * A .parts file records which chunks are finished. If a download is
+ * interrupted, the next one for the same destination only fetches the
+ * chunks that are missing, provided the server still reports the same
+ * length and validator (ETag or Last-Modified). Servers that do not accept
+ * ranges are read over a single connection, still in step with the reader,
+ * but cannot be resumed. An attempt that receives nothing at all leaves no
+ * files behind.
+ *
+ * The destination is only written by install(), after await() has seen every
+ * byte arrive, so the caller decides when the finished file replaces what is
+ * there.
+ */
+public class RangedDownload implements Closeable {
+
+    public static final int CHUNK_BYTES = 1 << 20;
+    public static final int CONNECTIONS = 4;
+
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .followRedirects(HttpClient.Redirect.NORMAL).build();
+
+    private final URI uri;
+    private final File dataFile, partFile, progressFile;
+    private final TerrainLoader.DownloadNotifier notifier;
+
+    // Length of the file, or -1 if the server did not say (then there is one chunk)
+    private final long length;
+    private final boolean ranged;
+    private final int numChunks;
+    private final String validator;
+
+    private final FileChannel channel;
+    private final FileChannel progress; // header, then one byte per chunk (1 = finished), or null
+
+    private final AtomicInteger nextChunk = new AtomicInteger();
+    private final Thread[] workers;
+
+    /* Everything below is guarded by lock. */
+    private final Object lock = new Object();
+    private final long[] written; // bytes written into each chunk so far
+    private int firstUnfinished;  // every chunk before this one is finished
+    private long prefix;          // bytes from the start of the file that have all arrived
+    private long received;        // bytes that have arrived, in any chunk
+    private int finishedChunks;
+    private boolean complete, closed;
+    private IOException failure;
+    private int lastPercent = -1;
+
+    private RangedDownload(URI uri, File dataFile, TerrainLoader.DownloadNotifier notifier, long length,
+            boolean ranged, String validator) throws IOException {
+        this.uri = uri;
+        this.dataFile = dataFile;
+        this.partFile = new File(dataFile.getPath() + ".part");
+        this.progressFile = new File(dataFile.getPath() + ".parts");
+        this.notifier = notifier;
+        this.length = length;
+        this.ranged = ranged;
+        this.validator = validator;
+        this.numChunks = ranged ? (int) ((length + CHUNK_BYTES - 1) / CHUNK_BYTES) : 1;
+        this.written = new long[numChunks];
+
+        boolean resume = ranged && partFile.exists() && resumeFrom(progressFile);
+        this.channel = FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (!resume) channel.truncate(0);
+        this.progress = ranged ? openProgress(resume) : null;
+        if (!ranged) progressFile.delete();
+
+        for (int i = 0; i < numChunks; i++) {
+            received += written[i];
+            if (written[i] > 0) finishedChunks++;
+        }
+        advance();
+
+        int needed = numChunks - finishedChunks;
+        this.workers = new Thread[ranged ? Math.min(CONNECTIONS, needed) : 1];
+        for (int w = 0; w < workers.length; w++) {
+            workers[w] = Thread.ofVirtual().name("download-" + w).start(this::work);
+        }
+        if (needed == 0) finish();
+    }
+
+    /**
+     * Starts downloading a file in the background.
+     *
+     * @param source URL of the file
+     * @param dataFile where the finished file goes
+     * @param notifier told about progress, or null
+     * @return RangedDownload, the download in progress
+     */
+    public static RangedDownload start(String source, File dataFile, TerrainLoader.DownloadNotifier notifier)
+            throws IOException {
+        URI uri;
+        try {
+            uri = new URI(source);
+        } catch (URISyntaxException e) {
+            throw new IOException("Bad terrain URL: " + source, e);
+        }
+
+        /* Ask for the length and whether ranges work; any trouble means one plain GET. */
+        long length = -1;
+        boolean ranged = false;
+        String validator = "";
+        try {
+            HttpResponse<Void> head = CLIENT.send(HttpRequest.newBuilder(uri)
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.discarding());
+            if (head.statusCode() == 200) {
+                length = head.headers().firstValueAsLong("Content-Length").orElse(-1);
+                ranged = length > 0 && head.headers().firstValue("Accept-Ranges").orElse("").equalsIgnoreCase("bytes");
+                validator = head.headers().firstValue("ETag")
+                        .orElse(head.headers().firstValue("Last-Modified").orElse(""));
+            }
+        } catch (IOException e) {
+            // fall through to a single connection
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download interrupted.");
+        }
+        return new RangedDownload(uri, dataFile, notifier, length, ranged, validator);
+    }
+
+    /* Reads the finished chunks of an earlier attempt, if it was for the same file. */
+    private boolean resumeFrom(File file) throws IOException {
+        if (!file.exists()) return false;
+        try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readLong() != length || in.readInt() != CHUNK_BYTES || !in.readUTF().equals(validator)) {
+                return false;
+            }
+            for (int i = 0; i < numChunks; i++) {
+                if (in.read() == 1) written[i] = chunkLength(i);
+            }
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    private FileChannel openProgress(boolean resume) throws IOException {
+        if (!resume) {
+            try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(progressFile)))) {
+                out.writeLong(length);
+                out.writeInt(CHUNK_BYTES);
+                out.writeUTF(validator);
+                out.write(new byte[numChunks]);
+            }
+        }
+        return FileChannel.open(progressFile.toPath(), StandardOpenOption.WRITE);
+    }
+
+    private long chunkStart(int chunk) {
+        return (long) chunk * CHUNK_BYTES;
+    }
+
+    private long chunkLength(int chunk) {
+        return ranged ? Math.min(CHUNK_BYTES, length - chunkStart(chunk)) : Long.MAX_VALUE;
+    }
+
+    /* Body of each worker thread. */
+    private void work() {
+        try {
+            if (!ranged) {
+                fetch(0, HttpRequest.newBuilder(uri).build(), 200);
+                finish();
+                return;
+            }
+            for (int chunk; (chunk = nextChunk.getAndIncrement()) < numChunks;) {
+                synchronized (lock) {
+                    if (closed || failure != null) return;
+                    if (written[chunk] == chunkLength(chunk)) continue; // finished by an earlier attempt
+                }
+                long from = chunkStart(chunk);
+                long to = from + chunkLength(chunk) - 1;
+                fetch(chunk, HttpRequest.newBuilder(uri).header("Range", "bytes=" + from + "-" + to).build(), 206);
+
+                /* Record the chunk as finished, on disk and here. */
+                progress.write(ByteBuffer.wrap(new byte[] { 1 }), progressHeaderBytes() + chunk);
+                boolean done;
+                synchronized (lock) {
+                    done = ++finishedChunks == numChunks;
+                }
+                if (done) finish();
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (InterruptedException e) {
+            fail(new InterruptedIOException("Download interrupted."));
+        }
+    }
+
+    private long progressHeaderBytes() {
+        return 8 + 4 + 2 + validator.getBytes(java.nio.charset.StandardCharsets.UTF_8).length;
+    }
+
+    /* Streams one response body into its chunk of the .part file. */
+    private void fetch(int chunk, HttpRequest request, int expectedStatus) throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = CLIENT.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream body = response.body()) {
+            if (response.statusCode() != expectedStatus) {
+                throw new IOException("Server answered " + response.statusCode() + " for " + uri);
+            }
+            byte[] buffer = new byte[BUFFER_BYTES];
+            long position = chunkStart(chunk);
+            long remaining = chunkLength(chunk);
+            int n;
+            while (remaining > 0 && (n = body.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
+                ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, n);
+                while (bytes.hasRemaining()) {
+                    position += channel.write(bytes, position);
+                }
+                remaining -= n;
+                arrived(chunk, n);
+            }
+            if (ranged && remaining > 0) {
+                throw new IOException("Connection closed early while downloading " + uri);
+            }
+        }
+    }
+
+    /* Notes new bytes in a chunk and wakes up the reader. */
+    private void arrived(int chunk, int n) throws IOException {
+        int percent = -1;
+        long total, sofar;
+        synchronized (lock) {
+            if (closed) throw new IOException("Download closed.");
+            written[chunk] += n;
+            received += n;
+            advance();
+            lock.notifyAll();
+
+            sofar = received;
+            total = length > 0 ? length : received;
+            int newPercent = (int) (100.0 * received / total);
+            if (newPercent != lastPercent) {
+                lastPercent = newPercent;
+                percent = newPercent;
+            }
+        }
+        if (percent >= 0 && notifier != null) {
+            synchronized (notifier) {
+                notifier.onProgress((int) Math.min(Integer.MAX_VALUE, sofar),
+                        (int) Math.min(Integer.MAX_VALUE, total));
+            }
+        }
+    }
+
+    /* Moves the readable prefix past every chunk that is finished. */
+    private void advance() {
+        while (firstUnfinished < numChunks && written[firstUnfinished] == chunkLength(firstUnfinished)) {
+            firstUnfinished++;
+        }
+        prefix = firstUnfinished < numChunks ? chunkStart(firstUnfinished) + written[firstUnfinished] : length;
+    }
+
+    private void finish() {
+        synchronized (lock) {
+            if (!ranged) prefix = written[0];
+            complete = true;
+            lock.notifyAll();
+        }
+    }
+
+    private void fail(IOException e) {
+        synchronized (lock) {
+            if (failure == null && !closed) failure = e;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Opens a stream over the file that blocks until the bytes it needs have
+     * arrived. Only one stream should be open at a time.
+     *
+     * @return InputStream, the whole file from the start
+     */
+    public InputStream openStream() {
+        return new InputStream() {
+            private long position;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                long available;
+                synchronized (lock) {
+                    while (position >= prefix && !complete && failure == null && !closed) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("Download interrupted.");
+                        }
+                    }
+                    if (position >= prefix) {
+                        if (failure != null) throw new IOException("Download failed.", failure);
+                        if (closed) throw new IOException("Download closed.");
+                        return -1;
+                    }
+                    available = prefix - position;
+                }
+                int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, available)), position);
+                position += n;
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Waits for the download to finish. The file stays in its .part file
+     * until install().
+     *
+     * @throws IOException if any part of the download failed; the parts that
+     * did arrive are kept for the next attempt
+     */
+    public void await() throws IOException {
+        synchronized (lock) {
+            while (!complete && failure == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Download interrupted.");
+                }
+            }
+            if (failure != null) throw failure;
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Moves a finished download into place, replacing the destination.
+     * Call only after await() returns.
+     */
+    public void install() throws IOException {
+        close();
+        Files.move(partFile.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        progressFile.delete();
+    }
+
+    /**
+     * Throws away a download, finished or not, so the next attempt starts
+     * over. For a file that arrived whole but turned out to be unusable.
+     */
+    public void discard() throws IOException {
+        close();
+        partFile.delete();
+        progressFile.delete();
+    }
+
+    /**
+     * Stops the download if it is still running. Whatever has arrived is kept
+     * so a later download of the same file can resume; if nothing arrived,
+     * the .part and .parts files are deleted.
+     */
+    @Override
+    public void close() throws IOException {
+        boolean empty;
+        synchronized (lock) {
+            closed = true;
+            empty = received == 0 && !complete;
+            lock.notifyAll();
+        }
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        channel.close();
+        if (progress != null) progress.close();
+        if (empty) {
+            partFile.delete();
+            progressFile.delete();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package tides;
+
+/**
+ * This class is a rectangular region of interest on a terrain, e.g. one
+ * harbor district of a large map.
+ *
+ * The region covers rows firstRow through endRow - 1 and columns firstCol
+ * through endCol - 1. Results for a region (see RisingTides) are indexed from
+ * its top left corner, so cell (row, col) of the terrain is cell
+ * (row - firstRow, col - firstCol) of the result.
+ */
+public final class Region {
+    public final int firstRow, firstCol;
+    public final int endRow, endCol;
+
+    /**
+     * @param firstRow top row of the region
+     * @param firstCol left column of the region
+     * @param endRow one past the bottom row of the region
+     * @param endCol one past the right column of the region
+     */
+    public Region(int firstRow, int firstCol, int endRow, int endCol) {
+        if (firstRow < 0 || firstCol < 0 || endRow <= firstRow || endCol <= firstCol) {
+            throw new IllegalArgumentException("Empty or negative region: rows " + firstRow + " to " + endRow
+                    + ", columns " + firstCol + " to " + endCol + ".");
+        }
+        this.firstRow = firstRow;
+        this.firstCol = firstCol;
+        this.endRow = endRow;
+        this.endCol = endCol;
+    }
+
+    /**
+     * @return int, the number of rows in the region
+     */
+    public int rows() {
+        return endRow - firstRow;
+    }
+
+    /**
+     * @return int, the number of columns in the region
+     */
+    public int cols() {
+        return endCol - firstCol;
+    }
+
+    /**
+     * @param row of the cell on the terrain
+     * @param col of the cell on the terrain
+     * @return boolean, true if the cell is in the region
+     */
+    public boolean contains(int row, int col) {
+        return row >= firstRow && row < endRow && col >= firstCol && col < endCol;
+    }
+
+    /**
+     * @param terrain to check against
+     * @return boolean, true if the whole region lies on the terrain
+     */
+    public boolean fits(HeightGrid terrain) {
+        return endRow <= terrain.rows() && endCol <= terrain.cols();
+    }
+
+    /**
+     * The heights of the region, read through to the terrain.
+     *
+     * @param terrain the region lies on
+     * @return HeightGrid, with the region's top left corner as (0, 0)
+     */
+    public HeightGrid of(HeightGrid terrain) {
+        return new HeightGrid() {
+            public int rows() {
+                return endRow - firstRow;
+            }
+
+            public int cols() {
+                return endCol - firstCol;
+            }
+
+            public double get(int row, int col) {
+                return terrain.get(firstRow + row, firstCol + col);
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "{ " + firstRow + ", " + firstCol + " } to { " + endRow + ", " + endCol + " }";
+    }
+}
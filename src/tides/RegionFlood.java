@@ -0,0 +1,227 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * This class floods one region of a terrain (see Region) without flooding
+ * the rest of the map.
+ *
+ * Whether a cell is flooded depends on the whole map: water may reach it
+ * from a source far outside the region. When there is a FloodIndex, it
+ * already holds that answer for every cell, so the region is read straight
+ * from the index.
+ *
+ * Without one, water that reaches a cell inside the region either rose from
+ * a source inside the region, or came in from outside through a cell on the
+ * region's edge. The region is flooded from its sources with a
+ * breadth-first search that never leaves it. Then each edge cell that is
+ * under the water but still dry is settled by a search outward over the
+ * cells under the water, headed for the nearest source: reaching a source,
+ * or a cell an earlier search found flooded, floods it and the region is
+ * flooded onward from it; running out of cells leaves it dry. An edge cell
+ * flooded from inside the region never needs a search.
+ *
+ * Every outward search stops at the first source it reaches, so it only
+ * reads the cells between the region and the water. The one that must read
+ * everything it can reach is the search from a dry edge cell, and that is
+ * only as large as the basin around it. The marks of the outward searches
+ * are kept in a hash table rather than a per-cell array, so memory follows
+ * the cells searched, not the size of the map, and tiled terrains work the
+ * same way.
+ */
+public class RegionFlood {
+
+    // Offsets to the top, bottom, left and right neighbors
+    private static final int[] ROW_STEPS = { -1, 1, 0, 0 };
+    private static final int[] COL_STEPS = { 0, 0, -1, 1 };
+
+    private final HeightGrid terrain;
+    private final GridLocation[] sources;
+    private final Region region;
+    private final double height;
+    private final TidesMetrics.Operation op;
+    private final int rows, cols;
+
+    private final boolean[][] flooded;
+    private final int[] queue;
+    private int tail;
+
+    // Every cell an outward search has queued (as row * terrain cols + col), numbered in queuing order
+    private final HashMap<Long, Integer> searched = new HashMap<Long, Integer>();
+    private long[] searchedCells = new long[64];
+    // Whether the search that queued each numbered cell reached the water
+    private final BitSet wet = new BitSet();
+    private final CellHeap frontier = new CellHeap();
+
+    private RegionFlood(HeightGrid terrain, GridLocation[] sources, Region region, double height,
+            TidesMetrics.Operation op) {
+        this.terrain = terrain;
+        this.sources = sources;
+        this.region = region;
+        this.height = height;
+        this.op = op;
+        this.rows = region.rows();
+        this.cols = region.cols();
+        this.flooded = new boolean[rows][cols];
+        this.queue = new int[Cells.count(rows, cols)];
+    }
+
+    /**
+     * Floods a region.
+     *
+     * @param terrain heights of each cell
+     * @param sources water sources of the whole terrain
+     * @param index for the whole terrain, or null to search from the edges
+     * of the region
+     * @param region to flood
+     * @param height of the water
+     * @param op operation to count visited cells and queue size into
+     * @return boolean[][], the size of the region, where flooded cells are
+     * true, otherwise false
+     */
+    static boolean[][] flood(HeightGrid terrain, GridLocation[] sources, FloodIndex index, Region region,
+            double height, TidesMetrics.Operation op) {
+        if (index != null) {
+            return read(index, region, height, op);
+        }
+        var search = new RegionFlood(terrain, sources, region, height, op);
+        search.flood();
+        return search.flooded;
+    }
+
+    /* Reads each cell of the region from the index. */
+    private static boolean[][] read(FloodIndex index, Region region, double height, TidesMetrics.Operation op) {
+        int rows = region.rows();
+        int cols = region.cols();
+        boolean[][] flooded = new boolean[rows][cols];
+        for (int r = 0; r < rows; r++) {
+            boolean[] row = flooded[r];
+            for (int c = 0; c < cols; c++) {
+                row[c] = index.isFlooded(height, region.firstRow + r, region.firstCol + c);
+            }
+        }
+        op.visit((long) rows * cols);
+        return flooded;
+    }
+
+    private void flood() {
+        /* Sources inside the region are always flooded. */
+        for (GridLocation source : sources) {
+            if (region.contains(source.row, source.col)) {
+                spread(source.row - region.firstRow, source.col - region.firstCol);
+            }
+        }
+
+        /* Water coming in over the edge. */
+        for (int r = 0; r < rows; r++) {
+            int step = r == 0 || r == rows - 1 ? 1 : Math.max(1, cols - 1);
+            for (int c = 0; c < cols; c += step) {
+                if (flooded[r][c] || terrain.get(region.firstRow + r, region.firstCol + c) > height) continue;
+                if (reachesWater(region.firstRow + r, region.firstCol + c)) {
+                    spread(r, c);
+                }
+            }
+        }
+    }
+
+    /* Floods a cell of the region and everything under the water connected to it inside the region. */
+    private void spread(int row, int col) {
+        if (flooded[row][col]) return;
+        flooded[row][col] = true;
+        int head = tail;
+        queue[tail++] = row * cols + col;
+        while (head < tail) {
+            op.queue(tail - head);
+            int cell = queue[head++];
+            op.visit(1);
+            int r = cell / cols;
+            int c = cell - r * cols;
+            for (int k = 0; k < 4; k++) {
+                int nr = r + ROW_STEPS[k];
+                int nc = c + COL_STEPS[k];
+                if (nr < 0 || nr >= rows || nc < 0 || nc >= cols || flooded[nr][nc]) continue;
+                if (terrain.get(region.firstRow + nr, region.firstCol + nc) <= height) {
+                    flooded[nr][nc] = true;
+                    queue[tail++] = nr * cols + nc;
+                }
+            }
+        }
+    }
+
+    /*
+     * Searches outward from a terrain cell under the water, best first
+     * toward the nearest source, until it reaches a source or a cell an
+     * earlier search found flooded, or runs out of cells.
+     */
+    private boolean reachesWater(int row, int col) {
+        long start = (long) row * terrain.cols() + col;
+        Integer seen = searched.get(start);
+        if (seen != null) return wet.get(seen);
+
+        int first = searched.size();
+        frontier.clear();
+        queue(start, row, col);
+        while (!frontier.isEmpty()) {
+            op.queue(frontier.size());
+            long cell = searchedCells[frontier.pop()];
+            op.visit(1);
+            int r = (int) (cell / terrain.cols());
+            int c = (int) (cell - (long) r * terrain.cols());
+            if (isSource(r, c)) return wetFrom(first);
+            for (int k = 0; k < 4; k++) {
+                int nr = r + ROW_STEPS[k];
+                int nc = c + COL_STEPS[k];
+                if (nr < 0 || nr >= terrain.rows() || nc < 0 || nc >= terrain.cols()) continue;
+                long next = (long) nr * terrain.cols() + nc;
+                seen = searched.get(next);
+                if (seen == null) {
+                    /* Sources are flooded even above the water, like in floodedRegionsIn. */
+                    if (terrain.get(nr, nc) <= height || isSource(nr, nc)) {
+                        queue(next, nr, nc);
+                    }
+                } else if (seen < first) {
+                    /*
+                     * An earlier search came this way. Had it run dry it would
+                     * have queued this basin whole, this search included, so
+                     * it reached the water.
+                     */
+                    return wetFrom(first);
+                }
+            }
+        }
+        return false;
+    }
+
+    /* Marks every cell of the current search as reaching the water. */
+    private boolean wetFrom(int first) {
+        wet.set(first, searched.size());
+        return true;
+    }
+
+    /* Numbers a cell for the outward search and puts it on the frontier. */
+    private void queue(long cell, int row, int col) {
+        int id = searched.size();
+        if (id == searchedCells.length) {
+            searchedCells = Arrays.copyOf(searchedCells, id * 2);
+        }
+        searchedCells[id] = cell;
+        searched.put(cell, id);
+        frontier.push(id, nearestSource(row, col));
+    }
+
+    private boolean isSource(int row, int col) {
+        for (GridLocation source : sources) {
+            if (source.row == row && source.col == col) return true;
+        }
+        return false;
+    }
+
+    /* Manhattan distance to the nearest source. */
+    private int nearestSource(int row, int col) {
+        int best = Integer.MAX_VALUE;
+        for (GridLocation source : sources) {
+            best = Math.min(best, Math.abs(source.row - row) + Math.abs(source.col - col));
+        }
+        return best;
+    }
+}
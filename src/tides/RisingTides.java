@@ -1,13 +1,17 @@
 package tides;
 
+import java.nio.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * This class contains methods that provide information about select terrains 
  * using 2D arrays. Uses floodfill to flood given maps and uses that 
  * information to understand the potential impacts. 
+ * Every query is timed and counted by TidesMetrics (Flight Recorder events 
+ * and the tides:type=Metrics MBean). 
  * Instance Variables:
- *  - a double array for all the heights for each cell
+ *  - a HeightGrid for all the heights for each cell
  *  - a GridLocation array for the sources of water on empty terrain 
  * 
  * @author Original Creator Keith Scharz (NIFTY STANFORD) 
@@ -16,8 +20,15 @@ import java.util.*;
 public class RisingTides {
 
     // Instance variables
-    private double[][] terrain;     // an array for all the heights for each cell
+    private HeightGrid terrain;     // the heights for each cell
     private GridLocation[] sources; // an array for the sources of water on empty terrain 
+    private IslandLabeler islandLabeler; // scratch buffers reused across island inventories
+    private FloodProbe floodProbe;       // scratch buffers reused across single-cell queries
+    private FloodIndex index;            // precomputed thresholds and curves, or null
+    private WaterVolume waterVolume;     // running height sums over the index, built on first use
+    private MergeTree mergeTree;         // island history over the index, built on first use
+    private TerrainPyramid pyramid;      // downsampled terrain for previews, built on first use
+    private Ponding ponding;             // depressions filled by rain, built on first use
 
     /**
      * DO NOT EDIT!
@@ -25,10 +36,22 @@ public class RisingTides {
      * @param terrain passes in the selected terrain 
      */
     public RisingTides(Terrain terrain) {
-        this.terrain = terrain.heights;
+        this.terrain = terrain.grid;
         this.sources = terrain.sources;
     }
 
+    /**
+     * Constructor for RisingTides with a precomputed FloodIndex. Flooding, 
+     * land and island questions are then answered from the index instead of 
+     * flooding the terrain again.
+     * @param terrain passes in the selected terrain 
+     * @param index built from (or loaded for) the same terrain
+     */
+    public RisingTides(Terrain terrain, FloodIndex index) {
+        this(terrain);
+        this.index = index;
+    }
+
     /**
      * Find the lowest and highest point of the terrain and output it.
      * 
@@ -38,13 +61,14 @@ public class RisingTides {
     public double[] elevationExtrema() {
         double[] lowestAndHighest = {0,0};
 
-        for(double[] r : terrain) {
-            for(double c : r) {
-                if (c < lowestAndHighest[0]) {
-                    lowestAndHighest[0] = c;
+        for(int r = 0; r < terrain.rows(); r++) {
+            for(int c = 0; c < terrain.cols(); c++) {
+                double height = terrain.get(r, c);
+                if (height < lowestAndHighest[0]) {
+                    lowestAndHighest[0] = height;
                 }
-                if (c > lowestAndHighest[1]) {
-                    lowestAndHighest[1] = c;
+                if (height > lowestAndHighest[1]) {
+                    lowestAndHighest[1] = height;
                 }
             }
         }
@@ -60,12 +84,42 @@ public class RisingTides {
      * Repeat iteratively till the neighboring terrain is higher than the water 
      * height.
      * 
+     * Tiled (out-of-core) terrains are flooded tile by tile instead, which 
+     * gives the same result while only reading a few tiles at a time. The 
+     * result is still a heap array; for terrains larger than the heap use 
+     * floodedMask.
      * 
      * @param height of the water
      * @return boolean[][], where flooded cells are true, otherwise false
      */
     public boolean[][] floodedRegionsIn(double height) {
-        boolean[][] resultingArray = new boolean[terrain.length][terrain[0].length];
+        TidesMetrics.Operation op = TidesMetrics.begin("floodedRegionsIn", height);
+        try {
+            return flood(height, op);
+        } finally {
+            op.end();
+        }
+    }
+
+    /* The work of floodedRegionsIn, counting visited cells and queue size into op. */
+    private boolean[][] flood(double height, TidesMetrics.Operation op) {
+        if (index == null) {
+            try (MaskGrid mask = terrain.floodMask(sources, height)) {
+                if (mask != null) return toArray(mask);
+            }
+        }
+
+        boolean[][] resultingArray = new boolean[terrain.rows()][terrain.cols()];
+        if (index != null) {
+            for(int r = 0; r < resultingArray.length; r++) {
+                for(int c = 0; c < resultingArray[0].length; c++) {
+                    resultingArray[r][c] = index.isFlooded(height, r, c);
+                }
+            }
+            op.visit((long) terrain.rows() * terrain.cols());
+            return resultingArray;
+        }
+
         ArrayList<GridLocation> queue = new ArrayList<GridLocation>();
 
         for(GridLocation source : sources) {
@@ -74,33 +128,35 @@ public class RisingTides {
         }
         
         while(queue.size() > 0) {
+            op.queue(queue.size());
             GridLocation source = queue.remove(0);
+            op.visit(1);
             
             // top coordinate
             int topNeighborRow = source.row - 1;
             int topNeighborCol = source.col;
-            if(source.row > 0 && resultingArray[topNeighborRow][topNeighborCol] == false && terrain[topNeighborRow][topNeighborCol] <= height) {
+            if(source.row > 0 && resultingArray[topNeighborRow][topNeighborCol] == false && terrain.get(topNeighborRow, topNeighborCol) <= height) {
                 queue.add(new GridLocation(topNeighborRow, topNeighborCol));
                 resultingArray[topNeighborRow][topNeighborCol] = true;
             }
             // bottom coordinate
             int bottomNeighborRow = source.row + 1;
             int bottomNeighborCol = source.col;
-            if(source.row < resultingArray.length - 1 && resultingArray[bottomNeighborRow][bottomNeighborCol] == false && terrain[bottomNeighborRow][bottomNeighborCol] <= height) {
+            if(source.row < resultingArray.length - 1 && resultingArray[bottomNeighborRow][bottomNeighborCol] == false && terrain.get(bottomNeighborRow, bottomNeighborCol) <= height) {
                 queue.add(new GridLocation(bottomNeighborRow, bottomNeighborCol));
                 resultingArray[bottomNeighborRow][bottomNeighborCol] = true;
             }
             // left coordinate
             int leftNeighborRow = source.row;
             int leftNeighborCol = source.col - 1;
-            if(source.col > 0 && resultingArray[leftNeighborRow][leftNeighborCol] == false && terrain[leftNeighborRow][leftNeighborCol] <= height) {
+            if(source.col > 0 && resultingArray[leftNeighborRow][leftNeighborCol] == false && terrain.get(leftNeighborRow, leftNeighborCol) <= height) {
                 queue.add(new GridLocation(leftNeighborRow, leftNeighborCol));
                 resultingArray[leftNeighborRow][leftNeighborCol] = true;
             }
             // right coordinate
             int rightNeighborRow = source.row;
             int rightNeighborCol = source.col + 1;
-            if(source.col < resultingArray[0].length - 1 && resultingArray[rightNeighborRow][rightNeighborCol] == false && terrain[rightNeighborRow][rightNeighborCol] <= height) {
+            if(source.col < resultingArray[0].length - 1 && resultingArray[rightNeighborRow][rightNeighborCol] == false && terrain.get(rightNeighborRow, rightNeighborCol) <= height) {
                 queue.add(new GridLocation(rightNeighborRow, rightNeighborCol));
                 resultingArray[rightNeighborRow][rightNeighborCol] = true;
             }
@@ -109,16 +165,193 @@ public class RisingTides {
         return resultingArray;
     }
 
+    private static boolean[][] toArray(MaskGrid mask) {
+        boolean[][] flooded = new boolean[mask.rows()][mask.cols()];
+        for (int r = 0; r < flooded.length; r++) {
+            for (int c = 0; c < flooded[r].length; c++) {
+                flooded[r][c] = mask.isFlooded(r, c);
+            }
+        }
+        return flooded;
+    }
+
+    /**
+     * Find the flooded cells, stored the same way as the terrain.
+     * 
+     * A tiled terrain floods into a tiled mask file next to its tiles, and 
+     * an off-heap terrain into native memory, so nothing the size of the 
+     * terrain goes on the heap. Other terrains get floodedRegionsIn wrapped 
+     * as a mask. Close the mask when done.
+     * 
+     * @param height of the water
+     * @return MaskGrid, the flooded cells
+     */
+    public MaskGrid floodedMask(double height) {
+        TidesMetrics.Operation op = TidesMetrics.begin("floodedRegionsIn", height);
+        try {
+            MaskGrid mask = terrain.floodMask(sources, height);
+            return mask != null ? mask : new ArrayMaskGrid(flood(height, op));
+        } finally {
+            op.end();
+        }
+    }
+
+    /**
+     * Publish rough answers first and refine them up to full resolution.
+     * 
+     * The listener gets one preview per level of a downsampled terrain 
+     * pyramid, coarsest first, each with bounds on the true land. The last 
+     * preview is the exact full-resolution answer (scale 1, with both land 
+     * bounds equal to totalVisibleLand and the exact island count).
+     * 
+     * @param height of the water
+     * @param listener called with every preview, in order
+     */
+    public void preview(double height, TerrainPyramid.PreviewListener listener) {
+        if (pyramid == null) {
+            pyramid = new TerrainPyramid(terrain, sources);
+        }
+        pyramid.refine(height, listener);
+
+        /* One flood gives the exact land and islands too. */
+        boolean[][] flooded = floodedRegionsIn(height);
+        var mask = new ArrayMaskGrid(flooded);
+        int land = Math.toIntExact((long) terrain.rows() * terrain.cols() - mask.count());
+        listener.onPreview(new FloodPreview(terrain.rows(), terrain.cols(), 1, flooded, land, land,
+                islandLabeler().count(mask)));
+    }
+
+    /**
+     * Floods the terrain and records which source reached each flooded cell 
+     * first. The flooded area is the same as floodedRegionsIn, and it costs 
+     * one flood no matter how many sources there are.
+     * 
+     * @param height of the water
+     * @return SourceAttribution, the source of every flooded cell
+     */
+    public SourceAttribution sourceAttribution(double height) {
+        TidesMetrics.Operation op = TidesMetrics.begin("sourceAttribution", height);
+        try {
+            SourceAttribution attribution = SourceAttribution.flood(terrain, sources, height);
+            for (int area : attribution.area) {
+                op.visit(area);
+            }
+            return attribution;
+        } finally {
+            op.end();
+        }
+    }
+
     /**
      * Checks if a given cell is flooded at a certain water height.
      * 
+     * Rather than flooding the whole terrain, this searches outward from the 
+     * sources toward the cell and stops as soon as the cell is reached or 
+     * the water cannot spread any further.
+     * 
      * @param height of the water
      * @param cell location 
      * @return boolean, true if cell is flooded, otherwise false
      */
     public boolean isFlooded(double height, GridLocation cell) {    
-        boolean[][] floodedArea = floodedRegionsIn(height);
-        return floodedArea[cell.row][cell.col];
+        TidesMetrics.Operation op = TidesMetrics.begin("isFlooded", height);
+        try {
+            if (index != null) {
+                op.visit(1);
+                return index.isFlooded(height, cell.row, cell.col);
+            }
+            if (floodProbe == null) {
+                floodProbe = new FloodProbe(terrain, sources);
+            }
+            boolean flooded = floodProbe.isFlooded(height, cell.row, cell.col);
+            op.visit(floodProbe.lastVisited);
+            op.queue(floodProbe.lastQueuePeak);
+            return flooded;
+        } finally {
+            op.end();
+        }
+    }
+
+    /**
+     * Checks many cells at once against a certain water height.
+     *
+     * The terrain is flooded a single time, then every cell is looked up in
+     * the flooded area. Cell i is at (rows[i], cols[i]).
+     *
+     * @param height of the water
+     * @param rows of the cells to check
+     * @param cols of the cells to check
+     * @return BitSet, where bit i is set if cell i is flooded
+     */
+    public BitSet isFlooded(double height, int[] rows, int[] cols) {
+        if (rows.length != cols.length) {
+            throw new IllegalArgumentException("rows and cols must have the same length.");
+        }
+        TidesMetrics.Operation op = TidesMetrics.begin("isFloodedBatch", height);
+        try {
+            if (index != null) {
+                op.visit(rows.length);
+                return indexedBits(index, height, rows, cols);
+            }
+            return floodedBits(height, rows, cols, op);
+        } finally {
+            op.end();
+        }
+    }
+
+    /**
+     * Checks many cells at once against several water heights.
+     *
+     * The terrain is flooded once per height, then every cell is looked up in
+     * that flooded area. Cell i is at (rows[i], cols[i]).
+     *
+     * @param heights of the water
+     * @param rows of the cells to check
+     * @param cols of the cells to check
+     * @return BitSet[], where bit i of entry h is set if cell i is flooded at heights[h]
+     */
+    public BitSet[] isFlooded(double[] heights, int[] rows, int[] cols) {
+        if (rows.length != cols.length) {
+            throw new IllegalArgumentException("rows and cols must have the same length.");
+        }
+        TidesMetrics.Operation op = TidesMetrics.begin("isFloodedBatch", Double.NaN);
+        try {
+            BitSet[] results = new BitSet[heights.length];
+            for (int h = 0; h < heights.length; h++) {
+                if (index != null) {
+                    op.visit(rows.length);
+                    results[h] = indexedBits(index, heights[h], rows, cols);
+                } else {
+                    results[h] = floodedBits(heights[h], rows, cols, op);
+                }
+            }
+            return results;
+        } finally {
+            op.end();
+        }
+    }
+
+    /* Floods once and packs the flooded state of every listed cell into the words of a bitset. */
+    private BitSet floodedBits(double height, int[] rows, int[] cols, TidesMetrics.Operation op) {
+        long[] words = new long[(rows.length + 63) >>> 6];
+        try (MaskGrid mask = terrain.floodMask(sources, height)) {
+            MaskGrid floodedArea = mask != null ? mask : new ArrayMaskGrid(flood(height, op));
+            for (int i = 0; i < rows.length; i++) {
+                long bit = floodedArea.isFlooded(rows[i], cols[i]) ? 1L : 0L;
+                words[i >>> 6] |= bit << i;
+            }
+        }
+        return BitSet.valueOf(words);
+    }
+
+    /* Same as floodedBits, but compares each cell's flood threshold instead. */
+    private static BitSet indexedBits(FloodIndex index, double height, int[] rows, int[] cols) {
+        long[] words = new long[(rows.length + 63) >>> 6];
+        for (int i = 0; i < rows.length; i++) {
+            long bit = index.isFlooded(height, rows[i], cols[i]) ? 1L : 0L;
+            words[i >>> 6] |= bit << i;
+        }
+        return BitSet.valueOf(words);
     }
 
     /**
@@ -134,7 +367,7 @@ public class RisingTides {
      * @return double, representing how high/deep a cell is above/below water
      */
     public double heightAboveWater(double height, GridLocation cell) {
-        return terrain[cell.row][cell.col] - height;
+        return terrain.get(cell.row, cell.col) - height;
     }
 
     /**
@@ -144,7 +377,25 @@ public class RisingTides {
      * @return int, representing every cell above water
      */
     public int totalVisibleLand(double height) {
-        boolean[][] floodedArea = floodedRegionsIn(height);
+        TidesMetrics.Operation op = TidesMetrics.begin("totalVisibleLand", height);
+        try {
+            return land(height, op);
+        } finally {
+            op.end();
+        }
+    }
+
+    /* The work of totalVisibleLand, counting visited cells and queue size into op. */
+    private int land(double height, TidesMetrics.Operation op) {
+        if (index != null) {
+            return index.visibleLand(height);
+        }
+        try (MaskGrid mask = terrain.floodMask(sources, height)) {
+            if (mask != null) {
+                return Math.toIntExact((long) terrain.rows() * terrain.cols() - mask.count());
+            }
+        }
+        boolean[][] floodedArea = flood(height, op);
         int landAreaCount = 0;
 
         for(boolean[] r : floodedArea) {
@@ -171,10 +422,84 @@ public class RisingTides {
      * @return int, representing the amount of land lost or gained
      */
     public int landLost(double height, double newHeight) {
-        return totalVisibleLand(height) - totalVisibleLand(newHeight);
+        TidesMetrics.Operation op = TidesMetrics.begin("landLost", height);
+        try {
+            return land(height, op) - land(newHeight, op);
+        } finally {
+            op.end();
+        }
+    }
+
+
+
+    /**
+     * Find the cells that are flooded at the new height but not at the old 
+     * one, e.g. to map the parcels a rise would reach.
+     * 
+     * Neither height is flooded: the cells are read straight out of the 
+     * FloodIndex, so the cost is two binary searches plus the size of the 
+     * result. Builds the index first if this object was not given one. If 
+     * newHeight is not above height the result is empty.
+     * 
+     * @param height of the water
+     * @param newHeight the future height of the water
+     * @return FloodDelta, the newly flooded cells and their count
+     */
+    public FloodDelta floodDelta(double height, double newHeight) {
+        TidesMetrics.Operation op = TidesMetrics.begin("floodDelta", height);
+        try {
+            FloodDelta delta = new FloodDelta(height, newHeight, true, index().floodedBetween(height, newHeight));
+            op.visit(delta.count);
+            return delta;
+        } finally {
+            op.end();
+        }
+    }
+
+    /**
+     * Total volume of water on the terrain at a certain water height, i.e. 
+     * the sum of the water height minus the terrain height over every 
+     * flooded cell (sources below the terrain count as 0).
+     * 
+     * After the first call this is a binary search plus arithmetic. The 
+     * result is in height units times cells.
+     * 
+     * @param height of the water
+     * @return double, representing the volume of water
+     */
+    public double waterVolume(double height) {
+        TidesMetrics.Operation op = TidesMetrics.begin("waterVolume", height);
+        try {
+            return waterVolume().volume(height);
+        } finally {
+            op.end();
+        }
     }
 
+    /**
+     * Write the depth of the water over every cell, row by row, into a 
+     * caller-supplied buffer. Dry cells get a depth of 0.
+     * 
+     * @param height of the water
+     * @param depths buffer with room for one value per cell, filled from 
+     * its current position
+     */
+    public void depthGrid(double height, DoubleBuffer depths) {
+        TidesMetrics.Operation op = TidesMetrics.begin("depthGrid", height);
+        try {
+            waterVolume().depths(height, depths);
+            op.visit((long) terrain.rows() * terrain.cols());
+        } finally {
+            op.end();
+        }
+    }
 
+    private WaterVolume waterVolume() {
+        if (waterVolume == null) {
+            waterVolume = new WaterVolume(index(), terrain);
+        }
+        return waterVolume;
+    }
 
     /**
      * Count the total number of islands on the flooded terrain.
@@ -189,78 +514,343 @@ public class RisingTides {
      * (height of water increased) should these two landmasses be considered 
      * two separate islands.
      * 
+     * Tiled and off-heap terrains are flooded into a mask stored like their 
+     * heights, and the islands are counted from it one row at a time (see 
+     * IslandLabeler.count).
+     * 
      * @param height of the water
      * @return int, representing the total number of islands
      */
     public int numOfIslands(double height) {
-        boolean[][] floodedArea = floodedRegionsIn(height);
-        int count = 0;
-        WeightedQuickUnionUF islands = new WeightedQuickUnionUF(floodedArea.length, floodedArea[0].length);
-
-        for(int r = 0; r < floodedArea.length; r++) {
-            for(int c = 0; c < floodedArea[0].length; c++) {
-                while(floodedArea[r][c] == false) {
-                    // top coordinate
-                    if(r != 0 && floodedArea[r - 1][c] == false) {
-                        GridLocation cell1 = new GridLocation(r, c);
-                        GridLocation cell2 = new GridLocation(r - 1, c);
-                        islands.union(cell1, cell2);
-                    }
-                    // bottom coordinate
-                    if(r != floodedArea.length && floodedArea[r + 1][c] == false) {
-                        GridLocation cell1 = new GridLocation(r, c);
-                        GridLocation cell2 = new GridLocation(r + 1, c);
-                        islands.union(cell1, cell2);
-                    }
-                    // left coordinate
-                    if(c != 0 && floodedArea[r][c - 1] == false) {
-                        GridLocation cell1 = new GridLocation(r, c);
-                        GridLocation cell2 = new GridLocation(r, c - 1);
-                        islands.union(cell1, cell2);
-                    }
-                    // right coordinate
-                    if(c != floodedArea[0].length && floodedArea[r][c + 1] == false) {
-                        GridLocation cell1 = new GridLocation(r, c);
-                        GridLocation cell2 = new GridLocation(r, c + 1);
-                        islands.union(cell1, cell2);
-                    }
-
-                    // top left coordinate
-                    if(r != 0 && c != 0 && floodedArea[r - 1][c - 1] == false) {
-                        GridLocation cell1 = new GridLocation(r, c);
-                        GridLocation cell2 = new GridLocation(r - 1, c - 1);
-                        islands.union(cell1, cell2);
-                    }
-                    // bottom left coordinate
-                    if(r != floodedArea.length && c != 0 && floodedArea[r + 1][c - 1] == false) {
-                        GridLocation cell1 = new GridLocation(r, c);
-                        GridLocation cell2 = new GridLocation(r + 1, c - 1);
-                        islands.union(cell1, cell2);
-                    }
-                    // top right coordinate
-                    if(r != 0 && c != floodedArea[0].length && floodedArea[r - 1][c + 1] == false) {
-                        GridLocation cell1 = new GridLocation(r, c);
-                        GridLocation cell2 = new GridLocation(r - 1, c + 1);
-                        islands.union(cell1, cell2);
-                    }
-                    // bottom right coordinate
-                    if(r != floodedArea.length && c != floodedArea[0].length && floodedArea[r + 1][c + 1] == false) {
-                        GridLocation cell1 = new GridLocation(r, c);
-                        GridLocation cell2 = new GridLocation(r + 1, c + 1);
-                        islands.union(cell1, cell2);
-                    }
+        TidesMetrics.Operation op = TidesMetrics.begin("numOfIslands", height);
+        try {
+            if (index != null) {
+                return index.islandCount(height);
+            }
+            try (MaskGrid mask = terrain.floodMask(sources, height)) {
+                if (mask != null) return islandLabeler().count(mask);
+            }
+            return label(height, op).count;
+        } finally {
+            op.end();
+        }
+    }
+
+    /**
+     * Find the island a cell is on at a certain water height.
+     * 
+     * The first call builds a merge tree of how the islands join as the 
+     * water falls; after that each call takes logarithmic time. The id of 
+     * an island stays the same over every height at which it neither merges 
+     * with another island nor goes under.
+     * 
+     * @param height of the water
+     * @param cell location
+     * @return int, the island id, or -1 if the cell is flooded
+     */
+    public int islandAt(double height, GridLocation cell) {
+        TidesMetrics.Operation op = TidesMetrics.begin("islandAt", height);
+        try {
+            return mergeTree().islandAt(height, cell.row, cell.col);
+        } finally {
+            op.end();
+        }
+    }
+
+    /**
+     * Size of the island a cell is on at a certain water height.
+     * 
+     * @param height of the water
+     * @param cell location
+     * @return int, the number of cells on that island, or 0 if the cell is 
+     * flooded
+     */
+    public int islandArea(double height, GridLocation cell) {
+        TidesMetrics.Operation op = TidesMetrics.begin("islandArea", height);
+        try {
+            MergeTree tree = mergeTree();
+            int island = tree.islandAt(height, cell.row, cell.col);
+            return island < 0 ? 0 : tree.islandArea(height, island);
+        } finally {
+            op.end();
+        }
+    }
+
+    private MergeTree mergeTree() {
+        if (mergeTree == null) {
+            mergeTree = MergeTree.build(index());
+        }
+        return mergeTree;
+    }
+
+    /**
+     * Start editing the terrain at a fixed water height.
+     * 
+     * The editor raises or lowers cells (seawalls and breaches) in the 
+     * terrain itself and updates the flood, land count and island count 
+     * incrementally. Each time it changes the heights, any FloodIndex this 
+     * object was given no longer applies and is dropped, along with 
+     * everything built from the old heights. Other editors and tidal floods 
+     * already handed out are not updated.
+     * 
+     * Out-of-core (tiled) terrains are the loader's shared cache and cannot 
+     * be edited.
+     * 
+     * @param height of the water
+     * @return LeveeEditor, an editor for this terrain at that height
+     * @throws UnsupportedOperationException if the terrain is tiled
+     */
+    public LeveeEditor leveeEditor(double height) {
+        if (terrain instanceof TiledHeightGrid) {
+            throw new UnsupportedOperationException("Out-of-core terrains cannot be edited: the edits would be "
+                    + "written into the shared tile cache.");
+        }
+        return new LeveeEditor(terrain, sources, height, this::heightsChanged);
+    }
+
+    /* Drops everything derived from the heights, after an edit. */
+    private void heightsChanged() {
+        index = null;
+        waterVolume = null;
+        mergeTree = null;
+        pyramid = null;
+        ponding = null;
+    }
+
+    /**
+     * Start a flood whose water level can move up and down.
+     * 
+     * Each move only visits the cells that flood or dry out, so playing back 
+     * a tidal cycle costs the size of the change rather than the map. Builds 
+     * a FloodIndex first if this object was not given one.
+     * 
+     * @param height of the water to start at
+     * @return TidalFlood, the flood at that height
+     */
+    public TidalFlood tidalFlood(double height) {
+        return new TidalFlood(index(), height);
+    }
+
+    /**
+     * Follow a live water level, e.g. from a tide gauge.
+     * 
+     * Subscribe the result to a publisher of heights and subscribe a 
+     * consumer to the result. The consumer gets the cells that flooded or 
+     * came back up since its last update, with the land and island counts. 
+     * A consumer that falls behind gets the latest level only, with the 
+     * change from the last one it saw (see FloodStream). Builds a 
+     * FloodIndex first if this object was not given one.
+     * 
+     * @param height of the water before the first reading
+     * @return Flow.Processor, from heights to flood updates
+     */
+    public Flow.Processor<Double, FloodUpdate> waterLevelStream(double height) {
+        return new FloodStream(index(), height, ForkJoinPool.commonPool());
+    }
+
+    /* The index given to this object, or one built on first use. */
+    private FloodIndex index() {
+        if (index == null) {
+            index = FloodIndex.build(terrain, sources);
+        }
+        return index;
+    }
+
+    /**
+     * Take an inventory of the islands on the flooded terrain.
+     * 
+     * Islands are found with the same 8-direction rule as numOfIslands. Each 
+     * island gets a label, and its area, bounding box and peak elevation are 
+     * recorded. Runs in linear time in the size of the terrain.
+     * 
+     * The inventory holds a label for every cell on the heap, even when the 
+     * flood itself stays off the heap (tiled and off-heap terrains). When 
+     * only the number of islands is needed, numOfIslands does not need the 
+     * labels.
+     * 
+     * @param height of the water
+     * @return Islands, the island label grid and per-island statistics
+     */
+    public Islands islands(double height) {
+        TidesMetrics.Operation op = TidesMetrics.begin("islands", height);
+        try {
+            return label(height, op);
+        } finally {
+            op.end();
+        }
+    }
+
+    /* The work of islands: a flood, then one labeling pass over every cell. */
+    private Islands label(double height, TidesMetrics.Operation op) {
+        if (index == null) {
+            try (MaskGrid mask = terrain.floodMask(sources, height)) {
+                if (mask != null) {
+                    op.visit((long) terrain.rows() * terrain.cols());
+                    return islandLabeler().label(terrain, mask);
                 }
             }
         }
+        boolean[][] floodedArea = flood(height, op);
+        op.visit((long) terrain.rows() * terrain.cols());
+        return islandLabeler().label(terrain, floodedArea);
+    }
+
+    private IslandLabeler islandLabeler() {
+        if (islandLabeler == null) {
+            islandLabeler = new IslandLabeler();
+        }
+        return islandLabeler;
+    }
+
+    /**
+     * Find where rain pools on the terrain.
+     * 
+     * Rain runs downhill to the edges of the map or to the water sources. 
+     * Wherever it cannot, it fills the depression up to the height at which 
+     * the depression spills over. The result has the filled surface, the 
+     * depth of water over every cell, and each pond with its spill height, 
+     * area and volume. Water moves in the same 4 directions as in 
+     * floodedRegionsIn. Computed once, in O(n log n) time (see 
+     * DepressionFiller).
+     * 
+     * @return Ponding, the filled surface and the ponds
+     */
+    public Ponding ponding() {
+        if (ponding == null) {
+            TidesMetrics.Operation op = TidesMetrics.begin("ponding", Double.NaN);
+            try {
+                ponding = DepressionFiller.fill(terrain, sources);
+                op.visit((long) terrain.rows() * terrain.cols());
+            } finally {
+                op.end();
+            }
+        }
+        return ponding;
+    }
+
+    /**
+     * Find the flooded cells in one region of the terrain.
+     * 
+     * The flood is the same as floodedRegionsIn gives for those cells: water 
+     * still comes from every source, and may reach the region from outside. 
+     * If this object has a FloodIndex, each cell of the region is looked up 
+     * in it. Otherwise the region is flooded from its own sources and from 
+     * the cells on its edge that a search outward finds connected to the 
+     * water (see RegionFlood). Either way the index is never built here, 
+     * since that would read the whole map. The same goes for every other 
+     * region query.
+     * 
+     * @param height of the water
+     * @param region of interest
+     * @return boolean[][], the size of the region (its top left corner is 
+     * [0][0]), where flooded cells are true, otherwise false
+     */
+    public boolean[][] floodedRegionsIn(double height, Region region) {
+        TidesMetrics.Operation op = TidesMetrics.begin("floodedRegionsIn", height);
+        try {
+            return flood(height, region, op);
+        } finally {
+            op.end();
+        }
+    }
+
+    private boolean[][] flood(double height, Region region, TidesMetrics.Operation op) {
+        if (!region.fits(terrain)) {
+            throw new IllegalArgumentException("Region " + region + " is not on the " + terrain.rows() + " x "
+                    + terrain.cols() + " terrain.");
+        }
+        return RegionFlood.flood(terrain, sources, index, region, height, op);
+    }
+
+    /**
+     * Land available (not underwater) in one region at a certain water height.
+     * 
+     * @param height of the water
+     * @param region of interest
+     * @return int, representing every cell of the region above water
+     */
+    public int totalVisibleLand(double height, Region region) {
+        TidesMetrics.Operation op = TidesMetrics.begin("totalVisibleLand", height);
+        try {
+            return land(height, region, op);
+        } finally {
+            op.end();
+        }
+    }
 
-        for(int r = 0; r < floodedArea.length; r++) {
-            for(int c = 0; c < floodedArea[0].length; c++) {
-                GridLocation cell = new GridLocation(r, c);
-                if(islands.getSize(cell) == (r+1)*(c+1)) {
-                    count ++;
+    private int land(double height, Region region, TidesMetrics.Operation op) {
+        int landAreaCount = 0;
+        for (boolean[] r : flood(height, region, op)) {
+            for (boolean c : r) {
+                if (!c) {
+                    landAreaCount++;
                 }
             }
         }
-        return count;
+        return landAreaCount;
+    }
+
+    /**
+     * Given 2 heights, find the difference in land available in one region. 
+     * Positive values are land lost, negative values land gained, as in 
+     * landLost.
+     * 
+     * @param height of the water
+     * @param newHeight the future height of the water
+     * @param region of interest
+     * @return int, representing the amount of land lost or gained
+     */
+    public int landLost(double height, double newHeight, Region region) {
+        TidesMetrics.Operation op = TidesMetrics.begin("landLost", height);
+        try {
+            return land(height, region, op) - land(newHeight, region, op);
+        } finally {
+            op.end();
+        }
+    }
+
+    /**
+     * Count the islands in one region, with the same 8-direction rule as 
+     * numOfIslands.
+     * 
+     * Only land inside the region counts, so an island the edge of the 
+     * region cuts through counts once for every piece of it that is 
+     * connected inside the region.
+     * 
+     * @param height of the water
+     * @param region of interest
+     * @return int, representing the number of islands in the region
+     */
+    public int numOfIslands(double height, Region region) {
+        TidesMetrics.Operation op = TidesMetrics.begin("numOfIslands", height);
+        try {
+            return label(height, region, op).count;
+        } finally {
+            op.end();
+        }
+    }
+
+    /**
+     * Take an inventory of the islands in one region, clipped to the region 
+     * as in numOfIslands(height, region).
+     * 
+     * @param height of the water
+     * @param region of interest
+     * @return Islands, with labels and bounding boxes relative to the 
+     * region's top left corner
+     */
+    public Islands islands(double height, Region region) {
+        TidesMetrics.Operation op = TidesMetrics.begin("islands", height);
+        try {
+            return label(height, region, op);
+        } finally {
+            op.end();
+        }
+    }
+
+    private Islands label(double height, Region region, TidesMetrics.Operation op) {
+        boolean[][] floodedArea = flood(height, region, op);
+        op.visit((long) region.rows() * region.cols());
+        return islandLabeler().label(region.of(terrain), floodedArea);
     }
 }
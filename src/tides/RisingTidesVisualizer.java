@@ -10,16 +10,20 @@ import java.awt.*;
  */
 public class RisingTidesVisualizer extends JPanel {
     /* Terrain data */
-    private double[][] terrain;
+    private transient HeightGrid terrain;
 
-    /* Which cells are flooded; can change. */
-    private boolean[][] flooded;
+    /* Which cells are flooded; can change. Not closed here: whoever set it owns it. */
+    private transient MaskGrid flooded;
+
+    /* A coarse flood shown until the full one arrives, or null. */
+    private transient FloodPreview preview;
 
     /* Min and max height; used to interpolate heights to colors. */
     private double minHeight, maxHeight;
 
     /* Color of flooded cells. */
     private static final Color UNDERWATER_COLOR = new Color(0, 49, 83); // Prussian blue
+    static final int UNDERWATER_RGB = UNDERWATER_COLOR.getRGB() & 0xFFFFFF;
 
     /*
      * The rest of the map is colored according to the following scheme. The 
@@ -66,28 +70,54 @@ public class RisingTidesVisualizer extends JPanel {
     }
 
     public void setTerrain(double[][] terrain) {
+        setTerrain(new ArrayHeightGrid(terrain));
+    }
+
+    public void setTerrain(HeightGrid terrain) {
         /* Stash the terrain. */
         this.terrain = terrain;
 
         /* Clear flooding, since the terrain has changed. */
         this.flooded = null;
+        this.preview = null;
 
         /* Recompute min and max heights. */
         minHeight = Double.POSITIVE_INFINITY;
         maxHeight = Double.NEGATIVE_INFINITY;
 
-        for (int row = 0; row < terrain.length; row++) {
-            for (int col = 0; col < terrain[0].length; col++) {
-                if (terrain[row][col] < minHeight)
-                    minHeight = terrain[row][col];
-                if (terrain[row][col] > maxHeight)
-                    maxHeight = terrain[row][col];
+        for (int row = 0; row < terrain.rows(); row++) {
+            for (int col = 0; col < terrain.cols(); col++) {
+                double height = terrain.get(row, col);
+                if (height < minHeight)
+                    minHeight = height;
+                if (height > maxHeight)
+                    maxHeight = height;
             }
         }
     }
 
     public void setFlooding(boolean[][] flooded) {
+        setFlooding(new ArrayMaskGrid(flooded));
+    }
+
+    /*
+     * Shows a flood stored any way (see RisingTides.floodedMask), so a tiled 
+     * terrain is painted straight from its mask file. The caller closes the 
+     * mask, once it has been replaced. Each setter stores its own flood 
+     * before clearing the other, so paint always sees one.
+     */
+    public void setFlooding(MaskGrid flooded) {
         this.flooded = flooded;
+        this.preview = null;
+    }
+
+    /*
+     * Shows a coarse flood, reading its blocks directly so nothing the size
+     * of the terrain is allocated. Replaced by the next setFlooding.
+     */
+    public void setFlooding(FloodPreview preview) {
+        this.preview = preview;
+        this.flooded = null;
     }
 
     private static int interpolate(int value, int min, int max, int newMin, int newMax) {
@@ -100,13 +130,25 @@ public class RisingTidesVisualizer extends JPanel {
 
     private Color colorFor(int row, int col) {
         /* Water always draws blue. */
-        if (flooded[row][col])
+        MaskGrid flooded = this.flooded;
+        FloodPreview preview = this.preview;
+        boolean underWater = flooded != null ? flooded.isFlooded(row, col)
+                : preview != null && preview.flooded[row / preview.scale][col / preview.scale];
+        if (underWater)
             return UNDERWATER_COLOR;
 
         /* Everything else gets a nice shade based on height. */
+        return new Color(rgbFor(terrain.get(row, col), minHeight, maxHeight));
+    }
 
+    /*
+     * The color of dry land at a height, as 0xRRGGBB, for a terrain whose
+     * heights run from minHeight to maxHeight. Shared with FloodMapExporter so
+     * exported maps look the same as the screen.
+     */
+    static int rgbFor(double height, double minHeight, double maxHeight) {
         /* Map everything to a value in the interaval [0, 1) */
-        double alpha = interpolate(terrain[row][col], minHeight, maxHeight, 0, 1);
+        double alpha = interpolate(height, minHeight, maxHeight, 0, 1);
 
         /* Figure out which points we're between. */
         for (int i = 1; i < COLORS.length; i++) {
@@ -123,7 +165,7 @@ public class RisingTidesVisualizer extends JPanel {
                 int green = (int) interpolate(progress, 0, 1, COLORS[i - 1].green, COLORS[i].green);
                 int blue = (int) interpolate(progress, 0, 1, COLORS[i - 1].blue, COLORS[i].blue);
 
-                return new Color(red, green, blue);
+                return (red << 16) | (green << 8) | blue;
             }
         }
 
@@ -137,44 +179,70 @@ public class RisingTidesVisualizer extends JPanel {
         g.fillRect(0, 0, getWidth(), getHeight());
 
         /* Now draw the terrain - if there is anything to draw, that is. */
-        if (terrain == null || flooded == null)
+        if (terrain == null || (flooded == null && preview == null))
             return;
 
-        /* Compute our aspect ratio. */
-        double width = getWidth();
-        double height = getHeight();
-
-        double aspectRatio = (double) terrain[0].length / terrain.length;
-
-        /* Aspect ratio is too wide. Bring the width down. */
-        if (width / height > aspectRatio) {
-            width = height * aspectRatio;
-        }
-        /* Aspect ratio is too tall. Bring the height down. */
-        else {
-            height = width / aspectRatio;
-        }
-
+        double width = drawnWidth();
+        double height = drawnHeight();
         int baseX = (int) ((getWidth() - width) / 2.0);
         int baseY = (int) ((getHeight() - height) / 2.0);
 
+        /* Time the terrain itself (see TidesMetrics). */
+        var event = TidesMetrics.beginPaint();
+        long pixels = 0;
         for (int x = baseX; x < baseX + width; x++) {
             for (int y = baseY; y < baseY + height; y++) {
-                int col = interpolate(x, baseX, (int) (baseX + width), 0, terrain[0].length);
-                int row = interpolate(y, baseY, (int) (baseY + height), 0, terrain.length);
+                int col = interpolate(x, baseX, (int) (baseX + width), 0, terrain.cols());
+                int row = interpolate(y, baseY, (int) (baseY + height), 0, terrain.rows());
 
                 g.setColor(colorFor(row, col));
                 g.fillRect(x, y, 1, 1);
+                pixels++;
             }
         }
+        TidesMetrics.endPaint(event, pixels);
+    }
+
+    /* Width of the terrain on screen: as large as fits, keeping its aspect ratio. */
+    private double drawnWidth() {
+        double aspectRatio = (double) terrain.cols() / terrain.rows();
+        return Math.min(getWidth(), getHeight() * aspectRatio);
+    }
+
+    private double drawnHeight() {
+        double aspectRatio = (double) terrain.cols() / terrain.rows();
+        return getWidth() / (double) getHeight() > aspectRatio ? getHeight() : getWidth() / aspectRatio;
+    }
+
+    /**
+     * Finds the cell drawn at a point of the panel, using the same mapping as 
+     * paint, so borders around the terrain are taken into account.
+     * 
+     * @param point in panel coordinates
+     * @return GridLocation, the cell drawn there, or null if there is none
+     */
+    public GridLocation cellAt(Point point) {
+        if (terrain == null)
+            return null;
+
+        double width = drawnWidth();
+        double height = drawnHeight();
+        int baseX = (int) ((getWidth() - width) / 2.0);
+        int baseY = (int) ((getHeight() - height) / 2.0);
+        if (point.x < baseX || point.x >= baseX + width || point.y < baseY || point.y >= baseY + height)
+            return null;
+
+        int col = interpolate(point.x, baseX, (int) (baseX + width), 0, terrain.cols());
+        int row = interpolate(point.y, baseY, (int) (baseY + height), 0, terrain.rows());
+        return new GridLocation(row, col);
     }
 
     public double getHeightAspect() {
-        return (double) getHeight()/terrain.length;
+        return (double) getHeight()/terrain.rows();
     }
 
     public double getWidthAspect() {
-        return (double) getWidth()/terrain[0].length;
+        return (double) getWidth()/terrain.cols();
     }
 
     public double getDisplayAspectRatio() {
@@ -182,6 +250,6 @@ public class RisingTidesVisualizer extends JPanel {
     }
 
     public double getTerrainAspectRatio() {
-        return (double) terrain.length/terrain[0].length;
+        return (double) terrain.rows()/terrain.cols();
     }
 }
\ No newline at end of file
@@ -0,0 +1,129 @@
+package tides;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class measures how loading, flooding, counting land and counting
+ * islands scale with the size of the terrain.
+ *
+ * For every size it writes a generated square terrain to a temporary
+ * .terrain file (timed once) and loads it back with TerrainLoader, which
+ * picks in-heap or tiled storage the same way the Driver does. Each
+ * operation, at sea level for the queries, is run WARMUPS times so the JIT
+ * has compiled it, then RUNS more times, and the median of those runs is
+ * reported. Times are in nanoseconds per cell and heap growth (what the
+ * result of one run keeps alive after a collection) in bytes per cell, so a
+ * flat column means linear scaling. Heap growth is read after System.gc(),
+ * which the default G1 collector reports exactly; the serial collector does
+ * not.
+ *
+ * Usage: java tides.ScalingBenchmark [seed] [side ...]
+ * (default seed 1 and sides 256 512 1024 2048)
+ */
+public class ScalingBenchmark {
+    private ScalingBenchmark() {
+    }
+
+    private static final int WARMUPS = 3;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int[] sides = { 256, 512, 1024, 2048 };
+        if (args.length > 1) {
+            sides = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                sides[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        var generator = new TerrainGenerator(seed);
+        Path dir = Files.createTempDirectory("tides-bench");
+        String header = "%6s %10s %8s %8s %8s %8s %8s %8s %8s %8s %8s%n";
+        System.out.printf(header, "side", "cells", "write", "load", "", "flood", "", "land", "", "islands", "");
+        System.out.printf(header, "", "", "ns/cell", "ns/cell", "B/cell", "ns/cell", "B/cell", "ns/cell", "B/cell",
+                "ns/cell", "B/cell");
+
+        for (int side : sides) {
+            double cells = (double) side * side;
+            File file = dir.resolve(side + ".terrain").toFile();
+
+            long start = System.nanoTime();
+            generator.write(file, side, side);
+            long write = System.nanoTime() - start;
+
+            double[] load = measure(() -> TerrainLoader.loadTerrain(file, null));
+            Terrain terrain = TerrainLoader.loadTerrain(file, null);
+            var rt = new RisingTides(terrain);
+            double[] flood = measure(() -> rt.floodedRegionsIn(0));
+            double[] land = measure(() -> rt.totalVisibleLand(0));
+            double[] islands = measure(() -> rt.numOfIslands(0));
+
+            System.out.printf("%6d %10d %8.1f %8.1f %8.1f %8.1f %8.1f %8.1f %8.1f %8.1f %8.1f%n", side,
+                    (long) cells, write / cells, load[0] / cells, load[1] / cells, flood[0] / cells,
+                    flood[1] / cells, land[0] / cells, land[1] / cells, islands[0] / cells, islands[1] / cells);
+
+            /* Release tiled or off-heap storage before the next size. */
+            release(terrain);
+            try (var stream = Files.newDirectoryStream(dir)) {
+                for (Path p : stream) Files.delete(p);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    /*
+     * Runs an operation WARMUPS times, then RUNS times measured, and returns
+     * the median nanoseconds and heap growth of the measured runs.
+     */
+    private static double[] measure(Callable<?> operation) throws Exception {
+        for (int i = 0; i < WARMUPS; i++) {
+            release(operation.call());
+        }
+        long[] nanos = new long[RUNS];
+        long[] heap = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            heap[i] = runOnce(operation, nanos, i) - usedHeap();
+        }
+        return new double[] { median(nanos), median(heap) };
+    }
+
+    /*
+     * One measured run, returning the heap in use while its result is held.
+     * The caller takes away the heap in use once this frame, and with it the
+     * result, is gone.
+     */
+    private static long runOnce(Callable<?> operation, long[] nanos, int i) throws Exception {
+        usedHeap(); // so the run starts on a collected heap
+        long start = System.nanoTime();
+        Object result = operation.call();
+        nanos[i] = System.nanoTime() - start;
+        long held = usedHeap();
+        release(result);
+        return held;
+    }
+
+    private static double median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int mid = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[mid] : (sorted[mid - 1] + sorted[mid]) / 2.0;
+    }
+
+    /* Closes a loaded terrain held in tiles or native memory. */
+    private static void release(Object result) throws Exception {
+        if (result instanceof Terrain && ((Terrain) result).grid instanceof AutoCloseable) {
+            ((AutoCloseable) ((Terrain) result).grid).close();
+        }
+    }
+
+    /* Heap in use after a collection. */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,151 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * This class is a HeightGrid that stores each height as a 16-bit step between
+ * the lowest and highest point of the terrain, in one flat row-major array.
+ * It uses a quarter of the memory of a double[][].
+ *
+ * A stored height is offset + scale * (step + 32768), where the offset is the
+ * lowest point and the scale spreads the full height range over 65535 steps.
+ * The error is at most half a step, i.e. scale / 2. The range is fixed when
+ * the grid is created, so set() only accepts heights inside it.
+ */
+public class ShortHeightGrid implements QuantizedHeightGrid {
+    private static final int STEPS = 65535;
+
+    private final int rows, cols;
+    private final short[] heights;
+    private final double offset, scale;
+    private double maxError;
+
+    public ShortHeightGrid(double[][] heights) {
+        this(heights.length, heights[0].length, lowest(heights), highest(heights));
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                store(r, c, heights[r][c]);
+            }
+        }
+    }
+
+    /**
+     * Creates a grid, all at the lowest height, to be filled in with set().
+     *
+     * @param rows of the grid
+     * @param cols of the grid
+     * @param min the lowest height the grid will hold
+     * @param max the highest height the grid will hold
+     */
+    public ShortHeightGrid(int rows, int cols, double min, double max) {
+        this.rows = rows;
+        this.cols = cols;
+        this.heights = new short[Cells.count(rows, cols)];
+        this.offset = min;
+        this.scale = max > min ? (max - min) / STEPS : 1;
+        Arrays.fill(this.heights, Short.MIN_VALUE);
+    }
+
+    /*
+     * Quantizes heights that were staged as floats, for loaders that only
+     * learn the range after reading every height. The reported error is
+     * measured against the floats plus the error the floats already had, so
+     * it still bounds the distance to the original heights.
+     */
+    ShortHeightGrid(FloatHeightGrid staged, double min, double max) {
+        this(staged.rows(), staged.cols(), min, max);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                store(r, c, staged.get(r, c));
+            }
+        }
+        maxError += staged.maxError();
+    }
+
+    private static double lowest(double[][] heights) {
+        double min = Double.POSITIVE_INFINITY;
+        for (double[] row : heights) {
+            for (double height : row) {
+                min = Math.min(min, height);
+            }
+        }
+        return min;
+    }
+
+    private static double highest(double[][] heights) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double[] row : heights) {
+            for (double height : row) {
+                max = Math.max(max, height);
+            }
+        }
+        return max;
+    }
+
+    private double decode(short stored) {
+        return offset + scale * (stored + 32768);
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public int cols() {
+        return cols;
+    }
+
+    @Override
+    public double get(int row, int col) {
+        return decode(heights[Cells.index(row, col, rows, cols)]);
+    }
+
+    /**
+     * Stores the nearest step to a height. maxError() grows if this height
+     * rounds further than any before it.
+     *
+     * @throws IllegalArgumentException if the height is more than half a
+     * step outside the range the grid was created with
+     */
+    @Override
+    public void set(int row, int col, double height) {
+        store(row, col, height);
+    }
+
+    private void store(int row, int col, double height) {
+        int index = Cells.index(row, col, rows, cols);
+        long step = Math.round((height - offset) / scale);
+        if (step < 0 || step > STEPS) {
+            throw new IllegalArgumentException("Height " + height + " is outside this grid's range of "
+                    + offset + " to " + decode((short) (STEPS - 32768)) + ".");
+        }
+        short stored = (short) (step - 32768);
+        heights[index] = stored;
+        maxError = Math.max(maxError, Math.abs(decode(stored) - height));
+    }
+
+    @Override
+    public double maxError() {
+        return maxError;
+    }
+
+    @Override
+    public int bytesPerCell() {
+        return 2;
+    }
+
+    /**
+     * @return double, the height difference between two neighboring steps
+     */
+    public double scale() {
+        return scale;
+    }
+
+    /**
+     * @return double, the height of step 0 (the lowest point)
+     */
+    public double offset() {
+        return offset;
+    }
+}
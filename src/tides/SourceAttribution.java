@@ -0,0 +1,128 @@
+package tides;
+
+/**
+ * This class records which water source flooded each cell.
+ *
+ * All sources are flooded together in one breadth-first search. Every cell
+ * takes the source of the cell the water reached it from, so each flooded
+ * cell is attributed to the source that reaches it in the fewest steps (ties
+ * go to the source listed first). The flooded area is exactly the one
+ * floodedRegionsIn finds, and the work is the same as one ordinary flood.
+ *
+ * Labels are kept in a short per cell when there are fewer than 65535
+ * sources, and in an int per cell otherwise. Label 0 means dry, and label
+ * s + 1 means sources[s].
+ */
+public class SourceAttribution {
+
+    // Offsets to the top, bottom, left and right neighbors
+    private static final int[] ROW_STEPS = { -1, 1, 0, 0 };
+    private static final int[] COL_STEPS = { 0, 0, -1, 1 };
+
+    public final int rows;
+    public final int cols;
+
+    /* Number of cells attributed to each source, indexed like the sources. */
+    public final int[] area;
+
+    // Row-major labels; only one of the two is used
+    private final short[] shortLabels;
+    private final int[] intLabels;
+
+    private SourceAttribution(int rows, int cols, int numSources) {
+        this.rows = rows;
+        this.cols = cols;
+        this.area = new int[numSources];
+        int n = Cells.count(rows, cols);
+        if (numSources < 0xFFFF) {
+            shortLabels = new short[n];
+            intLabels = null;
+        } else {
+            shortLabels = null;
+            intLabels = new int[n];
+        }
+    }
+
+    /**
+     * Floods the terrain from every source at once.
+     *
+     * @param terrain heights of each cell
+     * @param sources of water
+     * @param height of the water
+     * @return SourceAttribution, the source of every flooded cell
+     */
+    public static SourceAttribution flood(HeightGrid terrain, GridLocation[] sources, double height) {
+        int rows = terrain.rows();
+        int cols = terrain.cols();
+        var result = new SourceAttribution(rows, cols, sources.length);
+
+        int[] queue = new int[Cells.count(rows, cols)];
+        int head = 0, tail = 0;
+        for (int s = 0; s < sources.length; s++) {
+            int cell = Cells.index(sources[s].row, sources[s].col, rows, cols);
+            if (result.label(cell) != 0) continue;
+            result.setLabel(cell, s + 1);
+            queue[tail++] = cell;
+        }
+
+        while (head < tail) {
+            int cell = queue[head++];
+            int label = result.label(cell);
+            result.area[label - 1]++;
+
+            int r = cell / cols;
+            int c = cell - r * cols;
+            for (int k = 0; k < 4; k++) {
+                int nr = r + ROW_STEPS[k];
+                int nc = c + COL_STEPS[k];
+                if (nr < 0 || nr >= rows || nc < 0 || nc >= cols) continue;
+                int neighbor = nr * cols + nc;
+                if (result.label(neighbor) != 0 || terrain.get(nr, nc) > height) continue;
+                result.setLabel(neighbor, label);
+                queue[tail++] = neighbor;
+            }
+        }
+
+        return result;
+    }
+
+    private int label(int cell) {
+        return shortLabels != null ? shortLabels[cell] & 0xFFFF : intLabels[cell];
+    }
+
+    private void setLabel(int cell, int label) {
+        if (shortLabels != null) {
+            shortLabels[cell] = (short) label;
+        } else {
+            intLabels[cell] = label;
+        }
+    }
+
+    /**
+     * @param row of the cell
+     * @param col of the cell
+     * @return int, the index of the source that flooded the cell, or -1 if
+     * the cell is dry
+     */
+    public int sourceAt(int row, int col) {
+        return label(Cells.index(row, col, rows, cols)) - 1;
+    }
+
+    /**
+     * @param cell location
+     * @return int, the index of the source that flooded the cell, or -1 if
+     * the cell is dry
+     */
+    public int sourceAt(GridLocation cell) {
+        return sourceAt(cell.row, cell.col);
+    }
+
+    /**
+     * @param row of the cell
+     * @param col of the cell
+     * @return boolean, true if the cell is flooded
+     */
+    public boolean isFlooded(int row, int col) {
+        return label(Cells.index(row, col, rows, cols)) != 0;
+    }
+}
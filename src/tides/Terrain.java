@@ -12,9 +12,23 @@ public class Terrain {
     public double[][] heights;
     public GridLocation[] sources;
 
+    /*
+     * Access to the heights; for out-of-core terrains heights is null. Added
+     * (with the second constructor) so a terrain can be stored other than as
+     * a double[][]; the original fields and constructor are unchanged.
+     */
+    public final HeightGrid grid;
+
     public Terrain(double[][] heights, GridLocation[] sources) {
         this.heights = heights;
         this.sources = sources;
+        this.grid = new ArrayHeightGrid(heights);
+    }
+
+    public Terrain(HeightGrid grid, GridLocation[] sources) {
+        this.heights = grid instanceof ArrayHeightGrid ? ((ArrayHeightGrid) grid).heights : null;
+        this.sources = sources;
+        this.grid = grid;
     }
 
     @Override
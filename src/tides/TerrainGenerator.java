@@ -0,0 +1,189 @@
+package tides;
+
+import java.io.*;
+
+/**
+ * This class makes synthetic coastal terrains of any size, for testing and
+ * for measuring how the flood code scales.
+ *
+ * Heights are fractal value noise: several octaves of smoothly interpolated
+ * random lattice values, each octave at half the wavelength and half the
+ * amplitude of the one before. The lattice values come from hashing the
+ * lattice point with the seed, so the same seed always gives the same
+ * terrain, and every cell can be computed on its own. That lets terrains far
+ * larger than the heap be streamed straight to a file or into a tiled grid.
+ *
+ * The noise sits on a ramp that climbs from west to east. About seaFraction
+ * of the map (from the west edge) is below sea level, which makes a ragged
+ * coastline running north to south. Water sources are spread evenly along
+ * the west edge.
+ *
+ * Usage: java tides.TerrainGenerator rows cols seed output.terrain
+ */
+public class TerrainGenerator {
+
+    // Number of noise octaves; finer detail than this is not worth the time
+    private static final int OCTAVES = 8;
+
+    private final long seed;
+    private final double relief;
+    private final double seaFraction;
+    private final int numSources;
+
+    /**
+     * @param seed of the random lattice
+     * @param relief rough height of the highest ground, in meters
+     * @param seaFraction share of the map, from the west edge, below sea level
+     * @param numSources number of water sources along the west edge
+     */
+    public TerrainGenerator(long seed, double relief, double seaFraction, int numSources) {
+        if (numSources < 1) {
+            throw new IllegalArgumentException("A terrain needs at least one water source.");
+        }
+        this.seed = seed;
+        this.relief = relief;
+        this.seaFraction = seaFraction;
+        this.numSources = numSources;
+    }
+
+    /**
+     * A generator with 100 m of relief, 30% sea and 4 sources.
+     *
+     * @param seed of the random lattice
+     */
+    public TerrainGenerator(long seed) {
+        this(seed, 100, 0.3, 4);
+    }
+
+    /**
+     * @param row of the cell
+     * @param col of the cell
+     * @param rows of the terrain
+     * @param cols of the terrain
+     * @return double, the height of the cell, rounded to the centimeter
+     */
+    public double height(int row, int col, int rows, int cols) {
+        double ramp = 2 * relief * ((col + 0.5) / cols - seaFraction);
+
+        double noise = 0;
+        double amplitude = 0.5;
+        double wavelength = Math.max(rows, cols) / 4.0;
+        for (int octave = 0; octave < OCTAVES && wavelength >= 2; octave++) {
+            noise += amplitude * valueNoise(row / wavelength, col / wavelength, octave);
+            amplitude /= 2;
+            wavelength /= 2;
+        }
+
+        return Math.round((ramp + relief * noise) * 100) / 100.0;
+    }
+
+    /**
+     * @param rows of the terrain
+     * @param cols of the terrain
+     * @return GridLocation[], the water sources, evenly spaced down the west edge
+     */
+    public GridLocation[] sources(int rows, int cols) {
+        var sources = new GridLocation[numSources];
+        for (int i = 0; i < numSources; i++) {
+            sources[i] = new GridLocation((int) ((i + 0.5) * rows / numSources), 0);
+        }
+        return sources;
+    }
+
+    /**
+     * Makes a terrain in memory.
+     *
+     * @param rows of the terrain
+     * @param cols of the terrain
+     * @return Terrain, the generated terrain
+     */
+    public Terrain generate(int rows, int cols) {
+        var heights = new double[rows][cols];
+        fill(new ArrayHeightGrid(heights));
+        return new Terrain(heights, sources(rows, cols));
+    }
+
+    /**
+     * Writes generated heights into an existing grid, e.g. a TiledHeightGrid
+     * made with TiledHeightGrid.create.
+     *
+     * @param grid to fill
+     */
+    public void fill(HeightGrid grid) {
+        int rows = grid.rows();
+        int cols = grid.cols();
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                grid.set(r, c, height(r, c, rows, cols));
+            }
+        }
+    }
+
+    /**
+     * Writes a terrain straight to a .terrain file, one row at a time, so no
+     * grid is ever held in memory.
+     *
+     * @param file to write
+     * @param rows of the terrain
+     * @param cols of the terrain
+     */
+    public void write(File file, int rows, int cols) throws IOException {
+        try (var out = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+            out.write("local\n" + rows + "\n" + cols + "\n" + numSources + "\n");
+            for (GridLocation source : sources(rows, cols)) {
+                out.write(source.row + "\n" + source.col + "\n");
+            }
+
+            var line = new StringBuilder();
+            for (int r = 0; r < rows; r++) {
+                line.setLength(0);
+                for (int c = 0; c < cols; c++) {
+                    if (c > 0) line.append(' ');
+                    line.append(height(r, c, rows, cols));
+                }
+                line.append('\n');
+                out.append(line);
+            }
+        }
+    }
+
+    /* Smoothly interpolated lattice noise in [-1, 1]. */
+    private double valueNoise(double y, double x, int octave) {
+        long iy = (long) Math.floor(y);
+        long ix = (long) Math.floor(x);
+        double fy = smooth(y - iy);
+        double fx = smooth(x - ix);
+
+        double top = lerp(lattice(iy, ix, octave), lattice(iy, ix + 1, octave), fx);
+        double bottom = lerp(lattice(iy + 1, ix, octave), lattice(iy + 1, ix + 1, octave), fx);
+        return lerp(top, bottom, fy);
+    }
+
+    /* Random value in [-1, 1] for a lattice point (SplitMix64 finalizer). */
+    private double lattice(long y, long x, int octave) {
+        long z = seed + 0x9E3779B97F4A7C15L * (y * 0x632BE59BD9B4E019L + x * 0x85157AF5L + octave + 1);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        return (z >>> 11) * 0x1.0p-52 - 1;
+    }
+
+    private static double smooth(double t) {
+        return t * t * (3 - 2 * t);
+    }
+
+    private static double lerp(double a, double b, double t) {
+        return a + (b - a) * t;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4) {
+            System.err.println("Usage: java tides.TerrainGenerator rows cols seed output.terrain");
+            System.exit(1);
+        }
+        int rows = Integer.parseInt(args[0]);
+        int cols = Integer.parseInt(args[1]);
+        long seed = Long.parseLong(args[2]);
+        new TerrainGenerator(seed).write(new File(args[3]), rows, cols);
+    }
+}
@@ -1,10 +1,8 @@
 package tides;
 
 import java.io.*;
+import java.lang.reflect.*;
 import java.util.*;
-import java.net.*;
-import java.nio.*;
-import java.nio.channels.*;
 
 /**
  * This class loads the terrain from a provided .terrain file.
@@ -15,64 +13,121 @@ public class TerrainLoader {
     private TerrainLoader() {
     }
 
+    /*
+     * Terrains whose heights would take more than this many bytes of heap are
+     * stored out of core in a tiled file instead. Setting the tides.outOfCore
+     * system property forces every terrain out of core.
+     */
+    private static final long OUT_OF_CORE_BYTES = Boolean.getBoolean("tides.outOfCore") ? 0
+            : Runtime.getRuntime().maxMemory() / 4;
+
+    /*
+     * Setting the tides.offHeap system property keeps in-memory terrains in
+     * native memory (SegmentHeightGrid) instead of a double[][]. That class
+     * uses the FFM API, a preview in JDK 21, so it is compiled apart from the
+     * rest (see src-ffm) and only looked up by name when it is needed.
+     */
+    private static final boolean OFF_HEAP = Boolean.getBoolean("tides.offHeap");
+
     /* Interface for receiving progress updates. */
     public interface DownloadNotifier {
         public void onProgress(int bytesRead, int bytesTotal);
     }
 
+    public static Terrain loadTerrain(File filename, DownloadNotifier downloadNotifier) throws IOException {
+        return loadTerrain(filename, downloadNotifier, HeightEncoding.fromProperty());
+    }
+
     /*
-     * Progress monitor channel type. Adapted from this Stack Overflow post:
-     * https://stackoverflow.com/a/59667209
+     * Loads a terrain, storing its heights in the given encoding unless it is
+     * too large for the heap (then it is tiled) or off-heap storage is on.
+     *
+     * Every load is recorded in TidesMetrics, failed ones too. A remote
+     * terrain is recorded under the file naming its URL, with any download
+     * included. The bytes recorded are the ones actually read: the file and
+     * the download or cached copy for a remote terrain, nothing for reused
+     * tiles.
      */
-    private static final class ReadableConsumerByteChannel implements ReadableByteChannel {
-        private final ReadableByteChannel rbc;
-        private final DownloadNotifier onRead;
+    public static Terrain loadTerrain(File filename, DownloadNotifier downloadNotifier, HeightEncoding encoding)
+            throws IOException {
+        var event = TidesMetrics.beginLoad();
+        var read = new ByteCount();
+        Terrain terrain = null;
+        try {
+            terrain = readTerrain(filename, downloadNotifier, encoding, read);
+            return terrain;
+        } finally {
+            TidesMetrics.endLoad(event, filename, read.bytes, terrain);
+        }
+    }
 
-        private int bytesRead;
-        private final int totalBytes;
-        private int lastPercent = -1;
+    /* Bytes read by one load, over all the streams it opens. */
+    private static final class ByteCount {
+        long bytes;
 
-        public ReadableConsumerByteChannel(ReadableByteChannel rbc, int totalBytes, DownloadNotifier onBytesRead) {
-            this.rbc = rbc;
-            this.onRead = onBytesRead;
-            this.totalBytes = totalBytes == 0 ? 1 : totalBytes;
-        }
+        InputStream count(InputStream stream) {
+            return new FilterInputStream(stream) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) bytes++;
+                    return b;
+                }
 
-        @Override
-        public int read(ByteBuffer dst) throws IOException {
-            int nRead = rbc.read(dst);
-            notifyBytesRead(nRead);
-            return nRead;
-        }
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int n = super.read(buffer, offset, length);
+                    if (n > 0) bytes += n;
+                    return n;
+                }
 
-        protected void notifyBytesRead(int nRead) {
-            if (nRead <= 0) {
-                return;
-            }
-            bytesRead += nRead;
+                @Override
+                public long skip(long n) throws IOException {
+                    long skipped = super.skip(n);
+                    bytes += skipped;
+                    return skipped;
+                }
+            };
+        }
+    }
 
-            int newPct = (int) (100.0 * bytesRead / totalBytes);
-            if (newPct != lastPercent) {
-                onRead.onProgress(bytesRead, totalBytes);
-                lastPercent = newPct;
-            }
+    private static Terrain readTerrain(File filename, DownloadNotifier downloadNotifier, HeightEncoding encoding,
+            ByteCount read) throws IOException {
+        File tileFile = tileFileFor(filename);
+        TiledHeightGrid tiles = reusableTiles(tileFile, filename);
+        if (tiles != null) {
+            return new Terrain(tiles, tiles.sources());
         }
 
-        @Override
-        public boolean isOpen() {
-            return rbc.isOpen();
+        try (var br = new FileInputStream(filename)) {
+            return loadTerrain(read.count(br), tileFile, downloadNotifier, encoding, read);
         }
+    }
 
-        @Override
-        public void close() throws IOException {
-            rbc.close();
+    /*
+     * A finished tile file newer than the terrain means it was already
+     * converted. It is only used if the terrain is still too large for the
+     * heap; otherwise the terrain is read again, so the encoding and
+     * off-heap settings of this run apply.
+     */
+    private static TiledHeightGrid reusableTiles(File tileFile, File source) throws IOException {
+        if (tileFile.lastModified() < source.lastModified()) return null;
+        TiledHeightGrid grid = TiledHeightGrid.open(tileFile);
+        if (grid != null && 8L * grid.rows() * grid.cols() <= OUT_OF_CORE_BYTES) {
+            grid.close();
+            return null;
         }
+        return grid;
     }
 
-    public static Terrain loadTerrain(File filename, DownloadNotifier downloadNotifier) throws IOException {
-        try (var br = new FileInputStream(filename)) {
-            return loadTerrain(br, downloadNotifier);
+    /* The tiled copy of a terrain lives next to it, with a .tiles extension. */
+    static File tileFileFor(File filename) {
+        String name = filename.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot);
         }
+        return new File(filename.getAbsoluteFile().getParentFile(), name + ".tiles");
     }
 
     /*
@@ -97,18 +152,18 @@ public class TerrainLoader {
         return s.nextDouble();
     }
 
-    private static Terrain loadTerrain(InputStream stream, DownloadNotifier downloadNotifier) throws IOException {
+    private static Terrain loadTerrain(InputStream stream, File tileFile, DownloadNotifier downloadNotifier,
+            HeightEncoding encoding, ByteCount read) throws IOException {
         try (var input = new Scanner(stream)) {
             /* Determine whether this is a local file or whether it's remote. */
             var source = nextLine(input);
             if (!source.equals("local")) {
-                return loadWebTerrain(source, downloadNotifier);
+                return loadWebTerrain(source, downloadNotifier, encoding, read);
             }
 
             /* Read the terrain size. */
             int numRows = nextInt(input);
             int numCols = nextInt(input);
-            var heights = new double[numRows][numCols];
 
             /* Read the water sources. */
             int numSources = nextInt(input);
@@ -119,19 +174,144 @@ public class TerrainLoader {
                 sources[i] = new GridLocation(row, col);
             }
 
-            /* Read the height data. */
+            /* Too big for the heap? Stream the heights into a tiled file. */
+            if (8L * numRows * numCols > OUT_OF_CORE_BYTES) {
+                return loadTiledHeights(input, numRows, numCols, sources, tileFile);
+            }
+            if (OFF_HEAP) {
+                return loadSegmentHeights(input, numRows, numCols, sources);
+            }
+
+            var heights = encoding.builder(numRows, numCols);
+
+            /* Read the height data straight into the chosen encoding. */
             for (int row = 0; row < numRows; row++) {
                 for (int col = 0; col < numCols; col++) {
-                    heights[row][col] = nextDouble(input);
+                    heights.set(row, col, nextDouble(input));
                 }
             }
-
-            return new Terrain(heights, sources);
+            return new Terrain(heights.build(), sources);
         } catch (RuntimeException e) {
             throw new IOException("Error reading terrain.", e);
         }
     }
 
+    /**
+     * Finds where the flood index sidecar for a terrain file lives: next to 
+     * the file for local terrains, or in the download cache for remote ones.
+     * 
+     * @param filename the .terrain file
+     * @return File, the sidecar file (which may not exist yet)
+     */
+    public static File indexFileFor(File filename) throws IOException {
+        String source;
+        try (var br = new BufferedReader(new FileReader(filename))) {
+            source = br.readLine();
+        }
+        if (source == null)
+            throw new IOException("Unexpected end of file.");
+
+        if (!source.equals("local")) {
+            return new File("DownloadCache/" + source.hashCode() + ".tidx");
+        }
+        String name = filename.getName();
+        if (name.endsWith(".terrain")) {
+            name = name.substring(0, name.length() - ".terrain".length());
+        }
+        return new File(filename.getAbsoluteFile().getParentFile(), name + ".tidx");
+    }
+
+    /**
+     * Finds the file a terrain's heights are actually read from: the file
+     * itself for local terrains, or the cached download for remote ones (the
+     * .terrain file only names the URL). This is what a flood index sidecar
+     * is keyed on.
+     *
+     * @param filename the .terrain file
+     * @return File, the file holding the heights (which, for a remote terrain
+     * not downloaded yet, may not exist)
+     */
+    public static File dataFileFor(File filename) throws IOException {
+        String source;
+        try (var br = new BufferedReader(new FileReader(filename))) {
+            source = br.readLine();
+        }
+        if (source == null)
+            throw new IOException("Unexpected end of file.");
+
+        if (source.equals("local")) {
+            return filename;
+        }
+        File packedFile = new File("DownloadCache/" + source.hashCode() + ".tcz");
+        return packedFile.exists() ? packedFile : new File("DownloadCache/" + source.hashCode() + ".data");
+    }
+
+    /* Reads the height data straight into a new tiled file. */
+    private static Terrain loadTiledHeights(Scanner input, int numRows, int numCols, GridLocation[] sources,
+            File tileFile) throws IOException {
+        var grid = TiledHeightGrid.create(tileFile, numRows, numCols, sources);
+        try {
+            for (int row = 0; row < numRows; row++) {
+                for (int col = 0; col < numCols; col++) {
+                    grid.set(row, col, nextDouble(input));
+                }
+            }
+            grid.finish();
+            return new Terrain(grid, sources);
+        } catch (IOException | RuntimeException e) {
+            grid.close();
+            tileFile.delete();
+            throw e;
+        }
+    }
+
+    /* Reads the height data straight into native memory. */
+    private static Terrain loadSegmentHeights(Scanner input, int numRows, int numCols, GridLocation[] sources)
+            throws IOException {
+        HeightGrid grid = newSegmentHeightGrid(numRows, numCols);
+        try {
+            for (int row = 0; row < numRows; row++) {
+                for (int col = 0; col < numCols; col++) {
+                    grid.set(row, col, nextDouble(input));
+                }
+            }
+            return new Terrain(grid, sources);
+        } catch (IOException | RuntimeException e) {
+            close(grid);
+            throw e;
+        }
+    }
+
+    /*
+     * Makes an empty SegmentHeightGrid. It fails with an IOException when the
+     * FFM classes are not on the class path, or cannot run on this JVM: they
+     * are compiled for JDK 21 with --enable-preview and need the same to run.
+     */
+    static HeightGrid newSegmentHeightGrid(int rows, int cols) throws IOException {
+        try {
+            return (HeightGrid) Class.forName("tides.SegmentHeightGrid").getConstructor(int.class, int.class)
+                    .newInstance(rows, cols);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new IOException(e.getCause());
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new IOException("Off-heap storage (tides.offHeap) needs the classes in src-ffm, compiled and run "
+                    + "with --enable-preview on JDK 21: " + e, e);
+        }
+    }
+
+    /* Frees a grid that holds native memory or files. */
+    private static void close(HeightGrid grid) {
+        if (grid instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) grid).close();
+            } catch (Exception e) {
+                /* The load already failed; that error is the one to report. */
+            }
+        }
+    }
+
     /* Sees whether the given key file is the key for the given URL. */
     private static boolean isKeyFor(File keyFile, String source) throws IOException {
         /* Check if the file contents are the URL. */
@@ -142,36 +322,116 @@ public class TerrainLoader {
     }
 
     /* Loads the terrain from the given URL. */
-    private static Terrain loadWebTerrain(String source, DownloadNotifier downloadNotifier) throws IOException {
+    private static Terrain loadWebTerrain(String source, DownloadNotifier downloadNotifier, HeightEncoding encoding,
+            ByteCount read) throws IOException {
         /* Key file: Name is hash, contents are URL. */
         File keyFile = new File("DownloadCache/" + source.hashCode() + ".key");
 
         /* Data file: Name is hash, contents are actual contents. */
         File dataFile = new File("DownloadCache/" + source.hashCode() + ".data");
 
+        /* Packed file: the same terrain in compressed binary form (see CompressedTerrainFile). */
+        File packedFile = new File("DownloadCache/" + source.hashCode() + ".tcz");
+
+        /* If it's cached, just load it, packing text left by older versions. */
+        if (keyFile.exists() && isKeyFor(keyFile, source)) {
+            if (packedFile.exists()) {
+                return loadPackedTerrain(packedFile, encoding, read);
+            }
+            if (dataFile.exists()) {
+                Terrain terrain = readTerrain(dataFile, downloadNotifier, encoding, read);
+                pack(terrain, dataFile, packedFile);
+                return terrain;
+            }
+        }
 
-        /* If this isn't cached, go cache it. */
-        if (!keyFile.exists() || !dataFile.exists() || !isKeyFor(keyFile, source)) {
-            /*
-             * Otherwise, we need to download this file. These next lines are adapted from
-             * https://stackoverflow.com/questions/30405695/java-nio-filechannels-track-
-             * progress
-             */
-            URLConnection connection = new URL(source).openConnection();
-            ReadableByteChannel rbc = Channels.newChannel(new URL(source).openStream());
-            ReadableConsumerByteChannel rcbc = new ReadableConsumerByteChannel(rbc, connection.getContentLength(),
-                    downloadNotifier);
-            FileOutputStream fos = new FileOutputStream(dataFile);
-            fos.getChannel().transferFrom(rcbc, 0, Long.MAX_VALUE);
-            fos.close();
+        /*
+         * Otherwise, download it into the cache over several connections and
+         * parse the heights while they arrive. An interrupted download picks
+         * up where it left off next time. Whatever the cache holds under this
+         * hash stays untouched until the new data is ready to replace it.
+         */
+        try (var download = RangedDownload.start(source, dataFile, downloadNotifier)) {
+            Terrain terrain;
+            try {
+                terrain = loadTerrain(read.count(download.openStream()), tileFileFor(dataFile), downloadNotifier,
+                        encoding, read);
+            } catch (IOException e) {
+                download.await(); // a failed download explains a failed parse better
+                download.discard(); // it all arrived but cannot be parsed
+                throw e;
+            }
+            download.await();
+
+            /* Drop the old key first, so it never names the new data. */
+            keyFile.delete();
+            packedFile.delete();
+            download.install();
 
             /* Now, make the key file. */
             try (var pw = new PrintWriter(keyFile)) {
                 pw.println(source);
             }
+            pack(terrain, dataFile, packedFile);
+            return terrain;
+        }
+    }
+
+    /* Replaces the text copy of a downloaded terrain with a compressed one, if it can. */
+    private static void pack(Terrain terrain, File dataFile, File packedFile) {
+        try {
+            CompressedTerrainFile.write(terrain, packedFile);
+            dataFile.delete();
+        } catch (IOException e) {
+            System.err.println("Cannot compress cached terrain, keeping it as text: " + e.getMessage());
+        }
+    }
+
+    /*
+     * Loads a terrain from the compressed cache, choosing where the heights
+     * go the same way as for a text file.
+     */
+    private static Terrain loadPackedTerrain(File packedFile, HeightEncoding encoding, ByteCount read)
+            throws IOException {
+        File tileFile = tileFileFor(packedFile);
+        TiledHeightGrid tiles = reusableTiles(tileFile, packedFile);
+        if (tiles != null) {
+            return new Terrain(tiles, tiles.sources());
         }
+        read.bytes += packedFile.length(); // decoded in one pass
 
-        /* It's now cached, so load it. */
-        return loadTerrain(dataFile, downloadNotifier);
+        try (var packed = CompressedTerrainFile.open(packedFile)) {
+            if (8L * packed.rows * packed.cols > OUT_OF_CORE_BYTES) {
+                var grid = TiledHeightGrid.create(tileFile, packed.rows, packed.cols, packed.sources);
+                try {
+                    packed.decodeInto(grid);
+                    grid.finish();
+                    return new Terrain(grid, packed.sources);
+                } catch (IOException | RuntimeException e) {
+                    grid.close();
+                    tileFile.delete();
+                    throw e;
+                }
+            }
+            if (OFF_HEAP) {
+                HeightGrid grid = newSegmentHeightGrid(packed.rows, packed.cols);
+                try {
+                    packed.decodeInto(grid);
+                    return new Terrain(grid, packed.sources);
+                } catch (IOException | RuntimeException e) {
+                    close(grid);
+                    throw e;
+                }
+            }
+
+            if (encoding == HeightEncoding.DOUBLE) {
+                var heights = new double[packed.rows][packed.cols];
+                packed.decodeInto(heights);
+                return new Terrain(heights, packed.sources);
+            }
+            var heights = encoding.builder(packed.rows, packed.cols);
+            packed.decodeInto(heights);
+            return new Terrain(heights.build(), packed.sources);
+        }
     }
 }
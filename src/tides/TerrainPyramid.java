@@ -0,0 +1,227 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * This class holds downsampled copies of a terrain for quick, rough answers
+ * before (or instead of) a full-resolution run.
+ *
+ * Each level halves the previous one in both directions. Every coarse cell
+ * keeps both the lowest and the highest height of the block it covers:
+ *  - Flooding the lowest heights (min-pooling) can only flood too much. Any
+ *    path the water takes at full resolution passes through blocks whose
+ *    lowest cell is under water, so every truly flooded cell lies in a
+ *    flooded block.
+ *  - Flooding the highest heights (max-pooling) can only flood too little.
+ *    A block whose highest cell is under water is flooded all the way
+ *    through, and neighboring blocks share a whole edge.
+ * The two floods bound the true land from below and above.
+ *
+ * Levels are built down to PREVIEW_SIZE cells on a side, so the coarsest
+ * preview is answered in well under a millisecond whatever the terrain size.
+ * The finer levels together take about 5 bytes per terrain cell; coarsest()
+ * builds only the last level, for callers that just want one quick preview.
+ */
+public class TerrainPyramid {
+
+    /* Largest side of the coarsest level. */
+    public static final int PREVIEW_SIZE = 128;
+
+    // Offsets to the top, bottom, left and right neighbors
+    private static final int[] ROW_STEPS = { -1, 1, 0, 0 };
+    private static final int[] COL_STEPS = { 0, 0, -1, 1 };
+
+    /* Interface for receiving previews as they are refined. */
+    public interface PreviewListener {
+        public void onPreview(FloodPreview preview);
+    }
+
+    private final int rows, cols;
+    private final GridLocation[] sources;
+
+    // lows[k] and highs[k] cover blocks of 2^(firstShift+k) x 2^(firstShift+k) terrain cells
+    private final int firstShift;
+    private final List<ArrayHeightGrid> lows = new ArrayList<ArrayHeightGrid>();
+    private final List<ArrayHeightGrid> highs = new ArrayList<ArrayHeightGrid>();
+
+    /**
+     * Builds every level of the pyramid. Reads the terrain once.
+     *
+     * @param terrain heights of each cell
+     * @param sources of water
+     */
+    public TerrainPyramid(HeightGrid terrain, GridLocation[] sources) {
+        this.rows = terrain.rows();
+        this.cols = terrain.cols();
+        this.sources = sources;
+        this.firstShift = 1;
+
+        HeightGrid low = terrain, high = terrain;
+        while (Math.max(low.rows(), low.cols()) > PREVIEW_SIZE) {
+            int coarseRows = (low.rows() + 1) / 2;
+            int coarseCols = (low.cols() + 1) / 2;
+            double[][] lowest = new double[coarseRows][coarseCols];
+            double[][] highest = new double[coarseRows][coarseCols];
+            for (double[] row : lowest) Arrays.fill(row, Double.POSITIVE_INFINITY);
+            for (double[] row : highest) Arrays.fill(row, Double.NEGATIVE_INFINITY);
+
+            for (int r = 0; r < low.rows(); r++) {
+                double[] lowRow = lowest[r / 2];
+                double[] highRow = highest[r / 2];
+                for (int c = 0; c < low.cols(); c++) {
+                    lowRow[c / 2] = Math.min(lowRow[c / 2], low.get(r, c));
+                    highRow[c / 2] = Math.max(highRow[c / 2], high.get(r, c));
+                }
+            }
+
+            low = new ArrayHeightGrid(lowest);
+            high = new ArrayHeightGrid(highest);
+            lows.add((ArrayHeightGrid) low);
+            highs.add((ArrayHeightGrid) high);
+        }
+    }
+
+    private TerrainPyramid(int rows, int cols, GridLocation[] sources, int firstShift) {
+        this.rows = rows;
+        this.cols = cols;
+        this.sources = sources;
+        this.firstShift = firstShift;
+    }
+
+    /**
+     * Builds only the coarsest level, straight from the terrain in one pass.
+     * Its previews are the same as the coarsest previews of the full
+     * pyramid, but it holds at most PREVIEW_SIZE x PREVIEW_SIZE cells.
+     *
+     * @param terrain heights of each cell
+     * @param sources of water
+     * @return TerrainPyramid, with one level (or none for a small terrain)
+     */
+    public static TerrainPyramid coarsest(HeightGrid terrain, GridLocation[] sources) {
+        int rows = terrain.rows();
+        int cols = terrain.cols();
+        int shift = 0;
+        while (Math.max(((rows - 1) >> shift) + 1, ((cols - 1) >> shift) + 1) > PREVIEW_SIZE) {
+            shift++;
+        }
+
+        var pyramid = new TerrainPyramid(rows, cols, sources, shift);
+        if (shift == 0) return pyramid;
+
+        int coarseRows = ((rows - 1) >> shift) + 1;
+        int coarseCols = ((cols - 1) >> shift) + 1;
+        double[][] lowest = new double[coarseRows][coarseCols];
+        double[][] highest = new double[coarseRows][coarseCols];
+        for (double[] row : lowest) Arrays.fill(row, Double.POSITIVE_INFINITY);
+        for (double[] row : highest) Arrays.fill(row, Double.NEGATIVE_INFINITY);
+
+        for (int r = 0; r < rows; r++) {
+            double[] lowRow = lowest[r >> shift];
+            double[] highRow = highest[r >> shift];
+            for (int c = 0; c < cols; c++) {
+                double height = terrain.get(r, c);
+                lowRow[c >> shift] = Math.min(lowRow[c >> shift], height);
+                highRow[c >> shift] = Math.max(highRow[c >> shift], height);
+            }
+        }
+        pyramid.lows.add(new ArrayHeightGrid(lowest));
+        pyramid.highs.add(new ArrayHeightGrid(highest));
+        return pyramid;
+    }
+
+    /**
+     * @return int, the number of coarse levels (0 if the terrain is already
+     * small enough to flood directly)
+     */
+    public int levels() {
+        return lows.size();
+    }
+
+    /**
+     * Floods one coarse level.
+     *
+     * @param level from 0 (finest built) to levels() - 1 (coarsest)
+     * @param height of the water
+     * @return FloodPreview, the coarse flood and its land bounds
+     */
+    public FloodPreview preview(int level, double height) {
+        ArrayHeightGrid low = lows.get(level);
+        ArrayHeightGrid high = highs.get(level);
+        int shift = firstShift + level;
+
+        boolean[][] mayFlood = flood(low, shift, height, true);
+        boolean[][] mustFlood = flood(high, shift, height, false);
+
+        long total = (long) rows * cols;
+        long minLand = total - floodedCells(mayFlood, shift);
+        long maxLand = total - floodedCells(mustFlood, shift);
+        int islands = new IslandLabeler().label(high, mayFlood).count;
+
+        return new FloodPreview(rows, cols, 1 << shift, mayFlood, minLand, maxLand, islands);
+    }
+
+    /**
+     * Publishes a preview for every level, coarsest first. Stops early once
+     * the land bounds meet.
+     *
+     * @param height of the water
+     * @param listener called once per level
+     */
+    public void refine(double height, PreviewListener listener) {
+        for (int level = levels() - 1; level >= 0; level--) {
+            FloodPreview preview = preview(level, height);
+            listener.onPreview(preview);
+            if (preview.minLand == preview.maxLand) return;
+        }
+    }
+
+    /*
+     * Floods a coarse level from the blocks holding the sources. The blocks
+     * are always seeded when flooding too much, and only seeded if they are
+     * under water when flooding too little.
+     */
+    private boolean[][] flood(ArrayHeightGrid grid, int shift, double height, boolean seedAll) {
+        int coarseRows = grid.rows();
+        int coarseCols = grid.cols();
+        boolean[][] flooded = new boolean[coarseRows][coarseCols];
+        int[] queue = new int[coarseRows * coarseCols];
+        int head = 0, tail = 0;
+
+        for (GridLocation source : sources) {
+            int r = source.row >> shift;
+            int c = source.col >> shift;
+            if (flooded[r][c] || (!seedAll && grid.get(r, c) > height)) continue;
+            flooded[r][c] = true;
+            queue[tail++] = r * coarseCols + c;
+        }
+
+        while (head < tail) {
+            int cell = queue[head++];
+            int r = cell / coarseCols;
+            int c = cell % coarseCols;
+            for (int k = 0; k < 4; k++) {
+                int nr = r + ROW_STEPS[k];
+                int nc = c + COL_STEPS[k];
+                if (nr < 0 || nr >= coarseRows || nc < 0 || nc >= coarseCols) continue;
+                if (flooded[nr][nc] || grid.get(nr, nc) > height) continue;
+                flooded[nr][nc] = true;
+                queue[tail++] = nr * coarseCols + nc;
+            }
+        }
+        return flooded;
+    }
+
+    /* Number of terrain cells covered by the flooded coarse cells. */
+    private long floodedCells(boolean[][] flooded, int shift) {
+        long count = 0;
+        for (int r = 0; r < flooded.length; r++) {
+            long blockRows = Math.min(rows, (r + 1) << shift) - ((long) r << shift);
+            for (int c = 0; c < flooded[r].length; c++) {
+                if (flooded[r][c]) {
+                    count += blockRows * (Math.min(cols, (c + 1) << shift) - ((long) c << shift));
+                }
+            }
+        }
+        return count;
+    }
+}
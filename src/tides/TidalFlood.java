@@ -0,0 +1,90 @@
+package tides;
+
+import java.nio.*;
+
+/**
+ * This class keeps a flood mask in step with a water level that moves up and
+ * down, as in tidal-cycle playback.
+ *
+ * A cell is flooded exactly when its flood threshold is at most the water
+ * height (see FloodIndex). Lowering the water from h1 to h2 therefore dries
+ * out exactly the cells with h2 < threshold <= h1, and raising it floods the
+ * same range the other way. Those cells sit next to each other in the index's
+ * threshold order, so each change is two binary searches plus one pass over
+ * the cells that changed. Nothing is flooded again and the rest of the map is
+ * never touched.
+ */
+public class TidalFlood {
+
+    private final FloodIndex index;
+    private final boolean[][] flooded;
+    private double height;
+
+    // Number of flooded cells; they are the first cells of the index's order
+    private int floodedCount;
+
+    /**
+     * Floods the terrain at a starting height.
+     *
+     * @param index for the terrain
+     * @param height of the water to start at
+     */
+    public TidalFlood(FloodIndex index, double height) {
+        this.index = index;
+        this.flooded = new boolean[index.rows][index.cols];
+        this.height = height;
+        this.floodedCount = index.floodedCount(height);
+
+        IntBuffer cells = index.order();
+        for (int i = 0; i < floodedCount; i++) {
+            int cell = cells.get(i);
+            flooded[cell / index.cols][cell % index.cols] = true;
+        }
+    }
+
+    /**
+     * Moves the water to a new height and updates the flood mask.
+     *
+     * @param newHeight of the water
+     * @return FloodDelta, the cells that were flooded (rising water) or dried
+     * out (falling water) by the move
+     */
+    public FloodDelta setHeight(double newHeight) {
+        boolean rising = newHeight >= height;
+        IntBuffer cells = rising ? index.floodedBetween(height, newHeight) : index.floodedBetween(newHeight, height);
+
+        int cols = index.cols;
+        for (int i = 0; i < cells.limit(); i++) {
+            int cell = cells.get(i);
+            flooded[cell / cols][cell % cols] = rising;
+        }
+        floodedCount += rising ? cells.limit() : -cells.limit();
+
+        FloodDelta delta = new FloodDelta(height, newHeight, rising, cells);
+        height = newHeight;
+        return delta;
+    }
+
+    /**
+     * @return double, the current height of the water
+     */
+    public double height() {
+        return height;
+    }
+
+    /**
+     * The mask is updated in place by setHeight, so callers must not change it.
+     *
+     * @return boolean[][], where flooded cells are true, otherwise false
+     */
+    public boolean[][] flooded() {
+        return flooded;
+    }
+
+    /**
+     * @return int, the number of cells above water at the current height
+     */
+    public int visibleLand() {
+        return index.rows * index.cols - floodedCount;
+    }
+}
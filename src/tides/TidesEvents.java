@@ -0,0 +1,71 @@
+package tides;
+
+import jdk.jfr.*;
+
+/**
+ * This class holds the Flight Recorder events the model emits. They show up
+ * under "Rising Tides" in a recording, e.g. one started with
+ * java -XX:StartFlightRecording=filename=tides.jfr ...
+ *
+ * Events cost next to nothing while no recording is running.
+ */
+public class TidesEvents {
+    private TidesEvents() {
+    }
+
+    @Name("tides.TerrainLoad")
+    @Label("Terrain Load")
+    @Category("Rising Tides")
+    @Description("A terrain file read and parsed by TerrainLoader")
+    public static class TerrainLoad extends Event {
+        @Label("File")
+        public String file;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+
+        @Label("Rows")
+        public int rows;
+
+        @Label("Columns")
+        public int cols;
+
+        @Label("Storage")
+        public String storage;
+
+        @Label("Failed")
+        public boolean failed;
+    }
+
+    @Name("tides.Operation")
+    @Label("RisingTides Operation")
+    @Category("Rising Tides")
+    @Description("One call to a RisingTides query")
+    public static class Operation extends Event {
+        @Label("Operation")
+        public String operation;
+
+        @Label("Water Height")
+        public double height;
+
+        @Label("Cells Visited")
+        public long cellsVisited;
+
+        @Label("Queue High-Water Mark")
+        public long queuePeak;
+
+        @Label("Allocated")
+        @DataAmount
+        public long allocated;
+    }
+
+    @Name("tides.Paint")
+    @Label("Terrain Paint")
+    @Category("Rising Tides")
+    @Description("One repaint of the terrain display")
+    public static class Paint extends Event {
+        @Label("Pixels")
+        public long pixels;
+    }
+}
@@ -0,0 +1,290 @@
+package tides;
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+/**
+ * This class times terrain loads, RisingTides operations and repaints. Each
+ * one is emitted as a Flight Recorder event (see TidesEvents) and added to
+ * counters and latency histograms that can be read over JMX (see
+ * TidesMetricsMXBean), so a running Driver or TidesServer can be profiled
+ * with jconsole or jcmd without attaching a profiler.
+ *
+ * All counters are atomic, so operations on many threads at once are fine.
+ */
+public class TidesMetrics implements TidesMetricsMXBean {
+
+    private static final int BUCKETS = 32;
+
+    /* The one instance, registered with the platform MBean server. */
+    public static final TidesMetrics INSTANCE = new TidesMetrics();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName("tides:type=Metrics"));
+        } catch (JMException e) {
+            System.err.println("Cannot register metrics MBean: " + e.getMessage());
+        }
+    }
+
+    // Per-thread allocation counter, if the JVM has one
+    private static final com.sun.management.ThreadMXBean THREADS = ManagementFactory
+            .getThreadMXBean() instanceof com.sun.management.ThreadMXBean
+                    ? (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()
+                    : null;
+
+    /* Counters for one kind of operation. */
+    private static final class Stats {
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder cellsVisited = new LongAdder();
+        final LongAdder allocated = new LongAdder();
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        void record(long elapsed, long visited, long bytes) {
+            count.increment();
+            nanos.add(elapsed);
+            cellsVisited.add(visited);
+            allocated.add(bytes);
+            long micros = elapsed / 1000;
+            int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+            histogram.incrementAndGet(bucket);
+        }
+
+        long[] histogram() {
+            long[] result = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                result[i] = histogram.get(i);
+            }
+            return result;
+        }
+    }
+
+    private final LongAdder bytesLoaded = new LongAdder();
+    private final LongAdder failedLoads = new LongAdder();
+    private volatile Stats loads = new Stats();
+    private volatile Stats paints = new Stats();
+    private final ConcurrentHashMap<String, Stats> operations = new ConcurrentHashMap<String, Stats>();
+
+    private TidesMetrics() {
+    }
+
+    /* One RisingTides call in progress. */
+    public static final class Operation {
+        private final String name;
+        private final double height;
+        private final long start;
+        private final long allocatedBefore;
+        private final TidesEvents.Operation event = new TidesEvents.Operation();
+        private long visited;
+        private long queuePeak;
+
+        private Operation(String name, double height) {
+            this.name = name;
+            this.height = height;
+            this.allocatedBefore = allocatedBytes();
+            event.begin();
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * @param cells number of cells just visited
+         */
+        public void visit(long cells) {
+            visited += cells;
+        }
+
+        /**
+         * @param size of the work queue right now
+         */
+        public void queue(long size) {
+            if (size > queuePeak) queuePeak = size;
+        }
+
+        /* Records the finished call. */
+        public void end() {
+            long elapsed = System.nanoTime() - start;
+            long allocated = allocatedBytes() - allocatedBefore;
+            INSTANCE.operations.computeIfAbsent(name, key -> new Stats()).record(elapsed, visited, allocated);
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = name;
+                event.height = height;
+                event.cellsVisited = visited;
+                event.queuePeak = queuePeak;
+                event.allocated = allocated;
+                event.commit();
+            }
+        }
+    }
+
+    /* A terrain load or repaint in progress, with its event. */
+    public static final class Timing<E extends jdk.jfr.Event> {
+        private final E event;
+        private final long start;
+
+        private Timing(E event) {
+            this.event = event;
+            event.begin();
+            this.start = System.nanoTime();
+        }
+    }
+
+    /**
+     * Starts timing a RisingTides operation. Call end() on the result when it
+     * is done, even if it fails.
+     *
+     * @param name of the operation
+     * @param height of the water (NaN if the operation has none)
+     * @return Operation, the call in progress
+     */
+    public static Operation begin(String name, double height) {
+        return new Operation(name, height);
+    }
+
+    /**
+     * Starts timing a terrain load.
+     *
+     * @return Timing, the load in progress
+     */
+    public static Timing<TidesEvents.TerrainLoad> beginLoad() {
+        return new Timing<TidesEvents.TerrainLoad>(new TidesEvents.TerrainLoad());
+    }
+
+    /**
+     * Records a finished terrain load, whether or not it worked.
+     *
+     * @param load from beginLoad
+     * @param file that was loaded
+     * @param bytes read by the load, downloads included
+     * @param terrain that came out of it, or null if the load failed
+     */
+    public static void endLoad(Timing<TidesEvents.TerrainLoad> load, File file, long bytes, Terrain terrain) {
+        long elapsed = System.nanoTime() - load.start;
+        var event = load.event;
+        event.end();
+        INSTANCE.bytesLoaded.add(bytes);
+        INSTANCE.loads.record(elapsed, 0, 0);
+        if (terrain == null) {
+            INSTANCE.failedLoads.increment();
+        }
+        if (event.shouldCommit()) {
+            event.file = file.getPath();
+            event.bytes = bytes;
+            event.failed = terrain == null;
+            if (terrain != null) {
+                event.rows = terrain.grid.rows();
+                event.cols = terrain.grid.cols();
+                event.storage = terrain.grid.getClass().getSimpleName();
+            }
+            event.commit();
+        }
+    }
+
+    /**
+     * Starts timing a repaint.
+     *
+     * @return Timing, the repaint in progress
+     */
+    public static Timing<TidesEvents.Paint> beginPaint() {
+        return new Timing<TidesEvents.Paint>(new TidesEvents.Paint());
+    }
+
+    /**
+     * Records a finished repaint.
+     *
+     * @param paint from beginPaint
+     * @param pixels that were drawn
+     */
+    public static void endPaint(Timing<TidesEvents.Paint> paint, long pixels) {
+        long elapsed = System.nanoTime() - paint.start;
+        var event = paint.event;
+        event.end();
+        INSTANCE.paints.record(elapsed, 0, 0);
+        if (event.shouldCommit()) {
+            event.pixels = pixels;
+            event.commit();
+        }
+    }
+
+    private static long allocatedBytes() {
+        return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    @Override
+    public long getTerrainLoads() {
+        return loads.count.sum();
+    }
+
+    @Override
+    public long getTerrainLoadFailures() {
+        return failedLoads.sum();
+    }
+
+    @Override
+    public long getTerrainBytesLoaded() {
+        return bytesLoaded.sum();
+    }
+
+    @Override
+    public long getTerrainLoadMillis() {
+        return loads.nanos.sum() / 1_000_000;
+    }
+
+    @Override
+    public long getPaints() {
+        return paints.count.sum();
+    }
+
+    @Override
+    public long getPaintMillis() {
+        return paints.nanos.sum() / 1_000_000;
+    }
+
+    @Override
+    public long[] getPaintLatencyHistogram() {
+        return paints.histogram();
+    }
+
+    @Override
+    public Map<String, Long> getOperationCounts() {
+        var result = new TreeMap<String, Long>();
+        operations.forEach((name, stats) -> result.put(name, stats.count.sum()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getOperationCellsVisited() {
+        var result = new TreeMap<String, Long>();
+        operations.forEach((name, stats) -> result.put(name, stats.cellsVisited.sum()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getOperationAllocatedBytes() {
+        var result = new TreeMap<String, Long>();
+        operations.forEach((name, stats) -> result.put(name, stats.allocated.sum()));
+        return result;
+    }
+
+    @Override
+    public Map<String, long[]> getOperationLatencyHistograms() {
+        var result = new TreeMap<String, long[]>();
+        operations.forEach((name, stats) -> result.put(name, stats.histogram()));
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        bytesLoaded.reset();
+        failedLoads.reset();
+        loads = new Stats();
+        paints = new Stats();
+        operations.clear();
+    }
+}
@@ -0,0 +1,41 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * This interface is the JMX view of TidesMetrics, registered as
+ * tides:type=Metrics. Latency histograms have one bucket per power of two
+ * microseconds: bucket i counts calls that took from 2^i to 2^(i+1) - 1
+ * microseconds (bucket 0 also holds anything under a microsecond).
+ */
+public interface TidesMetricsMXBean {
+
+    /* Terrain loads, failed ones included. */
+    long getTerrainLoads();
+
+    long getTerrainLoadFailures();
+
+    long getTerrainBytesLoaded();
+
+    long getTerrainLoadMillis();
+
+    long getPaints();
+
+    long getPaintMillis();
+
+    long[] getPaintLatencyHistogram();
+
+    /* Calls per RisingTides operation. */
+    Map<String, Long> getOperationCounts();
+
+    /* Cells visited per RisingTides operation, summed over all calls. */
+    Map<String, Long> getOperationCellsVisited();
+
+    /* Bytes allocated per RisingTides operation, summed over all calls. */
+    Map<String, Long> getOperationAllocatedBytes();
+
+    /* Latency histogram per RisingTides operation. */
+    Map<String, long[]> getOperationLatencyHistograms();
+
+    void reset();
+}
@@ -0,0 +1,287 @@
+package tides;
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class serves flood queries over HTTP, so other tools can use the model
+ * without the Swing Driver.
+ *
+ * Every terrain named on the command line is loaded once and kept resident
+ * together with its FloodIndex and MergeTree. After that, every query is
+ * answered from those structures, which are never written again, so requests
+ * run in parallel without any locking. Each request gets its own virtual
+ * thread.
+ *
+ * Endpoints (GET, parameters in the query string):
+ *  - /terrains                                  names of the loaded terrains
+ *  - /flood-mask?terrain=&height=               flooded cells as a PBM bitmap
+ *  - /is-flooded?terrain=&height=&row=&col=     {"flooded": ...}
+ *  - /land?terrain=&height=                     {"land": ...}
+ *  - /land-lost?terrain=&height=&newHeight=     {"landLost": ...}
+ *  - /islands?terrain=&height=[&row=&col=]      {"count": ...}, plus the
+ *                                               island and area of the cell
+ *
+ * Usage: java tides.TidesServer port file.terrain [file.terrain ...]
+ */
+public class TidesServer {
+
+    /* A loaded terrain and everything precomputed for it. */
+    private static final class Resident {
+        final Terrain terrain;
+        final FloodIndex index;
+        final MergeTree tree;
+        final RisingTides rt;
+
+        Resident(Terrain terrain, FloodIndex index) {
+            this.terrain = terrain;
+            this.index = index;
+            this.tree = MergeTree.build(index);
+            this.rt = new RisingTides(terrain, index);
+        }
+    }
+
+    /* A bad request; the message is sent back to the client. */
+    private static final class BadRequest extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        BadRequest(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /* Interface for one endpoint. */
+    private interface Endpoint {
+        public void handle(Map<String, String> params, HttpExchange exchange) throws IOException, BadRequest;
+    }
+
+    /*
+     * The server writes the headers and the body of a response separately.
+     * With Nagle's algorithm on, the body then waits for the client's delayed
+     * ACK, which caps a keep-alive connection at a few dozen requests a
+     * second. This must be set before the first server is created.
+     */
+    static {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final Map<String, Resident> terrains = new ConcurrentHashMap<String, Resident>();
+    private final HttpServer server;
+
+    /**
+     * @param port to listen on (0 picks a free port)
+     */
+    public TidesServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+
+        route("/terrains", (params, exchange) -> {
+            var names = new StringJoiner(", ", "[", "]");
+            for (String name : new TreeSet<String>(terrains.keySet())) {
+                names.add(jsonString(name));
+            }
+            sendJson(exchange, names.toString());
+        });
+
+        route("/flood-mask", (params, exchange) -> {
+            Resident resident = resident(params);
+            double height = number(params, "height");
+            sendBitmap(exchange, resident.index, height);
+        });
+
+        route("/is-flooded", (params, exchange) -> {
+            Resident resident = resident(params);
+            double height = number(params, "height");
+            GridLocation cell = cell(params, resident);
+            sendJson(exchange, "{\"flooded\": " + resident.rt.isFlooded(height, cell) + "}");
+        });
+
+        route("/land", (params, exchange) -> {
+            Resident resident = resident(params);
+            double height = number(params, "height");
+            sendJson(exchange, "{\"land\": " + resident.rt.totalVisibleLand(height) + "}");
+        });
+
+        route("/land-lost", (params, exchange) -> {
+            Resident resident = resident(params);
+            double height = number(params, "height");
+            double newHeight = number(params, "newHeight");
+            sendJson(exchange, "{\"landLost\": " + resident.rt.landLost(height, newHeight) + "}");
+        });
+
+        route("/islands", (params, exchange) -> {
+            Resident resident = resident(params);
+            double height = number(params, "height");
+            String json = "{\"count\": " + resident.tree.islandCount(height);
+            if (params.containsKey("row") || params.containsKey("col")) {
+                GridLocation cell = cell(params, resident);
+                int island = resident.tree.islandAt(height, cell.row, cell.col);
+                int area = island < 0 ? 0 : resident.tree.islandArea(height, island);
+                json += ", \"island\": " + island + ", \"area\": " + area;
+            }
+            sendJson(exchange, json + "}");
+        });
+    }
+
+    /**
+     * Loads a terrain, with its index, and makes it available to queries.
+     *
+     * @param name the terrain is queried by
+     * @param file the .terrain file
+     */
+    public void load(String name, File file) throws IOException {
+        Terrain terrain = TerrainLoader.loadTerrain(file, null);
+        FloodIndex index = FloodIndexFile.loadOrBuild(terrain, TerrainLoader.dataFileFor(file),
+                TerrainLoader.indexFileFor(file));
+        terrains.put(name, new Resident(terrain, index));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    /**
+     * @return int, the port the server listens on
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /* Registers an endpoint, turning bad requests and failures into errors. */
+    private void route(String path, Endpoint endpoint) {
+        server.createContext(path, exchange -> {
+            try {
+                if (!exchange.getRequestMethod().equals("GET")) {
+                    throw new BadRequest(405, "Only GET is supported.");
+                }
+                if (!exchange.getRequestURI().getPath().equals(path)) {
+                    throw new BadRequest(404, "No such endpoint.");
+                }
+                endpoint.handle(parse(exchange.getRequestURI().getRawQuery()), exchange);
+            } catch (BadRequest e) {
+                sendError(exchange, e.status, e.getMessage());
+            } catch (RuntimeException e) {
+                sendError(exchange, 500, String.valueOf(e.getMessage()));
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    private static Map<String, String> parse(String query) {
+        var params = new HashMap<String, String>();
+        if (query == null) return params;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq < 0) continue;
+            params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private Resident resident(Map<String, String> params) throws BadRequest {
+        String name = params.get("terrain");
+        if (name == null) throw new BadRequest(400, "Missing parameter: terrain");
+        Resident resident = terrains.get(name);
+        if (resident == null) throw new BadRequest(404, "No such terrain: " + name);
+        return resident;
+    }
+
+    private static double number(Map<String, String> params, String key) throws BadRequest {
+        String value = params.get(key);
+        if (value == null) throw new BadRequest(400, "Missing parameter: " + key);
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new BadRequest(400, "Not a number: " + key + "=" + value);
+        }
+    }
+
+    private static GridLocation cell(Map<String, String> params, Resident resident) throws BadRequest {
+        double row = number(params, "row");
+        double col = number(params, "col");
+        if (row != (int) row || col != (int) col || row < 0 || row >= resident.terrain.grid.rows() || col < 0
+                || col >= resident.terrain.grid.cols()) {
+            throw new BadRequest(400, "Cell (" + params.get("row") + ", " + params.get("col") + ") is off the map.");
+        }
+        return new GridLocation((int) row, (int) col);
+    }
+
+    private static void sendJson(HttpExchange exchange, String json) throws IOException {
+        send(exchange, 200, "application/json", json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        String json = "{\"error\": " + jsonString(message) + "}";
+        send(exchange, status, "application/json", json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /* A JSON string literal: quotes, backslashes and control characters escaped. */
+    private static String jsonString(String text) {
+        var json = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                json.append('\\').append(ch);
+            } else if (ch < 0x20) {
+                json.append(String.format("\\u%04x", (int) ch));
+            } else {
+                json.append(ch);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    /* Binary PBM: a short text header, then one bit per cell, rows padded to bytes. */
+    private static void sendBitmap(HttpExchange exchange, FloodIndex index, double height) throws IOException {
+        byte[] header = ("P4\n" + index.cols + " " + index.rows + "\n").getBytes(StandardCharsets.US_ASCII);
+        int rowBytes = (index.cols + 7) / 8;
+        byte[] body = Arrays.copyOf(header, header.length + rowBytes * index.rows);
+        for (int r = 0; r < index.rows; r++) {
+            int base = header.length + r * rowBytes;
+            for (int c = 0; c < index.cols; c++) {
+                if (index.isFlooded(height, r, c)) {
+                    body[base + (c >>> 3)] |= (byte) (0x80 >>> (c & 7));
+                }
+            }
+        }
+        send(exchange, 200, "image/x-portable-bitmap", body);
+    }
+
+    private static void send(HttpExchange exchange, int status, String type, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java tides.TidesServer port file.terrain [file.terrain ...]");
+            System.exit(1);
+        }
+
+        var server = new TidesServer(Integer.parseInt(args[0]));
+        for (int i = 1; i < args.length; i++) {
+            File file = new File(args[i]);
+            String name = file.getName().replaceFirst("\\.terrain$", "");
+            System.out.println("Loading " + name + "...");
+            server.load(name, file);
+        }
+        server.start();
+        System.out.println("Serving " + (args.length - 1) + " terrain(s) on port " + server.port());
+    }
+}
@@ -0,0 +1,106 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * This class floods a TiledHeightGrid one tile at a time.
+ *
+ * A tile is flooded from every flooded cell already inside it, without ever
+ * leaving the tile. When the water reaches a cell of a neighboring tile, that
+ * cell is flooded and the neighboring tile is put back on the work list. The
+ * work list runs until no tile gains water, which gives exactly the same
+ * result as floodedRegionsIn.
+ *
+ * Only the tile being flooded (plus single cells along the edges of its
+ * neighbors) is read at any time, so the working set stays at a few tiles no
+ * matter how large the terrain is. The same goes for the mask when it is a
+ * TiledFloodMask.
+ */
+public class TiledFlood {
+    private TiledFlood() {
+    }
+
+    // Offsets to the top, bottom, left and right neighbors
+    private static final int[] ROW_STEPS = { -1, 1, 0, 0 };
+    private static final int[] COL_STEPS = { 0, 0, -1, 1 };
+
+    /**
+     * Floods a tiled terrain.
+     *
+     * @param grid heights of the terrain
+     * @param sources of water
+     * @param height of the water
+     * @param flooded mask to fill in, with no cells flooded yet; a
+     * TiledFloodMask keeps the whole flood off the heap
+     */
+    public static void flood(TiledHeightGrid grid, GridLocation[] sources, double height, MaskGrid flooded) {
+        int rows = grid.rows();
+        int cols = grid.cols();
+        int tileCols = grid.tileCols();
+        int numTiles = grid.tileRows() * tileCols;
+        int size = TiledHeightGrid.TILE_SIZE;
+        int shift = TiledHeightGrid.TILE_SHIFT;
+
+        /* Work list of tiles with new water in them. */
+        boolean[] pending = new boolean[numTiles];
+        ArrayDeque<Integer> work = new ArrayDeque<Integer>();
+
+        for (GridLocation source : sources) {
+            flooded.flood(source.row, source.col);
+            int tile = (source.row >>> shift) * tileCols + (source.col >>> shift);
+            if (!pending[tile]) {
+                pending[tile] = true;
+                work.add(tile);
+            }
+        }
+
+        /* Local BFS queue of (row, col) pairs, big enough for one tile. */
+        int[] queue = new int[2 * size * size];
+
+        while (!work.isEmpty()) {
+            int tile = work.poll();
+            pending[tile] = false;
+
+            int top = (tile / tileCols) << shift;
+            int left = (tile % tileCols) << shift;
+            int bottom = Math.min(top + size, rows);
+            int right = Math.min(left + size, cols);
+
+            /* Seed with all the water already in the tile. */
+            int head = 0, tail = 0;
+            for (int r = top; r < bottom; r++) {
+                for (int c = left; c < right; c++) {
+                    if (flooded.isFlooded(r, c)) {
+                        queue[tail++] = r;
+                        queue[tail++] = c;
+                    }
+                }
+            }
+
+            while (head < tail) {
+                int r = queue[head++];
+                int c = queue[head++];
+
+                for (int k = 0; k < 4; k++) {
+                    int nr = r + ROW_STEPS[k];
+                    int nc = c + COL_STEPS[k];
+                    if (nr < 0 || nr >= rows || nc < 0 || nc >= cols) continue;
+                    if (flooded.isFlooded(nr, nc) || grid.get(nr, nc) > height) continue;
+                    flooded.flood(nr, nc);
+
+                    if (nr >= top && nr < bottom && nc >= left && nc < right) {
+                        queue[tail++] = nr;
+                        queue[tail++] = nc;
+                    } else {
+                        /* The water crossed into a neighboring tile. */
+                        int next = (nr >>> shift) * tileCols + (nc >>> shift);
+                        if (!pending[next]) {
+                            pending[next] = true;
+                            work.add(next);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
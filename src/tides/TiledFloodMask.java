@@ -0,0 +1,118 @@
+package tides;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * This class is a flood mask stored in a memory-mapped file, laid out in the
+ * same tiles as a TiledHeightGrid: one byte per cell, 1 for flooded and 0 for
+ * dry. A tiled flood reads and writes the mask tile by tile, just like the
+ * heights, so the operating system only keeps a few tiles of it in memory.
+ *
+ * The file is scratch space: it is deleted when the mask is closed.
+ */
+public class TiledFloodMask implements MaskGrid {
+
+    private static final int TILE_CELLS = TiledHeightGrid.TILE_SIZE * TiledHeightGrid.TILE_SIZE;
+
+    private final File file;
+    private final int rows, cols;
+    private final FileChannel channel;
+
+    // One mapping per row of tiles, as in TiledHeightGrid
+    private final MappedByteBuffer[] bands;
+
+    private TiledFloodMask(File file, FileChannel channel, int rows, int cols) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.rows = rows;
+        this.cols = cols;
+
+        int tileRows = (rows + TiledHeightGrid.TILE_SIZE - 1) >>> TiledHeightGrid.TILE_SHIFT;
+        int tileCols = (cols + TiledHeightGrid.TILE_SIZE - 1) >>> TiledHeightGrid.TILE_SHIFT;
+        long bandBytes = (long) TILE_CELLS * tileCols;
+        if (bandBytes > Integer.MAX_VALUE) {
+            throw new IOException("Mask is too wide to tile (" + cols + " columns).");
+        }
+        bands = new MappedByteBuffer[tileRows];
+        for (int band = 0; band < tileRows; band++) {
+            bands[band] = channel.map(FileChannel.MapMode.READ_WRITE, band * bandBytes, bandBytes);
+        }
+    }
+
+    /**
+     * Creates an empty mask file.
+     *
+     * @param file to create (replaced if it exists)
+     * @param rows of the terrain
+     * @param cols of the terrain
+     * @return TiledFloodMask, with no cells flooded
+     */
+    public static TiledFloodMask create(File file, int rows, int cols) throws IOException {
+        var channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            return new TiledFloodMask(file, channel, rows, cols);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            file.delete();
+            throw e;
+        }
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public int cols() {
+        return cols;
+    }
+
+    @Override
+    public boolean isFlooded(int row, int col) {
+        return bands[row >>> TiledHeightGrid.TILE_SHIFT].get(TiledHeightGrid.offsetInBand(row, col)) != 0;
+    }
+
+    @Override
+    public void flood(int row, int col) {
+        bands[row >>> TiledHeightGrid.TILE_SHIFT].put(TiledHeightGrid.offsetInBand(row, col), (byte) 1);
+    }
+
+    @Override
+    public void clear() {
+        byte[] zeros = new byte[TILE_CELLS];
+        for (MappedByteBuffer band : bands) {
+            for (int offset = 0; offset < band.capacity(); offset += zeros.length) {
+                band.put(offset, zeros);
+            }
+        }
+    }
+
+    /* Padding cells are never flooded, so every byte of every band can be added up. */
+    @Override
+    public long count() {
+        long count = 0;
+        for (MappedByteBuffer band : bands) {
+            for (int i = 0; i < band.capacity(); i++) {
+                count += band.get(i);
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            /* Nothing was written that anyone will read. */
+        }
+        if (!file.delete()) {
+            file.deleteOnExit(); // still mapped on some systems
+        }
+    }
+}
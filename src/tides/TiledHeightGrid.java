@@ -0,0 +1,265 @@
+package tides;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * This class is a HeightGrid stored in a memory-mapped file instead of the
+ * heap, for terrains too large to hold as a double[][].
+ *
+ * The grid is cut into square tiles of TILE_SIZE x TILE_SIZE cells, and each
+ * tile is stored contiguously (row-major inside the tile). A computation that
+ * works tile by tile therefore only touches a few hundred kilobytes of the
+ * file at a time, and the operating system pages tiles in and out as needed.
+ * Edge tiles are padded to full size.
+ *
+ * File layout (little-endian):
+ *  - header: magic, format version, rows, cols, tile shift, complete flag,
+ *    number of sources, then the sources as (row, col) pairs
+ *  - tiles, starting at the first 4 KB boundary after the header, ordered by
+ *    tile row and then tile column
+ *
+ * The complete flag is only set by finish(), so a file left behind by an
+ * interrupted load is never opened. A finished grid is the loader's cache of
+ * the terrain, shared by every later load, so it refuses set(): edits would
+ * otherwise land in the cache for good.
+ */
+public class TiledHeightGrid implements HeightGrid, Closeable {
+
+    public static final int TILE_SHIFT = 8;
+    public static final int TILE_SIZE = 1 << TILE_SHIFT;
+    private static final int TILE_MASK = TILE_SIZE - 1;
+    private static final int TILE_CELLS = TILE_SIZE * TILE_SIZE;
+
+    private static final int MAGIC = 0x454C4954; // "TILE"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 28;
+    private static final int ALIGNMENT = 4096;
+
+    private final File file;
+    private final int rows, cols;
+    private final int tileRows, tileCols;
+    private final GridLocation[] sources;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+
+    // One mapping per row of tiles, so no single mapping passes 2 GB
+    private final MappedByteBuffer[] mappings;
+    private final DoubleBuffer[] bands;
+
+    // Set once the heights are final (by finish(), or when opened)
+    private boolean finished;
+
+    private TiledHeightGrid(File file, FileChannel channel, FileChannel.MapMode mode, int rows, int cols,
+            GridLocation[] sources) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.rows = rows;
+        this.cols = cols;
+        this.sources = sources;
+        this.tileRows = (rows + TILE_MASK) >>> TILE_SHIFT;
+        this.tileCols = (cols + TILE_MASK) >>> TILE_SHIFT;
+
+        long bandBytes = 8L * TILE_CELLS * tileCols;
+        if (bandBytes > Integer.MAX_VALUE) {
+            throw new IOException("Terrain is too wide to tile (" + cols + " columns).");
+        }
+
+        long dataOffset = dataOffset(sources.length);
+        header = channel.map(mode, 0, dataOffset);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        mappings = new MappedByteBuffer[tileRows];
+        bands = new DoubleBuffer[tileRows];
+        for (int band = 0; band < tileRows; band++) {
+            mappings[band] = channel.map(mode, dataOffset + band * bandBytes, bandBytes);
+            bands[band] = mappings[band].order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        }
+        finished = mode == FileChannel.MapMode.READ_ONLY;
+    }
+
+    /**
+     * Creates a new, empty tiled grid file. Fill it in with set() and then
+     * call finish().
+     *
+     * @param file to create (replaced if it exists)
+     * @param rows of the terrain
+     * @param cols of the terrain
+     * @param sources of water on the terrain
+     * @return TiledHeightGrid, a writable grid
+     */
+    public static TiledHeightGrid create(File file, int rows, int cols, GridLocation[] sources) throws IOException {
+        var channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            var grid = new TiledHeightGrid(file, channel, FileChannel.MapMode.READ_WRITE, rows, cols, sources);
+            grid.header.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, rows).putInt(12, cols)
+                    .putInt(16, TILE_SHIFT).putInt(20, 0).putInt(24, sources.length);
+            for (int i = 0; i < sources.length; i++) {
+                grid.header.putInt(HEADER_BYTES + 8 * i, sources[i].row);
+                grid.header.putInt(HEADER_BYTES + 8 * i + 4, sources[i].col);
+            }
+            return grid;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a finished tiled grid file for reading.
+     *
+     * @param file to open
+     * @return TiledHeightGrid, or null if the file is not a complete tiled grid
+     */
+    public static TiledHeightGrid open(File file) throws IOException {
+        if (!file.isFile()) return null;
+
+        var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(head, 0);
+            if (head.position() < HEADER_BYTES || head.getInt(0) != MAGIC || head.getInt(4) != VERSION
+                    || head.getInt(16) != TILE_SHIFT || head.getInt(20) != 1) {
+                channel.close();
+                return null;
+            }
+
+            int rows = head.getInt(8);
+            int cols = head.getInt(12);
+            int numSources = head.getInt(24);
+            ByteBuffer list = ByteBuffer.allocate(8 * numSources).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(list, HEADER_BYTES);
+            var sources = new GridLocation[numSources];
+            for (int i = 0; i < numSources; i++) {
+                sources[i] = new GridLocation(list.getInt(8 * i), list.getInt(8 * i + 4));
+            }
+
+            long tileRows = (rows + TILE_MASK) >>> TILE_SHIFT;
+            long tileCols = (cols + TILE_MASK) >>> TILE_SHIFT;
+            if (channel.size() < dataOffset(numSources) + 8L * TILE_CELLS * tileCols * tileRows) {
+                channel.close();
+                return null;
+            }
+
+            return new TiledHeightGrid(file, channel, FileChannel.MapMode.READ_ONLY, rows, cols, sources);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /* Tiles start on the first aligned boundary after the header and sources. */
+    private static long dataOffset(int numSources) {
+        long headerBytes = HEADER_BYTES + 8L * numSources;
+        return (headerBytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /* Position of a cell inside its band (also used by TiledFloodMask). */
+    static int offsetInBand(int row, int col) {
+        return ((col >>> TILE_SHIFT) << (2 * TILE_SHIFT)) + ((row & TILE_MASK) << TILE_SHIFT) + (col & TILE_MASK);
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public int cols() {
+        return cols;
+    }
+
+    @Override
+    public double get(int row, int col) {
+        return bands[row >>> TILE_SHIFT].get(offsetInBand(row, col));
+    }
+
+    /**
+     * Stores the height of a cell. Only valid on a grid made by create(),
+     * before finish().
+     *
+     * @param row of the cell
+     * @param col of the cell
+     * @param height of the cell
+     * @throws UnsupportedOperationException once the grid is finished
+     */
+    @Override
+    public void set(int row, int col, double height) {
+        if (finished) {
+            throw new UnsupportedOperationException("Tiled terrain " + file + " is a shared cache and cannot be edited.");
+        }
+        bands[row >>> TILE_SHIFT].put(offsetInBand(row, col), height);
+    }
+
+    /**
+     * Flushes every height to disk and marks the file as complete.
+     */
+    public void finish() {
+        for (MappedByteBuffer mapping : mappings) {
+            mapping.force();
+        }
+        header.putInt(20, 1);
+        header.force();
+        finished = true;
+    }
+
+    /**
+     * Floods the grid tile by tile (see TiledFlood) into a tiled mask file
+     * next to the grid's own file.
+     *
+     * @param sources of water
+     * @param height of the water
+     * @return TiledFloodMask, the flooded cells; closing it deletes its file
+     */
+    @Override
+    public MaskGrid floodMask(GridLocation[] sources, double height) {
+        try {
+            File maskFile = File.createTempFile(file.getName() + "-", ".mask", file.getAbsoluteFile().getParentFile());
+            var mask = TiledFloodMask.create(maskFile, rows, cols);
+            try {
+                TiledFlood.flood(this, sources, height, mask);
+                return mask;
+            } catch (RuntimeException e) {
+                mask.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create a flood mask for " + file, e);
+        }
+    }
+
+    /**
+     * @return File, the tile file the grid is stored in
+     */
+    public File file() {
+        return file;
+    }
+
+    /**
+     * @return GridLocation[], the water sources stored with the grid
+     */
+    public GridLocation[] sources() {
+        return sources;
+    }
+
+    /**
+     * @return int, the number of rows of tiles
+     */
+    public int tileRows() {
+        return tileRows;
+    }
+
+    /**
+     * @return int, the number of columns of tiles
+     */
+    public int tileCols() {
+        return tileCols;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
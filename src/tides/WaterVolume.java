@@ -0,0 +1,126 @@
+package tides;
+
+import java.nio.*;
+import java.util.*;
+
+/**
+ * This class answers how much water covers the terrain at any height.
+ *
+ * The water over a flooded cell is as deep as the water height minus the
+ * terrain height. A cell that is not a source is only flooded once the water
+ * is at or above its threshold, and its threshold is never below its own
+ * height, so its depth is never negative. At height h the flooded cells are
+ * the first k cells of the FloodIndex's threshold order, and their total depth
+ * is
+ *
+ *     k * h - (sum of the terrain heights of those k cells)
+ *
+ * With a running sum of the terrain heights in that order, the volume is one
+ * binary search plus a little arithmetic.
+ *
+ * Sources are always flooded, even when the water is below the terrain
+ * there. Their depth is clamped to 0, so they are kept apart and sorted by
+ * height with a running sum of their own.
+ *
+ * Volumes are in height units times cells; multiply by the area of one cell
+ * to get a true volume.
+ */
+public class WaterVolume {
+
+    private final FloodIndex index;
+    private final HeightGrid terrain;
+
+    // Number of sources; they come first in the index's threshold order
+    private final int numSources;
+
+    // Source heights ascending, and sourceSums[i] = sum of the first i of them
+    private final double[] sourceHeights;
+    private final double[] sourceSums;
+
+    // heightSums[i] = sum of the terrain heights of the first i non-source
+    // cells in threshold order
+    private final double[] heightSums;
+
+    /**
+     * Adds up the terrain heights in threshold order.
+     *
+     * @param index for the terrain
+     * @param terrain heights of each cell
+     */
+    public WaterVolume(FloodIndex index, HeightGrid terrain) {
+        this.index = index;
+        this.terrain = terrain;
+        int cols = index.cols;
+        IntBuffer order = index.order();
+        int n = order.limit();
+
+        numSources = index.floodedCount(Double.NEGATIVE_INFINITY);
+        sourceHeights = new double[numSources];
+        for (int i = 0; i < numSources; i++) {
+            int cell = order.get(i);
+            sourceHeights[i] = terrain.get(cell / cols, cell % cols);
+        }
+        Arrays.sort(sourceHeights);
+        sourceSums = new double[numSources + 1];
+        for (int i = 0; i < numSources; i++) {
+            sourceSums[i + 1] = sourceSums[i] + sourceHeights[i];
+        }
+
+        heightSums = new double[n - numSources + 1];
+        for (int i = numSources; i < n; i++) {
+            int cell = order.get(i);
+            heightSums[i - numSources + 1] = heightSums[i - numSources] + terrain.get(cell / cols, cell % cols);
+        }
+    }
+
+    /**
+     * @param height of the water
+     * @return double, the total depth of water over every flooded cell
+     */
+    public double volume(double height) {
+        int k = index.floodedCount(height) - numSources;
+        double volume = 0;
+        if (k > 0) {
+            volume += k * height - heightSums[k];
+        }
+
+        /* Only sources below the water hold any. */
+        int lo = 0, hi = numSources;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sourceHeights[mid] < height) lo = mid + 1;
+            else hi = mid;
+        }
+        if (lo > 0) {
+            volume += lo * height - sourceSums[lo];
+        }
+
+        return volume;
+    }
+
+    /**
+     * Writes the depth of the water over every cell into a buffer, row by
+     * row. Dry cells (and sources above the water) get a depth of 0.
+     *
+     * Values are written with relative puts starting at the buffer's
+     * position, so the buffer can be on the heap, direct, or mapped from a
+     * file, and no grid is allocated here.
+     *
+     * @param height of the water
+     * @param depths buffer with room for rows * cols values
+     */
+    public void depths(double height, DoubleBuffer depths) {
+        if (depths.remaining() < (long) index.rows * index.cols) {
+            throw new IllegalArgumentException("Depth buffer needs room for " + index.rows * index.cols + " values.");
+        }
+        for (int r = 0; r < index.rows; r++) {
+            for (int c = 0; c < index.cols; c++) {
+                double depth = 0;
+                if (index.isFlooded(height, r, c)) {
+                    depth = Math.max(0, height - terrain.get(r, c));
+                }
+                depths.put(depth);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package tides;
+
+import java.io.*;
+import java.lang.foreign.*;
+import java.nio.file.*;
+
+/**
+ * Checks PartitionedFlood against floodedRegionsIn: the mask the workers
+ * write, the land and the islands joined across strip edges. One terrain is
+ * a winding channel that crosses every strip edge many times, so the flood
+ * takes several rounds to settle.
+ */
+public class PartitionedFloodTest {
+
+    public static void main(String[] args) throws IOException {
+        run();
+        Check.report();
+    }
+
+    static void run() throws IOException {
+        Check.start("PartitionedFloodTest");
+        File dir = Files.createTempDirectory("tides-test-").toFile();
+        try {
+            Terrain[] fixtures = Fixtures.terrains();
+            check(fixtures[1], new double[] { 3.5, 6 }, new int[] { 1, 3 }, dir);
+            check(fixtures[3], new double[] { 2, 3.5 }, new int[] { 2, 100 }, dir);
+            Terrain channel = channel(23, 11);
+            check(channel, new double[] { 0, 9 }, new int[] { 3 }, dir);
+
+            /* Each turn of the channel crosses a strip edge, and needs a round to get across. */
+            File tiles = tiles(channel, dir);
+            PartitionedFlood.Result result = PartitionedFlood.flood(tiles, 0, 3, new File(dir, "mask"));
+            Check.that(result.rounds > 5, "channel: " + result.rounds + " rounds");
+
+            Check.throwsException(IOException.class,
+                    () -> PartitionedFlood.flood(new File(dir, "missing.tiles"), 0, 2, new File(dir, "mask")),
+                    "missing tile file");
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static void check(Terrain terrain, double[] heights, int[] workers, File dir) throws IOException {
+        File tiles = tiles(terrain, dir);
+        for (double height : heights) {
+            boolean[][] expected = Fixtures.flood(terrain, height);
+            for (int numWorkers : workers) {
+                String what = Fixtures.name(terrain) + " at " + height + " with " + numWorkers + " workers";
+                PartitionedFlood.Result result = PartitionedFlood.flood(tiles, height, numWorkers,
+                        new File(dir, "mask"));
+                try (Arena arena = Arena.ofConfined()) {
+                    Check.sameFlood(expected, result.mask(arena), what + ": mask");
+                }
+                Check.equal(Fixtures.land(expected), result.land, what + ": land");
+                Check.equal(Fixtures.islandCount(Fixtures.islands(expected)), result.islands, what + ": islands");
+            }
+        }
+    }
+
+    private static File tiles(Terrain terrain, File dir) throws IOException {
+        File file = new File(dir, "terrain.tiles");
+        int rows = terrain.grid.rows(), cols = terrain.grid.cols();
+        try (TiledHeightGrid grid = TiledHeightGrid.create(file, rows, cols, terrain.sources)) {
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    grid.set(r, c, terrain.grid.get(r, c));
+                }
+            }
+            grid.finish();
+        }
+        return file;
+    }
+
+    /*
+     * Low channels in the even columns, high walls in the odd ones, each wall
+     * open at the bottom or the top in turn: water from the top left runs
+     * down, up, down... across the whole terrain.
+     */
+    private static Terrain channel(int rows, int cols) {
+        double[][] heights = new double[rows][cols];
+        for (int c = 1; c < cols; c += 2) {
+            int gap = c % 4 == 1 ? rows - 1 : 0;
+            for (int r = 0; r < rows; r++) {
+                heights[r][c] = r == gap ? 0 : 9;
+            }
+        }
+        return new Terrain(heights, new GridLocation[] { new GridLocation(0, 0) });
+    }
+}
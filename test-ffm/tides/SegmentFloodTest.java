@@ -0,0 +1,64 @@
+package tides;
+
+/**
+ * Checks that off-heap terrains flood, count land and count islands exactly
+ * like floodedRegionsIn on the same heights kept on the heap, and that a
+ * closed grid refuses reads instead of touching freed memory. Also checks
+ * that TerrainLoader, which is compiled without the preview, finds the
+ * off-heap grid by name.
+ */
+public class SegmentFloodTest {
+
+    public static void main(String[] args) {
+        run();
+        Check.report();
+    }
+
+    static void run() {
+        Check.start("SegmentFloodTest");
+        for (Terrain terrain : Fixtures.terrains()) {
+            check(terrain, Fixtures.waterHeights(terrain.grid));
+        }
+        var large = new Terrain(Fixtures.random(5, 301, 517, 10),
+                new GridLocation[] { new GridLocation(300, 0), new GridLocation(17, 400) });
+        check(large, new double[] { -1, 4.5, 5, 5.5, 6, 7, 9 });
+
+        try {
+            HeightGrid loaded = TerrainLoader.newSegmentHeightGrid(3, 4);
+            Check.that(loaded instanceof SegmentHeightGrid && loaded.rows() == 3 && loaded.cols() == 4,
+                    "TerrainLoader makes a 3 x 4 SegmentHeightGrid");
+            ((AutoCloseable) loaded).close();
+        } catch (Exception e) {
+            Check.that(false, "TerrainLoader makes a SegmentHeightGrid: " + e);
+        }
+    }
+
+    private static void check(Terrain terrain, double[] heights) {
+        String name = Fixtures.name(terrain);
+        int rows = terrain.grid.rows(), cols = terrain.grid.cols();
+        SegmentHeightGrid grid = SegmentHeightGrid.copyOf(terrain.grid);
+        try {
+            SegmentFloodMask reused = grid.newMask();
+            var offHeap = new RisingTides(new Terrain(grid, terrain.sources));
+            for (double height : heights) {
+                String what = name + " at " + height;
+                boolean[][] expected = Fixtures.flood(terrain, height);
+
+                /* The same mask for every height: flood() has to clear what the last height left. */
+                SegmentFlood.flood(grid, terrain.sources, height, reused);
+                Check.sameFlood(expected, reused, what + ": SegmentFlood into a reused mask");
+                Check.equal(rows * cols - Fixtures.land(expected), reused.count(), what + ": mask count");
+                try (MaskGrid mask = grid.floodMask(terrain.sources, height)) {
+                    Check.sameFlood(expected, mask, what + ": floodMask");
+                }
+                Check.sameFlood(expected, offHeap.floodedRegionsIn(height), what + ": floodedRegionsIn");
+                Check.equal(Fixtures.land(expected), offHeap.totalVisibleLand(height), what + ": totalVisibleLand");
+                Check.equal(Fixtures.islandCount(Fixtures.islands(expected)), offHeap.numOfIslands(height),
+                        what + ": numOfIslands");
+            }
+        } finally {
+            grid.close();
+        }
+        Check.throwsException(IllegalStateException.class, () -> grid.get(0, 0), name + ": read after close");
+    }
+}
@@ -0,0 +1,67 @@
+package tides;
+
+import java.lang.reflect.*;
+
+/**
+ * Runs every check under test/ and exits with status 1 if any failed.
+ *
+ * The checks of the off-heap classes live in test-ffm/, compiled with
+ * src-ffm/ and --enable-preview (see the README). They are looked up by
+ * name and skipped when they were not compiled.
+ *
+ * Usage (from the project root, after compiling src/ and test/ together,
+ * then src-ffm/ and test-ffm/ into the same folder):
+ *     java --enable-preview -cp build/test tides.AllTests
+ */
+public class AllTests {
+
+    public static void main(String[] args) throws Exception {
+        IslandLabelerTest.run();
+        FloodIndexTest.run();
+        FloodProbeTest.run();
+        FloodIndexFileTest.run();
+        TiledHeightGridTest.run();
+        runIfPresent("SegmentFloodTest");
+        HeightEncodingTest.run();
+        LeveeEditorTest.run();
+        TidalFloodTest.run();
+        FloodDeltaTest.run();
+        WaterVolumeTest.run();
+        SourceAttributionTest.run();
+        MergeTreeTest.run();
+        TerrainPyramidTest.run();
+        TerrainGeneratorTest.run();
+        TidesServerTest.run();
+        runIfPresent("PartitionedFloodTest");
+        TidesMetricsTest.run();
+        FloodMapExporterTest.run();
+        FloodStreamTest.run();
+        RangedDownloadTest.run();
+        CompressedTerrainFileTest.run();
+        HoverInspectorTest.run();
+        DepressionFillerTest.run();
+        RegionFloodTest.run();
+        Check.report();
+    }
+
+    /* Runs a check from test-ffm/ if it is on the class path. */
+    private static void runIfPresent(String name) throws Exception {
+        Method run;
+        try {
+            run = Class.forName("tides." + name).getDeclaredMethod("run");
+        } catch (ClassNotFoundException e) {
+            System.out.println("-- " + name + " skipped: not compiled (see test-ffm/)");
+            return;
+        } catch (UnsupportedClassVersionError e) {
+            System.out.println("-- " + name + " skipped: it needs JDK 21 with --enable-preview");
+            return;
+        }
+        run.setAccessible(true);
+        try {
+            run.invoke(null);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+            throw (Error) e.getCause();
+        }
+    }
+}
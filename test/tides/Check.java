@@ -0,0 +1,93 @@
+package tides;
+
+/**
+ * This class is the assertion helper for the checks under test/: each failed
+ * check prints what was expected, and report() exits with status 1 if any
+ * check failed, so a script can run the checks as a gate.
+ */
+final class Check {
+    private static int checks, failures;
+
+    private Check() {
+    }
+
+    /**
+     * @param ok outcome of the check
+     * @param what describes the check, printed if it fails
+     */
+    static void that(boolean ok, String what) {
+        checks++;
+        if (!ok) {
+            failures++;
+            System.out.println("FAILED: " + what);
+        }
+    }
+
+    static void equal(long expected, long actual, String what) {
+        that(expected == actual, what + ": expected " + expected + ", got " + actual);
+    }
+
+    static void equal(double expected, double actual, double tolerance, String what) {
+        that(Math.abs(expected - actual) <= tolerance, what + ": expected " + expected + ", got " + actual);
+    }
+
+    /**
+     * Compares two floods cell by cell and reports the first cell that
+     * differs.
+     *
+     * @param expected flood, e.g. from floodedRegionsIn
+     * @param actual flood to check
+     * @param what describes the flood
+     */
+    static void sameFlood(boolean[][] expected, boolean[][] actual, String what) {
+        sameFlood(expected, new ArrayMaskGrid(actual), what);
+    }
+
+    static void sameFlood(boolean[][] expected, MaskGrid actual, String what) {
+        if (actual.rows() != expected.length || actual.cols() != expected[0].length) {
+            that(false, what + ": expected a " + expected.length + " x " + expected[0].length + " flood, got "
+                    + actual.rows() + " x " + actual.cols());
+            return;
+        }
+        for (int r = 0; r < expected.length; r++) {
+            for (int c = 0; c < expected[r].length; c++) {
+                if (actual.isFlooded(r, c) != expected[r][c]) {
+                    that(false, what + ": cell " + new GridLocation(r, c) + " should be "
+                            + (expected[r][c] ? "flooded" : "dry"));
+                    return;
+                }
+            }
+        }
+        that(true, what);
+    }
+
+    /* Interface for a piece of code that is expected to throw. */
+    interface Action {
+        void run() throws Exception;
+    }
+
+    static void throwsException(Class<? extends Throwable> type, Action action, String what) {
+        try {
+            action.run();
+            that(false, what + ": expected " + type.getSimpleName() + ", nothing was thrown");
+        } catch (Throwable e) {
+            that(type.isInstance(e), what + ": expected " + type.getSimpleName() + ", got " + e);
+        }
+    }
+
+    /**
+     * Prints the number of checks and failures, and exits with status 1 if
+     * any check failed.
+     */
+    static void report() {
+        System.out.println(checks + " checks, " + failures + " failed");
+        if (failures > 0) System.exit(1);
+    }
+
+    /**
+     * @param name of the check class, printed before its results
+     */
+    static void start(String name) {
+        System.out.println("-- " + name);
+    }
+}
@@ -0,0 +1,130 @@
+package tides;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Checks that CompressedTerrainFile gives back every height bit for bit,
+ * through each of its decodeInto methods: whole numbers, heights with a few
+ * decimal places, and heights that no decimal scale fits (stored as raw
+ * bits), on terrains of one block and of several. Also checks that damaged
+ * files are refused with an IOException.
+ */
+public class CompressedTerrainFileTest {
+
+    public static void main(String[] args) throws IOException {
+        run();
+        Check.report();
+    }
+
+    static void run() throws IOException {
+        Check.start("CompressedTerrainFileTest");
+        var random = new Random(47);
+        double[][] decimals = new double[150][83];
+        double[][] raw = new double[70][9];
+        for (double[] row : decimals) {
+            for (int c = 0; c < row.length; c++) {
+                row[c] = Math.round(random.nextGaussian() * 300_000) / 1000.0;
+            }
+        }
+        for (double[] row : raw) {
+            for (int c = 0; c < row.length; c++) {
+                row[c] = random.nextGaussian() * 1000;
+            }
+        }
+        raw[0][0] = 1e300;
+        raw[69][8] = Double.MIN_VALUE;
+
+        var terrains = new ArrayList<Terrain>(Arrays.asList(Fixtures.terrains()));
+        terrains.add(new Terrain(decimals,
+                new GridLocation[] { new GridLocation(149, 82), new GridLocation(0, 40) }));
+        terrains.add(new Terrain(raw, new GridLocation[] { new GridLocation(35, 4) }));
+
+        File dir = Files.createTempDirectory("tides-test-").toFile();
+        try {
+            File file = new File(dir, "terrain.tcz");
+            for (Terrain terrain : terrains) {
+                check(terrain, file);
+            }
+
+            File text = new File(dir, "terrain.terrain");
+            Fixtures.write(terrains.get(terrains.size() - 2), text);
+            CompressedTerrainFile.write(terrains.get(terrains.size() - 2), file);
+            Check.that(file.length() * 2 < text.length(),
+                    "decimal heights: " + file.length() + " bytes, " + text.length() + " as text");
+
+            checkDamaged(file, dir);
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static void check(Terrain terrain, File file) throws IOException {
+        String name = Fixtures.name(terrain);
+        int rows = terrain.grid.rows(), cols = terrain.grid.cols();
+        double[][] expected = Fixtures.toArray(terrain.grid);
+        CompressedTerrainFile.write(terrain, file);
+
+        try (CompressedTerrainFile compressed = CompressedTerrainFile.open(file)) {
+            Check.equal(rows, compressed.rows, name + ": rows");
+            Check.equal(cols, compressed.cols, name + ": cols");
+            Check.that(Arrays.equals(terrain.sources, compressed.sources), name + ": sources");
+
+            double[][] heights = new double[rows][cols];
+            compressed.decodeInto(heights);
+            Check.that(sameBits(expected, heights), name + ": decodeInto(double[][])");
+
+            var grid = new ArrayHeightGrid(new double[rows][cols]);
+            compressed.decodeInto(grid);
+            Check.that(sameBits(expected, Fixtures.toArray(grid)), name + ": decodeInto(HeightGrid)");
+
+            HeightEncoding.Builder builder = HeightEncoding.DOUBLE.builder(rows, cols);
+            compressed.decodeInto(builder);
+            Check.that(sameBits(expected, Fixtures.toArray(builder.build())), name + ": decodeInto(Builder)");
+        }
+    }
+
+    /* Truncated files, a wrong magic number and a block that does not inflate. */
+    private static void checkDamaged(File file, File dir) throws IOException {
+        byte[] good = Files.readAllBytes(file.toPath());
+        File damaged = new File(dir, "damaged.tcz");
+        for (int length : new int[] { 0, 6, 30, good.length / 2, good.length - 1 }) {
+            Files.write(damaged.toPath(), Arrays.copyOf(good, length));
+            Check.throwsException(IOException.class, () -> decode(damaged), "truncated to " + length + " bytes");
+        }
+
+        byte[] bad = good.clone();
+        bad[0] ^= 1;
+        Files.write(damaged.toPath(), bad);
+        Check.throwsException(IOException.class, () -> decode(damaged), "wrong magic number");
+
+        /* Header: 5 ints, 2 sources, 3 ints, then 16 bytes for each of the 3 blocks of 150 rows. */
+        bad = good.clone();
+        int firstBlock = 4 * (5 + 2 * 2 + 3) + 16 * 3;
+        bad[firstBlock] = (byte) 0xFF;
+        bad[firstBlock + 1] = (byte) 0xFF;
+        Files.write(damaged.toPath(), bad);
+        Check.throwsException(IOException.class, () -> decode(damaged), "block that does not inflate");
+    }
+
+    private static void decode(File file) throws IOException {
+        try (CompressedTerrainFile compressed = CompressedTerrainFile.open(file)) {
+            compressed.decodeInto(new double[compressed.rows][compressed.cols]);
+        }
+    }
+
+    private static boolean sameBits(double[][] expected, double[][] actual) {
+        for (int r = 0; r < expected.length; r++) {
+            for (int c = 0; c < expected[r].length; c++) {
+                if (Double.doubleToRawLongBits(expected[r][c]) != Double.doubleToRawLongBits(actual[r][c])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,131 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * Checks DepressionFiller against a brute-force fill: the water over a cell
+ * rises to the lowest height it must climb to reach an outlet (an edge of
+ * the map or a source), found by relaxing every cell until nothing changes.
+ * The ponds are the 4-connected groups of cells under water, each with one
+ * spill height, its area and its volume.
+ */
+public class DepressionFillerTest {
+
+    // Offsets to the top, bottom, left and right neighbors
+    private static final int[] ROW_STEPS = { -1, 1, 0, 0 };
+    private static final int[] COL_STEPS = { 0, 0, -1, 1 };
+
+    public static void main(String[] args) {
+        run();
+        Check.report();
+    }
+
+    static void run() {
+        Check.start("DepressionFillerTest");
+        var terrains = new ArrayList<Terrain>(Arrays.asList(Fixtures.terrains()));
+        terrains.add(new Terrain(Fixtures.random(49, 40, 50, 10), new GridLocation[] { new GridLocation(20, 25) }));
+        for (Terrain terrain : terrains) {
+            String name = Fixtures.name(terrain);
+            int rows = terrain.grid.rows(), cols = terrain.grid.cols();
+            Ponding ponding = DepressionFiller.fill(terrain.grid, terrain.sources);
+            double[][] expected = fill(terrain);
+
+            boolean same = true;
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    same &= ponding.filledAt(r, c) == expected[r][c];
+                }
+            }
+            Check.that(same, name + ": filled surface");
+
+            /* The ponds, by a depth-first search over cells under water. */
+            int[][] labels = new int[rows][cols];
+            int count = 0;
+            var match = new HashMap<Integer, Integer>();
+            boolean samePonds = true;
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    if (labels[r][c] != 0 || !(expected[r][c] > terrain.grid.get(r, c))) continue;
+                    labels[r][c] = ++count;
+                    int area = 0;
+                    double volume = 0;
+                    var stack = new ArrayDeque<int[]>();
+                    stack.push(new int[] { r, c });
+                    while (!stack.isEmpty()) {
+                        int[] cell = stack.pop();
+                        area++;
+                        volume += expected[cell[0]][cell[1]] - terrain.grid.get(cell[0], cell[1]);
+                        samePonds &= expected[cell[0]][cell[1]] == expected[r][c];
+                        int pond = ponding.labelAt(cell[0], cell[1]);
+                        samePonds &= pond > 0 && match.computeIfAbsent(count, l -> pond) == pond;
+                        for (int k = 0; k < 4; k++) {
+                            int nr = cell[0] + ROW_STEPS[k], nc = cell[1] + COL_STEPS[k];
+                            if (nr < 0 || nr >= rows || nc < 0 || nc >= cols || labels[nr][nc] != 0
+                                    || !(expected[nr][nc] > terrain.grid.get(nr, nc))) {
+                                continue;
+                            }
+                            labels[nr][nc] = count;
+                            stack.push(new int[] { nr, nc });
+                        }
+                    }
+                    int pond = ponding.labelAt(r, c);
+                    samePonds &= pond > 0 && ponding.spill[pond] == expected[r][c] && ponding.area[pond] == area
+                            && Math.abs(ponding.volume[pond] - volume) < 1e-9;
+                }
+            }
+            boolean dry = true;
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    double depth = labels[r][c] == 0 ? 0 : expected[r][c] - terrain.grid.get(r, c);
+                    dry &= ponding.depth(terrain.grid, r, c) == depth
+                            && (labels[r][c] != 0) == (ponding.labelAt(r, c) != 0);
+                }
+            }
+            Check.equal(count, ponding.count, name + ": number of ponds");
+            Check.that(samePonds && new HashSet<Integer>(match.values()).size() == match.size(),
+                    name + ": ponds, spill heights, areas and volumes");
+            Check.that(dry, name + ": depths");
+        }
+
+        /* The basin fills to the low point of its rim, around the peak. */
+        Terrain basin = Fixtures.terrains()[0];
+        Ponding ponding = DepressionFiller.fill(basin.grid, basin.sources);
+        Check.equal(1, ponding.count, "basin: one pond");
+        Check.equal(2, ponding.filledAt(3, 2), 0, "basin: fills to the gap in its rim");
+        Check.equal(0, ponding.labelAt(3, 3), "basin: peak stays dry");
+    }
+
+    /* Relaxes every cell down from +infinity until no level changes. */
+    private static double[][] fill(Terrain terrain) {
+        int rows = terrain.grid.rows(), cols = terrain.grid.cols();
+        double[][] level = new double[rows][cols];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                boolean outlet = r == 0 || c == 0 || r == rows - 1 || c == cols - 1;
+                level[r][c] = outlet ? terrain.grid.get(r, c) : Double.POSITIVE_INFINITY;
+            }
+        }
+        for (GridLocation source : terrain.sources) {
+            level[source.row][source.col] = terrain.grid.get(source.row, source.col);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    double lowest = level[r][c];
+                    for (int k = 0; k < 4; k++) {
+                        int nr = r + ROW_STEPS[k], nc = c + COL_STEPS[k];
+                        if (nr < 0 || nr >= rows || nc < 0 || nc >= cols) continue;
+                        lowest = Math.min(lowest, Math.max(terrain.grid.get(r, c), level[nr][nc]));
+                    }
+                    if (lowest < level[r][c]) {
+                        level[r][c] = lowest;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return level;
+    }
+}
@@ -0,0 +1,246 @@
+package tides;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class has the small fixed terrains the checks run on, and brute-force
+ * answers to compare against.
+ *
+ * The terrains are small enough that every distinct height can be checked,
+ * and use whole-number heights so that many cells tie, which is where
+ * off-by-one threshold bugs show up. The flood baseline is floodedRegionsIn
+ * on a plain heap terrain without an index: the original breadth-first
+ * flood. Islands are counted with a plain depth-first search.
+ */
+final class Fixtures {
+    private Fixtures() {
+    }
+
+    /* A ring of high ground around a basin, with a gap on the right and a peak in the middle. */
+    private static final double[][] BASIN = {
+        { 0, 0, 0, 0, 0, 0, 0 },
+        { 0, 5, 5, 5, 5, 5, 0 },
+        { 0, 5, 1, 1, 1, 2, 0 },
+        { 0, 5, 1, 9, 1, 5, 0 },
+        { 0, 5, 1, 1, 1, 5, 0 },
+        { 0, 5, 5, 5, 5, 5, 0 },
+    };
+
+    /**
+     * Makes the terrains, freshly each call, so a check may edit them.
+     *
+     * @return Terrain[], every fixture terrain
+     */
+    static Terrain[] terrains() {
+        return new Terrain[] {
+            new Terrain(copy(BASIN), new GridLocation[] { new GridLocation(0, 0) }),
+            new Terrain(random(1, 13, 17, 10), new GridLocation[] { new GridLocation(0, 0),
+                    new GridLocation(12, 16) }),
+            /* A source on a high cell still floods, and the water spreads from it. */
+            new Terrain(random(2, 9, 31, 8), new GridLocation[] { new GridLocation(4, 15) }),
+            new Terrain(random(3, 24, 24, 6), new GridLocation[] { new GridLocation(0, 11),
+                    new GridLocation(23, 3), new GridLocation(10, 23) }),
+        };
+    }
+
+    /**
+     * @param terrain to describe
+     * @return String, a short name for failure messages
+     */
+    static String name(Terrain terrain) {
+        return terrain.grid.rows() + "x" + terrain.grid.cols() + " terrain";
+    }
+
+    /**
+     * Random whole-number heights from 0 to levels - 1.
+     *
+     * @param seed of the random numbers
+     * @param rows of the terrain
+     * @param cols of the terrain
+     * @param levels number of distinct heights
+     * @return double[][], the heights
+     */
+    static double[][] random(long seed, int rows, int cols, int levels) {
+        var random = new Random(seed);
+        double[][] heights = new double[rows][cols];
+        for (double[] row : heights) {
+            for (int c = 0; c < cols; c++) {
+                row[c] = random.nextInt(levels);
+            }
+        }
+        return heights;
+    }
+
+    /**
+     * Water heights worth checking on a terrain: below everything, every
+     * distinct height, halfway between neighboring heights, and above
+     * everything.
+     *
+     * @param grid the terrain
+     * @return double[], the water heights in increasing order
+     */
+    static double[] waterHeights(HeightGrid grid) {
+        var heights = new TreeSet<Double>();
+        for (int r = 0; r < grid.rows(); r++) {
+            for (int c = 0; c < grid.cols(); c++) {
+                heights.add(grid.get(r, c));
+            }
+        }
+        var water = new ArrayList<Double>();
+        water.add(heights.first() - 1);
+        Double previous = null;
+        for (double height : heights) {
+            if (previous != null) water.add((previous + height) / 2);
+            water.add(height);
+            previous = height;
+        }
+        water.add(heights.last() + 1);
+        return water.stream().mapToDouble(Double::doubleValue).toArray();
+    }
+
+    /**
+     * @param terrain to flood
+     * @param height of the water
+     * @return boolean[][], the flood from the original breadth-first search
+     */
+    static boolean[][] flood(Terrain terrain, double height) {
+        return new RisingTides(terrain).floodedRegionsIn(height);
+    }
+
+    /**
+     * Labels the islands with a depth-first search over the 8 neighbors of
+     * every dry cell.
+     *
+     * @param flooded cells
+     * @return int[][], island labels from 1 up, 0 for flooded cells
+     */
+    static int[][] islands(boolean[][] flooded) {
+        int rows = flooded.length, cols = flooded[0].length;
+        int[][] labels = new int[rows][cols];
+        int count = 0;
+        var stack = new ArrayDeque<int[]>();
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                if (flooded[r][c] || labels[r][c] != 0) continue;
+                labels[r][c] = ++count;
+                stack.push(new int[] { r, c });
+                while (!stack.isEmpty()) {
+                    int[] cell = stack.pop();
+                    for (int dr = -1; dr <= 1; dr++) {
+                        for (int dc = -1; dc <= 1; dc++) {
+                            int nr = cell[0] + dr, nc = cell[1] + dc;
+                            if (nr >= 0 && nr < rows && nc >= 0 && nc < cols && !flooded[nr][nc]
+                                    && labels[nr][nc] == 0) {
+                                labels[nr][nc] = count;
+                                stack.push(new int[] { nr, nc });
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * @param labels from islands()
+     * @return int, the number of islands
+     */
+    static int islandCount(int[][] labels) {
+        int count = 0;
+        for (int[] row : labels) {
+            for (int label : row) {
+                count = Math.max(count, label);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param labels from islands()
+     * @return int[], the number of cells on each island, indexed by label
+     */
+    static int[] islandAreas(int[][] labels) {
+        int[] area = new int[islandCount(labels) + 1];
+        for (int[] row : labels) {
+            for (int label : row) {
+                area[label]++;
+            }
+        }
+        area[0] = 0;
+        return area;
+    }
+
+    /**
+     * @param flooded cells
+     * @return int, the number of dry cells
+     */
+    static int land(boolean[][] flooded) {
+        int land = 0;
+        for (boolean[] row : flooded) {
+            for (boolean cell : row) {
+                if (!cell) land++;
+            }
+        }
+        return land;
+    }
+
+    /**
+     * @param flooded cells of the whole terrain
+     * @param region to cut out
+     * @return boolean[][], the cells of the region, its top left corner at [0][0]
+     */
+    static boolean[][] clip(boolean[][] flooded, Region region) {
+        boolean[][] clipped = new boolean[region.rows()][];
+        for (int r = 0; r < clipped.length; r++) {
+            clipped[r] = Arrays.copyOfRange(flooded[region.firstRow + r], region.firstCol, region.endCol);
+        }
+        return clipped;
+    }
+
+    /**
+     * Writes a terrain as a local .terrain file, for checks that load from
+     * disk.
+     *
+     * @param terrain to write
+     * @param file to write it to
+     */
+    static void write(Terrain terrain, File file) throws IOException {
+        try (var out = new PrintWriter(new BufferedWriter(new FileWriter(file)))) {
+            out.println("local");
+            out.println(terrain.grid.rows());
+            out.println(terrain.grid.cols());
+            out.println(terrain.sources.length);
+            for (GridLocation source : terrain.sources) {
+                out.println(source.row);
+                out.println(source.col);
+            }
+            for (int r = 0; r < terrain.grid.rows(); r++) {
+                var line = new StringJoiner(" ");
+                for (int c = 0; c < terrain.grid.cols(); c++) {
+                    line.add(Double.toString(terrain.grid.get(r, c)));
+                }
+                out.println(line);
+            }
+        }
+    }
+
+    static double[][] copy(double[][] heights) {
+        double[][] copy = new double[heights.length][];
+        for (int r = 0; r < heights.length; r++) {
+            copy[r] = heights[r].clone();
+        }
+        return copy;
+    }
+
+    static double[][] toArray(HeightGrid grid) {
+        double[][] heights = new double[grid.rows()][grid.cols()];
+        for (int r = 0; r < heights.length; r++) {
+            for (int c = 0; c < heights[r].length; c++) {
+                heights[r][c] = grid.get(r, c);
+            }
+        }
+        return heights;
+    }
+}
@@ -0,0 +1,51 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * Checks floodDelta against the difference of two floodedRegionsIn masks, for
+ * every pair of water heights, and that the run-length form covers the same
+ * cells.
+ */
+public class FloodDeltaTest {
+
+    public static void main(String[] args) {
+        run();
+        Check.report();
+    }
+
+    static void run() {
+        Check.start("FloodDeltaTest");
+        for (Terrain terrain : Fixtures.terrains()) {
+            var rising = new RisingTides(terrain);
+            double[] water = Fixtures.waterHeights(terrain.grid);
+            boolean[][][] floods = new boolean[water.length][][];
+            for (int i = 0; i < water.length; i++) {
+                floods[i] = Fixtures.flood(terrain, water[i]);
+            }
+            for (int i = 0; i < water.length; i++) {
+                for (int j = 0; j < water.length; j++) {
+                    String what = Fixtures.name(terrain) + " from " + water[i] + " to " + water[j];
+                    FloodDelta delta = rising.floodDelta(water[i], water[j]);
+                    Set<Integer> expected = j > i ? TidalFloodTest.changed(floods[i], floods[j]) : Set.of();
+                    Check.that(expected.equals(TidalFloodTest.cells(delta)), what + ": cells");
+                    Check.that(expected.equals(runCells(delta.runs())), what + ": runs");
+                }
+            }
+        }
+    }
+
+    /* Expands (start, length) runs, with -1 added if they are out of order or overlap. */
+    private static Set<Integer> runCells(int[] runs) {
+        var cells = new TreeSet<Integer>();
+        int end = Integer.MIN_VALUE;
+        for (int i = 0; i < runs.length; i += 2) {
+            if (runs[i] <= end || runs[i + 1] <= 0) cells.add(-1);
+            for (int cell = runs[i]; cell < runs[i] + runs[i + 1]; cell++) {
+                cells.add(cell);
+            }
+            end = runs[i] + runs[i + 1];
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,105 @@
+package tides;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Checks that a FloodIndex saved to a sidecar file loads back with the same
+ * answers as floodedRegionsIn, and that stale or damaged sidecars are
+ * refused rather than trusted: a sidecar keyed on another version of the
+ * terrain file, and, when asked to verify, one built from other heights.
+ */
+public class FloodIndexFileTest {
+
+    public static void main(String[] args) throws IOException {
+        run();
+        Check.report();
+    }
+
+    static void run() throws IOException {
+        Check.start("FloodIndexFileTest");
+        for (Terrain terrain : Fixtures.terrains()) {
+            String name = Fixtures.name(terrain);
+            int rows = terrain.grid.rows(), cols = terrain.grid.cols();
+            File file = File.createTempFile("tides-test-", ".terrain");
+            File sidecar = File.createTempFile("tides-test-", ".tidx");
+            File original = sidecar;
+            try {
+                Fixtures.write(terrain, file);
+                long key = FloodIndexFile.sourceKey(file, terrain);
+                long hash = FloodIndexFile.contentHash(terrain);
+                FloodIndexFile.save(FloodIndex.build(terrain.grid, terrain.sources), sidecar, key, hash);
+                FloodIndex loaded = FloodIndexFile.load(sidecar, rows, cols, key);
+                Check.that(loaded != null, name + ": sidecar loads");
+                if (loaded == null) continue;
+                Check.that(FloodIndexFile.load(sidecar, rows, cols, key, terrain) != null,
+                        name + ": sidecar loads, verified");
+
+                var rising = new RisingTides(terrain, loaded);
+                for (double height : Fixtures.waterHeights(terrain.grid)) {
+                    String what = name + " at " + height;
+                    boolean[][] expected = Fixtures.flood(terrain, height);
+                    Check.sameFlood(expected, rising.floodedRegionsIn(height), what + ": loaded index");
+                    Check.equal(Fixtures.land(expected), loaded.visibleLand(height), what + ": visibleLand");
+                    Check.equal(Fixtures.islandCount(Fixtures.islands(expected)), loaded.islandCount(height),
+                            what + ": islandCount");
+                }
+
+                Check.that(FloodIndexFile.load(sidecar, rows, cols, key + 1) == null, name + ": other key");
+                Check.that(FloodIndexFile.load(sidecar, cols, rows, key) == null || rows == cols,
+                        name + ": other shape");
+
+                /* The damaged copies are new files: the loaded index still maps this one. */
+                sidecar = copyOf(sidecar);
+
+                /* One flipped byte in the body fails the checksum. */
+                byte[] bytes = Files.readAllBytes(sidecar.toPath());
+                byte[] damaged = bytes.clone();
+                damaged[bytes.length / 2] ^= 1;
+                Files.write(sidecar.toPath(), damaged);
+                Check.that(FloodIndexFile.load(sidecar, rows, cols, key) == null, name + ": damaged sidecar");
+
+                Files.write(sidecar.toPath(), Arrays.copyOf(bytes, bytes.length - 1));
+                Check.that(FloodIndexFile.load(sidecar, rows, cols, key) == null, name + ": truncated sidecar");
+
+                /* A rebuild replaces the damaged file with a good one. */
+                FloodIndex rebuilt = FloodIndexFile.loadOrBuild(terrain, file, sidecar);
+                for (double height : Fixtures.waterHeights(terrain.grid)) {
+                    Check.equal(loaded.visibleLand(height), rebuilt.visibleLand(height), name + " at " + height
+                            + ": loadOrBuild");
+                }
+                Check.that(FloodIndexFile.load(sidecar, rows, cols, key) != null, name + ": rewritten sidecar");
+
+                /* The key follows the file: a touched or rewritten file has another one. */
+                Check.that(file.setLastModified(file.lastModified() + 2000), name + ": touch");
+                Check.that(FloodIndexFile.sourceKey(file, terrain) != key, name + ": key sees a touch");
+                long touched = FloodIndexFile.sourceKey(file, terrain);
+                long time = file.lastModified();
+                terrain.heights[0][0]++;
+                Fixtures.write(terrain, file);
+                file.setLastModified(time);
+                Check.that(FloodIndexFile.sourceKey(file, terrain) != touched, name + ": key sees a new height");
+
+                /*
+                 * Heights that changed behind the key's back (here, in memory
+                 * only) get past the key; only verifying catches them.
+                 */
+                Check.that(FloodIndexFile.load(original, rows, cols, key) != null, name + ": key trusted");
+                Check.that(FloodIndexFile.load(original, rows, cols, key, terrain) == null,
+                        name + ": verifying sees an edit");
+            } finally {
+                file.delete();
+                original.delete();
+                sidecar.delete();
+            }
+        }
+    }
+
+    /* A copy of a file under a new temporary name. */
+    private static File copyOf(File file) throws IOException {
+        File copy = File.createTempFile("tides-test-", ".tidx");
+        Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return copy;
+    }
+}
@@ -0,0 +1,73 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * Checks FloodIndex, and the bulk isFlooded queries built on it, against
+ * floodedRegionsIn: the same cells at every water height, the same land and
+ * the same number of islands.
+ */
+public class FloodIndexTest {
+
+    public static void main(String[] args) {
+        run();
+        Check.report();
+    }
+
+    static void run() {
+        Check.start("FloodIndexTest");
+        for (Terrain terrain : Fixtures.terrains()) {
+            int rows = terrain.grid.rows(), cols = terrain.grid.cols();
+            FloodIndex index = FloodIndex.build(terrain.grid, terrain.sources);
+            var plain = new RisingTides(terrain);
+            var indexed = new RisingTides(terrain, index);
+
+            /* Every cell, listed for the bulk queries. */
+            int[] cellRows = new int[rows * cols], cellCols = new int[rows * cols];
+            for (int i = 0; i < cellRows.length; i++) {
+                cellRows[i] = i / cols;
+                cellCols[i] = i % cols;
+            }
+
+            double[] heights = Fixtures.waterHeights(terrain.grid);
+            BitSet[] plainBits = plain.isFlooded(heights, cellRows, cellCols);
+            BitSet[] indexedBits = indexed.isFlooded(heights, cellRows, cellCols);
+            for (int h = 0; h < heights.length; h++) {
+                double height = heights[h];
+                String what = Fixtures.name(terrain) + " at " + height;
+                boolean[][] expected = Fixtures.flood(terrain, height);
+                int land = Fixtures.land(expected);
+
+                boolean[][] fromIndex = new boolean[rows][cols];
+                for (int r = 0; r < rows; r++) {
+                    for (int c = 0; c < cols; c++) {
+                        fromIndex[r][c] = index.isFlooded(height, r, c);
+                    }
+                }
+                Check.sameFlood(expected, fromIndex, what + ": isFlooded");
+                Check.sameFlood(expected, indexed.floodedRegionsIn(height), what + ": indexed floodedRegionsIn");
+                Check.equal(rows * cols - land, index.floodedCount(height), what + ": floodedCount");
+                Check.equal(land, index.visibleLand(height), what + ": visibleLand");
+                Check.equal(Fixtures.islandCount(Fixtures.islands(expected)), index.islandCount(height),
+                        what + ": islandCount");
+
+                var bits = new BitSet();
+                for (int i = 0; i < cellRows.length; i++) {
+                    bits.set(i, expected[cellRows[i]][cellCols[i]]);
+                }
+                Check.that(bits.equals(plainBits[h]), what + ": bulk isFlooded");
+                Check.that(bits.equals(indexedBits[h]), what + ": bulk isFlooded from the index");
+                Check.that(bits.equals(plain.isFlooded(height, cellRows, cellCols)),
+                        what + ": bulk isFlooded at one height");
+            }
+
+            Check.throwsException(IndexOutOfBoundsException.class, () -> index.isFlooded(0, 0, cols),
+                    Fixtures.name(terrain) + ": column past the edge");
+            Check.throwsException(IndexOutOfBoundsException.class, () -> index.isFlooded(0, -1, 0),
+                    Fixtures.name(terrain) + ": negative row");
+            Check.throwsException(IndexOutOfBoundsException.class,
+                    () -> FloodIndex.build(terrain.grid, new GridLocation[] { new GridLocation(0, cols) }),
+                    Fixtures.name(terrain) + ": source past the edge");
+        }
+    }
+}
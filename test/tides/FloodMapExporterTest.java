@@ -0,0 +1,118 @@
+package tides;
+
+import java.awt.image.*;
+import java.io.*;
+import java.util.zip.*;
+import javax.imageio.*;
+
+/**
+ * Checks that FloodMapExporter writes valid PNG files: every chunk has the
+ * right CRC, the zlib stream inflates to exactly one filtered scanline per
+ * row and ends with the right checksum, and ImageIO reads back the color of
+ * every cell, flooded or dry. Terrains taller than a band check that the
+ * bands join up.
+ */
+public class FloodMapExporterTest {
+
+    public static void main(String[] args) throws IOException {
+        run();
+        Check.report();
+    }
+
+    static void run() throws IOException {
+        Check.start("FloodMapExporterTest");
+        Terrain[] terrains = {
+            Fixtures.terrains()[0],
+            Fixtures.terrains()[3],
+            new Terrain(Fixtures.random(44, 150, 70, 10), new GridLocation[] { new GridLocation(75, 0) }),
+            new Terrain(Fixtures.random(45, 129, 1, 4), new GridLocation[] { new GridLocation(0, 0) }),
+        };
+        for (Terrain terrain : terrains) {
+            for (int level : new int[] { Deflater.NO_COMPRESSION, Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION }) {
+                var exporter = new FloodMapExporter(terrain.grid, level);
+                for (double height : new double[] { -1, 2, 5.5 }) {
+                    check(terrain, exporter, height, Fixtures.name(terrain) + " at " + height + ", level " + level);
+                }
+            }
+        }
+    }
+
+    private static void check(Terrain terrain, FloodMapExporter exporter, double height, String what)
+            throws IOException {
+        int rows = terrain.grid.rows(), cols = terrain.grid.cols();
+        boolean[][] flooded = Fixtures.flood(terrain, height);
+        var bytes = new ByteArrayOutputStream();
+        exporter.write((row, col) -> flooded[row][col], bytes);
+        byte[] png = bytes.toByteArray();
+
+        Check.that(validChunks(png, rows, cols), what + ": chunks, CRCs and image data");
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        Check.that(image != null, what + ": ImageIO reads it");
+        if (image == null) return;
+        Check.equal(cols, image.getWidth(), what + ": width");
+        Check.equal(rows, image.getHeight(), what + ": height");
+
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                min = Math.min(min, terrain.grid.get(r, c));
+                max = Math.max(max, terrain.grid.get(r, c));
+            }
+        }
+        boolean same = true;
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                int rgb = flooded[r][c] ? RisingTidesVisualizer.UNDERWATER_RGB
+                        : RisingTidesVisualizer.rgbFor(terrain.grid.get(r, c), min, max);
+                same &= (image.getRGB(c, r) & 0xFFFFFF) == rgb;
+            }
+        }
+        Check.that(same, what + ": every pixel");
+    }
+
+    /*
+     * Walks the chunks, checking each CRC, and inflates the image data: one
+     * filter byte and three bytes per pixel for every row, and nothing after.
+     */
+    private static boolean validChunks(byte[] png, int rows, int cols) throws IOException {
+        var in = new DataInputStream(new ByteArrayInputStream(png));
+        byte[] signature = new byte[8];
+        in.readFully(signature);
+        if (signature[0] != (byte) 0x89 || signature[1] != 'P' || signature[2] != 'N' || signature[3] != 'G') {
+            return false;
+        }
+        var idat = new ByteArrayOutputStream();
+        String type = "";
+        boolean first = true;
+        while (!type.equals("IEND")) {
+            int length = in.readInt();
+            byte[] chunk = new byte[4 + length];
+            in.readFully(chunk);
+            var crc = new CRC32();
+            crc.update(chunk);
+            if ((int) crc.getValue() != in.readInt()) return false;
+            type = new String(chunk, 0, 4, "US-ASCII");
+            if (first && !type.equals("IHDR")) return false;
+            first = false;
+            if (type.equals("IDAT")) idat.write(chunk, 4, length);
+        }
+        if (in.available() != 0) return false;
+
+        var inflater = new Inflater();
+        inflater.setInput(idat.toByteArray());
+        byte[] raw = new byte[rows * (1 + 3 * cols) + 1];
+        int total = 0;
+        try {
+            while (!inflater.finished() && total < raw.length) {
+                int n = inflater.inflate(raw, total, raw.length - total);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) return false;
+                total += n;
+            }
+        } catch (DataFormatException e) {
+            return false;
+        }
+        boolean valid = inflater.finished() && total == rows * (1 + 3 * cols) && inflater.getRemaining() == 0;
+        inflater.end();
+        return valid;
+    }
+}
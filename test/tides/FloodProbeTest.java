@@ -0,0 +1,34 @@
+package tides;
+
+/**
+ * Checks the early-exit single-cell search of FloodProbe against
+ * floodedRegionsIn, for every cell at every water height. One probe answers
+ * all of them, so stale scratch state between queries would show up too.
+ */
+public class FloodProbeTest {
+
+    public static void main(String[] args) {
+        run();
+        Check.report();
+    }
+
+    static void run() {
+        Check.start("FloodProbeTest");
+        for (Terrain terrain : Fixtures.terrains()) {
+            var probe = new FloodProbe(terrain.grid, terrain.sources);
+            for (double height : Fixtures.waterHeights(terrain.grid)) {
+                boolean[][] expected = Fixtures.flood(terrain, height);
+                boolean[][] probed = new boolean[expected.length][expected[0].length];
+                for (int r = 0; r < probed.length; r++) {
+                    for (int c = 0; c < probed[r].length; c++) {
+                        probed[r][c] = probe.isFlooded(height, r, c);
+                    }
+                }
+                Check.sameFlood(expected, probed, Fixtures.name(terrain) + " at " + height + ": isFlooded");
+            }
+            int cols = terrain.grid.cols();
+            Check.throwsException(IndexOutOfBoundsException.class, () -> probe.isFlooded(0, 0, cols),
+                    Fixtures.name(terrain) + ": column past the edge");
+        }
+    }
+}
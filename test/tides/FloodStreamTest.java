@@ -0,0 +1,222 @@
+package tides;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Checks FloodStream against floodedRegionsIn: readings that arrive while
+ * the consumer is busy are folded into one update, every update changes
+ * exactly the cells between the last height sent and the new one, with the
+ * right land and islands, and upstream is never made to wait. Runs once on
+ * the calling thread, where the order is fixed, and once with a slow
+ * consumer on a pool.
+ */
+public class FloodStreamTest {
+
+    /* Keeps every update and leaves the requests to the check. */
+    private static class Recorder implements Flow.Subscriber<FloodUpdate> {
+        final List<FloodUpdate> updates = Collections.synchronizedList(new ArrayList<FloodUpdate>());
+        final CountDownLatch finished = new CountDownLatch(1);
+        volatile Flow.Subscription subscription;
+        volatile boolean completed;
+        volatile Throwable error;
+
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        public void onNext(FloodUpdate update) {
+            updates.add(update);
+        }
+
+        public void onError(Throwable throwable) {
+            error = throwable;
+            finished.countDown();
+        }
+
+        public void onComplete() {
+            completed = true;
+            finished.countDown();
+        }
+    }
+
+    /* Stands in for the publisher of readings, counting what is asked of it. */
+    private static final class Upstream implements Flow.Subscription {
+        long requested;
+        boolean cancelled;
+
+        public void request(long n) {
+            requested += n;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        run();
+        Check.report();
+    }
+
+    static void run() throws Exception {
+        Check.start("FloodStreamTest");
+        Executor direct = Runnable::run;
+        var random = new Random(45);
+        for (Terrain terrain : Fixtures.terrains()) {
+            String name = Fixtures.name(terrain);
+            FloodIndex index = FloodIndex.build(terrain.grid, terrain.sources);
+            double[] water = Fixtures.waterHeights(terrain.grid);
+
+            /* Nothing is sent before it is asked for; then one update stands for every reading. */
+            var stream = new FloodStream(index, water[0], direct);
+            var recorder = new Recorder();
+            var upstream = new Upstream();
+            stream.subscribe(recorder);
+            stream.onSubscribe(upstream);
+            double[] readings = new double[40];
+            for (int i = 0; i < readings.length; i++) {
+                readings[i] = water[random.nextInt(water.length)];
+                stream.onNext(readings[i]);
+            }
+            Check.equal(0, recorder.updates.size(), name + ": nothing sent before a request");
+            Check.equal(readings.length + 1, upstream.requested, name + ": upstream never waits");
+            recorder.subscription.request(1);
+            Check.equal(1, recorder.updates.size(), name + ": one update for all the readings");
+            boolean[][] flooded = Fixtures.flood(terrain, water[0]);
+            flooded = checkUpdate(terrain, flooded, recorder.updates.get(0), water[0], readings[readings.length - 1],
+                    readings.length - 1, name + ": folded update");
+
+            /* A consumer that keeps up gets every reading on its own. */
+            recorder.subscription.request(Long.MAX_VALUE);
+            double previous = readings[readings.length - 1];
+            for (int move = 0; move < 30; move++) {
+                double height = water[random.nextInt(water.length)];
+                stream.onNext(height);
+                FloodUpdate update = recorder.updates.get(recorder.updates.size() - 1);
+                flooded = checkUpdate(terrain, flooded, update, previous, height, 0, name + " move " + move);
+                previous = height;
+            }
+            Check.equal(31, recorder.updates.size(), name + ": one update per reading");
+            stream.onComplete();
+            Check.that(recorder.completed && recorder.error == null, name + ": completes");
+
+            checkSlowConsumer(terrain, index, water, random);
+        }
+        checkErrors(FloodIndex.build(Fixtures.terrains()[0].grid, Fixtures.terrains()[0].sources));
+    }
+
+    /*
+     * Checks an update against two floods and returns the flood after it,
+     * worked out by applying the update's cells to the flood before it.
+     */
+    private static boolean[][] checkUpdate(Terrain terrain, boolean[][] before, FloodUpdate update, double from,
+            double to, long skipped, String what) {
+        boolean[][] expected = Fixtures.flood(terrain, to);
+        Check.that(update.previousHeight == from && update.height == to,
+                what + ": from " + update.previousHeight + " to " + update.height);
+        Check.equal(skipped, update.skipped, what + ": skipped");
+        Check.that(TidalFloodTest.cells(update.delta).equals(TidalFloodTest.changed(before, expected)),
+                what + ": changed cells");
+        Check.that(update.newlyFlooded().remaining() == 0 || update.newlyExposed().remaining() == 0,
+                what + ": flooded or exposed, not both");
+        Check.equal(Fixtures.land(expected), update.land, what + ": land");
+        Check.equal(Fixtures.islandCount(Fixtures.islands(expected)), update.islands, what + ": islands");
+        return apply(before, update);
+    }
+
+    private static boolean[][] apply(boolean[][] before, FloodUpdate update) {
+        int cols = before[0].length;
+        boolean[][] after = new boolean[before.length][];
+        for (int r = 0; r < before.length; r++) {
+            after[r] = before[r].clone();
+        }
+        for (int i = 0; i < update.delta.count; i++) {
+            int cell = update.delta.cell(i);
+            after[cell / cols][cell % cols] = update.delta.rising;
+        }
+        return after;
+    }
+
+    /*
+     * A published stream of readings and a consumer that takes its time:
+     * every reading is accounted for once, the updates chain from one height
+     * to the next, and the last one is at the last reading.
+     */
+    private static void checkSlowConsumer(Terrain terrain, FloodIndex index, double[] water, Random random)
+            throws InterruptedException {
+        String what = Fixtures.name(terrain) + ", slow consumer";
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            var stream = new FloodStream(index, water[0], executor);
+            var recorder = new Recorder() {
+                public void onNext(FloodUpdate update) {
+                    super.onNext(update);
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    subscription.request(1);
+                }
+            };
+            stream.subscribe(recorder);
+            recorder.subscription.request(1);
+            double[] readings = new double[300];
+            try (var publisher = new SubmissionPublisher<Double>(executor, 4)) {
+                publisher.subscribe(stream);
+                for (int i = 0; i < readings.length; i++) {
+                    readings[i] = water[random.nextInt(water.length)];
+                    publisher.submit(readings[i]);
+                }
+            }
+            Check.that(recorder.finished.await(30, TimeUnit.SECONDS), what + ": finishes");
+            Check.that(recorder.completed && recorder.error == null, what + ": completes");
+
+            long count = 0;
+            double from = water[0];
+            boolean chained = true;
+            boolean[][] flooded = Fixtures.flood(terrain, water[0]);
+            for (FloodUpdate update : recorder.updates) {
+                count += update.skipped + 1;
+                chained &= update.previousHeight == from;
+                from = update.height;
+                flooded = apply(flooded, update);
+            }
+            Check.equal(readings.length, count, what + ": every reading counted once");
+            Check.that(chained, what + ": each update starts where the last one ended");
+            Check.that(from == readings[readings.length - 1], what + ": ends at the last reading");
+            Check.sameFlood(Fixtures.flood(terrain, from), flooded, what + ": updates add up to the last flood");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void checkErrors(FloodIndex index) {
+        Executor direct = Runnable::run;
+        var stream = new FloodStream(index, 0, direct);
+        var recorder = new Recorder();
+        var upstream = new Upstream();
+        stream.subscribe(recorder);
+        stream.onSubscribe(upstream);
+
+        var second = new Recorder();
+        stream.subscribe(second);
+        Check.that(second.error instanceof IllegalStateException, "second subscriber refused");
+
+        recorder.subscription.request(0);
+        Check.that(recorder.error instanceof IllegalArgumentException, "request(0) is an error");
+        Check.that(upstream.cancelled, "request(0) cancels upstream");
+
+        stream = new FloodStream(index, 0, direct);
+        recorder = new Recorder();
+        upstream = new Upstream();
+        stream.subscribe(recorder);
+        stream.onSubscribe(upstream);
+        recorder.subscription.cancel();
+        Check.that(upstream.cancelled, "cancel reaches upstream");
+        stream.onNext(3.0);
+        recorder.subscription.request(1);
+        Check.equal(0, recorder.updates.size(), "nothing sent after cancel");
+    }
+}
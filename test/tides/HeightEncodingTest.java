@@ -0,0 +1,80 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * Checks the compact height encodings: every stored height is within
+ * maxError of the original, filling a grid height by height gives the same
+ * grid as encoding a whole array, and a flood at a water height further than
+ * maxError from every cell height matches floodedRegionsIn exactly.
+ */
+public class HeightEncodingTest {
+
+    public static void main(String[] args) {
+        run();
+        Check.report();
+    }
+
+    static void run() {
+        Check.start("HeightEncodingTest");
+        for (Terrain terrain : Fixtures.terrains()) {
+            double[][] heights = Fixtures.toArray(terrain.grid);
+            check(terrain, heights);
+
+            /* Heights with decimals, over a range of hundreds of meters. */
+            var random = new Random(heights.length);
+            for (double[] row : heights) {
+                for (int c = 0; c < row.length; c++) {
+                    row[c] = row[c] * 37.3 - 50 + random.nextDouble();
+                }
+            }
+            check(new Terrain(heights, terrain.sources), heights);
+        }
+    }
+
+    private static void check(Terrain terrain, double[][] heights) {
+        int rows = heights.length, cols = heights[0].length;
+        for (HeightEncoding encoding : HeightEncoding.values()) {
+            String what = Fixtures.name(terrain) + " in " + encoding;
+            HeightGrid encoded = encoding.encode(Fixtures.copy(heights));
+            double maxError = encoded instanceof QuantizedHeightGrid quantized ? quantized.maxError() : 0;
+
+            HeightEncoding.Builder builder = encoding.builder(rows, cols);
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    builder.set(r, c, heights[r][c]);
+                }
+            }
+            HeightGrid built = builder.build();
+
+            double builtError = built instanceof QuantizedHeightGrid quantized ? quantized.maxError() : 0;
+
+            /* INT16 builders take the range from the staged floats, so their steps can differ slightly. */
+            boolean within = true, builtWithin = true, same = true;
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    within &= Math.abs(encoded.get(r, c) - heights[r][c]) <= maxError;
+                    builtWithin &= Math.abs(built.get(r, c) - heights[r][c]) <= builtError;
+                    same &= built.get(r, c) == encoded.get(r, c);
+                }
+            }
+            Check.that(within, what + ": every height within maxError (" + maxError + ")");
+            Check.that(builtWithin, what + ": every built height within maxError (" + builtError + ")");
+            Check.that(same || encoding == HeightEncoding.INT16, what + ": builder matches encode");
+
+            /* Halfway between neighboring heights (every other entry), with room to spare for the error. */
+            double[] water = Fixtures.waterHeights(terrain.grid);
+            var rising = new RisingTides(new Terrain(encoded, terrain.sources));
+            for (int i = 1; i + 2 < water.length; i += 2) {
+                double height = water[i + 1];
+                if (water[i + 2] - height <= maxError || height - water[i] <= maxError) continue;
+                Check.sameFlood(Fixtures.flood(terrain, height), rising.floodedRegionsIn(height),
+                        what + " at " + height + ": flood");
+            }
+        }
+
+        var grid = (ShortHeightGrid) HeightEncoding.INT16.encode(Fixtures.copy(heights));
+        Check.throwsException(IllegalArgumentException.class, () -> grid.set(0, 0, 1e9),
+                Fixtures.name(terrain) + ": INT16 height out of range");
+    }
+}
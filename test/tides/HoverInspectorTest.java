@@ -0,0 +1,102 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * Checks what HoverInspector reports for every cell against floodedRegionsIn
+ * and a depth-first island search: flooded or not, the island and its area,
+ * and a flood threshold that is the lowest water height that floods the
+ * cell. A mask kept off the heap is read in place, without island labels.
+ */
+public class HoverInspectorTest {
+
+    public static void main(String[] args) {
+        run();
+        Check.report();
+    }
+
+    static void run() {
+        Check.start("HoverInspectorTest");
+        for (Terrain terrain : Fixtures.terrains()) {
+            int rows = terrain.grid.rows(), cols = terrain.grid.cols();
+            FloodIndex index = FloodIndex.build(terrain.grid, terrain.sources);
+            double[] water = Fixtures.waterHeights(terrain.grid);
+
+            /* The lowest listed water height that floods each cell: thresholds are cell heights. */
+            double[][] lowest = new double[rows][cols];
+            for (double[] row : lowest) {
+                Arrays.fill(row, Double.POSITIVE_INFINITY);
+            }
+            for (int h = water.length - 1; h >= 0; h--) {
+                boolean[][] flooded = Fixtures.flood(terrain, water[h]);
+                for (int r = 0; r < rows; r++) {
+                    for (int c = 0; c < cols; c++) {
+                        if (flooded[r][c]) lowest[r][c] = water[h];
+                    }
+                }
+            }
+            for (GridLocation source : terrain.sources) {
+                lowest[source.row][source.col] = Double.NEGATIVE_INFINITY;
+            }
+
+            for (double height : water) {
+                String what = Fixtures.name(terrain) + " at " + height;
+                boolean[][] flooded = Fixtures.flood(terrain, height);
+                int[][] labels = Fixtures.islands(flooded);
+                int[] area = Fixtures.islandAreas(labels);
+                var inspector = new HoverInspector(terrain.grid, index, new ArrayMaskGrid(flooded), height);
+                var plain = new HoverInspector(terrain.grid, null, new ArrayMaskGrid(flooded), height);
+                var unlabeled = new HoverInspector(terrain.grid, index, offHeap(flooded), height);
+
+                boolean same = true, thresholds = true, unlabeledSame = true;
+                var match = new HashMap<Integer, Integer>();
+                for (int r = 0; r < rows; r++) {
+                    for (int c = 0; c < cols; c++) {
+                        same &= inspector.contains(r, c) && inspector.elevation(r, c) == terrain.grid.get(r, c)
+                                && inspector.isFlooded(r, c) == flooded[r][c]
+                                && inspector.islandArea(r, c) == area[labels[r][c]];
+                        int island = inspector.island(r, c);
+                        same &= labels[r][c] == 0 ? island == 0
+                                : island > 0 && match.computeIfAbsent(labels[r][c], l -> island) == island;
+                        thresholds &= inspector.threshold(r, c) == lowest[r][c]
+                                && Double.isNaN(plain.threshold(r, c));
+                        unlabeledSame &= unlabeled.isFlooded(r, c) == flooded[r][c]
+                                && unlabeled.island(r, c) == -1 && unlabeled.islandArea(r, c) == -1;
+                    }
+                }
+                Check.that(same && new HashSet<Integer>(match.values()).size() == match.size(),
+                        what + ": flooded, islands and areas");
+                Check.that(unlabeledSame, what + ": mask off the heap, no islands");
+                Check.that(thresholds, what + ": thresholds");
+                Check.that(!inspector.contains(-1, 0) && !inspector.contains(rows, 0) && !inspector.contains(0, -1)
+                        && !inspector.contains(0, cols), what + ": cells off the map");
+            }
+        }
+    }
+
+    /* The same cells behind a mask that, as far as HoverInspector can tell, is stored off the heap. */
+    private static MaskGrid offHeap(boolean[][] flooded) {
+        var cells = new ArrayMaskGrid(flooded);
+        return new MaskGrid() {
+            public int rows() {
+                return cells.rows();
+            }
+
+            public int cols() {
+                return cells.cols();
+            }
+
+            public boolean isFlooded(int row, int col) {
+                return cells.isFlooded(row, col);
+            }
+
+            public void flood(int row, int col) {
+                cells.flood(row, col);
+            }
+
+            public void clear() {
+                cells.clear();
+            }
+        };
+    }
+}
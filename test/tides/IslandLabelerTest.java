@@ -0,0 +1,76 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * Checks IslandLabeler against a depth-first search: the same islands, with
+ * the same areas, bounding boxes and peaks.
+ */
+public class IslandLabelerTest {
+
+    public static void main(String[] args) {
+        run();
+        Check.report();
+    }
+
+    static void run() {
+        Check.start("IslandLabelerTest");
+        var labeler = new IslandLabeler();
+        for (Terrain terrain : Fixtures.terrains()) {
+            for (double height : Fixtures.waterHeights(terrain.grid)) {
+                String what = Fixtures.name(terrain) + " at " + height;
+                boolean[][] flooded = Fixtures.flood(terrain, height);
+                int[][] expected = Fixtures.islands(flooded);
+                int count = Fixtures.islandCount(expected);
+
+                Islands islands = labeler.label(terrain.grid, flooded);
+                Check.equal(count, islands.count, what + ": island count");
+                Check.equal(count, labeler.count(new ArrayMaskGrid(flooded)), what + ": count(mask)");
+                Check.equal(count, new RisingTides(terrain).numOfIslands(height), what + ": numOfIslands");
+                checkSameIslands(terrain.grid, expected, islands, what);
+            }
+        }
+    }
+
+    /* Every island must map onto exactly one island of the search, with the same statistics. */
+    private static void checkSameIslands(HeightGrid grid, int[][] expected, Islands islands, String what) {
+        int count = Fixtures.islandCount(expected);
+        if (count != islands.count) return;
+        int[] area = Fixtures.islandAreas(expected);
+        int[] match = new int[count + 1];
+        double[] peak = new double[count + 1];
+        int[] minRow = new int[count + 1], minCol = new int[count + 1];
+        int[] maxRow = new int[count + 1], maxCol = new int[count + 1];
+        Arrays.fill(peak, Double.NEGATIVE_INFINITY);
+        Arrays.fill(minRow, Integer.MAX_VALUE);
+        Arrays.fill(minCol, Integer.MAX_VALUE);
+        Arrays.fill(maxRow, -1);
+        Arrays.fill(maxCol, -1);
+
+        for (int r = 0; r < expected.length; r++) {
+            for (int c = 0; c < expected[r].length; c++) {
+                int label = islands.labelAt(r, c);
+                int truth = expected[r][c];
+                if ((label == 0) != (truth == 0) || (truth != 0 && match[truth] != 0 && match[truth] != label)) {
+                    Check.that(false, what + ": cell " + new GridLocation(r, c) + " is on the wrong island");
+                    return;
+                }
+                if (truth == 0) continue;
+                match[truth] = label;
+                peak[truth] = Math.max(peak[truth], grid.get(r, c));
+                minRow[truth] = Math.min(minRow[truth], r);
+                minCol[truth] = Math.min(minCol[truth], c);
+                maxRow[truth] = Math.max(maxRow[truth], r);
+                maxCol[truth] = Math.max(maxCol[truth], c);
+            }
+        }
+        boolean same = true;
+        for (int truth = 1; truth <= count; truth++) {
+            int label = match[truth];
+            same &= islands.area[label] == area[truth] && islands.peak[label] == peak[truth]
+                    && islands.minRow[label] == minRow[truth] && islands.minCol[label] == minCol[truth]
+                    && islands.maxRow[label] == maxRow[truth] && islands.maxCol[label] == maxCol[truth];
+        }
+        Check.that(same, what + ": island statistics");
+    }
+}
@@ -0,0 +1,151 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * Checks LeveeEditor against a full re-flood after every edit: the same
+ * flooded cells, land, islands and island areas. Also checks that the
+ * RisingTides the editor came from stops answering from its old index, and
+ * that a rejected edit leaves the terrain as it was, and that labels of
+ * gone islands are reused.
+ */
+public class LeveeEditorTest {
+
+    public static void main(String[] args) {
+        run();
+        Check.report();
+    }
+
+    static void run() {
+        Check.start("LeveeEditorTest");
+        var random = new Random(33);
+        for (Terrain terrain : Fixtures.terrains()) {
+            int rows = terrain.grid.rows(), cols = terrain.grid.cols();
+            double[] water = Fixtures.waterHeights(terrain.grid);
+            double height = water[water.length / 2];
+            var rising = new RisingTides(terrain, FloodIndex.build(terrain.grid, terrain.sources));
+            /* Answer from the index first, so there is something stale to drop. */
+            rising.numOfIslands(height);
+            LeveeEditor editor = rising.leveeEditor(height);
+            check(terrain, editor, Fixtures.name(terrain) + " before editing");
+
+            for (int edit = 0; edit < 40; edit++) {
+                /* Short walls and breaches; along the bottom or right edge a cell can be listed twice. */
+                int n = 1 + random.nextInt(6);
+                int[] editRows = new int[n], editCols = new int[n];
+                double[] newHeights = new double[n];
+                int row = random.nextInt(rows), col = random.nextInt(cols);
+                boolean wall = random.nextBoolean();
+                for (int i = 0; i < n; i++) {
+                    editRows[i] = row;
+                    editCols[i] = col;
+                    newHeights[i] = wall ? height + 1 + random.nextInt(3) : height - 1 - random.nextInt(3);
+                    if (random.nextBoolean()) row = Math.min(rows - 1, row + 1);
+                    else col = Math.min(cols - 1, col + 1);
+                }
+                editor.apply(editRows, editCols, newHeights);
+                String what = Fixtures.name(terrain) + " after edit " + edit;
+                boolean written = true;
+                for (int i = 0; i < n; i++) {
+                    double kept = newHeights[lastOf(editRows, editCols, i)];
+                    written &= terrain.grid.get(editRows[i], editCols[i]) == kept;
+                }
+                Check.that(written, what + ": the last height listed for each cell is kept");
+                check(terrain, editor, what);
+            }
+
+            /* The old index no longer applies to the edited heights. */
+            for (double h : Fixtures.waterHeights(terrain.grid)) {
+                boolean[][] expected = Fixtures.flood(terrain, h);
+                Check.sameFlood(expected, rising.floodedRegionsIn(h), Fixtures.name(terrain) + " at " + h
+                        + ": RisingTides after edits");
+                Check.equal(Fixtures.islandCount(Fixtures.islands(expected)), rising.numOfIslands(h),
+                        Fixtures.name(terrain) + " at " + h + ": numOfIslands after edits");
+            }
+
+            /* A cell off the terrain rejects the whole edit before anything changes. */
+            double[][] before = Fixtures.toArray(terrain.grid);
+            Check.throwsException(IndexOutOfBoundsException.class,
+                    () -> editor.apply(new int[] { 0, 0 }, new int[] { 0, cols }, new double[] { 99, 99 }),
+                    Fixtures.name(terrain) + ": cell off the terrain");
+            Check.that(Arrays.deepEquals(before, Fixtures.toArray(terrain.grid)),
+                    Fixtures.name(terrain) + ": terrain unchanged after a rejected edit");
+        }
+
+        /* An INT16 grid cannot hold a height past its range: the cells already written are put back. */
+        Terrain terrain = Fixtures.terrains()[1];
+        var encoded = new Terrain(HeightEncoding.INT16.encode(Fixtures.toArray(terrain.grid)), terrain.sources);
+        double[][] before = Fixtures.toArray(encoded.grid);
+        LeveeEditor editor = new RisingTides(encoded).leveeEditor(4.5);
+        Check.throwsException(IllegalArgumentException.class,
+                () -> editor.apply(new int[] { 1, 2 }, new int[] { 1, 2 }, new double[] { 3, 1e9 }),
+                "INT16 terrain: height out of range");
+        Check.that(Arrays.deepEquals(before, Fixtures.toArray(encoded.grid)),
+                "INT16 terrain: unchanged after a rejected edit");
+        check(encoded, editor, "INT16 terrain after a rejected edit");
+
+        /* A cell next to a source walled and breached over and over reuses the labels of the islands it ends. */
+        terrain = Fixtures.terrains()[3];
+        double[] water = Fixtures.waterHeights(terrain.grid);
+        double height = water[water.length / 2];
+        GridLocation source = terrain.sources[0];
+        int[] wallRow = { source.row };
+        int[] wallCol = { source.col + 1 < terrain.grid.cols() ? source.col + 1 : source.col - 1 };
+        LeveeEditor toggled = new RisingTides(terrain).leveeEditor(height);
+        int limit = 0;
+        boolean changes = true;
+        for (int i = 0; i < 200; i++) {
+            boolean wall = i % 2 == 0;
+            toggled.apply(wallRow, wallCol, new double[] { wall ? height + 2 : height - 2 });
+            changes &= toggled.isFlooded(wallRow[0], wallCol[0]) != wall;
+            if (i == 1) limit = toggled.labelLimit();
+        }
+        Check.that(changes, "toggled cell changes every edit");
+        check(terrain, toggled, "after 200 toggles");
+        Check.equal(limit, toggled.labelLimit(), "island labels after 200 toggles");
+    }
+
+    /* Compares the editor with a fresh flood and island search of the terrain as it is now. */
+    private static void check(Terrain terrain, LeveeEditor editor, String what) {
+        boolean[][] expected = Fixtures.flood(terrain, editor.height());
+        int rows = expected.length, cols = expected[0].length;
+        boolean[][] edited = new boolean[rows][cols];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                edited[r][c] = editor.isFlooded(r, c);
+            }
+        }
+        Check.sameFlood(expected, edited, what + ": flood");
+        Check.equal(Fixtures.land(expected), editor.visibleLand(), what + ": visibleLand");
+
+        int[][] islands = Fixtures.islands(expected);
+        int[] area = Fixtures.islandAreas(islands);
+        Check.equal(area.length - 1, editor.islandCount(), what + ": islandCount");
+
+        /* Same partition into islands, and the right area for each. */
+        var match = new HashMap<Integer, Integer>();
+        boolean same = true;
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                int label = editor.islandAt(r, c);
+                int truth = islands[r][c];
+                if (truth == 0) {
+                    same &= label == 0;
+                } else {
+                    same &= label != 0 && match.computeIfAbsent(truth, t -> label) == label
+                            && editor.islandArea(label) == area[truth];
+                }
+            }
+        }
+        Check.that(same && new HashSet<Integer>(match.values()).size() == match.size(), what + ": islands");
+    }
+
+    /* The last position in the edit that lists the same cell as position i. */
+    private static int lastOf(int[] rows, int[] cols, int i) {
+        int last = i;
+        for (int j = i + 1; j < rows.length; j++) {
+            if (rows[j] == rows[i] && cols[j] == cols[i]) last = j;
+        }
+        return last;
+    }
+}
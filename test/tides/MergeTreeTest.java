@@ -0,0 +1,81 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * Checks MergeTree against IslandLabeler on a floodedRegionsIn mask at every
+ * water height: the same islands, the same area for each, and the same
+ * count.
+ */
+public class MergeTreeTest {
+
+    public static void main(String[] args) {
+        run();
+        Check.report();
+    }
+
+    static void run() {
+        Check.start("MergeTreeTest");
+        var labeler = new IslandLabeler();
+        for (Terrain terrain : Fixtures.terrains()) {
+            int rows = terrain.grid.rows(), cols = terrain.grid.cols();
+            MergeTree tree = MergeTree.build(FloodIndex.build(terrain.grid, terrain.sources));
+            var rising = new RisingTides(terrain);
+            double[] water = Fixtures.waterHeights(terrain.grid);
+            for (int h = 0; h + 1 < water.length; h++) {
+                checkStableIds(tree, water[h], water[h + 1], rows, cols, Fixtures.name(terrain));
+            }
+            for (double height : water) {
+                String what = Fixtures.name(terrain) + " at " + height;
+                Islands islands = labeler.label(terrain.grid, Fixtures.flood(terrain, height));
+                Check.equal(islands.count, tree.islandCount(height), what + ": islandCount");
+
+                /* Same partition into islands, and the right area for each. */
+                var match = new HashMap<Integer, Integer>();
+                boolean same = true;
+                for (int r = 0; r < rows; r++) {
+                    for (int c = 0; c < cols; c++) {
+                        int island = tree.islandAt(height, r, c);
+                        int label = islands.labelAt(r, c);
+                        if (label == 0) {
+                            same &= island == -1;
+                        } else {
+                            same &= island >= 0 && match.computeIfAbsent(label, l -> island) == island
+                                    && tree.islandArea(height, island) == islands.area[label];
+                        }
+                        var cell = new GridLocation(r, c);
+                        same &= rising.islandAt(height, cell) == island;
+                        same &= rising.islandArea(height, cell) == (label == 0 ? 0 : islands.area[label]);
+                    }
+                }
+                Check.that(same && new HashSet<Integer>(match.values()).size() == match.size(),
+                        what + ": islands and areas");
+            }
+            Check.throwsException(IndexOutOfBoundsException.class, () -> tree.islandAt(0, rows, 0),
+                    Fixtures.name(terrain) + ": row past the edge");
+        }
+    }
+
+    /*
+     * As the water rises from lower to higher, an island that neither splits
+     * nor goes under keeps its id: if exactly one island at the higher level
+     * lies on an island at the lower level, they have the same id.
+     */
+    private static void checkStableIds(MergeTree tree, double lower, double higher, int rows, int cols,
+            String name) {
+        var above = new HashMap<Integer, Set<Integer>>();
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                int island = tree.islandAt(higher, r, c);
+                if (island >= 0) {
+                    above.computeIfAbsent(tree.islandAt(lower, r, c), i -> new HashSet<Integer>()).add(island);
+                }
+            }
+        }
+        boolean stable = true;
+        for (var entry : above.entrySet()) {
+            if (entry.getValue().size() == 1) stable &= entry.getValue().contains(entry.getKey());
+        }
+        Check.that(stable, name + " from " + lower + " to " + higher + ": ids of islands that did not split");
+    }
+}
@@ -0,0 +1,209 @@
+package tides;
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Checks RangedDownload against a local server: a download that fails part
+ * way keeps its finished chunks in the .parts file, the next attempt asks
+ * for the missing chunks only, and the installed file is byte for byte the
+ * one served. Also checks that a changed validator starts over, that a
+ * server without ranges is read in one go, and that an attempt that gets
+ * nothing leaves no files.
+ */
+public class RangedDownloadTest {
+
+    /* Serves one file, with or without ranges, failing the chunks it is told to. */
+    private static final class Server {
+        final byte[] data;
+        final HttpServer http;
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final List<Long> requestedChunks = Collections.synchronizedList(new ArrayList<Long>());
+        final Set<Long> failing = ConcurrentHashMap.newKeySet();
+        volatile String etag = "\"v1\"";
+        volatile boolean ranges = true;
+        volatile boolean failAll;
+
+        Server(byte[] data) throws IOException {
+            this.data = data;
+            http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            http.setExecutor(executor);
+            http.createContext("/file", this::handle);
+            http.start();
+        }
+
+        String url() {
+            return "http://localhost:" + http.getAddress().getPort() + "/file";
+        }
+
+        void handle(HttpExchange exchange) throws IOException {
+            try (exchange) {
+                Headers headers = exchange.getResponseHeaders();
+                if (ranges) headers.set("Accept-Ranges", "bytes");
+                headers.set("ETag", etag);
+                if (exchange.getRequestMethod().equals("HEAD")) {
+                    headers.set("Content-Length", Long.toString(data.length));
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                if (!ranges || range == null) {
+                    if (failAll) {
+                        exchange.sendResponseHeaders(503, -1);
+                        return;
+                    }
+                    exchange.sendResponseHeaders(200, data.length);
+                    exchange.getResponseBody().write(data);
+                    return;
+                }
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                int from = Integer.parseInt(bounds[0]), to = Integer.parseInt(bounds[1]);
+                long chunk = from / RangedDownload.CHUNK_BYTES;
+                requestedChunks.add(chunk);
+                if (failAll || failing.contains(chunk)) {
+                    sleep(300); // so that the chunks that do not fail have time to arrive
+                    exchange.sendResponseHeaders(503, -1);
+                    return;
+                }
+                headers.set("Content-Range", "bytes " + from + "-" + to + "/" + data.length);
+                exchange.sendResponseHeaders(206, to - from + 1);
+                exchange.getResponseBody().write(data, from, to - from + 1);
+            }
+        }
+
+        void stop() {
+            http.stop(0);
+            executor.shutdown();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        run();
+        Check.report();
+    }
+
+    static void run() throws Exception {
+        Check.start("RangedDownloadTest");
+        int chunk = RangedDownload.CHUNK_BYTES;
+        byte[] data = new byte[5 * chunk + chunk / 2 + 17];
+        new Random(46).nextBytes(data);
+        int numChunks = (data.length + chunk - 1) / chunk;
+
+        File dir = Files.createTempDirectory("tides-test-").toFile();
+        var server = new Server(data);
+        try {
+            File file = new File(dir, "download.terrain");
+            File part = new File(dir, "download.terrain.part");
+            File parts = new File(dir, "download.terrain.parts");
+
+            /* A first attempt that loses chunk 2. */
+            server.failing.add(2L);
+            Check.throwsException(IOException.class, () -> attempt(server, file), "failed attempt");
+            Check.that(part.exists() && parts.exists(), "failed attempt keeps .part and .parts");
+            Set<Long> finished = finishedChunks(parts, data.length, "\"v1\"", numChunks);
+            Check.that(!finished.isEmpty() && !finished.contains(2L), "finished chunks " + finished);
+            byte[] partial = Files.readAllBytes(part.toPath());
+            boolean kept = true;
+            for (long c : finished) {
+                int from = (int) c * chunk, to = Math.min(data.length, from + chunk);
+                kept &= partial.length >= to
+                        && Arrays.equals(data, from, to, partial, from, to);
+            }
+            Check.that(kept, "finished chunks are in the .part file");
+
+            /* The second attempt fetches only what is missing, and streams the whole file. */
+            server.failing.clear();
+            server.requestedChunks.clear();
+            byte[] streamed;
+            try (RangedDownload download = RangedDownload.start(server.url(), file, null)) {
+                streamed = download.openStream().readAllBytes();
+                download.await();
+                download.install();
+            }
+            var missing = new TreeSet<Long>();
+            for (long c = 0; c < numChunks; c++) {
+                if (!finished.contains(c)) missing.add(c);
+            }
+            Check.that(new TreeSet<Long>(server.requestedChunks).equals(missing)
+                    && server.requestedChunks.size() == missing.size(),
+                    "resumed attempt asks for " + missing + ", asked for " + server.requestedChunks);
+            Check.that(Arrays.equals(data, streamed), "resumed attempt streams the whole file");
+            Check.that(Arrays.equals(data, Files.readAllBytes(file.toPath())), "resumed attempt installs the file");
+            Check.that(!part.exists() && !parts.exists(), "install removes .part and .parts");
+
+            /* A changed file (new ETag) is fetched from scratch. */
+            file.delete();
+            server.failing.add(3L);
+            Check.throwsException(IOException.class, () -> attempt(server, file), "failed attempt at v1");
+            server.failing.clear();
+            server.requestedChunks.clear();
+            server.etag = "\"v2\"";
+            attempt(server, file);
+            Check.equal(numChunks, new TreeSet<Long>(server.requestedChunks).size(), "new ETag fetches every chunk");
+            Check.that(Arrays.equals(data, Files.readAllBytes(file.toPath())), "new ETag installs the file");
+
+            /* Without ranges: one plain GET, read as it arrives. */
+            file.delete();
+            server.ranges = false;
+            server.requestedChunks.clear();
+            try (RangedDownload download = RangedDownload.start(server.url(), file, null)) {
+                streamed = download.openStream().readAllBytes();
+                download.await();
+                download.install();
+            }
+            Check.that(server.requestedChunks.isEmpty(), "no range requests without ranges");
+            Check.that(Arrays.equals(data, streamed), "streamed without ranges");
+            Check.that(Arrays.equals(data, Files.readAllBytes(file.toPath())), "installed without ranges");
+            Check.that(!parts.exists(), "no .parts without ranges");
+
+            /* Nothing arrives: nothing is left behind. */
+            file.delete();
+            server.ranges = true;
+            server.failAll = true;
+            Check.throwsException(IOException.class, () -> attempt(server, file), "attempt that gets nothing");
+            Check.that(!part.exists() && !parts.exists() && !file.exists(), "nothing left after getting nothing");
+        } finally {
+            server.stop();
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /* One download start to finish; failures are thrown after close, as a loader would. */
+    private static void attempt(Server server, File file) throws IOException {
+        try (RangedDownload download = RangedDownload.start(server.url(), file, null)) {
+            download.await();
+            download.install();
+        }
+    }
+
+    /* Reads a .parts file: its header must match, then one byte per chunk. */
+    private static Set<Long> finishedChunks(File parts, long length, String validator, int numChunks)
+            throws IOException {
+        var finished = new TreeSet<Long>();
+        try (var in = new DataInputStream(new FileInputStream(parts))) {
+            Check.equal(length, in.readLong(), ".parts length");
+            Check.equal(RangedDownload.CHUNK_BYTES, in.readInt(), ".parts chunk size");
+            Check.that(in.readUTF().equals(validator), ".parts validator");
+            for (long c = 0; c < numChunks; c++) {
+                if (in.read() == 1) finished.add(c);
+            }
+            Check.equal(-1, in.read(), ".parts has one byte per chunk");
+        }
+        return finished;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * Checks the region queries of RisingTides against floodedRegionsIn for the
+ * whole terrain, clipped to the region: the flood (including water that
+ * reaches the region from outside), land, land lost, and the islands of the
+ * clipped land found by a depth-first search, with their areas, bounding
+ * boxes and peaks. Each query is checked read from a FloodIndex and
+ * searched from the region's edges without one.
+ */
+public class RegionFloodTest {
+
+    public static void main(String[] args) {
+        run();
+        Check.report();
+    }
+
+    static void run() {
+        Check.start("RegionFloodTest");
+        var random = new Random(50);
+        for (Terrain terrain : Fixtures.terrains()) {
+            int rows = terrain.grid.rows(), cols = terrain.grid.cols();
+            var indexed = new RisingTides(terrain, FloodIndex.build(terrain.grid, terrain.sources));
+            var searched = new RisingTides(terrain);
+
+            var regions = new ArrayList<Region>(Arrays.asList(new Region(0, 0, rows, cols), new Region(0, 0, 1, 1),
+                    new Region(rows - 1, cols - 1, rows, cols), new Region(rows / 2, 0, rows / 2 + 1, cols),
+                    new Region(0, cols / 2, rows, cols / 2 + 1), new Region(1, 1, rows - 1, cols - 1)));
+            for (int i = 0; i < 6; i++) {
+                int firstRow = random.nextInt(rows), firstCol = random.nextInt(cols);
+                regions.add(new Region(firstRow, firstCol, firstRow + 1 + random.nextInt(rows - firstRow),
+                        firstCol + 1 + random.nextInt(cols - firstCol)));
+            }
+
+            double[] water = Fixtures.waterHeights(terrain.grid);
+            for (int h = 0; h < water.length; h++) {
+                boolean[][] whole = Fixtures.flood(terrain, water[h]);
+                double higher = water[Math.min(h + 2, water.length - 1)];
+                boolean[][] wholeHigher = Fixtures.flood(terrain, higher);
+                for (Region region : regions) {
+                    check(terrain, region, indexed, water[h], whole, higher, wholeHigher, "indexed");
+                    check(terrain, region, searched, water[h], whole, higher, wholeHigher, "searched");
+                }
+            }
+
+            Check.throwsException(IllegalArgumentException.class,
+                    () -> indexed.floodedRegionsIn(0, new Region(0, 0, rows + 1, cols)),
+                    Fixtures.name(terrain) + ": region past the bottom edge");
+            Check.throwsException(IllegalArgumentException.class,
+                    () -> searched.floodedRegionsIn(0, new Region(0, 0, rows, cols + 1)),
+                    Fixtures.name(terrain) + ": region past the right edge");
+        }
+
+        /* Random heights percolate around 6, so water winds in and out of the regions; sources may be dry land. */
+        var large = new Terrain(Fixtures.random(50, 120, 140, 10),
+                new GridLocation[] { new GridLocation(0, 0), new GridLocation(60, 70), new GridLocation(119, 5) });
+        var searched = new RisingTides(large);
+        for (double height : new double[] { -1, 4.5, 5.5, 6, 6.5, 9 }) {
+            boolean[][] whole = Fixtures.flood(large, height);
+            boolean[][] wholeHigher = Fixtures.flood(large, height + 0.5);
+            for (int i = 0; i < 12; i++) {
+                int firstRow = random.nextInt(120), firstCol = random.nextInt(140);
+                var region = new Region(firstRow, firstCol, Math.min(120, firstRow + 1 + random.nextInt(40)),
+                        Math.min(140, firstCol + 1 + random.nextInt(40)));
+                check(large, region, searched, height, whole, height + 0.5, wholeHigher, "searched");
+            }
+        }
+        Check.throwsException(IllegalArgumentException.class, () -> new Region(2, 0, 2, 5), "empty region");
+        Check.throwsException(IllegalArgumentException.class, () -> new Region(-1, 0, 2, 5), "negative region");
+    }
+
+    private static void check(Terrain terrain, Region region, RisingTides rising, double height,
+            boolean[][] whole, double higher, boolean[][] wholeHigher, String how) {
+        String what = Fixtures.name(terrain) + ", " + region + " at " + height + ", " + how;
+        boolean[][] expected = Fixtures.clip(whole, region);
+        int land = Fixtures.land(expected);
+        Check.sameFlood(expected, rising.floodedRegionsIn(height, region), what + ": flood");
+        Check.equal(land, rising.totalVisibleLand(height, region), what + ": land");
+        Check.equal(land - Fixtures.land(Fixtures.clip(wholeHigher, region)), rising.landLost(height, higher, region),
+                what + ": land lost up to " + higher);
+        checkIslands(terrain, region, expected, rising, height, what);
+    }
+
+    private static void checkIslands(Terrain terrain, Region region, boolean[][] flooded, RisingTides rising,
+            double height, String what) {
+        int[][] labels = Fixtures.islands(flooded);
+        int count = Fixtures.islandCount(labels);
+        int[] area = Fixtures.islandAreas(labels);
+        Check.equal(count, rising.numOfIslands(height, region), what + ": numOfIslands");
+
+        Islands islands = rising.islands(height, region);
+        Check.equal(count, islands.count, what + ": islands count");
+        var match = new HashMap<Integer, Integer>();
+        boolean same = islands.rows == region.rows() && islands.cols == region.cols();
+        for (int r = 0; same && r < region.rows(); r++) {
+            for (int c = 0; c < region.cols(); c++) {
+                int island = islands.labelAt(r, c);
+                if (labels[r][c] == 0) {
+                    same &= island == 0;
+                    continue;
+                }
+                same &= island > 0 && match.computeIfAbsent(labels[r][c], l -> island) == island
+                        && islands.area[island] == area[labels[r][c]]
+                        && islands.minRow[island] <= r && r <= islands.maxRow[island]
+                        && islands.minCol[island] <= c && c <= islands.maxCol[island]
+                        && islands.peak[island] >= terrain.grid.get(region.firstRow + r, region.firstCol + c);
+            }
+        }
+        /* Each bounding box is tight and each peak is on the island. */
+        for (int island = 1; same && island <= islands.count; island++) {
+            boolean top = false, bottom = false, left = false, right = false, peak = false;
+            for (int r = 0; r < region.rows(); r++) {
+                for (int c = 0; c < region.cols(); c++) {
+                    if (islands.labelAt(r, c) != island) continue;
+                    top |= r == islands.minRow[island];
+                    bottom |= r == islands.maxRow[island];
+                    left |= c == islands.minCol[island];
+                    right |= c == islands.maxCol[island];
+                    peak |= terrain.grid.get(region.firstRow + r, region.firstCol + c) == islands.peak[island];
+                }
+            }
+            same &= top && bottom && left && right && peak;
+        }
+        Check.that(same && new HashSet<Integer>(match.values()).size() == match.size(),
+                what + ": islands, areas, bounding boxes and peaks");
+    }
+}
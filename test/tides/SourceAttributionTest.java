@@ -0,0 +1,82 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * Checks SourceAttribution against one breadth-first search per source: a
+ * flooded cell belongs to the source with the shortest path to it, the
+ * source listed first on ties, and the flooded cells are those of
+ * floodedRegionsIn.
+ */
+public class SourceAttributionTest {
+
+    // Offsets to the top, bottom, left and right neighbors
+    private static final int[] ROW_STEPS = { -1, 1, 0, 0 };
+    private static final int[] COL_STEPS = { 0, 0, -1, 1 };
+
+    public static void main(String[] args) {
+        run();
+        Check.report();
+    }
+
+    static void run() {
+        Check.start("SourceAttributionTest");
+        for (Terrain terrain : Fixtures.terrains()) {
+            int rows = terrain.grid.rows(), cols = terrain.grid.cols();
+            var rising = new RisingTides(terrain);
+            for (double height : Fixtures.waterHeights(terrain.grid)) {
+                String what = Fixtures.name(terrain) + " at " + height;
+                SourceAttribution attribution = rising.sourceAttribution(height);
+
+                int[][][] distances = new int[terrain.sources.length][][];
+                for (int s = 0; s < distances.length; s++) {
+                    distances[s] = distances(terrain, s, height);
+                }
+                boolean[][] flooded = new boolean[rows][cols];
+                int[] area = new int[terrain.sources.length];
+                boolean same = true;
+                for (int r = 0; r < rows; r++) {
+                    for (int c = 0; c < cols; c++) {
+                        int nearest = -1;
+                        for (int s = 0; s < distances.length; s++) {
+                            int d = distances[s][r][c];
+                            if (d >= 0 && (nearest < 0 || d < distances[nearest][r][c])) nearest = s;
+                        }
+                        flooded[r][c] = attribution.isFlooded(r, c);
+                        same &= attribution.sourceAt(r, c) == nearest;
+                        if (nearest >= 0) area[nearest]++;
+                    }
+                }
+                Check.sameFlood(Fixtures.flood(terrain, height), flooded, what + ": flooded cells");
+                Check.that(same, what + ": nearest source");
+                Check.that(Arrays.equals(area, attribution.area), what + ": area per source");
+            }
+        }
+    }
+
+    /* Steps from one source to every cell its water reaches on its own, -1 where it does not. */
+    private static int[][] distances(Terrain terrain, int source, double height) {
+        int rows = terrain.grid.rows(), cols = terrain.grid.cols();
+        int[][] distance = new int[rows][cols];
+        for (int[] row : distance) {
+            Arrays.fill(row, -1);
+        }
+        var isSource = new HashSet<GridLocation>(Arrays.asList(terrain.sources));
+        var queue = new ArrayDeque<GridLocation>();
+        GridLocation start = terrain.sources[source];
+        distance[start.row][start.col] = 0;
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            GridLocation cell = queue.remove();
+            for (int d = 0; d < 4; d++) {
+                int r = cell.row + ROW_STEPS[d], c = cell.col + COL_STEPS[d];
+                if (r < 0 || r >= rows || c < 0 || c >= cols || distance[r][c] >= 0) continue;
+                var next = new GridLocation(r, c);
+                if (terrain.grid.get(r, c) > height && !isSource.contains(next)) continue;
+                distance[r][c] = distance[cell.row][cell.col] + 1;
+                queue.add(next);
+            }
+        }
+        return distance;
+    }
+}
@@ -0,0 +1,68 @@
+package tides;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Checks that TerrainGenerator is repeatable: the same seed gives the same
+ * terrain in memory, in a grid and in a .terrain file, and a different seed
+ * gives a different one. Also floods a generated coast, with its long
+ * shoreline, against floodedRegionsIn through the index.
+ */
+public class TerrainGeneratorTest {
+
+    public static void main(String[] args) throws IOException {
+        run();
+        Check.report();
+    }
+
+    static void run() throws IOException {
+        Check.start("TerrainGeneratorTest");
+        int rows = 97, cols = 143;
+        var generator = new TerrainGenerator(40, 60, 0.4, 3);
+        Terrain terrain = generator.generate(rows, cols);
+        double[][] heights = Fixtures.toArray(terrain.grid);
+
+        Check.that(Arrays.deepEquals(heights,
+                Fixtures.toArray(new TerrainGenerator(40, 60, 0.4, 3).generate(rows, cols).grid)), "same seed");
+        Check.that(!Arrays.deepEquals(heights,
+                Fixtures.toArray(new TerrainGenerator(41, 60, 0.4, 3).generate(rows, cols).grid)), "other seed");
+
+        var filled = new ArrayHeightGrid(new double[rows][cols]);
+        generator.fill(filled);
+        Check.that(Arrays.deepEquals(heights, Fixtures.toArray(filled)), "fill");
+
+        int sea = 0;
+        for (double[] row : heights) {
+            for (double height : row) {
+                if (height < 0) sea++;
+            }
+        }
+        Check.that(Math.abs((double) sea / (rows * cols) - 0.4) < 0.15, "about 40% below sea level, got " + sea);
+        Check.equal(3, terrain.sources.length, "sources");
+        for (GridLocation source : terrain.sources) {
+            Check.equal(0, source.col, "source " + source + " on the west edge");
+        }
+
+        File dir = Files.createTempDirectory("tides-test-").toFile();
+        try {
+            File file = new File(dir, "coast.terrain");
+            generator.write(file, rows, cols);
+            Terrain loaded = TerrainLoader.loadTerrain(file, null);
+            Check.that(Arrays.deepEquals(heights, Fixtures.toArray(loaded.grid)), "written and loaded");
+            Check.that(Arrays.equals(terrain.sources, loaded.sources), "sources written and loaded");
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+
+        var indexed = new RisingTides(terrain, FloodIndex.build(terrain.grid, terrain.sources));
+        for (double height = -30; height <= 60; height += 7.5) {
+            Check.sameFlood(Fixtures.flood(terrain, height), indexed.floodedRegionsIn(height),
+                    "generated coast at " + height);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * Checks the previews of TerrainPyramid against floodedRegionsIn: every level
+ * bounds the true land and covers every truly flooded cell, coarsest()
+ * gives the same coarsest preview as the full pyramid, and the last preview
+ * from RisingTides is the exact answer.
+ */
+public class TerrainPyramidTest {
+
+    public static void main(String[] args) {
+        run();
+        Check.report();
+    }
+
+    static void run() {
+        Check.start("TerrainPyramidTest");
+        int size = TerrainPyramid.PREVIEW_SIZE;
+        Terrain[] terrains = {
+            Fixtures.terrains()[1],
+            new Terrain(Fixtures.random(39, size + 1, 2 * size + 5, 10),
+                    new GridLocation[] { new GridLocation(0, 0), new GridLocation(size, 2 * size + 4) }),
+            new Terrain(Fixtures.random(40, 3 * size - 7, size / 2, 10),
+                    new GridLocation[] { new GridLocation(200, 30) }),
+        };
+        for (Terrain terrain : terrains) {
+            var pyramid = new TerrainPyramid(terrain.grid, terrain.sources);
+            TerrainPyramid coarsest = TerrainPyramid.coarsest(terrain.grid, terrain.sources);
+            Check.equal(Math.min(1, pyramid.levels()), coarsest.levels(),
+                    Fixtures.name(terrain) + ": coarsest levels");
+            var rising = new RisingTides(terrain);
+
+            for (double height : new double[] { -1, 2, 4.5, 5, 5.5, 6, 7, 9.5 }) {
+                String what = Fixtures.name(terrain) + " at " + height;
+                boolean[][] expected = Fixtures.flood(terrain, height);
+                int land = Fixtures.land(expected);
+
+                for (int level = 0; level < pyramid.levels(); level++) {
+                    FloodPreview preview = pyramid.preview(level, height);
+                    Check.that(preview.minLand <= land && land <= preview.maxLand,
+                            what + ", level " + level + ": " + land + " not in [" + preview.minLand + ", "
+                                    + preview.maxLand + "]");
+                    Check.that(covers(preview.expand(), expected), what + ", level " + level + ": covers the flood");
+                }
+                if (coarsest.levels() > 0) {
+                    FloodPreview full = pyramid.preview(pyramid.levels() - 1, height);
+                    FloodPreview quick = coarsest.preview(0, height);
+                    Check.that(full.scale == quick.scale && full.minLand == quick.minLand
+                            && full.maxLand == quick.maxLand && full.islands == quick.islands
+                            && Arrays.deepEquals(full.flooded, quick.flooded), what + ": coarsest()");
+                }
+
+                var previews = new ArrayList<FloodPreview>();
+                TidesMetrics.INSTANCE.reset();
+                rising.preview(height, previews::add);
+                Map<String, Long> calls = TidesMetrics.INSTANCE.getOperationCounts();
+                Check.that(calls.equals(Map.of("floodedRegionsIn", 1L)), what + ": one exact flood, " + calls);
+                FloodPreview last = previews.get(previews.size() - 1);
+                Check.that(last.scale == 1 && last.minLand == land && last.maxLand == land,
+                        what + ": last preview is exact");
+                Check.sameFlood(expected, last.flooded, what + ": last preview flood");
+                Check.equal(Fixtures.islandCount(Fixtures.islands(expected)), last.islands,
+                        what + ": last preview islands");
+            }
+        }
+    }
+
+    /* True if every flooded cell is also flooded in the preview. */
+    private static boolean covers(boolean[][] preview, boolean[][] flooded) {
+        for (int r = 0; r < flooded.length; r++) {
+            for (int c = 0; c < flooded[r].length; c++) {
+                if (flooded[r][c] && !preview[r][c]) return false;
+            }
+        }
+        return true;
+    }
+}
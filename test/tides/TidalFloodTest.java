@@ -0,0 +1,72 @@
+package tides;
+
+import java.util.*;
+
+/**
+ * Checks TidalFlood over a random walk of water heights, up and down: after
+ * every move the mask and land match floodedRegionsIn, and the delta lists
+ * exactly the cells that changed.
+ */
+public class TidalFloodTest {
+
+    public static void main(String[] args) {
+        run();
+        Check.report();
+    }
+
+    static void run() {
+        Check.start("TidalFloodTest");
+        var random = new Random(34);
+        for (Terrain terrain : Fixtures.terrains()) {
+            double[] water = Fixtures.waterHeights(terrain.grid);
+            double height = water[random.nextInt(water.length)];
+            TidalFlood tide = new RisingTides(terrain).tidalFlood(height);
+            boolean[][] last = Fixtures.flood(terrain, height);
+            Check.sameFlood(last, tide.flooded(), Fixtures.name(terrain) + " at " + height + ": start");
+
+            for (int move = 0; move < 60; move++) {
+                double newHeight = water[random.nextInt(water.length)];
+                String what = Fixtures.name(terrain) + " from " + height + " to " + newHeight;
+                FloodDelta delta = tide.setHeight(newHeight);
+                boolean[][] expected = Fixtures.flood(terrain, newHeight);
+
+                Check.sameFlood(expected, tide.flooded(), what + ": flooded");
+                Check.equal(Fixtures.land(expected), tide.visibleLand(), what + ": visibleLand");
+                Check.that(tide.height() == newHeight, what + ": height");
+                Check.that(delta.rising == newHeight >= height, what + ": direction");
+                Check.that(changed(last, expected).equals(cells(delta)), what + ": delta cells");
+                last = expected;
+                height = newHeight;
+            }
+        }
+    }
+
+    /**
+     * @param before flood
+     * @param after flood
+     * @return Set, row-major indices of the cells flooded in one but not the other
+     */
+    static Set<Integer> changed(boolean[][] before, boolean[][] after) {
+        var cells = new TreeSet<Integer>();
+        int cols = before[0].length;
+        for (int r = 0; r < before.length; r++) {
+            for (int c = 0; c < cols; c++) {
+                if (before[r][c] != after[r][c]) cells.add(r * cols + c);
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * @param delta to list
+     * @return Set, the cells of the delta, plus -1 if any cell is listed twice
+     */
+    static Set<Integer> cells(FloodDelta delta) {
+        var cells = new TreeSet<Integer>();
+        for (int i = 0; i < delta.count; i++) {
+            cells.add(delta.cell(i));
+        }
+        if (cells.size() != delta.count) cells.add(-1);
+        return cells;
+    }
+}
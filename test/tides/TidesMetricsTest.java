@@ -0,0 +1,146 @@
+package tides;
+
+import java.io.*;
+import java.lang.management.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.management.*;
+import com.sun.net.httpserver.*;
+
+/**
+ * Checks that TidesMetrics counts what was done: each call once, even from
+ * many threads, the cells the breadth-first flood visits (one per flooded
+ * cell), a latency histogram that adds up to the count, and terrain loads
+ * with the bytes they read (downloads included) and the ones that failed,
+ * also as read over JMX.
+ */
+public class TidesMetricsTest {
+
+    public static void main(String[] args) throws Exception {
+        run();
+        Check.report();
+    }
+
+    static void run() throws Exception {
+        Check.start("TidesMetricsTest");
+        var metrics = TidesMetrics.INSTANCE;
+        metrics.reset();
+        Check.that(metrics.getOperationCounts().isEmpty(), "nothing counted after reset");
+
+        long calls = 0, flooded = 0;
+        for (Terrain terrain : Fixtures.terrains()) {
+            var rising = new RisingTides(terrain);
+            for (double height : Fixtures.waterHeights(terrain.grid)) {
+                boolean[][] expected = rising.floodedRegionsIn(height);
+                calls++;
+                flooded += (long) terrain.grid.rows() * terrain.grid.cols() - Fixtures.land(expected);
+            }
+        }
+        Check.equal(calls, metrics.getOperationCounts().get("floodedRegionsIn"), "floodedRegionsIn calls");
+        Check.equal(flooded, metrics.getOperationCellsVisited().get("floodedRegionsIn"),
+                "cells visited by floodedRegionsIn");
+        Check.equal(calls, Arrays.stream(metrics.getOperationLatencyHistograms().get("floodedRegionsIn")).sum(),
+                "floodedRegionsIn histogram");
+
+        /* Calls from several threads at once are all counted. */
+        Terrain terrain = Fixtures.terrains()[3];
+        var rising = new RisingTides(terrain);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            var tasks = new ArrayList<Callable<Integer>>();
+            for (int i = 0; i < 200; i++) {
+                double height = i % 7;
+                tasks.add(() -> rising.totalVisibleLand(height));
+            }
+            for (Future<Integer> land : executor.invokeAll(tasks)) {
+                land.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Check.equal(200, metrics.getOperationCounts().get("totalVisibleLand"), "totalVisibleLand from 4 threads");
+
+        File dir = Files.createTempDirectory("tides-test-").toFile();
+        try {
+            File file = new File(dir, "fixture.terrain");
+            Fixtures.write(terrain, file);
+            TerrainLoader.loadTerrain(file, null);
+            TerrainLoader.loadTerrain(file, null);
+            Check.equal(2, metrics.getTerrainLoads(), "terrain loads");
+            Check.equal(2 * file.length(), metrics.getTerrainBytesLoaded(), "terrain bytes loaded");
+            Check.equal(0, metrics.getTerrainLoadFailures(), "no failed loads");
+
+            /* A load that fails is counted, with what it read. */
+            File bad = new File(dir, "bad.terrain");
+            Files.write(bad.toPath(), "local\n2 2\n0\n1 2 x 4\n".getBytes(StandardCharsets.US_ASCII));
+            Check.throwsException(IOException.class, () -> TerrainLoader.loadTerrain(bad, null), "malformed load");
+            Check.equal(3, metrics.getTerrainLoads(), "terrain loads with a failed one");
+            Check.equal(1, metrics.getTerrainLoadFailures(), "failed loads");
+            Check.equal(2 * file.length() + bad.length(), metrics.getTerrainBytesLoaded(),
+                    "terrain bytes loaded with a failed one");
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            var name = new ObjectName("tides:type=Metrics");
+            Check.equal(3, (Long) server.getAttribute(name, "TerrainLoads"), "terrain loads over JMX");
+            Check.equal(1, (Long) server.getAttribute(name, "TerrainLoadFailures"), "failed loads over JMX");
+            server.invoke(name, "reset", null, null);
+            Check.equal(0, metrics.getTerrainLoads(), "terrain loads after reset over JMX");
+            Check.equal(0, metrics.getTerrainLoadFailures(), "failed loads after reset over JMX");
+            Check.that(metrics.getOperationCounts().isEmpty(), "operations after reset over JMX");
+
+            checkRemoteLoads(dir, file);
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /*
+     * A remote terrain is recorded with the bytes of its download, and then
+     * of its compressed cached copy, not just the file naming its URL.
+     */
+    private static void checkRemoteLoads(File dir, File local) throws Exception {
+        var metrics = TidesMetrics.INSTANCE;
+        byte[] data = Files.readAllBytes(local.toPath());
+        HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        http.createContext("/remote.terrain", exchange -> {
+            try (exchange) {
+                if (exchange.getRequestMethod().equals("HEAD")) {
+                    exchange.getResponseHeaders().set("Content-Length", Long.toString(data.length));
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+                exchange.sendResponseHeaders(200, data.length);
+                exchange.getResponseBody().write(data);
+            }
+        });
+        http.start();
+        String source = "http://localhost:" + http.getAddress().getPort() + "/remote.terrain";
+        File remote = new File(dir, "remote.terrain");
+        Files.write(remote.toPath(), (source + "\n").getBytes(StandardCharsets.US_ASCII));
+        String cached = source.hashCode() + ".";
+        try {
+            metrics.reset();
+            TerrainLoader.loadTerrain(remote, null);
+            Check.equal(remote.length() + data.length, metrics.getTerrainBytesLoaded(), "downloaded bytes loaded");
+
+            File packed = new File("DownloadCache/" + cached + "tcz");
+            Check.that(packed.exists(), "download is cached compressed");
+            TerrainLoader.loadTerrain(remote, null);
+            Check.equal(remote.length() + data.length + remote.length() + packed.length(),
+                    metrics.getTerrainBytesLoaded(), "cached bytes loaded");
+            Check.equal(2, metrics.getTerrainLoads(), "remote terrain loads");
+        } finally {
+            http.stop(0);
+            File[] files = new File("DownloadCache").listFiles((d, n) -> n.startsWith(cached));
+            for (File file : files == null ? new File[0] : files) {
+                file.delete();
+            }
+        }
+    }
+}
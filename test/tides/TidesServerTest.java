@@ -0,0 +1,181 @@
+package tides;
+
+import java.io.*;
+import java.net.*;
+import java.net.http.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+
+/**
+ * Checks the answers of TidesServer against floodedRegionsIn: the flood mask
+ * bit by bit, land and land lost at every water height, and the count,
+ * island and area at every cell, with the cell queries sent all at once. Also checks the names listed and
+ * the errors sent back for bad requests.
+ */
+public class TidesServerTest {
+
+    /* A name that must be escaped in JSON. */
+    private static final String ODD_NAME = "a \"quoted\" \\ name\t";
+
+    public static void main(String[] args) throws Exception {
+        run();
+        Check.report();
+    }
+
+    static void run() throws Exception {
+        Check.start("TidesServerTest");
+        Terrain[] terrains = Fixtures.terrains();
+        File dir = Files.createTempDirectory("tides-test-").toFile();
+        var server = new TidesServer(0);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        var client = HttpClient.newBuilder().executor(executor).build();
+        try {
+            for (int t = 0; t < terrains.length; t++) {
+                File file = new File(dir, "fixture" + t + ".terrain");
+                Fixtures.write(terrains[t], file);
+                server.load("fixture" + t, file);
+            }
+            server.load(ODD_NAME, new File(dir, "fixture0.terrain"));
+            server.start();
+            String base = "http://localhost:" + server.port();
+
+            Check.equal(200, get(client, base + "/terrains").statusCode(), "/terrains status");
+            Check.that(text(get(client, base + "/terrains")).equals("[\"a \\\"quoted\\\" \\\\ name\\u0009\", "
+                    + "\"fixture0\", \"fixture1\", \"fixture2\", \"fixture3\"]"), "/terrains escapes names");
+
+            for (int t = 0; t < terrains.length; t++) {
+                checkTerrain(client, base + "/%s?terrain=fixture" + t, terrains[t]);
+            }
+            checkErrors(client, base);
+        } finally {
+            server.stop();
+            executor.shutdown();
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static void checkTerrain(HttpClient client, String url, Terrain terrain) throws Exception {
+        int rows = terrain.grid.rows(), cols = terrain.grid.cols();
+        double[] water = Fixtures.waterHeights(terrain.grid);
+        for (int h = 0; h < water.length; h++) {
+            double height = water[h];
+            String what = Fixtures.name(terrain) + " at " + height;
+            boolean[][] expected = Fixtures.flood(terrain, height);
+            int[][] labels = Fixtures.islands(expected);
+            int[] area = Fixtures.islandAreas(labels);
+            int land = Fixtures.land(expected);
+
+            HttpResponse<byte[]> mask = get(client, String.format(url, "flood-mask") + "&height=" + height);
+            Check.that(mask.headers().firstValue("Content-Type").orElse("").equals("image/x-portable-bitmap"),
+                    what + ": mask type");
+            Check.sameFlood(expected, bitmap(mask.body(), rows, cols), what + ": flood mask");
+            Check.equal(land, number(text(get(client, String.format(url, "land") + "&height=" + height)), "land"),
+                    what + ": land");
+            double higher = water[Math.min(h + 3, water.length - 1)];
+            Check.equal(land - Fixtures.land(Fixtures.flood(terrain, higher)),
+                    number(text(get(client, String.format(url, "land-lost") + "&height=" + height + "&newHeight="
+                            + higher)), "landLost"), what + ": land lost up to " + higher);
+
+            /* Every cell at once, so the requests are answered in parallel; at some heights, to keep it quick. */
+            if (h % 4 != 1) continue;
+            var flooded = new ArrayList<CompletableFuture<HttpResponse<byte[]>>>();
+            var islands = new ArrayList<CompletableFuture<HttpResponse<byte[]>>>();
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    String cell = "&height=" + height + "&row=" + r + "&col=" + c;
+                    flooded.add(getAsync(client, String.format(url, "is-flooded") + cell));
+                    islands.add(getAsync(client, String.format(url, "islands") + cell));
+                }
+            }
+            boolean sameFlooded = true, sameCount = true, sameAreas = true;
+            var match = new HashMap<Integer, Long>();
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    String json = text(flooded.get(r * cols + c).get());
+                    sameFlooded &= json.equals("{\"flooded\": " + expected[r][c] + "}");
+                    json = text(islands.get(r * cols + c).get());
+                    sameCount &= number(json, "count") == Fixtures.islandCount(labels);
+                    long island = number(json, "island");
+                    sameAreas &= number(json, "area") == area[labels[r][c]];
+                    if (labels[r][c] == 0) {
+                        sameAreas &= island == -1;
+                    } else {
+                        sameAreas &= island >= 0 && match.computeIfAbsent(labels[r][c], l -> island) == island;
+                    }
+                }
+            }
+            Check.that(sameFlooded, what + ": is-flooded at every cell");
+            Check.that(sameCount, what + ": island count");
+            Check.that(sameAreas && new HashSet<Long>(match.values()).size() == match.size(),
+                    what + ": island and area at every cell");
+        }
+    }
+
+    private static void checkErrors(HttpClient client, String base) throws Exception {
+        checkError(client, base + "/land?height=1", 400, "Missing parameter: terrain");
+        checkError(client, base + "/land?terrain=nowhere&height=1", 404, "No such terrain: nowhere");
+        checkError(client, base + "/land?terrain=" + URLEncoder.encode(ODD_NAME + "x", StandardCharsets.UTF_8)
+                + "&height=1", 404, "No such terrain: " + ODD_NAME + "x");
+        checkError(client, base + "/land?terrain=fixture0&height=high", 400, "Not a number: height=high");
+        checkError(client, base + "/is-flooded?terrain=fixture0&height=1&row=6&col=0", 400,
+                "Cell (6, 0) is off the map.");
+        checkError(client, base + "/is-flooded?terrain=fixture0&height=1&row=0.5&col=0", 400,
+                "Cell (0.5, 0) is off the map.");
+        checkError(client, base + "/islands?terrain=fixture0&height=1&row=-1", 400, "Missing parameter: col");
+        checkError(client, base + "/land/more?terrain=fixture0&height=1", 404, "No such endpoint.");
+
+        var post = HttpRequest.newBuilder(URI.create(base + "/land?terrain=fixture0&height=1"))
+                .POST(HttpRequest.BodyPublishers.noBody()).build();
+        HttpResponse<byte[]> response = client.send(post, HttpResponse.BodyHandlers.ofByteArray());
+        Check.equal(405, response.statusCode(), "POST status");
+        Check.that(text(response).equals("{\"error\": \"Only GET is supported.\"}"), "POST error");
+    }
+
+    private static void checkError(HttpClient client, String url, int status, String message) throws Exception {
+        HttpResponse<byte[]> response = get(client, url);
+        Check.equal(status, response.statusCode(), url + ": status");
+        String expected = message.replace("\\", "\\\\").replace("\"", "\\\"").replace("\t", "\\u0009");
+        Check.that(text(response).equals("{\"error\": \"" + expected + "\"}"), url + ": error " + text(response));
+    }
+
+    private static HttpResponse<byte[]> get(HttpClient client, String url) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create(url)).build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static CompletableFuture<HttpResponse<byte[]>> getAsync(HttpClient client, String url) {
+        return client.sendAsync(HttpRequest.newBuilder(URI.create(url)).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static String text(HttpResponse<byte[]> response) {
+        return new String(response.body(), StandardCharsets.UTF_8);
+    }
+
+    /* The whole number after "key": in a flat JSON object. */
+    private static long number(String json, String key) {
+        Matcher m = Pattern.compile("\"" + key + "\": (-?\\d+)").matcher(json);
+        if (!m.find()) throw new IllegalStateException("No " + key + " in " + json);
+        return Long.parseLong(m.group(1));
+    }
+
+    /* Reads a binary PBM, checking its header, as flooded cells. */
+    private static boolean[][] bitmap(byte[] body, int rows, int cols) {
+        byte[] header = ("P4\n" + cols + " " + rows + "\n").getBytes(StandardCharsets.US_ASCII);
+        int rowBytes = (cols + 7) / 8;
+        Check.that(Arrays.equals(header, Arrays.copyOf(body, header.length)), "PBM header");
+        Check.equal(header.length + rowBytes * rows, body.length, "PBM length");
+        boolean[][] flooded = new boolean[rows][cols];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols && header.length + r * rowBytes + c / 8 < body.length; c++) {
+                flooded[r][c] = (body[header.length + r * rowBytes + c / 8] & (0x80 >>> (c & 7))) != 0;
+            }
+        }
+        return flooded;
+    }
+}
@@ -0,0 +1,89 @@
+package tides;
+
+import java.io.*;
+import java.nio.file.*;
+
+/**
+ * Checks that tiled terrains flood, count land and count islands exactly like
+ * floodedRegionsIn on the same heights kept on the heap, both on the small
+ * fixtures (one padded tile) and on a terrain several tiles across, where the
+ * water has to wander in and out of tiles.
+ */
+public class TiledHeightGridTest {
+
+    public static void main(String[] args) throws IOException {
+        run();
+        Check.report();
+    }
+
+    static void run() throws IOException {
+        Check.start("TiledHeightGridTest");
+        File dir = Files.createTempDirectory("tides-test-").toFile();
+        try {
+            for (Terrain terrain : Fixtures.terrains()) {
+                check(terrain, Fixtures.waterHeights(terrain.grid), dir);
+            }
+            /* Random heights from 0 to 9 percolate around a height of 6, so the flood winds across tiles. */
+            int size = TiledHeightGrid.TILE_SIZE;
+            var large = new Terrain(Fixtures.random(4, size + 45, 2 * size + 18, 10),
+                    new GridLocation[] { new GridLocation(0, 0), new GridLocation(150, 300) });
+            check(large, new double[] { -1, 4.5, 5, 5.5, 6, 7, 9 }, dir);
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static void check(Terrain terrain, double[] heights, File dir) throws IOException {
+        String name = Fixtures.name(terrain);
+        int rows = terrain.grid.rows(), cols = terrain.grid.cols();
+        File file = new File(dir, "terrain.tiles");
+        try (TiledHeightGrid written = TiledHeightGrid.create(file, rows, cols, terrain.sources)) {
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    written.set(r, c, terrain.grid.get(r, c));
+                }
+            }
+            Check.that(TiledHeightGrid.open(file) == null, name + ": unfinished file is not opened");
+            written.finish();
+            Check.throwsException(UnsupportedOperationException.class, () -> written.set(0, 0, 1),
+                    name + ": set after finish");
+        }
+
+        try (TiledHeightGrid grid = TiledHeightGrid.open(file)) {
+            Check.that(grid != null, name + ": finished file opens");
+            if (grid == null) return;
+            Check.equal(terrain.sources.length, grid.sources().length, name + ": sources");
+            boolean same = true;
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    same &= grid.get(r, c) == terrain.grid.get(r, c);
+                }
+            }
+            Check.that(same, name + ": heights read back");
+
+            var tiled = new RisingTides(new Terrain(grid, grid.sources()));
+            for (double height : heights) {
+                String what = name + " at " + height;
+                boolean[][] expected = Fixtures.flood(terrain, height);
+                try (MaskGrid mask = grid.floodMask(grid.sources(), height)) {
+                    Check.sameFlood(expected, mask, what + ": floodMask");
+                    Check.equal(rows * cols - Fixtures.land(expected), mask.count(), what + ": mask count");
+                }
+                Check.sameFlood(expected, tiled.floodedRegionsIn(height), what + ": floodedRegionsIn");
+                Check.equal(Fixtures.land(expected), tiled.totalVisibleLand(height), what + ": totalVisibleLand");
+                Check.equal(Fixtures.islandCount(Fixtures.islands(expected)), tiled.numOfIslands(height),
+                        what + ": numOfIslands");
+                var middle = new Region(rows / 3, cols / 3, rows - rows / 3, cols - cols / 3);
+                Check.sameFlood(Fixtures.clip(expected, middle), tiled.floodedRegionsIn(height, middle),
+                        what + ": floodedRegionsIn " + middle);
+            }
+            Check.throwsException(UnsupportedOperationException.class, () -> tiled.leveeEditor(0),
+                    name + ": levee editor on a tiled terrain");
+        }
+        Check.equal(1, dir.listFiles().length, name + ": masks are deleted when closed");
+        file.delete();
+    }
+}
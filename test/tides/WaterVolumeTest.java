@@ -0,0 +1,48 @@
+package tides;
+
+import java.nio.*;
+
+/**
+ * Checks waterVolume and depthGrid against depths added up cell by cell over
+ * a floodedRegionsIn mask.
+ */
+public class WaterVolumeTest {
+
+    public static void main(String[] args) {
+        run();
+        Check.report();
+    }
+
+    static void run() {
+        Check.start("WaterVolumeTest");
+        for (Terrain terrain : Fixtures.terrains()) {
+            int rows = terrain.grid.rows(), cols = terrain.grid.cols();
+            var rising = new RisingTides(terrain);
+            for (double height : Fixtures.waterHeights(terrain.grid)) {
+                String what = Fixtures.name(terrain) + " at " + height;
+                boolean[][] flooded = Fixtures.flood(terrain, height);
+
+                /* One spare value on each side, to catch writes outside the cells. */
+                DoubleBuffer depths = DoubleBuffer.allocate(rows * cols + 2);
+                depths.put(-7);
+                rising.depthGrid(height, depths);
+                Check.equal(rows * cols + 1, depths.position(), what + ": depthGrid position");
+
+                double volume = 0;
+                boolean same = depths.get(0) == -7 && depths.get(rows * cols + 1) == 0;
+                for (int r = 0; r < rows; r++) {
+                    for (int c = 0; c < cols; c++) {
+                        double depth = flooded[r][c] ? Math.max(0, height - terrain.grid.get(r, c)) : 0;
+                        volume += depth;
+                        same &= depths.get(1 + r * cols + c) == depth;
+                    }
+                }
+                Check.that(same, what + ": depthGrid");
+                Check.equal(volume, rising.waterVolume(height), 1e-9 * Math.max(1, volume), what + ": waterVolume");
+            }
+            Check.throwsException(IllegalArgumentException.class,
+                    () -> rising.depthGrid(0, DoubleBuffer.allocate(rows * cols - 1)),
+                    Fixtures.name(terrain) + ": depth buffer too small");
+        }
+    }
+}